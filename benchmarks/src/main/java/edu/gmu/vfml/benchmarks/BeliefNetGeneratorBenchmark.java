@@ -0,0 +1,69 @@
+package edu.gmu.vfml.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.gmu.vfml.data.BeliefNetGenerator;
+
+/**
+ * <p>Throughput of {@link BeliefNetGenerator} filling a batch of encoded instances
+ * sampled from the benchmark networks, reported per instance, with one thread and
+ * with one thread per processor.</p>
+ *
+ * @author ulman
+ */
+@State( Scope.Thread )
+@Fork( value = 1, jvmArgsAppend = "-Xmx2g" )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+public class BeliefNetGeneratorBenchmark
+{
+    private static final int BATCH_SIZE = 16 * BeliefNetGenerator.BLOCK_SIZE;
+
+    @Param( { "alarm.bif", "Munin1.bif", "Link.bif" } )
+    public String network;
+
+    @Param( { "1", "0" } )
+    public int numThreads;
+
+    protected BeliefNetGenerator generator;
+    protected int[] values;
+
+    @Setup
+    public void setup( ) throws IOException
+    {
+        generator = new BeliefNetGenerator( Datasets.beliefNet( network ), 1 );
+        generator.setNumThreads( numThreads );
+        values = new int[BATCH_SIZE * generator.getStride( )];
+    }
+
+    @TearDown
+    public void tearDown( )
+    {
+        generator.shutdown( );
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( BATCH_SIZE )
+    public int sample( )
+    {
+        generator.fill( values, BATCH_SIZE );
+        return values[values.length - 1];
+    }
+}
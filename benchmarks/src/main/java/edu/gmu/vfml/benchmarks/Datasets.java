@@ -0,0 +1,298 @@
+package edu.gmu.vfml.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.bn.BeliefNet;
+import edu.gmu.vfml.bn.BifReader;
+import edu.gmu.vfml.data.BeliefNetGenerator;
+import edu.gmu.vfml.data.BooleanConcept;
+import edu.gmu.vfml.data.RandomDataGenerator;
+
+/**
+ * <p>Benchmark inputs. Every data set is generated (or loaded) once, up front, so that
+ * benchmarks measure the learners rather than the data source.</p>
+ *
+ * @author ulman
+ */
+public class Datasets
+{
+    /**
+     * System property overriding the location of the airline delay sample
+     * (by default data/us_airline_delay/sample.csv relative to the repository root
+     * or to the benchmarks module).
+     */
+    public static final String AIRLINE_PATH_PROPERTY = "vfml.airline";
+
+    /**
+     * System property overriding the location of the benchmark belief networks
+     * (by default original/docs/downloads/beliefnets relative to the repository root
+     * or to the benchmarks module).
+     */
+    public static final String BELIEFNETS_PATH_PROPERTY = "vfml.beliefnets";
+
+    /** The data set names accepted by {@link #load(String, int, int, long)}. */
+    public static final String RANDOM = "random";
+    public static final String NOMINAL = "nominal";
+    public static final String AIRLINE = "airline";
+    public static final String ALARM = "alarm";
+
+    /**
+     * @param name {@link #RANDOM}, {@link #NOMINAL}, {@link #AIRLINE} or {@link #ALARM}
+     * @param numAttributes the number of non class attributes (ignored for AIRLINE and ALARM)
+     * @param numInstances the number of instances (AIRLINE instances are repeated as needed)
+     */
+    public static Instances load( String name, int numAttributes, int numInstances, long seed ) throws IOException
+    {
+        if ( RANDOM.equals( name ) )
+        {
+            return booleanConcept( numAttributes, numInstances );
+        }
+        else if ( NOMINAL.equals( name ) )
+        {
+            return nominal( numAttributes, 8, numInstances, seed );
+        }
+        else if ( AIRLINE.equals( name ) )
+        {
+            return airline( numInstances );
+        }
+        else if ( ALARM.equals( name ) )
+        {
+            return sample( beliefNet( "alarm.bif" ), numInstances, seed );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown data set: " + name );
+        }
+    }
+
+    /**
+     * Binary attributes labeled by a fixed boolean concept with 5% class noise
+     * (see {@link RandomDataGenerator}).
+     */
+    public static Instances booleanConcept( int numAttributes, int numInstances )
+    {
+        BooleanConcept concept = new BooleanConcept( )
+        {
+            @Override
+            public boolean f( boolean[] v )
+            {
+                return ( v[0] && ( v[1] || v[2] ) ) || ( v[3] && v[4] );
+            }
+        };
+
+        RandomDataGenerator generator = new RandomDataGenerator( concept, Math.max( 5, numAttributes ), 0.05 );
+        Instances data = new Instances( generator.getDataset( ), numInstances );
+        for ( int i = 0; i < numInstances; i++ )
+        {
+            data.add( generator.next( ) );
+        }
+        return data;
+    }
+
+    /**
+     * Uniformly random nominal attributes with the provided cardinality. The class
+     * (binary) depends on the first two attributes, with 10% class noise.
+     */
+    public static Instances nominal( int numAttributes, int cardinality, int numInstances, long seed )
+    {
+        Random random = new Random( seed );
+
+        FastVector attributes = new FastVector( );
+        for ( int i = 0; i < numAttributes; i++ )
+        {
+            attributes.addElement( new Attribute( "a" + i, values( cardinality ) ) );
+        }
+        Attribute classAttribute = new Attribute( "class", values( 2 ) );
+        attributes.addElement( classAttribute );
+
+        Instances data = new Instances( "nominal", attributes, numInstances );
+        data.setClass( classAttribute );
+
+        for ( int n = 0; n < numInstances; n++ )
+        {
+            double[] values = new double[numAttributes + 1];
+            for ( int i = 0; i < numAttributes; i++ )
+            {
+                values[i] = random.nextInt( cardinality );
+            }
+
+            int classValue = ( values[0] + values[Math.min( 1, numAttributes - 1 )] ) < cardinality ? 0 : 1;
+            if ( random.nextDouble( ) < 0.1 ) classValue = 1 - classValue;
+            values[numAttributes] = classValue;
+
+            data.add( new Instance( 1.0, values ) );
+        }
+
+        return data;
+    }
+
+    /**
+     * The airline delay sample, discretized like formatDataSubset.py: the class is
+     * whether the flight arrived late. Flights with missing values are skipped.
+     */
+    public static Instances airline( int numInstances ) throws IOException
+    {
+        List<String[]> rows = new ArrayList<String[]>( );
+        Set<String> carriers = new LinkedHashSet<String>( );
+        Set<String> airports = new LinkedHashSet<String>( );
+
+        BufferedReader in = new BufferedReader( new FileReader( airlineFile( ) ) );
+        try
+        {
+            in.readLine( ); // column names
+            String line;
+            while ( ( line = in.readLine( ) ) != null )
+            {
+                String[] tokens = line.split( ",", -1 );
+                if ( tokens.length != 29 || tokens[5].isEmpty( ) || tokens[14].equals( "NA" ) ) continue;
+
+                rows.add( tokens );
+                carriers.add( tokens[8] );
+                airports.add( tokens[16] );
+                airports.add( tokens[17] );
+            }
+        }
+        finally
+        {
+            in.close( );
+        }
+
+        FastVector attributes = new FastVector( );
+        attributes.addElement( new Attribute( "Month", values( 12 ) ) );
+        attributes.addElement( new Attribute( "DayOfWeek", values( 7 ) ) );
+        attributes.addElement( new Attribute( "DepHour", values( 24 ) ) );
+        attributes.addElement( new Attribute( "UniqueCarrier", values( carriers ) ) );
+        attributes.addElement( new Attribute( "Origin", values( airports ) ) );
+        attributes.addElement( new Attribute( "Dest", values( airports ) ) );
+        attributes.addElement( new Attribute( "Distance", values( 10 ) ) );
+        Attribute classAttribute = new Attribute( "Delayed", values( 2 ) );
+        attributes.addElement( classAttribute );
+
+        Instances data = new Instances( "airline", attributes, numInstances );
+        data.setClass( classAttribute );
+
+        List<String> carrierList = new ArrayList<String>( carriers );
+        List<String> airportList = new ArrayList<String>( airports );
+        for ( int n = 0; n < numInstances; n++ )
+        {
+            String[] tokens = rows.get( n % rows.size( ) );
+            double[] values = new double[8];
+            values[0] = Integer.parseInt( tokens[1] ) - 1;
+            values[1] = Integer.parseInt( tokens[3] ) - 1;
+            values[2] = ( Integer.parseInt( tokens[5] ) / 100 ) % 24;
+            values[3] = carrierList.indexOf( tokens[8] );
+            values[4] = airportList.indexOf( tokens[16] );
+            values[5] = airportList.indexOf( tokens[17] );
+            values[6] = Math.min( 9, Integer.parseInt( tokens[18] ) / 300 );
+            values[7] = Integer.parseInt( tokens[14] ) > 0 ? 1 : 0;
+            data.add( new Instance( 1.0, values ) );
+        }
+
+        return data;
+    }
+
+    /**
+     * Instances sampled from a belief network, the last node the class (see
+     * {@link BeliefNetGenerator}).
+     */
+    public static Instances sample( BeliefNet net, int numInstances, long seed )
+    {
+        BeliefNetGenerator generator = new BeliefNetGenerator( net, seed );
+        Instances data = new Instances( generator.getDataset( ), numInstances );
+        for ( int i = 0; i < numInstances; i++ )
+        {
+            data.add( generator.next( ) );
+        }
+        return data;
+    }
+
+    /**
+     * Reads a BIF network by path, or by name from the benchmark networks.
+     */
+    public static BeliefNet beliefNet( String name ) throws IOException
+    {
+        return BifReader.read( beliefNetFile( name ) );
+    }
+
+    protected static File beliefNetFile( String name ) throws IOException
+    {
+        File file = new File( name );
+        if ( file.isFile( ) ) return file;
+
+        String path = System.getProperty( BELIEFNETS_PATH_PROPERTY );
+        String[] candidates = path != null ? new String[] { path } : new String[] { "original/docs/downloads/beliefnets", "../original/docs/downloads/beliefnets" };
+        for ( String candidate : candidates )
+        {
+            file = new File( candidate, name );
+            if ( file.isFile( ) ) return file;
+        }
+
+        throw new IOException( "Belief network " + name + " not found, set -D" + BELIEFNETS_PATH_PROPERTY + "=<directory>." );
+    }
+
+    protected static File airlineFile( ) throws IOException
+    {
+        String path = System.getProperty( AIRLINE_PATH_PROPERTY );
+        if ( path != null ) return new File( path );
+
+        String[] candidates = { "data/us_airline_delay/sample.csv", "../data/us_airline_delay/sample.csv" };
+        for ( String candidate : candidates )
+        {
+            File file = new File( candidate );
+            if ( file.isFile( ) ) return file;
+        }
+
+        throw new IOException( "Airline sample not found, set -D" + AIRLINE_PATH_PROPERTY + "=<path to sample.csv>." );
+    }
+
+    /**
+     * Encodes instances row by row as nominal value indices (the layout used by
+     * {@code VFDT.classifyInstances} and {@code InstanceWindow}).
+     */
+    public static int[] encode( Instances data )
+    {
+        int numAttributes = data.numAttributes( );
+        int[] values = new int[data.numInstances( ) * numAttributes];
+        for ( int n = 0; n < data.numInstances( ); n++ )
+        {
+            Instance instance = data.instance( n );
+            for ( int i = 0; i < numAttributes; i++ )
+            {
+                values[n * numAttributes + i] = ( int ) instance.value( i );
+            }
+        }
+        return values;
+    }
+
+    private static FastVector values( int cardinality )
+    {
+        FastVector values = new FastVector( );
+        for ( int i = 0; i < cardinality; i++ )
+        {
+            values.addElement( String.valueOf( i ) );
+        }
+        return values;
+    }
+
+    private static FastVector values( Set<String> set )
+    {
+        FastVector values = new FastVector( );
+        for ( String value : set )
+        {
+            values.addElement( value );
+        }
+        return values;
+    }
+}
@@ -0,0 +1,70 @@
+package edu.gmu.vfml.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.gmu.vfml.data.DriftingDataGenerator;
+import edu.gmu.vfml.data.TreeDataGenerator;
+
+/**
+ * <p>Throughput of the synthetic stream generators filling a batch of encoded
+ * instances, reported per instance.</p>
+ *
+ * @author ulman
+ */
+@State( Scope.Thread )
+@Fork( value = 1, jvmArgsAppend = "-Xmx2g" )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+public class GeneratorBenchmark
+{
+    private static final int BATCH_SIZE = 1000;
+
+    @Param( { "20", "100" } )
+    public int numAttributes;
+
+    @Param( { "0.0", "0.05" } )
+    public double noise;
+
+    protected TreeDataGenerator treeData;
+    protected DriftingDataGenerator driftingData;
+    protected int[] values;
+
+    @Setup
+    public void setup( )
+    {
+        treeData = new TreeDataGenerator( numAttributes, 2, noise, 1, 2 );
+        driftingData = new DriftingDataGenerator( numAttributes, 2, noise, 1, 2, DriftingDataGenerator.DRIFT_CHANGE_CLASS_OR_SPLIT );
+        values = new int[BATCH_SIZE * treeData.getStride( )];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( BATCH_SIZE )
+    public int treeData( )
+    {
+        treeData.fill( values, BATCH_SIZE );
+        return values[values.length - 1];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation( BATCH_SIZE )
+    public int driftingData( )
+    {
+        driftingData.fill( values, BATCH_SIZE );
+        return values[values.length - 1];
+    }
+}
@@ -0,0 +1,125 @@
+package edu.gmu.vfml.benchmarks;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.trees.CVFDT;
+import weka.classifiers.trees.VFDT;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>Training throughput and classification latency of VFDT and CVFDT.</p>
+ *
+ * <p>Training benchmarks start each iteration from an empty tree and stream the
+ * data set through it repeatedly, so throughput includes tree growth. Classification
+ * benchmarks use a tree trained on the whole data set.</p>
+ *
+ * @author ulman
+ */
+@State( Scope.Thread )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+public class LearnerBenchmark
+{
+    private static final int NUM_INSTANCES = 100000;
+    private static final int BATCH_SIZE = 1024;
+
+    @Param( { Datasets.RANDOM, Datasets.NOMINAL, Datasets.AIRLINE, Datasets.ALARM } )
+    public String dataset;
+
+    @Param( { "20" } )
+    public int numAttributes;
+
+    @Param( { "10000" } )
+    public int windowSize;
+
+    protected Instances data;
+    protected int[] batch;
+    protected int[] result;
+
+    protected VFDT vfdt;
+    protected CVFDT cvfdt;
+    protected VFDT trained;
+    protected int next;
+
+    @Setup( Level.Trial )
+    public void setupTrial( ) throws Exception
+    {
+        data = Datasets.load( dataset, numAttributes, NUM_INSTANCES, 1 );
+        batch = Arrays.copyOf( Datasets.encode( data ), BATCH_SIZE * data.numAttributes( ) );
+        result = new int[BATCH_SIZE];
+
+        trained = new VFDT( );
+        trained.buildClassifier( data );
+    }
+
+    @Setup( Level.Iteration )
+    public void setupIteration( ) throws Exception
+    {
+        vfdt = new VFDT( );
+        vfdt.initialize( data );
+
+        cvfdt = new CVFDT( );
+        cvfdt.setWindowSize( windowSize );
+        cvfdt.initialize( data );
+
+        next = 0;
+    }
+
+    protected Instance nextInstance( )
+    {
+        Instance instance = data.instance( next );
+        if ( ++next == data.numInstances( ) ) next = 0;
+        return instance;
+    }
+
+    @Benchmark
+    @BenchmarkMode( Mode.Throughput )
+    @OutputTimeUnit( TimeUnit.SECONDS )
+    public void vfdtAddInstance( )
+    {
+        vfdt.addInstance( nextInstance( ) );
+    }
+
+    @Benchmark
+    @BenchmarkMode( Mode.Throughput )
+    @OutputTimeUnit( TimeUnit.SECONDS )
+    public void cvfdtAddInstance( )
+    {
+        cvfdt.addInstance( nextInstance( ) );
+    }
+
+    @Benchmark
+    @BenchmarkMode( Mode.AverageTime )
+    @OutputTimeUnit( TimeUnit.NANOSECONDS )
+    public double classifyInstance( ) throws Exception
+    {
+        return trained.classifyInstance( nextInstance( ) );
+    }
+
+    @Benchmark
+    @BenchmarkMode( Mode.AverageTime )
+    @OutputTimeUnit( TimeUnit.NANOSECONDS )
+    @OperationsPerInvocation( BATCH_SIZE )
+    public int[] classifyInstancesBatch( )
+    {
+        trained.classifyInstances( batch, BATCH_SIZE, result );
+        return result;
+    }
+}
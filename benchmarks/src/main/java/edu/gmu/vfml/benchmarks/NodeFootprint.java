@@ -0,0 +1,77 @@
+package edu.gmu.vfml.benchmarks;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.openjdk.jol.info.GraphLayout;
+
+import weka.core.Instances;
+import edu.gmu.vfml.tree.CNode;
+import edu.gmu.vfml.tree.FadedCNode;
+import edu.gmu.vfml.tree.FadingClock;
+import edu.gmu.vfml.tree.Node;
+import edu.gmu.vfml.tree.SubspaceNode;
+
+/**
+ * <p>Measures the retained memory of a single leaf of each node type (excluding the
+ * shared attribute metadata) with JOL, for a range of attribute counts and
+ * cardinalities. Memory is not a timing, so this runs as a plain program rather
+ * than a JMH benchmark. Results are written as a JSON array, one object per
+ * configuration.</p>
+ *
+ * <p>Usage: {@code java -cp benchmarks.jar edu.gmu.vfml.benchmarks.NodeFootprint [output.json]}</p>
+ *
+ * @author ulman
+ */
+public class NodeFootprint
+{
+    private static final int[] NUM_ATTRIBUTES = { 10, 50, 200 };
+    private static final int[] CARDINALITIES = { 2, 8, 32 };
+
+    public static void main( String[] args ) throws IOException
+    {
+        Writer writer = args.length > 0 ? new FileWriter( args[0] ) : new OutputStreamWriter( System.out );
+        PrintWriter out = new PrintWriter( writer );
+
+        out.println( "[" );
+        boolean first = true;
+        for ( int numAttributes : NUM_ATTRIBUTES )
+        {
+            for ( int cardinality : CARDINALITIES )
+            {
+                Instances data = Datasets.nominal( numAttributes, cardinality, 1, 1 );
+                int subspaceSize = ( int ) Math.max( 1, Math.round( Math.sqrt( numAttributes ) ) );
+
+                // the clock and random generator are shared by all the nodes of a tree
+                FadingClock clock = new FadingClock( 0.9999 );
+                Random random = new Random( 1 );
+                GraphLayout shared = GraphLayout.parseInstance( data, clock, random );
+
+                Node[] nodes = new Node[] { new Node( data, data.classAttribute( ) ), new CNode( data, data.classAttribute( ), 1 ), new FadedCNode( data, data.classAttribute( ), 1, clock ), new SubspaceNode( data, data.classAttribute( ), subspaceSize, random ) };
+
+                for ( Node node : nodes )
+                {
+                    if ( !first ) out.println( "," );
+                    first = false;
+
+                    out.printf( "  { \"node\": \"%s\", \"numAttributes\": %d, \"cardinality\": %d, \"bytes\": %d }", node.getClass( ).getSimpleName( ), numAttributes, cardinality, leafBytes( node, shared ) );
+                }
+            }
+        }
+        out.println( );
+        out.println( "]" );
+        out.close( );
+    }
+
+    /**
+     * @return the bytes reachable from the node which are not shared with other nodes
+     */
+    protected static long leafBytes( Node node, GraphLayout shared )
+    {
+        return GraphLayout.parseInstance( node ).subtract( shared ).totalSize( );
+    }
+}
@@ -0,0 +1,64 @@
+package edu.gmu.vfml.benchmarks;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+import edu.gmu.vfml.data.SplitMix64;
+import edu.gmu.vfml.data.StreamGenerator;
+
+/**
+ * <p>An unbounded stream of uniformly random nominal attributes of any cardinality
+ * and number of classes. The class is (a0 + a1) mod numClasses, replaced by a
+ * random class with 10% probability.</p>
+ *
+ * @author ulman
+ */
+public class NominalStream extends StreamGenerator
+{
+    private final int numAttributes;
+    private final int cardinality;
+    private final int numClasses;
+
+    public NominalStream( int numAttributes, int cardinality, int numClasses, long seed )
+    {
+        super( new SplitMix64( seed ) );
+        this.numAttributes = numAttributes;
+        this.cardinality = cardinality;
+        this.numClasses = numClasses;
+
+        FastVector attributes = new FastVector( );
+        for ( int i = 0; i < numAttributes; i++ )
+        {
+            attributes.addElement( new Attribute( "a" + i, values( cardinality ) ) );
+        }
+        Attribute classAttribute = new Attribute( "class", values( numClasses ) );
+        attributes.addElement( classAttribute );
+
+        Instances dataset = new Instances( "nominal", attributes, 0 );
+        dataset.setClass( classAttribute );
+        setDataset( dataset );
+    }
+
+    @Override
+    public void generate( int[] values, int offset )
+    {
+        for ( int i = 0; i < numAttributes; i++ )
+        {
+            values[offset + i] = random.nextInt( cardinality );
+        }
+
+        int classValue = ( values[offset] + values[offset + Math.min( 1, numAttributes - 1 )] ) % numClasses;
+        if ( random.nextInt( 10 ) == 0 ) classValue = random.nextInt( numClasses );
+        values[offset + numAttributes] = classValue;
+    }
+
+    private static FastVector values( int cardinality )
+    {
+        FastVector values = new FastVector( );
+        for ( int i = 0; i < cardinality; i++ )
+        {
+            values.addElement( String.valueOf( i ) );
+        }
+        return values;
+    }
+}
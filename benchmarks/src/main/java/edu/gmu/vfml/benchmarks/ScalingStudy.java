@@ -0,0 +1,379 @@
+package edu.gmu.vfml.benchmarks;
+
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import weka.classifiers.trees.CVFDT;
+import weka.classifiers.trees.VFDT;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+
+/**
+ * <p>Scaling study of VFDT and CVFDT. Starting from a baseline configuration (50
+ * attributes of cardinality 8, 2 classes, a 100000 instance CVFDT window), one
+ * dimension at a time is swept: the number of attributes, the attribute cardinality,
+ * the number of classes, the number of leaves the tree is grown to and the CVFDT
+ * window size.</p>
+ *
+ * <p>For each configuration a new learner is trained on a {@link NominalStream} until
+ * it is warmed up, its window is full and its tree has the target number of leaves
+ * (while growing, the tie confidence is raised so that leaves split as soon as they
+ * are checked). The training latency of every instance of the measurement phase is
+ * then recorded, along with the collector time during that phase, and finally the
+ * retained heap. Heap use and collections are not timings, so this runs as a plain
+ * program rather than a JMH benchmark.</p>
+ *
+ * <p>A configuration which exceeds the time budget is measured as far as it got,
+ * and a configuration which runs out of memory is reported as such, so one run covers
+ * the full ranges and the scaling cliffs show up in its summary table.</p>
+ *
+ * <p>Usage: {@code java -Xmx8g -cp benchmarks.jar edu.gmu.vfml.benchmarks.ScalingStudy [options]}</p>
+ *
+ * <pre>
+ * -l &lt;learners&gt;       vfdt and/or cvfdt (default vfdt,cvfdt)
+ * -a &lt;counts&gt;         attribute counts (default 10,100,1000,10000)
+ * -v &lt;cardinalities&gt;  attribute cardinalities (default 2,10,100,1000,10000)
+ * -k &lt;counts&gt;         class counts (default 2,10,100)
+ * -L &lt;counts&gt;         leaf counts (default 1000,10000,100000,1000000)
+ * -W &lt;sizes&gt;          CVFDT window sizes (default 10000,100000,1000000,10000000)
+ * -w &lt;instances&gt;      warm up instances (default 20000)
+ * -n &lt;instances&gt;      measured instances (default 100000)
+ * -s &lt;seconds&gt;        time budget per configuration (default 120)
+ * -o &lt;file&gt;           also write the results as CSV
+ * </pre>
+ *
+ * <p>Lists are comma separated, "-" skips a dimension.</p>
+ *
+ * @author ulman
+ */
+public class ScalingStudy
+{
+    public static final String VFDT = "vfdt";
+    public static final String CVFDT = "cvfdt";
+
+    /** The swept dimensions. */
+    public static final String ATTRIBUTES = "attributes";
+    public static final String CARDINALITY = "cardinality";
+    public static final String CLASSES = "classes";
+    public static final String LEAVES = "leaves";
+    public static final String WINDOW = "window";
+
+    /**
+     * One point of the study: the baseline with one dimension changed.
+     */
+    public static class Configuration
+    {
+        public String learner;
+        public String dimension = "baseline";
+        public int numAttributes = 50;
+        public int cardinality = 8;
+        public int numClasses = 2;
+        public int targetLeaves = 0;
+        public int windowSize = 100000;
+
+        public Configuration( String learner )
+        {
+            this.learner = learner;
+        }
+
+        public Configuration vary( String dimension, int value )
+        {
+            Configuration configuration = new Configuration( learner );
+            configuration.dimension = dimension;
+            configuration.numAttributes = ATTRIBUTES.equals( dimension ) ? value : numAttributes;
+            configuration.cardinality = CARDINALITY.equals( dimension ) ? value : cardinality;
+            configuration.numClasses = CLASSES.equals( dimension ) ? value : numClasses;
+            configuration.targetLeaves = LEAVES.equals( dimension ) ? value : targetLeaves;
+            configuration.windowSize = WINDOW.equals( dimension ) ? value : windowSize;
+            return configuration;
+        }
+    }
+
+    /**
+     * The measurements of a configuration, -1 where not measured.
+     */
+    public static class Result
+    {
+        public final Configuration configuration;
+        public String status = "ok";
+        public long trainedInstances = -1;
+        public long measuredInstances = -1;
+        public double instancesPerSecond = -1;
+        public long p50Nanos = -1;
+        public long p99Nanos = -1;
+        public long p999Nanos = -1;
+        public long maxNanos = -1;
+        public long heapBytes = -1;
+        public long modelBytes = -1;
+        public long gcMillis = -1;
+        public long gcCount = -1;
+        public int leaves = -1;
+        public int nodes = -1;
+
+        public Result( Configuration configuration )
+        {
+            this.configuration = configuration;
+        }
+    }
+
+    protected String[] learners = { VFDT, CVFDT };
+    protected int[] attributeCounts = { 10, 100, 1000, 10000 };
+    protected int[] cardinalities = { 2, 10, 100, 1000, 10000 };
+    protected int[] classCounts = { 2, 10, 100 };
+    protected int[] leafCounts = { 1000, 10000, 100000, 1000000 };
+    protected int[] windowSizes = { 10000, 100000, 1000000, 10000000 };
+    protected int warmupInstances = 20000;
+    protected int measuredInstances = 100000;
+    protected long budgetSeconds = 120;
+    protected long seed = 1;
+
+    public List<Configuration> getConfigurations( )
+    {
+        List<Configuration> configurations = new ArrayList<Configuration>( );
+        for ( String learner : learners )
+        {
+            Configuration baseline = new Configuration( learner );
+            for ( int value : attributeCounts ) configurations.add( baseline.vary( ATTRIBUTES, value ) );
+            for ( int value : cardinalities ) configurations.add( baseline.vary( CARDINALITY, value ) );
+            for ( int value : classCounts ) configurations.add( baseline.vary( CLASSES, value ) );
+            for ( int value : leafCounts ) configurations.add( baseline.vary( LEAVES, value ) );
+
+            if ( CVFDT.equals( learner ) )
+            {
+                for ( int value : windowSizes ) configurations.add( baseline.vary( WINDOW, value ) );
+            }
+        }
+        return configurations;
+    }
+
+    public Result run( Configuration configuration )
+    {
+        Result result = new Result( configuration );
+        try
+        {
+            measure( configuration, result );
+        }
+        catch ( OutOfMemoryError e )
+        {
+            // the learner is unreachable once measure returns
+            result.status = "out of memory";
+        }
+        catch ( Exception e )
+        {
+            result.status = "failed: " + e.getMessage( );
+        }
+        return result;
+    }
+
+    protected void measure( Configuration configuration, Result result ) throws Exception
+    {
+        NominalStream stream = new NominalStream( configuration.numAttributes, configuration.cardinality, configuration.numClasses, seed );
+        Instances header = stream.getDataset( );
+        long[] latencies = new long[measuredInstances];
+
+        long baseHeap = usedHeap( );
+        long deadline = System.nanoTime( ) + budgetSeconds * 1000000000L;
+
+        VFDT learner = newLearner( configuration );
+        learner.buildClassifier( new Instances( header, 0 ) );
+
+        // warm up, fill the window and grow the tree to the target number of leaves
+        long warmup = CVFDT.equals( configuration.learner ) ? Math.max( warmupInstances, configuration.windowSize ) : warmupInstances;
+        double tieConfidence = learner.getTieConfidence( );
+        if ( configuration.targetLeaves > 0 ) learner.setTieConfidence( 1.0 );
+
+        long trained = 0;
+        while ( trained < warmup || learner.getMetrics( ).getLeafCount( ) < configuration.targetLeaves )
+        {
+            learner.addInstance( stream.next( ) );
+            if ( ( ++trained & 1023 ) == 0 && System.nanoTime( ) > deadline )
+            {
+                result.status = "over budget (warm up)";
+                break;
+            }
+        }
+        learner.setTieConfidence( tieConfidence );
+        result.trainedInstances = trained;
+
+        // time each instance, excluding its generation
+        long gcMillis = gcMillis( );
+        long gcCount = gcCount( );
+        int measured = 0;
+        long total = 0;
+        while ( measured < measuredInstances )
+        {
+            Instance instance = stream.next( );
+            long start = System.nanoTime( );
+            learner.addInstance( instance );
+            long end = System.nanoTime( );
+
+            latencies[measured++] = end - start;
+            total += end - start;
+            if ( ( measured & 1023 ) == 0 && end > deadline )
+            {
+                result.status = "over budget";
+                break;
+            }
+        }
+        result.gcMillis = gcMillis( ) - gcMillis;
+        result.gcCount = gcCount( ) - gcCount;
+
+        result.measuredInstances = measured;
+        result.instancesPerSecond = measured / ( total / 1e9 );
+        Arrays.sort( latencies, 0, measured );
+        result.p50Nanos = percentile( latencies, measured, 0.5 );
+        result.p99Nanos = percentile( latencies, measured, 0.99 );
+        result.p999Nanos = percentile( latencies, measured, 0.999 );
+        result.maxNanos = latencies[measured - 1];
+
+        result.heapBytes = usedHeap( ) - baseHeap;
+
+        result.leaves = learner.getMetrics( ).getLeafCount( );
+        result.nodes = learner.getMetrics( ).getTreeSize( );
+        result.modelBytes = learner.getMemoryReport( ).getTotalBytes( );
+    }
+
+    protected VFDT newLearner( Configuration configuration )
+    {
+        if ( CVFDT.equals( configuration.learner ) )
+        {
+            CVFDT cvfdt = new CVFDT( );
+            cvfdt.setWindowSize( configuration.windowSize );
+            return cvfdt;
+        }
+        else if ( VFDT.equals( configuration.learner ) )
+        {
+            return new VFDT( );
+        }
+        else
+        {
+            throw new IllegalArgumentException( "Unknown learner: " + configuration.learner );
+        }
+    }
+
+    protected static long percentile( long[] sorted, int length, double quantile )
+    {
+        int index = ( int ) Math.ceil( quantile * length ) - 1;
+        return sorted[Math.max( 0, Math.min( length - 1, index ) )];
+    }
+
+    protected static long usedHeap( )
+    {
+        for ( int i = 0; i < 3; i++ )
+        {
+            System.gc( );
+        }
+        return ManagementFactory.getMemoryMXBean( ).getHeapMemoryUsage( ).getUsed( );
+    }
+
+    protected static long gcMillis( )
+    {
+        long millis = 0;
+        for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans( ) )
+        {
+            millis += Math.max( 0, collector.getCollectionTime( ) );
+        }
+        return millis;
+    }
+
+    protected static long gcCount( )
+    {
+        long count = 0;
+        for ( GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans( ) )
+        {
+            count += Math.max( 0, collector.getCollectionCount( ) );
+        }
+        return count;
+    }
+
+    /**
+     * Prints the results as a single table, one row per configuration.
+     */
+    public static void printTable( List<Result> results, PrintWriter out )
+    {
+        String format = "%-6s %-11s %6s %6s %5s %9s %8s %10s %10s %9s %9s %9s %10s %9s %9s %8s %5s  %s%n";
+        out.printf( format, "learner", "varied", "attrs", "card", "class", "window", "leaves", "trained", "inst/s", "p50 ns", "p99 ns", "p99.9 ns", "max ns", "heap MB", "model MB", "gc ms", "gcs", "status" );
+        for ( Result result : results )
+        {
+            Configuration c = result.configuration;
+            out.printf( format, c.learner, c.dimension, c.numAttributes, c.cardinality, c.numClasses, CVFDT.equals( c.learner ) ? String.valueOf( c.windowSize ) : "-", value( result.leaves ), value( result.trainedInstances ), value( Math.round( result.instancesPerSecond ) ), value( result.p50Nanos ), value( result.p99Nanos ), value( result.p999Nanos ), value( result.maxNanos ), megabytes( result.heapBytes ), megabytes( result.modelBytes ), value( result.gcMillis ), value( result.gcCount ), result.status );
+        }
+        out.flush( );
+    }
+
+    public static void writeCsv( List<Result> results, PrintWriter out )
+    {
+        out.println( "learner,dimension,numAttributes,cardinality,numClasses,windowSize,targetLeaves,leaves,nodes,trainedInstances,measuredInstances,instancesPerSecond,p50Nanos,p99Nanos,p999Nanos,maxNanos,heapBytes,modelBytes,gcMillis,gcCount,status" );
+        for ( Result result : results )
+        {
+            Configuration c = result.configuration;
+            out.printf( "%s,%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.1f,%d,%d,%d,%d,%d,%d,%d,%d,\"%s\"%n", c.learner, c.dimension, c.numAttributes, c.cardinality, c.numClasses, c.windowSize, c.targetLeaves, result.leaves, result.nodes, result.trainedInstances, result.measuredInstances, result.instancesPerSecond, result.p50Nanos, result.p99Nanos, result.p999Nanos, result.maxNanos, result.heapBytes, result.modelBytes, result.gcMillis, result.gcCount, result.status );
+        }
+        out.flush( );
+    }
+
+    private static String value( long value )
+    {
+        return value < 0 ? "-" : String.valueOf( value );
+    }
+
+    private static String megabytes( long bytes )
+    {
+        return bytes < 0 ? "-" : String.format( "%.1f", bytes / ( 1024.0 * 1024.0 ) );
+    }
+
+    private static int[] parseList( String option, int[] defaults )
+    {
+        if ( option.isEmpty( ) ) return defaults;
+        if ( option.equals( "-" ) ) return new int[0];
+
+        String[] tokens = option.split( "," );
+        int[] values = new int[tokens.length];
+        for ( int i = 0; i < tokens.length; i++ )
+        {
+            values[i] = Integer.parseInt( tokens[i].trim( ) );
+        }
+        return values;
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        ScalingStudy study = new ScalingStudy( );
+
+        String option;
+        if ( !( option = Utils.getOption( 'l', args ) ).isEmpty( ) ) study.learners = option.split( "," );
+        study.attributeCounts = parseList( Utils.getOption( 'a', args ), study.attributeCounts );
+        study.cardinalities = parseList( Utils.getOption( 'v', args ), study.cardinalities );
+        study.classCounts = parseList( Utils.getOption( 'k', args ), study.classCounts );
+        study.leafCounts = parseList( Utils.getOption( 'L', args ), study.leafCounts );
+        study.windowSizes = parseList( Utils.getOption( 'W', args ), study.windowSizes );
+        if ( !( option = Utils.getOption( 'w', args ) ).isEmpty( ) ) study.warmupInstances = Integer.parseInt( option );
+        if ( !( option = Utils.getOption( 'n', args ) ).isEmpty( ) ) study.measuredInstances = Integer.parseInt( option );
+        if ( !( option = Utils.getOption( 's', args ) ).isEmpty( ) ) study.budgetSeconds = Long.parseLong( option );
+        String csvFile = Utils.getOption( 'o', args );
+
+        List<Result> results = new ArrayList<Result>( );
+        for ( Configuration configuration : study.getConfigurations( ) )
+        {
+            System.err.printf( "%s %s: %d attributes, cardinality %d, %d classes, %d leaves, window %d%n", configuration.learner, configuration.dimension, configuration.numAttributes, configuration.cardinality, configuration.numClasses, configuration.targetLeaves, configuration.windowSize );
+            Result result = study.run( configuration );
+            System.err.println( "  " + result.status );
+            results.add( result );
+        }
+
+        printTable( results, new PrintWriter( System.out ) );
+
+        if ( !csvFile.isEmpty( ) )
+        {
+            PrintWriter out = new PrintWriter( new FileWriter( csvFile ) );
+            writeCsv( results, out );
+            out.close( );
+        }
+    }
+}
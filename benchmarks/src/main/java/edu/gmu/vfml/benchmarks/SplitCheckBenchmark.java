@@ -0,0 +1,91 @@
+package edu.gmu.vfml.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.trees.VFDT;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.tree.Node;
+
+/**
+ * <p>Cost of evaluating a leaf for a split (the information gain of every attribute
+ * plus the Hoeffding bound test) as a function of the number of attributes and
+ * their cardinality.</p>
+ *
+ * @author ulman
+ */
+@State( Scope.Thread )
+@Fork( 1 )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+public class SplitCheckBenchmark
+{
+    private static final int LEAF_INSTANCES = 5000;
+
+    @Param( { "10", "50", "200" } )
+    public int numAttributes;
+
+    @Param( { "2", "8", "32" } )
+    public int cardinality;
+
+    /**
+     * Exposes checkNodeSplit and never splits, so every invocation evaluates the same leaf.
+     */
+    public static class SplitCheckVFDT extends VFDT
+    {
+        private static final long serialVersionUID = 1L;
+
+        public void checkSplit( Instance instance, Node node )
+        {
+            checkNodeSplit( instance, node );
+        }
+
+        @Override
+        protected void splitNode( Node node, Attribute attribute, Instance instance )
+        {
+        }
+    }
+
+    protected SplitCheckVFDT learner;
+    protected Node leaf;
+    protected Instance instance;
+
+    @Setup
+    public void setup( ) throws Exception
+    {
+        Instances data = Datasets.nominal( numAttributes, cardinality, LEAF_INSTANCES, 1 );
+
+        learner = new SplitCheckVFDT( );
+        learner.initialize( data );
+
+        leaf = learner.getRoot( );
+        for ( int i = 0; i < data.numInstances( ); i++ )
+        {
+            leaf.incrementCounts( data.instance( i ) );
+        }
+
+        instance = data.instance( 0 );
+    }
+
+    @Benchmark
+    public Node checkNodeSplit( )
+    {
+        learner.checkSplit( instance, leaf );
+        return leaf;
+    }
+}
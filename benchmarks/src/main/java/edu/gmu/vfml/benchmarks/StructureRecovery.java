@@ -0,0 +1,304 @@
+package edu.gmu.vfml.benchmarks;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import weka.classifiers.bayes.VFBN;
+import weka.core.Utils;
+import edu.gmu.vfml.bn.BeliefNet;
+import edu.gmu.vfml.bn.BifReader;
+import edu.gmu.vfml.data.BeliefNetGenerator;
+import edu.gmu.vfml.data.GeneratorSource;
+
+/**
+ * <p>Structure recovery study of VFBN. For each benchmark network of
+ * docs/downloads/beliefnets, training data is sampled from the network with a
+ * {@link BeliefNetGenerator} (the same instances on every pass, without writing
+ * them to disk) and VFBN learns a network from the empty network with each thread
+ * count. Each run reports the learning time, the search steps and examples read,
+ * the precision and recall of the learned links (directed, and ignoring direction),
+ * the structural Hamming distance to the true network (links missing, extra or
+ * reversed) and the average log likelihood of held out instances under the learned
+ * and the true network.</p>
+ *
+ * <p>The large networks need limits: Link (724 nodes) and Munin (about 1000 nodes)
+ * have 0.5 to 1 million candidate link additions in every search step, each with
+ * its own counts (several hundred megabytes of heap), and learning them takes
+ * hundreds of search steps. The defaults limit parents per node and the minutes of
+ * each run, which returns the network learned so far; runs which exceed the heap
+ * are reported as such. Timings are whole runs, so this runs as a plain program
+ * rather than a JMH benchmark.</p>
+ *
+ * <p>Usage: {@code java -Xmx4g -cp benchmarks.jar edu.gmu.vfml.benchmarks.StructureRecovery [options]}</p>
+ *
+ * <pre>
+ * -b &lt;networks&gt;       BIF files, by name in the network directory or by path
+ *                      (default alarm.bif,Munin1.bif,Link.bif,Munin2.bif)
+ * -d &lt;directory&gt;      the network directory (default original/docs/downloads/beliefnets)
+ * -P &lt;threads&gt;        thread counts, 0 for one per processor (default 1,2,4,8)
+ * -n &lt;instances&gt;      training instances (default 1000000)
+ * -h &lt;instances&gt;      held out instances (default 100000)
+ * -M &lt;parents&gt;        the largest number of parents of a node, -1 for no limit (default 4)
+ * -m &lt;minutes&gt;        the time limit of each run, -1 for none (default 30)
+ * -s &lt;seed&gt;           the seed of the sampled data (default 1)
+ * -o &lt;file&gt;           also write the results as CSV
+ * </pre>
+ *
+ * <p>Lists are comma separated.</p>
+ *
+ * @author ulman
+ */
+public class StructureRecovery
+{
+    /**
+     * The measurements of a run, -1 where not measured.
+     */
+    public static class Result
+    {
+        public final String network;
+        public final int numThreads;
+        public String status = "ok";
+        public int numNodes = -1;
+        public int trueLinks = -1;
+        public int learnedLinks = -1;
+        public double seconds = -1;
+        public int searchSteps = -1;
+        public long examplesRead = -1;
+        public int correctDirected = -1;
+        public int correctSkeleton = -1;
+        public int hammingDistance = -1;
+        public double learnedLogLikelihood = Double.NaN;
+        public double trueLogLikelihood = Double.NaN;
+
+        public Result( String network, int numThreads )
+        {
+            this.network = network;
+            this.numThreads = numThreads;
+        }
+
+        public double getDirectedPrecision( )
+        {
+            return learnedLinks > 0 ? ( double ) correctDirected / learnedLinks : Double.NaN;
+        }
+
+        public double getDirectedRecall( )
+        {
+            return trueLinks > 0 ? ( double ) correctDirected / trueLinks : Double.NaN;
+        }
+
+        public double getSkeletonPrecision( )
+        {
+            return learnedLinks > 0 ? ( double ) correctSkeleton / learnedLinks : Double.NaN;
+        }
+
+        public double getSkeletonRecall( )
+        {
+            return trueLinks > 0 ? ( double ) correctSkeleton / trueLinks : Double.NaN;
+        }
+    }
+
+    protected String[] networks = { "alarm.bif", "Munin1.bif", "Link.bif", "Munin2.bif" };
+    protected File directory = null;
+    protected int[] threadCounts = { 1, 2, 4, 8 };
+    protected long trainingInstances = 1000000;
+    protected int heldOutInstances = 100000;
+    protected int maxParentsPerNode = 4;
+    protected double limitMinutes = 30;
+    protected long seed = 1;
+
+    public Result run( BeliefNet truth, String network, int numThreads )
+    {
+        Result result = new Result( network, numThreads );
+        try
+        {
+            measure( truth, result );
+        }
+        catch ( OutOfMemoryError e )
+        {
+            // the learner is unreachable once measure returns
+            result.status = "out of memory";
+        }
+        catch ( Exception e )
+        {
+            result.status = "failed: " + e.getMessage( );
+        }
+        return result;
+    }
+
+    protected void measure( BeliefNet truth, Result result ) throws Exception
+    {
+        VFBN learner = new VFBN( );
+        learner.setNumThreads( result.numThreads );
+        learner.setMaxParentsPerNode( maxParentsPerNode );
+        learner.setLimitMinutes( limitMinutes );
+
+        long start = System.nanoTime( );
+        learner.buildClassifier( new GeneratorSource( new BeliefNetGenerator( truth, seed ), seed, trainingInstances ) );
+        long end = System.nanoTime( );
+
+        BeliefNet learned = learner.getNet( );
+        result.seconds = ( end - start ) / 1e9;
+        result.searchSteps = learner.getSearchSteps( );
+        result.examplesRead = learner.getExamplesRead( );
+        if ( limitMinutes >= 0 && result.seconds > limitMinutes * 60 )
+        {
+            result.status = "time limit";
+        }
+
+        compare( truth, learned, result );
+
+        // held out instances from another seed
+        BeliefNetGenerator generator = new BeliefNetGenerator( truth, seed + 1 );
+        int[] values = new int[truth.getNumNodes( )];
+        double learnedSum = 0;
+        double trueSum = 0;
+        for ( int i = 0; i < heldOutInstances; i++ )
+        {
+            generator.generate( values, 0 );
+            learnedSum += learned.logProbability( values, 0 );
+            trueSum += truth.logProbability( values, 0 );
+        }
+        result.learnedLogLikelihood = learnedSum / heldOutInstances;
+        result.trueLogLikelihood = trueSum / heldOutInstances;
+    }
+
+    /**
+     * Counts the learned links which are in the true network (directed and ignoring
+     * direction) and the structural Hamming distance. The networks have the same
+     * nodes in the same order.
+     */
+    protected static void compare( BeliefNet truth, BeliefNet learned, Result result )
+    {
+        result.numNodes = truth.getNumNodes( );
+        result.trueLinks = truth.getNumLinks( );
+        result.learnedLinks = learned.getNumLinks( );
+        result.correctDirected = 0;
+        result.correctSkeleton = 0;
+        result.hammingDistance = 0;
+
+        for ( int i = 0; i < truth.getNumNodes( ); i++ )
+        {
+            for ( int j = i + 1; j < truth.getNumNodes( ); j++ )
+            {
+                boolean trueForward = truth.hasParent( j, i );
+                boolean trueBackward = truth.hasParent( i, j );
+                boolean learnedForward = learned.hasParent( j, i );
+                boolean learnedBackward = learned.hasParent( i, j );
+
+                boolean trueLink = trueForward || trueBackward;
+                boolean learnedLink = learnedForward || learnedBackward;
+                if ( trueLink && learnedLink )
+                {
+                    result.correctSkeleton++;
+                    if ( trueForward == learnedForward )
+                    {
+                        result.correctDirected++;
+                    }
+                    else
+                    {
+                        result.hammingDistance++;
+                    }
+                }
+                else if ( trueLink || learnedLink )
+                {
+                    result.hammingDistance++;
+                }
+            }
+        }
+    }
+
+    protected BeliefNet readNetwork( String network ) throws IOException
+    {
+        File file = new File( directory, network );
+        return directory != null && file.isFile( ) ? BifReader.read( file ) : Datasets.beliefNet( network );
+    }
+
+    /**
+     * Prints the results as a single table, one row per run.
+     */
+    public static void printTable( List<Result> results, PrintWriter out )
+    {
+        String format = "%-12s %7s %5s %6s %6s %9s %6s %11s %7s %7s %7s %7s %5s %10s %10s  %s%n";
+        out.printf( format, "network", "threads", "nodes", "links", "learned", "seconds", "steps", "examples", "dir P", "dir R", "skel P", "skel R", "SHD", "LL learned", "LL true", "status" );
+        for ( Result r : results )
+        {
+            out.printf( format, r.network, r.numThreads, value( r.numNodes ), value( r.trueLinks ), value( r.learnedLinks ), decimal( r.seconds, 1 ), value( r.searchSteps ), value( r.examplesRead ), decimal( r.getDirectedPrecision( ), 3 ), decimal( r.getDirectedRecall( ), 3 ), decimal( r.getSkeletonPrecision( ), 3 ), decimal( r.getSkeletonRecall( ), 3 ), value( r.hammingDistance ), decimal( r.learnedLogLikelihood, 4 ), decimal( r.trueLogLikelihood, 4 ), r.status );
+        }
+        out.flush( );
+    }
+
+    public static void writeCsv( List<Result> results, PrintWriter out )
+    {
+        out.println( "network,numThreads,numNodes,trueLinks,learnedLinks,seconds,searchSteps,examplesRead,correctDirected,correctSkeleton,hammingDistance,learnedLogLikelihood,trueLogLikelihood,status" );
+        for ( Result r : results )
+        {
+            out.printf( "%s,%d,%d,%d,%d,%.3f,%d,%d,%d,%d,%d,%.6f,%.6f,\"%s\"%n", r.network, r.numThreads, r.numNodes, r.trueLinks, r.learnedLinks, r.seconds, r.searchSteps, r.examplesRead, r.correctDirected, r.correctSkeleton, r.hammingDistance, r.learnedLogLikelihood, r.trueLogLikelihood, r.status );
+        }
+        out.flush( );
+    }
+
+    private static String value( long value )
+    {
+        return value < 0 ? "-" : String.valueOf( value );
+    }
+
+    private static String decimal( double value, int digits )
+    {
+        return Double.isNaN( value ) || value == -1 ? "-" : String.format( "%." + digits + "f", value );
+    }
+
+    private static int[] parseList( String option, int[] defaults )
+    {
+        if ( option.isEmpty( ) ) return defaults;
+
+        String[] tokens = option.split( "," );
+        int[] values = new int[tokens.length];
+        for ( int i = 0; i < tokens.length; i++ )
+        {
+            values[i] = Integer.parseInt( tokens[i].trim( ) );
+        }
+        return values;
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        StructureRecovery study = new StructureRecovery( );
+
+        String option;
+        if ( !( option = Utils.getOption( 'b', args ) ).isEmpty( ) ) study.networks = option.split( "," );
+        if ( !( option = Utils.getOption( 'd', args ) ).isEmpty( ) ) study.directory = new File( option );
+        study.threadCounts = parseList( Utils.getOption( 'P', args ), study.threadCounts );
+        if ( !( option = Utils.getOption( 'n', args ) ).isEmpty( ) ) study.trainingInstances = Long.parseLong( option );
+        if ( !( option = Utils.getOption( 'h', args ) ).isEmpty( ) ) study.heldOutInstances = Integer.parseInt( option );
+        if ( !( option = Utils.getOption( 'M', args ) ).isEmpty( ) ) study.maxParentsPerNode = Integer.parseInt( option );
+        if ( !( option = Utils.getOption( 'm', args ) ).isEmpty( ) ) study.limitMinutes = Double.parseDouble( option );
+        if ( !( option = Utils.getOption( 's', args ) ).isEmpty( ) ) study.seed = Long.parseLong( option );
+        String csvFile = Utils.getOption( 'o', args );
+
+        List<Result> results = new ArrayList<Result>( );
+        for ( String network : study.networks )
+        {
+            BeliefNet truth = study.readNetwork( network.trim( ) );
+            for ( int numThreads : study.threadCounts )
+            {
+                System.err.printf( "%s: %d nodes, %d links, %d threads%n", network, truth.getNumNodes( ), truth.getNumLinks( ), numThreads );
+                Result result = study.run( truth, network.trim( ), numThreads );
+                System.err.println( "  " + result.status );
+                results.add( result );
+            }
+        }
+
+        printTable( results, new PrintWriter( System.out ) );
+
+        if ( !csvFile.isEmpty( ) )
+        {
+            PrintWriter out = new PrintWriter( new FileWriter( csvFile ) );
+            writeCsv( results, out );
+            out.close( );
+        }
+    }
+}
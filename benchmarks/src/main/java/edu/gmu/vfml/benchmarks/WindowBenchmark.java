@@ -0,0 +1,91 @@
+package edu.gmu.vfml.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import weka.classifiers.trees.CVFDT;
+import weka.core.Instances;
+
+/**
+ * <p>Cost of adding an instance to a full CVFDT window (and removing the expired
+ * instance) as a function of the window size. Only the window is exercised, the
+ * tree is not updated.</p>
+ *
+ * @author ulman
+ */
+@State( Scope.Thread )
+@Fork( value = 1, jvmArgsAppend = "-Xmx2g" )
+@Warmup( iterations = 5, time = 1 )
+@Measurement( iterations = 10, time = 1 )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+public class WindowBenchmark
+{
+    private static final int NUM_INSTANCES = 10000;
+
+    @Param( { "1000", "100000", "1000000" } )
+    public int windowSize;
+
+    @Param( { "20" } )
+    public int numAttributes;
+
+    /**
+     * Exposes updateWindow.
+     */
+    public static class WindowCVFDT extends CVFDT
+    {
+        private static final long serialVersionUID = 1L;
+
+        public int update( int[] values )
+        {
+            return updateWindow( values );
+        }
+    }
+
+    protected WindowCVFDT learner;
+    protected int[][] rows;
+    protected int next;
+
+    @Setup
+    public void setup( ) throws Exception
+    {
+        Instances data = Datasets.nominal( numAttributes, 8, NUM_INSTANCES, 1 );
+
+        rows = new int[NUM_INSTANCES][];
+        int[] encoded = Datasets.encode( data );
+        for ( int i = 0; i < NUM_INSTANCES; i++ )
+        {
+            rows[i] = new int[data.numAttributes( )];
+            System.arraycopy( encoded, i * data.numAttributes( ), rows[i], 0, data.numAttributes( ) );
+        }
+
+        learner = new WindowCVFDT( );
+        learner.setWindowSize( windowSize );
+        learner.initialize( data );
+
+        // fill the window so that every update also expires an instance
+        for ( int i = 0; i < windowSize; i++ )
+        {
+            learner.update( rows[i % NUM_INSTANCES] );
+        }
+    }
+
+    @Benchmark
+    public int updateWindow( )
+    {
+        int[] values = rows[next];
+        if ( ++next == NUM_INSTANCES ) next = 0;
+        return learner.update( values );
+    }
+}
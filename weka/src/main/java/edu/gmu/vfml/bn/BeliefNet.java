@@ -0,0 +1,499 @@
+package edu.gmu.vfml.bn;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+
+/**
+ * <p>A discrete Bayesian network: a directed acyclic graph over nominal variables
+ * with a conditional probability table (CPT) per node.</p>
+ *
+ * <p>A CPT has one row per configuration of the node's parents and one column per
+ * value of the node, stored row major in a flat array. Rows are numbered in mixed
+ * radix over the parents in order, the last parent varying fastest (the order of
+ * the entries of a BIF probability block).</p>
+ *
+ * <p>Instances are encoded as in {@link edu.gmu.vfml.data.StreamGenerator}: the
+ * value index of every node, in node order.</p>
+ *
+ * @author ulman
+ */
+public class BeliefNet
+{
+    private static final int[] NO_PARENTS = new int[0];
+
+    protected String name;
+    protected final String[] names;
+    protected final String[][] values;
+    protected final int[][] parents;
+    protected final double[][] cpts;
+    protected final Map<String, Integer> index;
+
+    /**
+     * Creates a network with no links and uniform CPTs.
+     *
+     * @param names the names of the nodes
+     * @param values the names of the values of each node
+     */
+    public BeliefNet( String name, String[] names, String[][] values )
+    {
+        this.name = name;
+        this.names = names.clone( );
+        this.values = new String[names.length][];
+        this.parents = new int[names.length][];
+        this.cpts = new double[names.length][];
+        this.index = new HashMap<String, Integer>( );
+
+        for ( int i = 0 ; i < names.length ; i++ )
+        {
+            if ( values[i].length < 1 )
+            {
+                throw new IllegalArgumentException( "BeliefNet: node " + names[i] + " has no values." );
+            }
+            if ( index.put( names[i], i ) != null )
+            {
+                throw new IllegalArgumentException( "BeliefNet: duplicate node " + names[i] + "." );
+            }
+
+            this.values[i] = values[i].clone( );
+            this.parents[i] = NO_PARENTS;
+            this.cpts[i] = uniform( 1, values[i].length );
+        }
+    }
+
+    /**
+     * Creates a network with no links and uniform CPTs over the nominal attributes of header.
+     */
+    public BeliefNet( Instances header )
+    {
+        this( header.relationName( ), attributeNames( header ), attributeValues( header ) );
+    }
+
+    /**
+     * Copies the structure and CPTs of another network.
+     */
+    public BeliefNet( BeliefNet other )
+    {
+        this( other.name, other.names, other.values );
+        for ( int i = 0 ; i < names.length ; i++ )
+        {
+            parents[i] = other.parents[i].clone( );
+            cpts[i] = other.cpts[i].clone( );
+        }
+    }
+
+    private static String[] attributeNames( Instances header )
+    {
+        String[] names = new String[header.numAttributes( )];
+        for ( int i = 0 ; i < names.length ; i++ )
+        {
+            Attribute attribute = header.attribute( i );
+            if ( !attribute.isNominal( ) )
+            {
+                throw new IllegalArgumentException( "BeliefNet: attribute " + attribute.name( ) + " is not nominal." );
+            }
+            names[i] = attribute.name( );
+        }
+        return names;
+    }
+
+    private static String[][] attributeValues( Instances header )
+    {
+        String[][] values = new String[header.numAttributes( )][];
+        for ( int i = 0 ; i < values.length ; i++ )
+        {
+            Attribute attribute = header.attribute( i );
+            values[i] = new String[attribute.numValues( )];
+            for ( int k = 0 ; k < values[i].length ; k++ )
+            {
+                values[i][k] = attribute.value( k );
+            }
+        }
+        return values;
+    }
+
+    private static double[] uniform( int rows, int numValues )
+    {
+        double[] cpt = new double[rows * numValues];
+        Arrays.fill( cpt, 1.0 / numValues );
+        return cpt;
+    }
+
+    public String getName( )
+    {
+        return name;
+    }
+
+    public void setName( String name )
+    {
+        this.name = name;
+    }
+
+    public int getNumNodes( )
+    {
+        return names.length;
+    }
+
+    public String getNodeName( int node )
+    {
+        return names[node];
+    }
+
+    /**
+     * @return the index of the named node, or -1 if there is none
+     */
+    public int lookupNode( String nodeName )
+    {
+        Integer node = index.get( nodeName );
+        return node == null ? -1 : node;
+    }
+
+    public int getNumValues( int node )
+    {
+        return values[node].length;
+    }
+
+    public String getValueName( int node, int value )
+    {
+        return values[node][value];
+    }
+
+    /**
+     * @return the index of the named value of node, or -1 if there is none
+     */
+    public int lookupValue( int node, String valueName )
+    {
+        String[] nodeValues = values[node];
+        for ( int k = 0 ; k < nodeValues.length ; k++ )
+        {
+            if ( nodeValues[k].equals( valueName ) ) return k;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the parents of node, in CPT order (do not modify)
+     */
+    public int[] getParents( int node )
+    {
+        return parents[node];
+    }
+
+    public int getNumParents( int node )
+    {
+        return parents[node].length;
+    }
+
+    public boolean hasParent( int node, int parent )
+    {
+        return indexOfParent( node, parent ) >= 0;
+    }
+
+    /**
+     * @return the position of parent in the parents of node, or -1 if it is not a parent
+     */
+    public int indexOfParent( int node, int parent )
+    {
+        int[] nodeParents = parents[node];
+        for ( int p = 0 ; p < nodeParents.length ; p++ )
+        {
+            if ( nodeParents[p] == parent ) return p;
+        }
+        return -1;
+    }
+
+    /**
+     * Replaces the parents of node, resetting its CPT to uniform. Does not check for cycles.
+     */
+    public void setParents( int node, int[] nodeParents )
+    {
+        for ( int p = 0 ; p < nodeParents.length ; p++ )
+        {
+            if ( nodeParents[p] < 0 || nodeParents[p] >= names.length || nodeParents[p] == node )
+            {
+                throw new IllegalArgumentException( "BeliefNet: invalid parent " + nodeParents[p] + " of node " + names[node] + "." );
+            }
+        }
+
+        parents[node] = nodeParents.clone( );
+        cpts[node] = uniform( getNumRows( parents[node] ), values[node].length );
+    }
+
+    /**
+     * Adds parent as the last parent of node, resetting its CPT to uniform.
+     */
+    public void addParent( int node, int parent )
+    {
+        int[] nodeParents = Arrays.copyOf( parents[node], parents[node].length + 1 );
+        nodeParents[nodeParents.length - 1] = parent;
+        setParents( node, nodeParents );
+    }
+
+    /**
+     * Removes parent from the parents of node, resetting its CPT to uniform.
+     */
+    public void removeParent( int node, int parent )
+    {
+        int position = indexOfParent( node, parent );
+        if ( position < 0 )
+        {
+            throw new IllegalArgumentException( "BeliefNet: " + names[parent] + " is not a parent of " + names[node] + "." );
+        }
+        setParents( node, remove( parents[node], position ) );
+    }
+
+    /**
+     * @return a copy of array without the element at position
+     */
+    static int[] remove( int[] array, int position )
+    {
+        int[] result = new int[array.length - 1];
+        System.arraycopy( array, 0, result, 0, position );
+        System.arraycopy( array, position + 1, result, position, result.length - position );
+        return result;
+    }
+
+    /**
+     * @return the number of configurations of the provided parents (the number of CPT rows)
+     */
+    public int getNumRows( int[] nodeParents )
+    {
+        long rows = 1;
+        for ( int parent : nodeParents )
+        {
+            rows *= values[parent].length;
+            if ( rows > Integer.MAX_VALUE )
+            {
+                throw new IllegalArgumentException( "BeliefNet: too many parent configurations." );
+            }
+        }
+        return ( int ) rows;
+    }
+
+    public int getNumRows( int node )
+    {
+        return cpts[node].length / values[node].length;
+    }
+
+    /**
+     * @return the row of the CPT of node for the parent values of an encoded instance
+     */
+    public int getRow( int node, int[] instance, int offset )
+    {
+        int row = 0;
+        for ( int parent : parents[node] )
+        {
+            row = row * values[parent].length + instance[offset + parent];
+        }
+        return row;
+    }
+
+    /**
+     * @return the CPT of node (rows of getNumValues(node) probabilities, do not modify)
+     */
+    public double[] getCPT( int node )
+    {
+        return cpts[node];
+    }
+
+    /**
+     * Replaces the CPT of node (getNumRows(node) rows of getNumValues(node) probabilities).
+     */
+    public void setCPT( int node, double[] cpt )
+    {
+        if ( cpt.length != cpts[node].length )
+        {
+            throw new IllegalArgumentException( "BeliefNet: the CPT of " + names[node] + " needs " + cpts[node].length + " entries." );
+        }
+        cpts[node] = cpt.clone( );
+    }
+
+    /**
+     * @return P(node = value | parents in configuration row)
+     */
+    public double getProbability( int node, int row, int value )
+    {
+        return cpts[node][row * values[node].length + value];
+    }
+
+    /**
+     * @return the number of CPT entries
+     */
+    public long getNumParameters( )
+    {
+        long count = 0;
+        for ( double[] cpt : cpts )
+        {
+            count += cpt.length;
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of free CPT entries (each row sums to one)
+     */
+    public long getNumIndependentParameters( )
+    {
+        long count = 0;
+        for ( int i = 0 ; i < names.length ; i++ )
+        {
+            count += ( long ) getNumRows( i ) * ( values[i].length - 1 );
+        }
+        return count;
+    }
+
+    public int getNumLinks( )
+    {
+        int count = 0;
+        for ( int[] nodeParents : parents )
+        {
+            count += nodeParents.length;
+        }
+        return count;
+    }
+
+    /**
+     * @return the nodes ordered so that every node follows its parents, or null if the network has a cycle
+     */
+    public int[] getTopologicalOrder( )
+    {
+        int n = names.length;
+        int[] children = new int[n];
+        for ( int[] nodeParents : parents )
+        {
+            for ( int parent : nodeParents )
+            {
+                children[parent]++;
+            }
+        }
+
+        // adjacency lists of children, flattened
+        int[] start = new int[n + 1];
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            start[i + 1] = start[i] + children[i];
+        }
+        int[] next = start.clone( );
+        int[] adjacent = new int[start[n]];
+        int[] pending = new int[n];
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            pending[i] = parents[i].length;
+            for ( int parent : parents[i] )
+            {
+                adjacent[next[parent]++] = i;
+            }
+        }
+
+        int[] order = new int[n];
+        int head = 0, tail = 0;
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            if ( pending[i] == 0 ) order[tail++] = i;
+        }
+        while ( head < tail )
+        {
+            int node = order[head++];
+            for ( int a = start[node] ; a < start[node + 1] ; a++ )
+            {
+                if ( --pending[adjacent[a]] == 0 ) order[tail++] = adjacent[a];
+            }
+        }
+
+        return tail == n ? order : null;
+    }
+
+    public boolean hasCycle( )
+    {
+        return getTopologicalOrder( ) == null;
+    }
+
+    /**
+     * @return true if target can be reached from source following links from parents to children
+     */
+    public boolean hasPath( int source, int target )
+    {
+        // search backward from target through parents
+        boolean[] visited = new boolean[names.length];
+        int[] stack = new int[names.length];
+        int size = 0;
+        stack[size++] = target;
+        visited[target] = true;
+        while ( size > 0 )
+        {
+            int node = stack[--size];
+            if ( node == source ) return true;
+            for ( int parent : parents[node] )
+            {
+                if ( !visited[parent] )
+                {
+                    visited[parent] = true;
+                    stack[size++] = parent;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if the networks have the same nodes and every node has the same set of parents
+     */
+    public boolean structureEquals( BeliefNet other )
+    {
+        if ( other.names.length != names.length ) return false;
+
+        for ( int i = 0 ; i < names.length ; i++ )
+        {
+            if ( parents[i].length != other.parents[i].length ) return false;
+            for ( int parent : parents[i] )
+            {
+                if ( !other.hasParent( i, parent ) ) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the log (base e) probability of an encoded instance
+     */
+    public double logProbability( int[] instance, int offset )
+    {
+        double logP = 0;
+        for ( int i = 0 ; i < names.length ; i++ )
+        {
+            logP += Math.log( getProbability( i, getRow( i, instance, offset ), instance[offset + i] ) );
+        }
+        return logP;
+    }
+
+    /**
+     * @return a header with a nominal attribute per node, in node order (without a class)
+     */
+    public Instances getHeader( )
+    {
+        FastVector attributes = new FastVector( );
+        for ( int i = 0 ; i < names.length ; i++ )
+        {
+            FastVector attributeValues = new FastVector( );
+            for ( String value : values[i] )
+            {
+                attributeValues.addElement( value );
+            }
+            attributes.addElement( new Attribute( names[i], attributeValues ) );
+        }
+        return new Instances( name, attributes, 0 );
+    }
+
+    /**
+     * @return the network in BIF format
+     */
+    @Override
+    public String toString( )
+    {
+        return BifWriter.toString( this );
+    }
+}
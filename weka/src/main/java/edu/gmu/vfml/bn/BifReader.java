@@ -0,0 +1,485 @@
+package edu.gmu.vfml.bn;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>Reads discrete Bayesian networks in the Bayesian Interchange Format (BIF 0.15),
+ * the format of the networks in docs/downloads/beliefnets (a port of the bif.y
+ * parser of the original VFML distribution).</p>
+ *
+ * <p>A probability block may give its CPT as a {@code table} (the child's value
+ * varying slowest, the last parent fastest), as one entry per parent configuration,
+ * or both, and a {@code default} entry applies to every configuration without its
+ * own entry. Configurations the block leaves out entirely (such as the noisy-max
+ * tables of carpo.bif, which list only their leak and single-cause rows) remain
+ * uniform. Properties and comments are ignored.</p>
+ *
+ * @author ulman
+ */
+public class BifReader
+{
+    private final Reader in;
+    private int lookahead = -2;
+    private int line = 1;
+
+    protected BifReader( Reader in )
+    {
+        this.in = in;
+    }
+
+    public static BeliefNet read( File file ) throws IOException
+    {
+        Reader in = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "ISO-8859-1" ) );
+        try
+        {
+            return read( in );
+        }
+        finally
+        {
+            in.close( );
+        }
+    }
+
+    public static BeliefNet read( Reader in ) throws IOException
+    {
+        return new BifReader( in ).parse( );
+    }
+
+    /**
+     * The CPT of a node as read from its probability block.
+     */
+    private static class Block
+    {
+        int node;
+        String[] parents;
+        List<String[]> configurations = new ArrayList<String[]>( );
+        List<double[]> entries = new ArrayList<double[]>( );
+        double[] table;
+        double[] fallback;
+        int line;
+    }
+
+    protected BeliefNet parse( ) throws IOException
+    {
+        String networkName = "Unknown";
+        List<String> names = new ArrayList<String>( );
+        List<String[]> values = new ArrayList<String[]>( );
+        List<Block> blocks = new ArrayList<Block>( );
+
+        String token;
+        while ( ( token = next( ) ) != null )
+        {
+            if ( token.equals( "network" ) )
+            {
+                token = next( );
+                if ( !"{".equals( token ) )
+                {
+                    networkName = token;
+                    expect( "{" );
+                }
+                skipBlock( );
+            }
+            else if ( token.equals( "variable" ) )
+            {
+                names.add( word( ) );
+                values.add( parseVariable( ) );
+            }
+            else if ( token.equals( "probability" ) )
+            {
+                blocks.add( parseProbability( names ) );
+            }
+            else
+            {
+                throw error( "expected network, variable or probability but found " + token );
+            }
+        }
+
+        BeliefNet net = new BeliefNet( networkName, names.toArray( new String[names.size( )] ), values.toArray( new String[values.size( )][] ) );
+
+        boolean[] seen = new boolean[names.size( )];
+        for ( Block block : blocks )
+        {
+            if ( seen[block.node] )
+            {
+                throw new IOException( String.format( "BifReader: line %d: second probability block for %s.", block.line, names.get( block.node ) ) );
+            }
+            seen[block.node] = true;
+            setCPT( net, block );
+        }
+
+        if ( net.hasCycle( ) )
+        {
+            throw new IOException( "BifReader: the network has a cycle." );
+        }
+
+        return net;
+    }
+
+    private String[] parseVariable( ) throws IOException
+    {
+        String[] result = null;
+
+        expect( "{" );
+        String token;
+        while ( !"}".equals( token = next( ) ) )
+        {
+            if ( !"type".equals( token ) )
+            {
+                throw error( "expected type but found " + token );
+            }
+            expect( "discrete" );
+            expect( "[" );
+            int count = integer( );
+            expect( "]" );
+            expect( "{" );
+
+            List<String> valueNames = new ArrayList<String>( );
+            while ( !"}".equals( token = next( ) ) )
+            {
+                check( token );
+                valueNames.add( token );
+            }
+            expect( ";" );
+
+            if ( valueNames.size( ) != count )
+            {
+                throw error( String.format( "declared %d values but listed %d", count, valueNames.size( ) ) );
+            }
+            result = valueNames.toArray( new String[count] );
+        }
+
+        if ( result == null )
+        {
+            throw error( "variable without a discrete type" );
+        }
+        return result;
+    }
+
+    private Block parseProbability( List<String> names ) throws IOException
+    {
+        Block block = new Block( );
+        block.line = line;
+
+        expect( "(" );
+        List<String> variables = new ArrayList<String>( );
+        String token;
+        while ( !")".equals( token = next( ) ) )
+        {
+            check( token );
+            variables.add( token );
+        }
+        if ( variables.isEmpty( ) )
+        {
+            throw error( "probability block without a variable" );
+        }
+
+        block.node = names.indexOf( variables.get( 0 ) );
+        if ( block.node < 0 )
+        {
+            throw error( "undeclared variable " + variables.get( 0 ) );
+        }
+        block.parents = variables.subList( 1, variables.size( ) ).toArray( new String[variables.size( ) - 1] );
+
+        expect( "{" );
+        while ( !"}".equals( token = next( ) ) )
+        {
+            if ( token == null )
+            {
+                throw error( "unexpected end of file" );
+            }
+            else if ( token.equals( "table" ) )
+            {
+                block.table = numbers( );
+            }
+            else if ( token.equals( "default" ) )
+            {
+                block.fallback = numbers( );
+            }
+            else if ( token.equals( "(" ) )
+            {
+                List<String> configuration = new ArrayList<String>( );
+                while ( !")".equals( token = next( ) ) )
+                {
+                    check( token );
+                    configuration.add( token );
+                }
+                block.configurations.add( configuration.toArray( new String[configuration.size( )] ) );
+                block.entries.add( numbers( ) );
+            }
+            else
+            {
+                throw error( "unexpected " + token + " in probability block" );
+            }
+        }
+
+        return block;
+    }
+
+    private void setCPT( BeliefNet net, Block block ) throws IOException
+    {
+        int node = block.node;
+        int[] parents = new int[block.parents.length];
+        for ( int p = 0 ; p < parents.length ; p++ )
+        {
+            parents[p] = net.lookupNode( block.parents[p] );
+            if ( parents[p] < 0 )
+            {
+                throw new IOException( String.format( "BifReader: line %d: undeclared variable %s.", block.line, block.parents[p] ) );
+            }
+        }
+        net.setParents( node, parents );
+
+        int numValues = net.getNumValues( node );
+        int rows = net.getNumRows( node );
+        double[] cpt = net.getCPT( node ).clone( );
+        boolean[] given = new boolean[rows];
+
+        if ( block.table != null )
+        {
+            if ( block.table.length != rows * numValues )
+            {
+                throw new IOException( String.format( "BifReader: line %d: the table of %s needs %d entries.", block.line, net.getNodeName( node ), rows * numValues ) );
+            }
+            for ( int t = 0 ; t < block.table.length ; t++ )
+            {
+                cpt[( t % rows ) * numValues + t / rows] = block.table[t];
+            }
+            Arrays.fill( given, true );
+        }
+
+        for ( int e = 0 ; e < block.entries.size( ) ; e++ )
+        {
+            String[] configuration = block.configurations.get( e );
+            if ( configuration.length != parents.length )
+            {
+                throw new IOException( String.format( "BifReader: line %d: %s has %d parents.", block.line, net.getNodeName( node ), parents.length ) );
+            }
+
+            int row = 0;
+            for ( int p = 0 ; p < parents.length ; p++ )
+            {
+                int value = net.lookupValue( parents[p], configuration[p] );
+                if ( value < 0 )
+                {
+                    throw new IOException( String.format( "BifReader: line %d: %s is not a value of %s.", block.line, configuration[p], net.getNodeName( parents[p] ) ) );
+                }
+                row = row * net.getNumValues( parents[p] ) + value;
+            }
+
+            setRow( net, block, cpt, row, block.entries.get( e ) );
+            given[row] = true;
+        }
+
+        if ( block.fallback != null )
+        {
+            for ( int row = 0 ; row < rows ; row++ )
+            {
+                if ( !given[row] ) setRow( net, block, cpt, row, block.fallback );
+            }
+        }
+
+        net.setCPT( node, cpt );
+    }
+
+    private static void setRow( BeliefNet net, Block block, double[] cpt, int row, double[] probabilities ) throws IOException
+    {
+        int numValues = net.getNumValues( block.node );
+        if ( probabilities.length != numValues )
+        {
+            throw new IOException( String.format( "BifReader: line %d: %s has %d values.", block.line, net.getNodeName( block.node ), numValues ) );
+        }
+        System.arraycopy( probabilities, 0, cpt, row * numValues, numValues );
+    }
+
+    /**
+     * Reads numbers up to the next ';'.
+     */
+    private double[] numbers( ) throws IOException
+    {
+        List<Double> list = new ArrayList<Double>( );
+        String token;
+        while ( !";".equals( token = next( ) ) )
+        {
+            check( token );
+            try
+            {
+                list.add( Double.parseDouble( token ) );
+            }
+            catch ( NumberFormatException e )
+            {
+                throw error( "expected a number but found " + token );
+            }
+        }
+
+        double[] result = new double[list.size( )];
+        for ( int i = 0 ; i < result.length ; i++ )
+        {
+            result[i] = list.get( i );
+        }
+        return result;
+    }
+
+    private int integer( ) throws IOException
+    {
+        String token = word( );
+        try
+        {
+            return Integer.parseInt( token );
+        }
+        catch ( NumberFormatException e )
+        {
+            throw error( "expected an integer but found " + token );
+        }
+    }
+
+    private String word( ) throws IOException
+    {
+        String token = next( );
+        check( token );
+        return token;
+    }
+
+    /**
+     * Fails unless token is a word (not punctuation or the end of the file).
+     */
+    private void check( String token ) throws IOException
+    {
+        if ( token == null )
+        {
+            throw error( "unexpected end of file" );
+        }
+        if ( token.length( ) == 1 && "(){}[];".indexOf( token.charAt( 0 ) ) >= 0 )
+        {
+            throw error( "unexpected " + token );
+        }
+    }
+
+    private void expect( String expected ) throws IOException
+    {
+        String token = next( );
+        if ( !expected.equals( token ) )
+        {
+            throw error( "expected " + expected + " but found " + ( token == null ? "the end of the file" : token ) );
+        }
+    }
+
+    /**
+     * Skips to the '}' closing the block just opened.
+     */
+    private void skipBlock( ) throws IOException
+    {
+        int depth = 1;
+        while ( depth > 0 )
+        {
+            String token = next( );
+            if ( token == null ) throw error( "unexpected end of file" );
+            if ( token.equals( "{" ) ) depth++;
+            if ( token.equals( "}" ) ) depth--;
+        }
+    }
+
+    private IOException error( String message )
+    {
+        return new IOException( String.format( "BifReader: line %d: %s.", line, message ) );
+    }
+
+    //////////////////////////////// tokenizer ////////////////////////////////
+
+    /**
+     * @return the next token (a word, a quoted string or one of "(){}[];"), or null at the end of the file
+     */
+    private String next( ) throws IOException
+    {
+        while ( true )
+        {
+            int c = read( );
+            if ( c < 0 ) return null;
+
+            // commas and bars only separate words
+            if ( Character.isWhitespace( c ) || c == ',' || c == '|' ) continue;
+
+            if ( c == '/' && peek( ) == '/' )
+            {
+                skipLine( );
+                continue;
+            }
+
+            if ( c == '/' && peek( ) == '*' )
+            {
+                read( );
+                int last = 0;
+                while ( ( c = read( ) ) >= 0 && !( last == '*' && c == '/' ) )
+                {
+                    last = c;
+                }
+                if ( c < 0 ) throw error( "end of file in a comment" );
+                continue;
+            }
+
+            if ( "(){}[];".indexOf( c ) >= 0 )
+            {
+                return String.valueOf( ( char ) c );
+            }
+
+            StringBuilder b = new StringBuilder( );
+            if ( c == '"' )
+            {
+                while ( ( c = read( ) ) >= 0 && c != '"' )
+                {
+                    b.append( ( char ) c );
+                }
+                return b.toString( );
+            }
+
+            b.append( ( char ) c );
+            while ( ( c = peek( ) ) >= 0 && !isDelimiter( c ) )
+            {
+                b.append( ( char ) read( ) );
+            }
+
+            String token = b.toString( );
+            if ( token.equals( "property" ) )
+            {
+                // properties run to the end of the line
+                skipLine( );
+                continue;
+            }
+            return token;
+        }
+    }
+
+    private static boolean isDelimiter( int c )
+    {
+        return Character.isWhitespace( c ) || c == ',' || c == '|' || c == '"' || c == '/' || "(){}[];".indexOf( c ) >= 0;
+    }
+
+    private void skipLine( ) throws IOException
+    {
+        int c;
+        while ( ( c = read( ) ) >= 0 && c != '\n' )
+        {
+        }
+    }
+
+    private int read( ) throws IOException
+    {
+        int c = lookahead != -2 ? lookahead : in.read( );
+        lookahead = -2;
+        if ( c == '\n' ) line++;
+        return c;
+    }
+
+    private int peek( ) throws IOException
+    {
+        if ( lookahead == -2 ) lookahead = in.read( );
+        return lookahead;
+    }
+}
@@ -0,0 +1,107 @@
+package edu.gmu.vfml.bn;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Writes discrete Bayesian networks in the Bayesian Interchange Format (BIF 0.15),
+ * with one entry per parent configuration, which {@link BifReader} (and the
+ * original VFML tools) can read back.
+ *
+ * @author ulman
+ */
+public class BifWriter
+{
+    private BifWriter( )
+    {
+    }
+
+    public static void write( BeliefNet net, File file ) throws IOException
+    {
+        PrintWriter out = new PrintWriter( new FileWriter( file ) );
+        try
+        {
+            write( net, out );
+        }
+        finally
+        {
+            out.close( );
+        }
+    }
+
+    public static String toString( BeliefNet net )
+    {
+        StringWriter b = new StringWriter( );
+        PrintWriter out = new PrintWriter( b );
+        write( net, out );
+        out.flush( );
+        return b.toString( );
+    }
+
+    public static void write( BeliefNet net, PrintWriter out )
+    {
+        out.printf( "network %s {%n}%n", net.getName( ) == null || net.getName( ).isEmpty( ) ? "Unknown" : net.getName( ) );
+
+        for ( int i = 0 ; i < net.getNumNodes( ) ; i++ )
+        {
+            out.printf( "variable %s {%n  type discrete [ %d ] { ", net.getNodeName( i ), net.getNumValues( i ) );
+            for ( int k = 0 ; k < net.getNumValues( i ) ; k++ )
+            {
+                out.print( k == 0 ? "" : ", " );
+                out.print( net.getValueName( i, k ) );
+            }
+            out.printf( " };%n}%n" );
+        }
+
+        for ( int i = 0 ; i < net.getNumNodes( ) ; i++ )
+        {
+            int[] parents = net.getParents( i );
+
+            out.printf( "probability ( %s", net.getNodeName( i ) );
+            for ( int p = 0 ; p < parents.length ; p++ )
+            {
+                out.print( p == 0 ? " | " : ", " );
+                out.print( net.getNodeName( parents[p] ) );
+            }
+            out.printf( " ) {%n" );
+
+            int rows = net.getNumRows( i );
+            int[] configuration = new int[parents.length];
+            for ( int row = 0 ; row < rows ; row++ )
+            {
+                if ( parents.length == 0 )
+                {
+                    out.print( "  table " );
+                }
+                else
+                {
+                    out.print( "  (" );
+                    for ( int p = 0 ; p < parents.length ; p++ )
+                    {
+                        out.print( p == 0 ? "" : ", " );
+                        out.print( net.getValueName( parents[p], configuration[p] ) );
+                    }
+                    out.print( ") " );
+                }
+
+                for ( int k = 0 ; k < net.getNumValues( i ) ; k++ )
+                {
+                    out.print( k == 0 ? "" : ", " );
+                    out.print( ( float ) net.getProbability( i, row, k ) );
+                }
+                out.printf( ";%n" );
+
+                // next configuration, the last parent varying fastest
+                for ( int p = parents.length - 1 ; p >= 0 ; p-- )
+                {
+                    if ( ++configuration[p] < net.getNumValues( parents[p] ) ) break;
+                    configuration[p] = 0;
+                }
+            }
+            out.printf( "}%n" );
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package edu.gmu.vfml.bn;
+
+/**
+ * <p>The sufficient statistics of a node given a set of parents (a family): the
+ * number of examples with each combination of the parents' values (a row) and the
+ * node's value. Structure search keeps one FamilyCounts per distinct family any
+ * candidate network needs, so candidates which share a family (removing a link and
+ * reversing it both leave the child without that parent) share its counts, and
+ * nodes a candidate does not change use the counts of the current network.</p>
+ *
+ * <p>Rows are numbered like the rows of a {@link BeliefNet} CPT. The row of a family
+ * derived from the current family of its node (by adding a last parent or removing a
+ * parent) is computed from the current family's row rather than from all of its
+ * parents' values, so counting an example costs the same whatever the number of
+ * parents.</p>
+ *
+ * <p>Note: This class is not thread safe. Each family is counted by one thread at a
+ * time.</p>
+ *
+ * @author ulman
+ */
+public class FamilyCounts
+{
+    /** The family of a node in the current network. */
+    public static final int CURRENT = 0;
+    /** The current family of a node with another last parent. */
+    public static final int ADD = 1;
+    /** The current family of a node without one of its parents. */
+    public static final int REMOVE = 2;
+
+    protected final int node;
+    protected final int[] parents;
+    protected final int kind;
+    protected final int other;
+    protected final int numValues;
+    protected final int rows;
+
+    /** For ADD: the number of values of the added parent. */
+    private final int otherValues;
+    /** For REMOVE: the number of rows spanned by the parents after the removed one. */
+    private final int lowRows;
+
+    protected final int[] counts;
+
+    // the scores of the last evaluation
+    protected double score;
+    protected double p0 = 1.0;
+
+    /**
+     * @param net the current network
+     * @param node the node of the family
+     * @param kind {@link #CURRENT}, {@link #ADD} or {@link #REMOVE}
+     * @param other the parent added or removed (ignored for CURRENT)
+     */
+    public FamilyCounts( BeliefNet net, int node, int kind, int other )
+    {
+        int[] current = net.getParents( node );
+
+        this.node = node;
+        this.kind = kind;
+        this.other = other;
+        this.numValues = net.getNumValues( node );
+
+        if ( kind == ADD )
+        {
+            parents = new int[current.length + 1];
+            System.arraycopy( current, 0, parents, 0, current.length );
+            parents[current.length] = other;
+            otherValues = net.getNumValues( other );
+            lowRows = 1;
+        }
+        else if ( kind == REMOVE )
+        {
+            int position = net.indexOfParent( node, other );
+            parents = BeliefNet.remove( current, position );
+            otherValues = net.getNumValues( other );
+            lowRows = net.getNumRows( tail( current, position + 1 ) );
+        }
+        else
+        {
+            parents = current.clone( );
+            otherValues = 1;
+            lowRows = 1;
+        }
+
+        this.rows = net.getNumRows( parents );
+
+        long size = ( long ) rows * numValues;
+        if ( size > Integer.MAX_VALUE )
+        {
+            throw new IllegalArgumentException( "FamilyCounts: too many parameters for " + net.getNodeName( node ) + "." );
+        }
+        this.counts = new int[( int ) size];
+    }
+
+    private static int[] tail( int[] array, int from )
+    {
+        int[] result = new int[array.length - from];
+        System.arraycopy( array, from, result, 0, result.length );
+        return result;
+    }
+
+    /**
+     * @return the number of entries the counts of a family would take, without allocating them
+     */
+    public static long getNumParameters( BeliefNet net, int node, int kind, int other )
+    {
+        long rows = net.getNumRows( node );
+        if ( kind == ADD ) rows *= net.getNumValues( other );
+        if ( kind == REMOVE ) rows /= net.getNumValues( other );
+        return rows * net.getNumValues( node );
+    }
+
+    public int getNode( )
+    {
+        return node;
+    }
+
+    public int[] getParents( )
+    {
+        return parents;
+    }
+
+    public int getKind( )
+    {
+        return kind;
+    }
+
+    public int getNumRows( )
+    {
+        return rows;
+    }
+
+    /**
+     * @return the number of free parameters of the family's CPT
+     */
+    public long getNumIndependentParameters( )
+    {
+        return ( long ) rows * ( numValues - 1 );
+    }
+
+    /**
+     * @return an estimate of the memory the counts take
+     */
+    public long getBytes( )
+    {
+        return 4L * counts.length;
+    }
+
+    /**
+     * Computes the rows of the node's current family for a block of examples.
+     *
+     * @param net the current network
+     * @param columns the values of each node for the examples of the block
+     * @param into receives the row of each example
+     */
+    public static void computeRows( BeliefNet net, int node, int[][] columns, int count, int[] into )
+    {
+        int[] parents = net.getParents( node );
+        if ( parents.length == 0 )
+        {
+            for ( int e = 0 ; e < count ; e++ )
+            {
+                into[e] = 0;
+            }
+            return;
+        }
+
+        int[] first = columns[parents[0]];
+        for ( int e = 0 ; e < count ; e++ )
+        {
+            into[e] = first[e];
+        }
+        for ( int p = 1 ; p < parents.length ; p++ )
+        {
+            int values = net.getNumValues( parents[p] );
+            int[] column = columns[parents[p]];
+            for ( int e = 0 ; e < count ; e++ )
+            {
+                into[e] = into[e] * values + column[e];
+            }
+        }
+    }
+
+    /**
+     * Counts a block of examples.
+     *
+     * @param columns the values of each node for the examples of the block
+     * @param currentRows the rows of each node's current family for the examples of the block
+     */
+    public void add( int[][] columns, int[][] currentRows, int count )
+    {
+        final int[] values = columns[node];
+        final int[] base = currentRows[node];
+        final int[] counts = this.counts;
+        final int numValues = this.numValues;
+
+        if ( kind == ADD )
+        {
+            final int[] added = columns[other];
+            final int otherValues = this.otherValues;
+            for ( int e = 0 ; e < count ; e++ )
+            {
+                counts[( base[e] * otherValues + added[e] ) * numValues + values[e]]++;
+            }
+        }
+        else if ( kind == REMOVE )
+        {
+            // split the current row around the removed parent's digit
+            final int lowRows = this.lowRows;
+            final int span = lowRows * otherValues;
+            for ( int e = 0 ; e < count ; e++ )
+            {
+                int row = base[e];
+                counts[( ( row / span ) * lowRows + row % lowRows ) * numValues + values[e]]++;
+            }
+        }
+        else
+        {
+            for ( int e = 0 ; e < count ; e++ )
+            {
+                counts[base[e] * numValues + values[e]]++;
+            }
+        }
+    }
+
+    /**
+     * @return the number of examples with the parent values of row and the provided value of the node
+     */
+    public int getCount( int row, int value )
+    {
+        return counts[row * numValues + value];
+    }
+
+    /**
+     * Evaluates the family with the VFBN heuristic score: the average log likelihood
+     * of the examples under the CPT estimated (with Laplace smoothing) from the same
+     * examples. Also tracks the smallest non-zero conditional frequency seen, which
+     * sets the range of the score.
+     *
+     * @param numSamples the number of examples counted
+     */
+    public void updateScore( double numSamples )
+    {
+        double sum = 0;
+        for ( int j = 0, start = 0 ; j < rows ; j++, start += numValues )
+        {
+            int rowCount = 0;
+            for ( int k = 0 ; k < numValues ; k++ )
+            {
+                rowCount += counts[start + k];
+            }
+            if ( rowCount == 0 ) continue;
+
+            double logRow = Math.log( rowCount + numValues );
+            for ( int k = 0 ; k < numValues ; k++ )
+            {
+                int count = counts[start + k];
+                if ( count > 0 )
+                {
+                    sum += count * ( Math.log( count + 1.0 ) - logRow );
+
+                    double p = ( double ) count / rowCount;
+                    if ( p < p0 ) p0 = p;
+                }
+            }
+        }
+        score = numSamples > 0 ? sum / numSamples : 0;
+    }
+
+    /**
+     * Evaluates the family with the BD (Bayesian Dirichlet, uniform prior) score
+     * plus a structure prior of log(kappa) per parent it adds or removes relative to
+     * a prior network.
+     *
+     * @param structuralDifference the number of parents added or removed relative to the prior network
+     */
+    public void updateBDScore( double kappa, int structuralDifference )
+    {
+        double lnGammaValues = lnGamma( numValues );
+        double sum = 0;
+        for ( int j = 0, start = 0 ; j < rows ; j++, start += numValues )
+        {
+            int rowCount = 0;
+            for ( int k = 0 ; k < numValues ; k++ )
+            {
+                int count = counts[start + k];
+                rowCount += count;
+                if ( count > 0 ) sum += lnGamma( 1.0 + count );
+            }
+            if ( rowCount > 0 ) sum += lnGammaValues - lnGamma( numValues + rowCount );
+        }
+        score = sum + structuralDifference * Math.log( kappa );
+    }
+
+    /**
+     * @return the score of the last evaluation
+     */
+    public double getScore( )
+    {
+        return score;
+    }
+
+    /**
+     * @return the range of the heuristic score: -log of the smaller of 1 / (5 * the
+     *         number of values) and the smallest conditional frequency seen
+     */
+    public double getScoreRange( )
+    {
+        return Math.abs( Math.log( Math.min( 1.0 / ( 5.0 * numValues ), p0 ) ) );
+    }
+
+    /**
+     * @return the CPT estimated from the counts, with Laplace smoothing
+     */
+    public double[] getCPT( )
+    {
+        double[] cpt = new double[counts.length];
+        for ( int j = 0, start = 0 ; j < rows ; j++, start += numValues )
+        {
+            int rowCount = 0;
+            for ( int k = 0 ; k < numValues ; k++ )
+            {
+                rowCount += counts[start + k];
+            }
+            for ( int k = 0 ; k < numValues ; k++ )
+            {
+                cpt[start + k] = ( counts[start + k] + 1.0 ) / ( rowCount + numValues );
+            }
+        }
+        return cpt;
+    }
+
+    /**
+     * @return log(Gamma(x)) for x &gt; 0 (Lanczos approximation, as in the original VFML)
+     */
+    public static double lnGamma( double x )
+    {
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= ( x + 0.5 ) * Math.log( tmp );
+        double series = 1.000000000190015;
+        for ( double c : LANCZOS )
+        {
+            series += c / ++y;
+        }
+        return -tmp + Math.log( 2.5066282746310005 * series / x );
+    }
+
+    private static final double[] LANCZOS = { 76.18009172947146, -86.50532032941677, 24.01409824083091, -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5 };
+}
@@ -0,0 +1,151 @@
+package edu.gmu.vfml.bn;
+
+/**
+ * <p>A candidate step of structure search: adding, removing or reversing one link
+ * of the current network, or leaving it unchanged. A change alters the families of
+ * at most two nodes, and its score is the score of the current network plus the
+ * differences between the scores of those families and the nodes' current families,
+ * so candidates are compared without scoring whole networks.</p>
+ *
+ * @author ulman
+ */
+public class StructureChange
+{
+    public static final int NONE = 0;
+    public static final int ADD = 1;
+    public static final int REMOVE = 2;
+    public static final int REVERSE = 3;
+
+    private static final FamilyCounts[] NO_FAMILIES = new FamilyCounts[0];
+
+    protected final int kind;
+    protected final int parent;
+    protected final int child;
+    protected final FamilyCounts[] families;
+    protected final long parameterDelta;
+
+    /**
+     * @return the candidate leaving the current network unchanged
+     */
+    public static StructureChange none( )
+    {
+        return new StructureChange( NONE, -1, -1, NO_FAMILIES, 0 );
+    }
+
+    /**
+     * @param kind {@link #ADD}, {@link #REMOVE} or {@link #REVERSE}
+     * @param parent the parent of the link (before a reversal)
+     * @param child the child of the link (before a reversal)
+     * @param families the families of the changed nodes
+     * @param current the families of the current network, by node
+     */
+    public StructureChange( int kind, int parent, int child, FamilyCounts[] families, FamilyCounts[] current )
+    {
+        this( kind, parent, child, families, parameterDelta( families, current ) );
+    }
+
+    private StructureChange( int kind, int parent, int child, FamilyCounts[] families, long parameterDelta )
+    {
+        this.kind = kind;
+        this.parent = parent;
+        this.child = child;
+        this.families = families;
+        this.parameterDelta = parameterDelta;
+    }
+
+    private static long parameterDelta( FamilyCounts[] families, FamilyCounts[] current )
+    {
+        long delta = 0;
+        for ( FamilyCounts family : families )
+        {
+            delta += family.getNumIndependentParameters( ) - current[family.getNode( )].getNumIndependentParameters( );
+        }
+        return delta;
+    }
+
+    public int getKind( )
+    {
+        return kind;
+    }
+
+    public int getParent( )
+    {
+        return parent;
+    }
+
+    public int getChild( )
+    {
+        return child;
+    }
+
+    /**
+     * @return the families of the nodes the change alters
+     */
+    public FamilyCounts[] getFamilies( )
+    {
+        return families;
+    }
+
+    /**
+     * @return the change in the number of free parameters of the network
+     */
+    public long getParameterDelta( )
+    {
+        return parameterDelta;
+    }
+
+    /**
+     * @param current the families of the current network, by node
+     * @return the score of the changed network minus the score of the current network
+     */
+    public double getScoreDelta( FamilyCounts[] current )
+    {
+        double delta = 0;
+        for ( FamilyCounts family : families )
+        {
+            delta += family.getScore( ) - current[family.getNode( )].getScore( );
+        }
+        return delta;
+    }
+
+    /**
+     * @return the sum of the score ranges of the changed families
+     */
+    public double getScoreRange( )
+    {
+        double range = 0;
+        for ( FamilyCounts family : families )
+        {
+            range += family.getScoreRange( );
+        }
+        return range;
+    }
+
+    /**
+     * @return a copy of net with the change applied (and the changed nodes' CPTs uniform)
+     */
+    public BeliefNet apply( BeliefNet net )
+    {
+        BeliefNet result = new BeliefNet( net );
+        for ( FamilyCounts family : families )
+        {
+            result.setParents( family.getNode( ), family.getParents( ) );
+        }
+        return result;
+    }
+
+    public String toString( BeliefNet net )
+    {
+        switch ( kind )
+        {
+            case ADD:
+                return "add " + net.getNodeName( parent ) + " -> " + net.getNodeName( child );
+            case REMOVE:
+                return "remove " + net.getNodeName( parent ) + " -> " + net.getNodeName( child );
+            case REVERSE:
+                return "reverse " + net.getNodeName( parent ) + " -> " + net.getNodeName( child );
+            default:
+                return "no change";
+        }
+    }
+}
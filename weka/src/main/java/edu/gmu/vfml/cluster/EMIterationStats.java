@@ -0,0 +1,311 @@
+package edu.gmu.vfml.cluster;
+
+/**
+ * <p>The means used by one iteration of {@link weka.clusterers.VFEM} and the
+ * sufficient statistics gathered while computing the expectations of the
+ * iteration's sample (a port of vfem-engine.c).</p>
+ *
+ * <p>The mixture has numClusters spherical Gaussians with a common, fixed
+ * variance and equal priors, so an iteration only re-estimates the means. Besides
+ * the weighted sums needed for the next means, the statistics sum the largest and
+ * smallest weight each example could have had, had the means of this iteration
+ * been computed from infinite data (and so been anywhere within their error
+ * bounds). These bound the error of the next means (see {@link #next(double)}).</p>
+ *
+ * <p>Samples can be processed in parallel into separate partial statistics
+ * ({@link #newPartial()}) which are then combined with
+ * {@link #merge(EMIterationStats)}.</p>
+ *
+ * @author ulman
+ */
+public class EMIterationStats extends IterationStats<EMIterationStats>
+{
+    /** The largest and smallest means consistent with the error bounds, per coordinate. */
+    protected final double[] cMax;
+    protected final double[] cMin;
+    /** As cMax and cMin, counting only the error due to the bounds on the previous means. */
+    protected final double[] cMaxAssignment;
+    protected final double[] cMinAssignment;
+
+    /** As lastBound, counting only the error due to the bounds on the previous means. */
+    protected final double[] lastAssignmentBound;
+
+    /** The total weight of the examples in each cluster. */
+    protected final double[] w;
+    /** The largest total weight each cluster could have had (and the sum of its squared terms). */
+    protected final double[] wPlus;
+    protected final double[] wPlusSquare;
+    /** The smallest total weight each cluster could have had. */
+    protected final double[] wMinus;
+
+    protected final double[] wx;
+    protected final double[] wxPlus;
+    protected final double[] wxMinus;
+
+    /**
+     * @param centroids numClusters * dimensions mean coordinates (copied)
+     */
+    public EMIterationStats( double[] centroids, int numClusters, int dimensions )
+    {
+        super( centroids, numClusters, dimensions );
+
+        this.cMax = centroids.clone( );
+        this.cMin = centroids.clone( );
+        this.cMaxAssignment = centroids.clone( );
+        this.cMinAssignment = centroids.clone( );
+
+        this.lastAssignmentBound = new double[numClusters];
+        this.w = new double[numClusters];
+        this.wPlus = new double[numClusters];
+        this.wPlusSquare = new double[numClusters];
+        this.wMinus = new double[numClusters];
+
+        int size = numClusters * dimensions;
+        this.wx = new double[size];
+        this.wxPlus = new double[size];
+        this.wxMinus = new double[size];
+    }
+
+    @Override
+    protected EMIterationStats newStats( double[] centroids )
+    {
+        return new EMIterationStats( centroids, numClusters, dimensions );
+    }
+
+    /**
+     * Computes the expectation step for count rows (starting at row first of rows),
+     * adding their statistics to into (this object, or a partial of it). Only reads
+     * the means and bounds of this object, so several threads may process rows at
+     * once into separate partials.
+     *
+     * @param sigmaSquare the variance of the Gaussians
+     */
+    public void expect( double[] rows, int first, int count, double sigmaSquare, EMIterationStats into )
+    {
+        final int k = numClusters;
+        final int d = dimensions;
+        final double[] centroids = this.centroids;
+        final double[] lastBound = this.lastBound;
+        final double scale = -1.0 / ( 2.0 * sigmaSquare );
+
+        double[] distances = new double[k];
+        double[] density = new double[k];
+        double[] far = new double[k];
+        double[] near = new double[k];
+
+        for ( int r = first ; r < first + count ; r++ )
+        {
+            int row = r * d;
+            into.n++;
+
+            // the densities are scaled by that of the nearest (possible) mean so they don't all underflow
+            double nearest = Double.POSITIVE_INFINITY;
+            double nearestPossible = Double.POSITIVE_INFINITY;
+            for ( int i = 0 ; i < k ; i++ )
+            {
+                distances[i] = distance( rows, row, centroids, i * d, d );
+                double closest = Math.max( distances[i] - lastBound[i], 0 );
+                nearest = Math.min( nearest, distances[i] * distances[i] );
+                nearestPossible = Math.min( nearestPossible, closest * closest );
+            }
+
+            double sum = 0;
+            double farSum = 0;
+            double nearSum = 0;
+            for ( int i = 0 ; i < k ; i++ )
+            {
+                double closest = Math.max( distances[i] - lastBound[i], 0 );
+                double farthest = distances[i] + lastBound[i];
+                density[i] = Math.exp( scale * ( distances[i] * distances[i] - nearest ) );
+                near[i] = Math.exp( scale * ( closest * closest - nearestPossible ) );
+                far[i] = Math.exp( scale * ( farthest * farthest - nearestPossible ) );
+                sum += density[i];
+                nearSum += near[i];
+                farSum += far[i];
+            }
+
+            for ( int i = 0 ; i < k ; i++ )
+            {
+                double weight = density[i] / sum;
+
+                // the weight is largest with mean i as near as its bound allows and the
+                // others as far as theirs allow, and smallest the other way around (if
+                // every term underflows use the trivial bounds)
+                double upperSum = farSum - far[i] + near[i];
+                double upper = upperSum > 0 ? near[i] / upperSum : 1;
+                double lowerSum = nearSum - near[i] + far[i];
+                double lower = lowerSum > 0 ? far[i] / lowerSum : 0;
+
+                into.w[i] += weight;
+                into.wPlus[i] += upper;
+                into.wPlusSquare[i] += upper * upper;
+                into.wMinus[i] += lower;
+
+                int mean = i * d;
+                for ( int j = 0 ; j < d ; j++ )
+                {
+                    double x = rows[row + j];
+                    if ( x != x ) continue;
+
+                    into.wx[mean + j] += weight * x;
+                    if ( x >= 0 )
+                    {
+                        into.wxPlus[mean + j] += upper * x;
+                        into.wxMinus[mean + j] += lower * x;
+                    }
+                    else
+                    {
+                        into.wxPlus[mean + j] += lower * x;
+                        into.wxMinus[mean + j] += upper * x;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the sums of a partial (see {@link #newPartial()}) to this object.
+     */
+    @Override
+    public void merge( EMIterationStats partial )
+    {
+        n += partial.n;
+        add( w, partial.w );
+        add( wPlus, partial.wPlus );
+        add( wPlusSquare, partial.wPlusSquare );
+        add( wMinus, partial.wMinus );
+        add( wx, partial.wx );
+        add( wxPlus, partial.wxPlus );
+        add( wxMinus, partial.wxMinus );
+    }
+
+    /**
+     * Computes the means of the next iteration from the expectations of this one
+     * (the maximization step), and bounds the difference between each of their
+     * coordinates and the coordinate which infinite data would have given (using
+     * the same means for this iteration).
+     *
+     * @param delta the probability that a bound on a single coordinate fails
+     */
+    public EMIterationStats next( double delta )
+    {
+        final int d = dimensions;
+
+        // move each mean to the weighted mean of the examples (unless it has no weight)
+        double[] newCentroids = centroids.clone( );
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            if ( w[i] <= 0 ) continue;
+            for ( int j = 0 ; j < d ; j++ )
+            {
+                newCentroids[i * d + j] = Math.max( wx[i * d + j] / w[i], 0 );
+            }
+        }
+
+        EMIterationStats next = new EMIterationStats( newCentroids, numClusters, dimensions );
+        next.foundBound = foundBound;
+
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            // Hoeffding bound on a weighted mean, with 1 / (sum w^2 / (sum w)^2) effective examples
+            double ratio = wMinus[i] > 0 ? wPlusSquare[i] / ( wMinus[i] * wMinus[i] ) : 1;
+            ratio = Math.max( Math.min( ratio, 1 ), n > 0 ? 1.0 / n : 1 );
+            double epsilon = Math.sqrt( ratio * Math.log( 2.0 / delta ) / 2.0 );
+
+            // without enough weight the bounds stay at the previous mean
+            boolean upper = wMinus[i] > 0 && wMinus[i] - epsilon > 0;
+            boolean lower = wPlus[i] > 0;
+            for ( int j = 0 ; j < d ; j++ )
+            {
+                int index = i * d + j;
+
+                if ( upper )
+                {
+                    next.cMaxAssignment[index] = wxPlus[index] / wMinus[i];
+                    next.cMax[index] = next.cMaxAssignment[index] + epsilon;
+                }
+                else
+                {
+                    next.cMaxAssignment[index] = centroids[index];
+                    next.cMax[index] = centroids[index];
+                }
+
+                if ( lower )
+                {
+                    next.cMinAssignment[index] = Math.max( wxMinus[index] / wPlus[i], 0 );
+                    next.cMin[index] = Math.max( wxMinus[index] / wPlus[i] - epsilon, 0 );
+                }
+                else
+                {
+                    next.cMinAssignment[index] = centroids[index];
+                    next.cMin[index] = centroids[index];
+                }
+
+                next.errorBound[index] = Math.max( Math.abs( next.cMax[index] - newCentroids[index] ), Math.abs( next.cMin[index] - newCentroids[index] ) );
+            }
+
+            if ( w[i] == 0 || wMinus[i] == 0 || wPlus[i] == 0 )
+            {
+                // we can't find a bound for this round
+                next.lastBound[i] = 1000000;
+                next.lastAssignmentBound[i] = 1000000;
+                next.foundBound = false;
+                continue;
+            }
+
+            int mean = i * d;
+            next.lastBound[i] = Math.max( distance( newCentroids, mean, next.cMax, mean, d ), distance( newCentroids, mean, next.cMin, mean, d ) );
+            next.lastAssignmentBound[i] = Math.max( distance( newCentroids, mean, next.cMaxAssignment, mean, d ), distance( newCentroids, mean, next.cMinAssignment, mean, d ) );
+
+            for ( int j = 0 ; j < d ; j++ )
+            {
+                if ( next.maxEkd < next.errorBound[mean + j] ) next.maxEkd = next.errorBound[mean + j];
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * @return the part of the error bound of the mean due to the bounds on the previous means
+     */
+    public double getLastAssignmentBound( int cluster )
+    {
+        return lastAssignmentBound[cluster];
+    }
+
+    /**
+     * @return the total weight of the examples in the cluster
+     */
+    public double getWeight( int cluster )
+    {
+        return w[cluster];
+    }
+
+    /**
+     * @return the sum of the squares of the largest weights each example could have had in the cluster
+     */
+    public double getUpperWeightSquare( int cluster )
+    {
+        return wPlusSquare[cluster];
+    }
+
+    /**
+     * @return the smallest total weight the cluster could have had
+     */
+    public double getLowerWeight( int cluster )
+    {
+        return wMinus[cluster];
+    }
+
+    @Override
+    public String toString( )
+    {
+        StringBuilder b = new StringBuilder( );
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            b.append( String.format( "c #%d lb: %.3f lab: %.3f w: %.1f w+: %.1f w-: %.1f%n", i, lastBound[i], lastAssignmentBound[i], w[i], wPlus[i], wMinus[i] ) );
+        }
+        return b.toString( );
+    }
+}
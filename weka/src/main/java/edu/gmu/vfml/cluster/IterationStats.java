@@ -0,0 +1,232 @@
+package edu.gmu.vfml.cluster;
+
+/**
+ * <p>The centroids used by one iteration of a {@link weka.clusterers.VeryFastClusterer}
+ * and the statistics gathered from the iteration's sample: subclasses gather the
+ * sums of their algorithm's iteration and compute the next centroids and the
+ * bound on each of their coordinates ({@link KMeansIterationStats} for k-means,
+ * {@link EMIterationStats} for EM); this class keeps the bounds and tests whether
+ * the centroids converged.</p>
+ *
+ * <p>The per cluster, per dimension values are kept in flat arrays indexed by
+ * cluster * dimensions + dimension. Samples can be processed in parallel into
+ * separate partial statistics ({@link #newPartial()}) which are then combined with
+ * {@link #merge(IterationStats)}.</p>
+ *
+ * @author ulman
+ */
+public abstract class IterationStats<S extends IterationStats<S>>
+{
+    protected final int numClusters;
+    protected final int dimensions;
+
+    protected final double[] centroids;
+
+    /** The error bound of each centroid. */
+    protected final double[] lastBound;
+    /** The error bound of each centroid coordinate. */
+    protected final double[] errorBound;
+    protected double maxEkd;
+    protected boolean foundBound;
+
+    /** The number of examples in the sample. */
+    protected long n;
+
+    protected boolean possibleIDConverge;
+    protected boolean guaranteeIDConverge;
+    protected boolean wouldConverge;
+    protected boolean convergeVF;
+
+    /**
+     * @param centroids numClusters * dimensions centroid coordinates (copied)
+     */
+    protected IterationStats( double[] centroids, int numClusters, int dimensions )
+    {
+        this.numClusters = numClusters;
+        this.dimensions = dimensions;
+        this.centroids = centroids.clone( );
+
+        this.lastBound = new double[numClusters];
+        this.errorBound = new double[numClusters * dimensions];
+
+        // we always have a perfect bound for the initial centroids
+        this.foundBound = true;
+    }
+
+    /**
+     * @return empty statistics for the provided centroids
+     */
+    protected abstract S newStats( double[] centroids );
+
+    /**
+     * @return empty statistics for the same centroids and bounds, to process part of
+     *         the sample into (see {@link #merge(IterationStats)})
+     */
+    public S newPartial( )
+    {
+        S partial = newStats( centroids );
+        System.arraycopy( lastBound, 0, partial.lastBound, 0, numClusters );
+        return partial;
+    }
+
+    /**
+     * Adds the sums of a partial (see {@link #newPartial()}) to this object.
+     */
+    public abstract void merge( S partial );
+
+    protected static void add( double[] sums, double[] partial )
+    {
+        for ( int i = 0 ; i < sums.length ; i++ )
+        {
+            sums[i] += partial[i];
+        }
+    }
+
+    /**
+     * @return the euclidean distance between the d values of a and b starting at
+     *         aOffset and bOffset, ignoring dimensions missing (NaN) in a
+     */
+    public static double distance( double[] a, int aOffset, double[] b, int bOffset, int d )
+    {
+        double sum = 0;
+        for ( int j = 0 ; j < d ; j++ )
+        {
+            double delta = a[aOffset + j] - b[bOffset + j];
+            if ( delta == delta ) sum += delta * delta;
+        }
+        return Math.sqrt( sum );
+    }
+
+    /**
+     * Compares the centroids of this iteration with those of the previous one and
+     * records which of the convergence tests they pass.
+     *
+     * @param previous the statistics of the previous iteration (which computed these centroids)
+     * @param convergeDelta the squared distance the centroids may move in an iteration in which the algorithm converges
+     */
+    public void checkConvergence( S previous, double convergeDelta )
+    {
+        double bound = 0;
+        double lowerBound = 0;
+        double upperBound = 0;
+
+        for ( int index = 0 ; index < centroids.length ; index++ )
+        {
+            double distance = Math.abs( previous.centroids[index] - centroids[index] );
+            double error = previous.errorBound[index] + errorBound[index];
+
+            bound += distance * distance;
+            lowerBound += square( Math.max( distance - error, 0 ) );
+            upperBound += square( distance + error );
+        }
+
+        if ( bound <= convergeDelta / 3.0 )
+        {
+            convergeVF = true;
+        }
+
+        if ( lowerBound <= convergeDelta )
+        {
+            possibleIDConverge = true;
+            wouldConverge = bound <= convergeDelta;
+            guaranteeIDConverge = upperBound <= convergeDelta;
+        }
+    }
+
+    private static double square( double x )
+    {
+        return x * x;
+    }
+
+    public int getNumClusters( )
+    {
+        return numClusters;
+    }
+
+    public int getDimensions( )
+    {
+        return dimensions;
+    }
+
+    /**
+     * @return the coordinates of the centroids (numClusters * dimensions values, not a copy)
+     */
+    public double[] getCentroids( )
+    {
+        return centroids;
+    }
+
+    /**
+     * @return the error bound of each centroid (not a copy)
+     */
+    public double[] getLastBound( )
+    {
+        return lastBound;
+    }
+
+    /**
+     * @return the largest bound on a single centroid coordinate
+     */
+    public double getMaxEkd( )
+    {
+        return maxEkd;
+    }
+
+    /**
+     * @return false if some centroid could not be bounded in an iteration
+     */
+    public boolean isFoundBound( )
+    {
+        return foundBound;
+    }
+
+    public void setFoundBound( boolean foundBound )
+    {
+        this.foundBound = foundBound;
+    }
+
+    /**
+     * @return the number of examples processed in this iteration
+     */
+    public long getCount( )
+    {
+        return n;
+    }
+
+    public double getErrorBound( int cluster, int dimension )
+    {
+        return errorBound[cluster * dimensions + dimension];
+    }
+
+    /**
+     * @return true if the centroids might be within convergeDelta of the previous ones
+     */
+    public boolean isPossibleIDConverge( )
+    {
+        return possibleIDConverge;
+    }
+
+    /**
+     * @return true if the infinite data centroids are within convergeDelta of the previous ones
+     */
+    public boolean isGuaranteeIDConverge( )
+    {
+        return guaranteeIDConverge;
+    }
+
+    /**
+     * @return true if the algorithm would have converged on this sample
+     */
+    public boolean isWouldConverge( )
+    {
+        return wouldConverge;
+    }
+
+    /**
+     * @return true if the centroids moved less than a third of convergeDelta
+     */
+    public boolean isConvergeVF( )
+    {
+        return convergeVF;
+    }
+}
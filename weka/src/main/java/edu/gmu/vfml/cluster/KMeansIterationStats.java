@@ -0,0 +1,309 @@
+package edu.gmu.vfml.cluster;
+
+/**
+ * <p>The centroids used by one iteration of {@link weka.clusterers.VFKM} and the
+ * statistics gathered while assigning the iteration's sample to them (a port of
+ * vfkm-engine.c).</p>
+ *
+ * <p>Besides the sums needed to compute the next centroids, the statistics count the
+ * examples which another centroid might have won, had the centroids been computed
+ * from infinite data: an example is such a candidate for centroid i if its distance
+ * to i is within the error bounds of i and of its nearest centroid. These counts
+ * bound the error of the next centroids (see {@link #next(double, double, double, boolean)}).</p>
+ *
+ * <p>Samples can be assigned in parallel into separate partial statistics
+ * ({@link #newPartial()}) which are then combined with
+ * {@link #merge(KMeansIterationStats)}.</p>
+ *
+ * @author ulman
+ */
+public class KMeansIterationStats extends IterationStats<KMeansIterationStats>
+{
+    /** The number of examples won by each centroid. */
+    protected final long[] nHat;
+    /** The number of examples won by each centroid which another centroid might have won. */
+    protected final long[] nPlus;
+    /** The number of examples each centroid might have won but did not. */
+    protected final long[] nMinus;
+
+    protected final double[] deltaPlus;
+    protected final double[] deltaMinus;
+    protected final double[] xMaxSquareSum;
+    protected final double[] xMinSum;
+    protected final double[] wonSum;
+
+    /**
+     * @param centroids numClusters * dimensions centroid coordinates (copied)
+     */
+    public KMeansIterationStats( double[] centroids, int numClusters, int dimensions )
+    {
+        super( centroids, numClusters, dimensions );
+
+        this.nHat = new long[numClusters];
+        this.nPlus = new long[numClusters];
+        this.nMinus = new long[numClusters];
+
+        int size = numClusters * dimensions;
+        this.deltaPlus = new double[size];
+        this.deltaMinus = new double[size];
+        this.xMaxSquareSum = new double[size];
+        this.xMinSum = new double[size];
+        this.wonSum = new double[size];
+    }
+
+    @Override
+    protected KMeansIterationStats newStats( double[] centroids )
+    {
+        return new KMeansIterationStats( centroids, numClusters, dimensions );
+    }
+
+    /**
+     * Assigns count rows (starting at row first of rows) to their nearest centroids,
+     * adding their statistics to into (this object, or a partial of it). Only reads
+     * the centroids and bounds of this object, so several threads may assign rows
+     * at once into separate partials.
+     */
+    public void assign( double[] rows, int first, int count, KMeansIterationStats into )
+    {
+        final int k = numClusters;
+        final int d = dimensions;
+        final double[] centroids = this.centroids;
+        final double[] lastBound = this.lastBound;
+        double[] distances = new double[k];
+
+        for ( int r = first ; r < first + count ; r++ )
+        {
+            int row = r * d;
+            into.n++;
+
+            // find the distance to all the clusters and the nearest cluster
+            int center = 0;
+            for ( int i = 0 ; i < k ; i++ )
+            {
+                distances[i] = distance( rows, row, centroids, i * d, d );
+                if ( distances[i] < distances[center] ) center = i;
+            }
+
+            into.nHat[center]++;
+            int won = center * d;
+            for ( int j = 0 ; j < d ; j++ )
+            {
+                double x = rows[row + j];
+                if ( x != x ) continue;
+
+                into.xMaxSquareSum[won + j] += x * x;
+                into.xMinSum[won + j] += x;
+                into.wonSum[won + j] += x;
+            }
+
+            // find all other possible winners and update their counts
+            boolean contested = false;
+            for ( int i = 0 ; i < k ; i++ )
+            {
+                if ( i == center || distances[i] >= distances[center] + lastBound[i] + lastBound[center] ) continue;
+
+                contested = true;
+                into.nMinus[i]++;
+                int other = i * d;
+                for ( int j = 0 ; j < d ; j++ )
+                {
+                    double x = rows[row + j];
+                    if ( x != x ) continue;
+
+                    into.xMaxSquareSum[other + j] += x * x;
+                    double delta = x - centroids[other + j];
+                    if ( delta > 0 ) into.deltaPlus[other + j] += delta;
+                    else into.deltaMinus[other + j] -= delta;
+                }
+            }
+
+            // if someone else might have won then update the winner's nPlus
+            if ( contested )
+            {
+                into.nPlus[center]++;
+                for ( int j = 0 ; j < d ; j++ )
+                {
+                    double x = rows[row + j];
+                    if ( x != x ) continue;
+
+                    into.xMinSum[won + j] -= x;
+                    double delta = x - centroids[won + j];
+                    if ( delta < 0 ) into.deltaPlus[won + j] -= delta;
+                    else into.deltaMinus[won + j] += delta;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the counts and sums of a partial (see {@link #newPartial()}) to this object.
+     */
+    @Override
+    public void merge( KMeansIterationStats partial )
+    {
+        n += partial.n;
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            nHat[i] += partial.nHat[i];
+            nPlus[i] += partial.nPlus[i];
+            nMinus[i] += partial.nMinus[i];
+        }
+
+        add( deltaPlus, partial.deltaPlus );
+        add( deltaMinus, partial.deltaMinus );
+        add( xMaxSquareSum, partial.xMaxSquareSum );
+        add( xMinSum, partial.xMinSum );
+        add( wonSum, partial.wonSum );
+    }
+
+    /**
+     * Computes the centroids of the next iteration from the examples assigned in
+     * this one, and bounds the difference between each of their coordinates and the
+     * coordinate which infinite data would have given (using the same centroids
+     * for this iteration).
+     *
+     * @param delta the probability that a bound on a single coordinate fails
+     * @param range the range of values in each dimension
+     * @param assignErrorScale scales the part of the bound due to examples another centroid might have won
+     * @param normalApprox use a normal approximation instead of the Hoeffding bound where it is tighter
+     */
+    public KMeansIterationStats next( double delta, double range, double assignErrorScale, boolean normalApprox )
+    {
+        final int d = dimensions;
+
+        // move each centroid to the mean of the examples it won (unless it won none)
+        double[] newCentroids = centroids.clone( );
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            if ( nHat[i] == 0 ) continue;
+            for ( int j = 0 ; j < d ; j++ )
+            {
+                newCentroids[i * d + j] = wonSum[i * d + j] / nHat[i];
+            }
+        }
+
+        KMeansIterationStats next = new KMeansIterationStats( newCentroids, numClusters, dimensions );
+        next.foundBound = foundBound;
+
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            long uncontested = nHat[i] - nPlus[i];
+            if ( uncontested == 0 )
+            {
+                // we can't find a bound for this round
+                next.lastBound[i] = 1000000;
+                next.foundBound = false;
+                continue;
+            }
+
+            double hoeffdingBound = Math.sqrt( range * range * Math.log( 2 / delta ) / ( 2.0 * uncontested ) );
+
+            double boundSquareSum = 0;
+            for ( int j = 0 ; j < d ; j++ )
+            {
+                int index = i * d + j;
+
+                double usedBound = hoeffdingBound;
+                if ( normalApprox )
+                {
+                    double variance = ( nHat[i] + nMinus[i] ) * xMaxSquareSum[index] - xMinSum[index] * xMinSum[index];
+                    variance /= uncontested;
+                    variance /= uncontested - 1;
+
+                    double normalBound = normalBound( variance, uncontested, delta );
+                    if ( normalBound < hoeffdingBound ) usedBound = normalBound;
+                }
+
+                double bound = Math.max( deltaPlus[index], deltaMinus[index] ) / uncontested * assignErrorScale + usedBound;
+                if ( next.maxEkd < bound ) next.maxEkd = bound;
+
+                next.errorBound[index] = bound;
+                boundSquareSum += bound * bound;
+            }
+
+            next.lastBound[i] = Math.sqrt( boundSquareSum );
+        }
+
+        return next;
+    }
+
+    private static final double[] Z_DELTA = { .1, .01, .001, .0001, .00001, .000001, 0.000000287104999663335, 0.0000000009901218733787690, 0.0000000000012880807531701, 0.0000000000000321964677141 };
+    private static final double[] Z_VALUE = { 1.281550794, 2.326341928, 3.090244718, 3.719469532, 4.265457392, 4.768371582, 5, 6, 7, 7.5, 8 };
+
+    /**
+     * @return the half width of the 1 - delta confidence interval of the mean of n
+     *         samples with the provided variance, under a normal approximation
+     */
+    public static double normalBound( double variance, long n, double delta )
+    {
+        return zValue( delta ) * Math.sqrt( variance ) / Math.sqrt( n );
+    }
+
+    /**
+     * Interpolates the two sided z value for delta from a table (clamped at its ends).
+     */
+    private static double zValue( double delta )
+    {
+        for ( int i = 0 ; i < Z_DELTA.length ; i++ )
+        {
+            if ( Z_DELTA[i] <= delta )
+            {
+                if ( i == 0 ) return Z_VALUE[0];
+
+                double scale = 1.0 - ( delta - Z_DELTA[i] ) / ( Z_DELTA[i - 1] - Z_DELTA[i] );
+                return ( Z_VALUE[i] - Z_VALUE[i - 1] ) * scale + Z_VALUE[i - 1];
+            }
+        }
+        return Z_VALUE[Z_DELTA.length];
+    }
+
+    /**
+     * @return the index of the centroid nearest to the row starting at offset
+     */
+    public int nearest( double[] row, int offset )
+    {
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            double distance = distance( row, offset, centroids, i * dimensions, dimensions );
+            if ( distance < bestDistance )
+            {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    public long getWon( int cluster )
+    {
+        return nHat[cluster];
+    }
+
+    public long getContestedWon( int cluster )
+    {
+        return nPlus[cluster];
+    }
+
+    /**
+     * @return the largest of the positive and negative deviations of the examples
+     *         another centroid might have won, in the provided coordinate
+     */
+    public double getMaxDeviation( int cluster, int dimension )
+    {
+        int index = cluster * dimensions + dimension;
+        return Math.max( deltaPlus[index], deltaMinus[index] );
+    }
+
+    @Override
+    public String toString( )
+    {
+        StringBuilder b = new StringBuilder( );
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            b.append( String.format( "c #%d lb: %.3f n^: %d n+: %d n-: %d%n", i, lastBound[i], nHat[i], nPlus[i], nMinus[i] ) );
+        }
+        return b.toString( );
+    }
+}
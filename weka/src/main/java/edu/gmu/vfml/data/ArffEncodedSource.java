@@ -0,0 +1,83 @@
+package edu.gmu.vfml.data;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.converters.ArffLoader;
+
+/**
+ * An {@link EncodedSource} reading an ARFF file incrementally: each pass reopens the file
+ * and decodes only as many instances as are read, so the file is never loaded into
+ * memory.
+ *
+ * @author ulman
+ */
+public class ArffEncodedSource extends EncodedSource
+{
+    protected final File file;
+    protected InputStream in;
+    protected ArffLoader loader;
+    protected Instances structure;
+
+    /**
+     * @param file the ARFF file
+     * @param classIndex the index of the class attribute, or -1 if there is none
+     */
+    public ArffEncodedSource( File file, int classIndex ) throws IOException
+    {
+        super( readHeader( file, classIndex ) );
+        this.file = file;
+    }
+
+    private static Instances readHeader( File file, int classIndex ) throws IOException
+    {
+        InputStream in = new FileInputStream( file );
+        try
+        {
+            ArffLoader loader = new ArffLoader( );
+            loader.setSource( in );
+            Instances header = loader.getStructure( );
+            header.setClassIndex( classIndex );
+            return header;
+        }
+        finally
+        {
+            in.close( );
+        }
+    }
+
+    @Override
+    public void rewind( ) throws IOException
+    {
+        close( );
+
+        in = new FileInputStream( file );
+        loader = new ArffLoader( );
+        loader.setSource( in );
+        structure = loader.getStructure( );
+    }
+
+    @Override
+    protected Instance nextInstance( ) throws IOException
+    {
+        if ( loader == null ) rewind( );
+        return loader.getNextInstance( structure );
+    }
+
+    @Override
+    public void close( ) throws IOException
+    {
+        loader = null;
+        structure = null;
+
+        if ( in != null )
+        {
+            in.close( );
+            in = null;
+        }
+    }
+}
@@ -0,0 +1,571 @@
+package edu.gmu.vfml.data;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+import weka.core.Utils;
+import edu.gmu.vfml.bn.BeliefNet;
+import edu.gmu.vfml.bn.BifReader;
+
+/**
+ * <p>Samples instances from a {@link BeliefNet} (a port of the beliefnetdata tool of
+ * the original VFML distribution): nodes are sampled in topological order, each
+ * from the row of its CPT selected by its parents' sampled values. With probability
+ * noise, each value (including the class) is then replaced by a random value. The
+ * attributes are the nodes in node order, except that the class node (the last node
+ * by default) is moved to the end.</p>
+ *
+ * <p>Every CPT row is compiled into an alias table when the generator is created, so
+ * sampling a node costs one random number and two array reads whatever its number of
+ * values, and the row of a node is a dot product of its parents' values with
+ * precomputed multipliers.</p>
+ *
+ * <p>{@link #fill(int[], int)} generates blocks of {@link #BLOCK_SIZE} instances,
+ * each from its own generator split from this one's in block order, on
+ * {@link #setNumThreads(int) numThreads} threads. The instances depend only on the
+ * seed and the sequence of fill calls, not on the number of threads.
+ * {@link #main(String[])} writes a sample to an ARFF file which
+ * {@link ArffEncodedSource} and {@link ArffRowSource} (and so the learners) read.</p>
+ *
+ * @author ulman
+ */
+public class BeliefNetGenerator extends StreamGenerator
+{
+    /** The number of instances generated from each split generator by fill. */
+    public static final int BLOCK_SIZE = 4096;
+
+    protected final BeliefNet net;
+    protected final int classNode;
+    protected final double noise;
+
+    /** The attribute index of each node. */
+    protected final int[] positions;
+
+    // the sampling plan, by position in topological order
+    private final int[] order;
+    private final int[][] parentPositions;
+    private final int[][] multipliers;
+    private final int[][] aliasTables;
+    private final int[] numValues;
+
+    protected int numThreads = 1;
+    protected ExecutorService executor;
+
+    public BeliefNetGenerator( BeliefNet net, long seed )
+    {
+        this( net, net.getNumNodes( ) - 1, 0, new SplitMix64( seed ) );
+    }
+
+    public BeliefNetGenerator( BeliefNet net, SplitMix64 random )
+    {
+        this( net, net.getNumNodes( ) - 1, 0, random );
+    }
+
+    /**
+     * @param classNode the node which is the class (the last attribute)
+     * @param noise the probability of replacing each value by a random value
+     */
+    public BeliefNetGenerator( BeliefNet net, int classNode, double noise, long seed )
+    {
+        this( net, classNode, noise, new SplitMix64( seed ) );
+    }
+
+    public BeliefNetGenerator( BeliefNet net, int classNode, double noise, SplitMix64 random )
+    {
+        super( random );
+        this.net = net;
+        this.classNode = classNode;
+        this.noise = noise;
+
+        int n = net.getNumNodes( );
+        if ( classNode < 0 || classNode >= n )
+        {
+            throw new IllegalArgumentException( "BeliefNetGenerator: no class node " + classNode + "." );
+        }
+
+        int[] topological = net.getTopologicalOrder( );
+        if ( topological == null )
+        {
+            throw new IllegalArgumentException( "BeliefNetGenerator: the network has a cycle." );
+        }
+
+        positions = new int[n];
+        for ( int i = 0, position = 0 ; i < n ; i++ )
+        {
+            positions[i] = i == classNode ? n - 1 : position++;
+        }
+
+        order = new int[n];
+        parentPositions = new int[n][];
+        multipliers = new int[n][];
+        aliasTables = new int[n][];
+        numValues = new int[n];
+        for ( int t = 0 ; t < n ; t++ )
+        {
+            int node = topological[t];
+            int[] parents = net.getParents( node );
+
+            order[t] = positions[node];
+            numValues[t] = net.getNumValues( node );
+            parentPositions[t] = new int[parents.length];
+            multipliers[t] = new int[parents.length];
+
+            // rows are numbered with the last parent varying fastest
+            int multiplier = 1;
+            for ( int p = parents.length - 1 ; p >= 0 ; p-- )
+            {
+                parentPositions[t][p] = positions[parents[p]];
+                multipliers[t][p] = multiplier;
+                multiplier *= net.getNumValues( parents[p] );
+            }
+
+            double[] cpt = net.getCPT( node );
+            aliasTables[t] = new int[2 * cpt.length];
+            for ( int start = 0 ; start < cpt.length ; start += numValues[t] )
+            {
+                buildAliasTable( cpt, start, numValues[t], aliasTables[t] );
+            }
+        }
+
+        setDataset( header( net, classNode ) );
+    }
+
+    /**
+     * A generator sharing the sampling plan of other, with its own random sequence.
+     */
+    protected BeliefNetGenerator( BeliefNetGenerator other, SplitMix64 random )
+    {
+        super( random );
+        this.net = other.net;
+        this.classNode = other.classNode;
+        this.noise = other.noise;
+        this.positions = other.positions;
+        this.order = other.order;
+        this.parentPositions = other.parentPositions;
+        this.multipliers = other.multipliers;
+        this.aliasTables = other.aliasTables;
+        this.numValues = other.numValues;
+        setDataset( other.getDataset( ) );
+    }
+
+    /**
+     * Builds the alias table of a CPT row (Vose's method): value k is drawn by picking
+     * column k uniformly, then keeping k with the probability of column k, otherwise
+     * taking the alias of column k. Each column is a pair of ints in table, the
+     * probability scaled to 2^31 and the alias, so a draw reads one cache line. A row
+     * which does not sum to a positive number is treated as uniform.
+     */
+    private static void buildAliasTable( double[] cpt, int start, int numValues, int[] table )
+    {
+        double sum = 0;
+        for ( int k = 0 ; k < numValues ; k++ )
+        {
+            sum += cpt[start + k];
+        }
+
+        double[] scaled = new double[numValues];
+        int[] small = new int[numValues];
+        int[] large = new int[numValues];
+        int numSmall = 0;
+        int numLarge = 0;
+        for ( int k = 0 ; k < numValues ; k++ )
+        {
+            scaled[k] = sum > 0 ? cpt[start + k] * numValues / sum : 1.0;
+            if ( scaled[k] < 1.0 ) small[numSmall++] = k;
+            else large[numLarge++] = k;
+        }
+
+        while ( numSmall > 0 && numLarge > 0 )
+        {
+            int less = small[--numSmall];
+            int more = large[--numLarge];
+
+            table[2 * ( start + less )] = ( int ) ( scaled[less] * ( 1L << 31 ) );
+            table[2 * ( start + less ) + 1] = more;
+
+            scaled[more] = ( scaled[more] + scaled[less] ) - 1.0;
+            if ( scaled[more] < 1.0 ) small[numSmall++] = more;
+            else large[numLarge++] = more;
+        }
+
+        // what is left is 1 up to rounding
+        while ( numLarge > 0 )
+        {
+            int k = large[--numLarge];
+            table[2 * ( start + k )] = Integer.MAX_VALUE;
+            table[2 * ( start + k ) + 1] = k;
+        }
+        while ( numSmall > 0 )
+        {
+            int k = small[--numSmall];
+            table[2 * ( start + k )] = Integer.MAX_VALUE;
+            table[2 * ( start + k ) + 1] = k;
+        }
+    }
+
+    private static Instances header( BeliefNet net, int classNode )
+    {
+        FastVector attributes = new FastVector( );
+        for ( int i = 0 ; i < net.getNumNodes( ) ; i++ )
+        {
+            if ( i != classNode ) attributes.addElement( attribute( net, i ) );
+        }
+        Attribute classAttribute = attribute( net, classNode );
+        attributes.addElement( classAttribute );
+
+        Instances dataset = new Instances( net.getName( ), attributes, 0 );
+        dataset.setClass( classAttribute );
+        return dataset;
+    }
+
+    private static Attribute attribute( BeliefNet net, int node )
+    {
+        FastVector values = new FastVector( );
+        for ( int k = 0 ; k < net.getNumValues( node ) ; k++ )
+        {
+            values.addElement( net.getValueName( node, k ) );
+        }
+        return new Attribute( net.getNodeName( node ), values );
+    }
+
+    public BeliefNet getNet( )
+    {
+        return net;
+    }
+
+    /**
+     * @return the attribute index of node in the generated instances
+     */
+    public int getPosition( int node )
+    {
+        return positions[node];
+    }
+
+    public int getNumThreads( )
+    {
+        return numThreads;
+    }
+
+    /**
+     * @param numThreads the number of threads fill uses (0 for one per processor)
+     */
+    public void setNumThreads( int numThreads )
+    {
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    public void generate( int[] values, int offset )
+    {
+        sample( values, offset, random );
+    }
+
+    private void sample( int[] values, int offset, SplitMix64 random )
+    {
+        for ( int t = 0 ; t < order.length ; t++ )
+        {
+            int row = 0;
+            int[] parents = parentPositions[t];
+            int[] multiplier = multipliers[t];
+            for ( int p = 0 ; p < parents.length ; p++ )
+            {
+                row += values[offset + parents[p]] * multiplier[p];
+            }
+
+            // the high bits pick the column, the low 31 bits decide between it and its alias
+            int n = numValues[t];
+            long bits = random.nextLong( );
+            int column = ( int ) ( ( ( bits >>> 32 ) * n ) >>> 32 );
+            int index = 2 * ( row * n + column );
+            int[] table = aliasTables[t];
+
+            // branch free: keep is -1 if the column is kept (the branch would be unpredictable)
+            int alias = table[index + 1];
+            int keep = ( ( ( int ) bits & Integer.MAX_VALUE ) - table[index] ) >> 31;
+            values[offset + order[t]] = alias ^ ( ( column ^ alias ) & keep );
+        }
+
+        if ( noise > 0 )
+        {
+            for ( int t = 0 ; t < order.length ; t++ )
+            {
+                if ( random.nextDouble( ) < noise )
+                {
+                    values[offset + order[t]] = random.nextInt( numValues[t] );
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates numInstances consecutive encoded instances, in blocks of
+     * {@link #BLOCK_SIZE} instances generated in parallel.
+     */
+    @Override
+    public void fill( final int[] values, int numInstances )
+    {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>( );
+        for ( int first = 0 ; first < numInstances ; first += BLOCK_SIZE )
+        {
+            final SplitMix64 blockRandom = random.split( );
+            final int start = first;
+            final int end = Math.min( numInstances, first + BLOCK_SIZE );
+            tasks.add( new Callable<Void>( )
+            {
+                @Override
+                public Void call( )
+                {
+                    for ( int i = start ; i < end ; i++ )
+                    {
+                        sample( values, i * stride, blockRandom );
+                    }
+                    return null;
+                }
+            } );
+        }
+
+        try
+        {
+            if ( numThreads == 1 || tasks.size( ) == 1 )
+            {
+                for ( Callable<Void> task : tasks )
+                {
+                    task.call( );
+                }
+            }
+            else
+            {
+                for ( Future<Void> future : getExecutor( ).invokeAll( tasks ) )
+                {
+                    future.get( );
+                }
+            }
+        }
+        catch ( Exception e )
+        {
+            throw new IllegalStateException( "BeliefNetGenerator: generation failed.", e );
+        }
+    }
+
+    /**
+     * Writes numInstances instances (Long.MAX_VALUE for an endless stream) as the data
+     * section of an ARFF file. Blocks are generated and formatted on the generation
+     * threads while earlier blocks are written, in order, so the output is the same
+     * whatever the number of threads.
+     */
+    public void writeData( OutputStream out, long numInstances ) throws Exception
+    {
+        final byte[][][] names = new byte[stride][][];
+        for ( int a = 0 ; a < stride ; a++ )
+        {
+            Attribute attribute = dataset.attribute( a );
+            names[a] = new byte[attribute.numValues( )][];
+            for ( int k = 0 ; k < attribute.numValues( ) ; k++ )
+            {
+                names[a][k] = Utils.quote( attribute.value( k ) ).getBytes( "ISO-8859-1" );
+            }
+        }
+
+        int threads = numThreads > 0 ? numThreads : Runtime.getRuntime( ).availableProcessors( );
+        LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>( );
+        long submitted = 0;
+        while ( submitted < numInstances || !pending.isEmpty( ) )
+        {
+            // keep a few blocks per thread in flight
+            while ( submitted < numInstances && pending.size( ) < 2 * threads )
+            {
+                final int count = ( int ) Math.min( BLOCK_SIZE, numInstances - submitted );
+                final BeliefNetGenerator generator = new BeliefNetGenerator( this, random.split( ) );
+                pending.add( getExecutor( ).submit( new Callable<byte[]>( )
+                {
+                    @Override
+                    public byte[] call( )
+                    {
+                        return generator.format( count, names );
+                    }
+                } ) );
+                submitted += count;
+            }
+
+            out.write( pending.removeFirst( ).get( ) );
+        }
+        out.flush( );
+    }
+
+    /**
+     * @return count instances as lines of comma separated value names
+     */
+    private byte[] format( int count, byte[][][] names )
+    {
+        int[] values = new int[stride];
+        ByteBuffer b = new ByteBuffer( count * stride * 8 );
+        for ( int i = 0 ; i < count ; i++ )
+        {
+            sample( values, 0, random );
+            for ( int a = 0 ; a < stride ; a++ )
+            {
+                if ( a > 0 ) b.append( ( byte ) ',' );
+                b.append( names[a][values[a]] );
+            }
+            b.append( ( byte ) '\n' );
+        }
+        return b.toByteArray( );
+    }
+
+    /**
+     * A growable byte array (ByteArrayOutputStream synchronizes every write).
+     */
+    private static class ByteBuffer
+    {
+        private byte[] bytes;
+        private int length;
+
+        ByteBuffer( int capacity )
+        {
+            bytes = new byte[Math.max( 16, capacity )];
+        }
+
+        void append( byte value )
+        {
+            if ( length == bytes.length ) grow( 1 );
+            bytes[length++] = value;
+        }
+
+        void append( byte[] values )
+        {
+            if ( length + values.length > bytes.length ) grow( values.length );
+            System.arraycopy( values, 0, bytes, length, values.length );
+            length += values.length;
+        }
+
+        private void grow( int needed )
+        {
+            byte[] larger = new byte[Math.max( 2 * bytes.length, length + needed )];
+            System.arraycopy( bytes, 0, larger, 0, length );
+            bytes = larger;
+        }
+
+        byte[] toByteArray( )
+        {
+            byte[] result = new byte[length];
+            System.arraycopy( bytes, 0, result, 0, length );
+            return result;
+        }
+    }
+
+    protected ExecutorService getExecutor( )
+    {
+        if ( executor == null )
+        {
+            int threads = numThreads > 0 ? numThreads : Runtime.getRuntime( ).availableProcessors( );
+            executor = Executors.newFixedThreadPool( threads, new ThreadFactory( )
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "BeliefNetGenerator" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+
+        return executor;
+    }
+
+    /**
+     * Stops the generation threads (they are daemon threads, so this is only needed
+     * to release them before the program ends).
+     */
+    public void shutdown( )
+    {
+        if ( executor != null )
+        {
+            executor.shutdown( );
+            executor = null;
+        }
+    }
+
+    /**
+     * Writes a sample of a BIF network as an ARFF file. Options:
+     * <pre>
+     * -b &lt;file&gt;       the BIF file (required)
+     * -n &lt;instances&gt;  the number of instances, -1 for an endless stream (default 10000)
+     * -s &lt;seed&gt;       the seed (default random, printed to standard error)
+     * -c &lt;node&gt;       the name of the class node (default the last node)
+     * -r &lt;percent&gt;    replace this percentage of values by random values (default 0)
+     * -P &lt;threads&gt;    the number of generating threads, 0 for one per processor (default 0)
+     * -o &lt;file&gt;       the ARFF file (default standard output)
+     * </pre>
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        String bifFile = Utils.getOption( 'b', args );
+        if ( bifFile.isEmpty( ) )
+        {
+            System.err.println( "Usage: BeliefNetGenerator -b <bif file> [-n <instances>] [-s <seed>] [-c <class node>] [-r <noise percent>] [-P <threads>] [-o <arff file>]" );
+            return;
+        }
+        BeliefNet net = BifReader.read( new File( bifFile ) );
+
+        String option;
+        long numInstances = 10000;
+        if ( !( option = Utils.getOption( 'n', args ) ).isEmpty( ) ) numInstances = Long.parseLong( option );
+        if ( numInstances < 0 ) numInstances = Long.MAX_VALUE;
+
+        long seed;
+        if ( !( option = Utils.getOption( 's', args ) ).isEmpty( ) )
+        {
+            seed = Long.parseLong( option );
+        }
+        else
+        {
+            seed = new SplitMix64( ).nextLong( );
+            System.err.println( "seed " + seed );
+        }
+
+        int classNode = net.getNumNodes( ) - 1;
+        if ( !( option = Utils.getOption( 'c', args ) ).isEmpty( ) )
+        {
+            classNode = net.lookupNode( option );
+            if ( classNode < 0 )
+            {
+                throw new IllegalArgumentException( "BeliefNetGenerator: the network has no node " + option + "." );
+            }
+        }
+
+        double noise = 0;
+        if ( !( option = Utils.getOption( 'r', args ) ).isEmpty( ) ) noise = Double.parseDouble( option ) / 100.0;
+
+        BeliefNetGenerator generator = new BeliefNetGenerator( net, classNode, noise, seed );
+        generator.setNumThreads( 0 );
+        if ( !( option = Utils.getOption( 'P', args ) ).isEmpty( ) ) generator.setNumThreads( Integer.parseInt( option ) );
+
+        String outputFile = Utils.getOption( 'o', args );
+        OutputStream out = new BufferedOutputStream( outputFile.isEmpty( ) ? System.out : new FileOutputStream( outputFile ), 1 << 16 );
+        try
+        {
+            // the header, ending with @data
+            out.write( new Instances( generator.getDataset( ), 0 ).toString( ).getBytes( "ISO-8859-1" ) );
+            generator.writeData( out, numInstances );
+        }
+        finally
+        {
+            out.close( );
+            generator.shutdown( );
+        }
+    }
+}
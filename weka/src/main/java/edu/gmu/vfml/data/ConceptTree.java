@@ -0,0 +1,335 @@
+package edu.gmu.vfml.data;
+
+import java.util.Arrays;
+
+/**
+ * <p>A random decision tree over binary attributes used as the target concept of
+ * {@link TreeDataGenerator} and {@link DriftingDataGenerator} (a port of the concept
+ * trees of the original treedata and driftingdata tools). The tree is grown from
+ * the root: nodes at depths less than firstPruneLevel are always split, deeper
+ * nodes become leaves with probability prunePercent, and nodes deeper than maxLevel
+ * are always leaves. Each split uses a random attribute not already used on the path
+ * from the root, and each leaf is labeled with a random class. Subtrees whose
+ * leaves all have the same class are then collapsed into a leaf.</p>
+ *
+ * <p>Nodes are stored in arrays (the two children of a node are adjacent), so
+ * classifying an encoded instance does not allocate.</p>
+ *
+ * @author ulman
+ */
+public class ConceptTree
+{
+    private static final int LEAF = -1;
+
+    protected final int numAttributes;
+    protected final int numClasses;
+    protected final int firstPruneLevel;
+    protected final int maxLevel;
+
+    protected int[] attributes;
+    protected int[] children;
+    protected int[] classes;
+    protected int[] levels;
+    protected int[] parents;
+    protected int size;
+
+    protected ConceptTree( int numAttributes, int numClasses, int firstPruneLevel, int maxLevel )
+    {
+        this.numAttributes = numAttributes;
+        this.numClasses = numClasses;
+        this.firstPruneLevel = firstPruneLevel;
+        this.maxLevel = maxLevel;
+
+        int capacity = 64;
+        this.attributes = new int[capacity];
+        this.children = new int[capacity];
+        this.classes = new int[capacity];
+        this.levels = new int[capacity];
+        this.parents = new int[capacity];
+    }
+
+    /**
+     * Grows a random concept tree with the defaults of the original tools
+     * (prunePercent 25, firstPruneLevel 3, maxLevel 18).
+     */
+    public static ConceptTree random( int numAttributes, int numClasses, long seed )
+    {
+        return random( numAttributes, numClasses, seed, 25, 3, 18 );
+    }
+
+    /**
+     * Grows a random concept tree. The random choices at each node only depend on
+     * the seed and the position of the node, so the same seed always gives the
+     * same tree.
+     *
+     * @param numAttributes the number of binary attributes
+     * @param numClasses the number of classes
+     * @param seed the concept seed
+     * @param prunePercent the percentage of nodes at depth firstPruneLevel or more made into leaves
+     * @param firstPruneLevel nodes at smaller depths are always split
+     * @param maxLevel nodes at larger depths are always leaves
+     */
+    public static ConceptTree random( int numAttributes, int numClasses, long seed, double prunePercent, int firstPruneLevel, int maxLevel )
+    {
+        ConceptTree tree = new ConceptTree( numAttributes, numClasses, firstPruneLevel, maxLevel );
+        boolean[] active = new boolean[numAttributes];
+        Arrays.fill( active, true );
+
+        tree.add( -1, 0 );
+        tree.grow( 0, seed, 1, active, numAttributes, prunePercent );
+        tree.prunePureSubtrees( 0 );
+        tree.compact( );
+        return tree;
+    }
+
+    private void grow( int node, long seed, long position, boolean[] active, int activeCount, double prunePercent )
+    {
+        // as in the original tools, each node draws from a generator seeded by its position
+        SplitMix64 random = new SplitMix64( seed * position );
+
+        int level = levels[node];
+        double percent = level < firstPruneLevel ? 0 : prunePercent;
+        if ( level > maxLevel || random.nextInt( 101 ) < percent || activeCount == 0 )
+        {
+            classes[node] = random.nextInt( numClasses );
+            return;
+        }
+
+        int attribute = pickAttribute( active, activeCount, random );
+        split( node, attribute );
+
+        active[attribute] = false;
+        grow( children[node], seed, position * 2, active, activeCount - 1, prunePercent );
+        grow( children[node] + 1, seed, position * 2 + 1, active, activeCount - 1, prunePercent );
+        active[attribute] = true;
+    }
+
+    private static int pickAttribute( boolean[] active, int activeCount, SplitMix64 random )
+    {
+        int k = random.nextInt( activeCount );
+        for ( int i = 0; i < active.length; i++ )
+        {
+            if ( active[i] && k-- == 0 ) return i;
+        }
+        throw new IllegalStateException( "ConceptTree: no active attribute." );
+    }
+
+    private int add( int parent, int level )
+    {
+        if ( size == attributes.length )
+        {
+            int capacity = size * 2;
+            attributes = Arrays.copyOf( attributes, capacity );
+            children = Arrays.copyOf( children, capacity );
+            classes = Arrays.copyOf( classes, capacity );
+            levels = Arrays.copyOf( levels, capacity );
+            parents = Arrays.copyOf( parents, capacity );
+        }
+
+        attributes[size] = LEAF;
+        children[size] = 0;
+        classes[size] = 0;
+        levels[size] = level;
+        parents[size] = parent;
+        return size++;
+    }
+
+    private void split( int node, int attribute )
+    {
+        attributes[node] = attribute;
+        children[node] = add( node, levels[node] + 1 );
+        add( node, levels[node] + 1 );
+    }
+
+    /**
+     * Collapses the subtrees whose leaves all predict the same class.
+     *
+     * @return the class of the subtree rooted at node if it is pure, otherwise -1
+     */
+    private int prunePureSubtrees( int node )
+    {
+        if ( attributes[node] == LEAF ) return classes[node];
+
+        int class0 = prunePureSubtrees( children[node] );
+        int class1 = prunePureSubtrees( children[node] + 1 );
+        if ( class0 >= 0 && class0 == class1 )
+        {
+            attributes[node] = LEAF;
+            classes[node] = class0;
+            return class0;
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the nodes which are no longer reachable from the root.
+     */
+    private void compact( )
+    {
+        int[] oldAttributes = attributes;
+        int[] oldChildren = children;
+        int[] oldClasses = classes;
+
+        ConceptTree compact = new ConceptTree( numAttributes, numClasses, firstPruneLevel, maxLevel );
+        compact.add( -1, 0 );
+        compact.copy( 0, 0, oldAttributes, oldChildren, oldClasses );
+
+        attributes = compact.attributes;
+        children = compact.children;
+        classes = compact.classes;
+        levels = compact.levels;
+        parents = compact.parents;
+        size = compact.size;
+    }
+
+    private void copy( int node, int oldNode, int[] oldAttributes, int[] oldChildren, int[] oldClasses )
+    {
+        classes[node] = oldClasses[oldNode];
+        if ( oldAttributes[oldNode] == LEAF ) return;
+
+        split( node, oldAttributes[oldNode] );
+        int child = children[node];
+        copy( child, oldChildren[oldNode], oldAttributes, oldChildren, oldClasses );
+        copy( child + 1, oldChildren[oldNode] + 1, oldAttributes, oldChildren, oldClasses );
+    }
+
+    /**
+     * @param values encoded binary attribute values
+     * @param offset the index of the first attribute value of the instance
+     * @return the class of the instance
+     */
+    public int classify( int[] values, int offset )
+    {
+        int node = 0;
+        int attribute;
+        while ( ( attribute = attributes[node] ) != LEAF )
+        {
+            node = children[node] + values[offset + attribute];
+        }
+        return classes[node];
+    }
+
+    /**
+     * Changes the class of a random leaf to a random class (which may be its current class).
+     */
+    public void changeLeafClass( SplitMix64 random )
+    {
+        int leaf = leafAt( random.nextInt( getLeafCount( ) ) );
+        classes[leaf] = random.nextInt( numClasses );
+    }
+
+    /**
+     * Replaces the subtree rooted at a random node between firstPruneLevel and
+     * maxLevel with a split on a random attribute not used by its ancestors, into
+     * two leaves with random classes.
+     *
+     * @return false if no node can be split
+     */
+    public boolean splitRandomNode( SplitMix64 random )
+    {
+        int eligible = 0;
+        for ( int node = 0; node < size; node++ )
+        {
+            if ( isSplittable( node ) ) eligible++;
+        }
+        if ( eligible == 0 ) return false;
+
+        int k = random.nextInt( eligible );
+        int node = 0;
+        for ( ; node < size; node++ )
+        {
+            if ( isSplittable( node ) && k-- == 0 ) break;
+        }
+
+        boolean[] active = new boolean[numAttributes];
+        Arrays.fill( active, true );
+        int activeCount = numAttributes;
+        for ( int ancestor = parents[node]; ancestor >= 0; ancestor = parents[ancestor] )
+        {
+            active[attributes[ancestor]] = false;
+            activeCount--;
+        }
+        if ( activeCount == 0 ) return false;
+
+        int attribute = pickAttribute( active, activeCount, random );
+        split( node, attribute );
+        classes[children[node]] = random.nextInt( numClasses );
+        classes[children[node] + 1] = random.nextInt( numClasses );
+
+        // the previous subtree of the node (if any) is no longer reachable
+        compact( );
+        return true;
+    }
+
+    private boolean isSplittable( int node )
+    {
+        return levels[node] >= firstPruneLevel && levels[node] < maxLevel;
+    }
+
+    /**
+     * @return the index of the k-th leaf in index order
+     */
+    private int leafAt( int k )
+    {
+        for ( int node = 0; node < size; node++ )
+        {
+            if ( attributes[node] == LEAF && k-- == 0 ) return node;
+        }
+        throw new IllegalArgumentException( "ConceptTree: no such leaf." );
+    }
+
+    public int getNumAttributes( )
+    {
+        return numAttributes;
+    }
+
+    public int getNumClasses( )
+    {
+        return numClasses;
+    }
+
+    /**
+     * @return the number of nodes (internal and leaf) in the tree
+     */
+    public int size( )
+    {
+        return size;
+    }
+
+    public int getLeafCount( )
+    {
+        int count = 0;
+        for ( int node = 0; node < size; node++ )
+        {
+            if ( attributes[node] == LEAF ) count++;
+        }
+        return count;
+    }
+
+    @Override
+    public String toString( )
+    {
+        StringBuilder text = new StringBuilder( );
+        toString( text, 0 );
+        return text.toString( );
+    }
+
+    private void toString( StringBuilder text, int node )
+    {
+        for ( int i = 0; i < levels[node]; i++ )
+        {
+            text.append( "|   " );
+        }
+
+        if ( attributes[node] == LEAF )
+        {
+            text.append( "class " ).append( classes[node] ).append( '\n' );
+        }
+        else
+        {
+            text.append( "attribute " ).append( attributes[node] ).append( '\n' );
+            toString( text, children[node] );
+            toString( text, children[node] + 1 );
+        }
+    }
+}
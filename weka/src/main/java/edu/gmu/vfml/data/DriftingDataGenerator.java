@@ -0,0 +1,100 @@
+package edu.gmu.vfml.data;
+
+/**
+ * <p>Generates instances of a random {@link ConceptTree} which changes every
+ * mutateInterval instances (a port of the driftingdata tool of the original VFML
+ * distribution). Only the class is made noisy, as in the original tool.</p>
+ *
+ * <p>The changes are drawn from a generator seeded by the concept seed, so
+ * generators created with the same concept seed (for example one per thread)
+ * see the same sequence of concepts after the same number of instances.</p>
+ *
+ * @author ulman
+ */
+public class DriftingDataGenerator extends TreeDataGenerator
+{
+    /** The concept never changes. */
+    public static final int DRIFT_NONE = 0;
+    /** Each change relabels a random leaf. */
+    public static final int DRIFT_CHANGE_CLASS = 1;
+    /** Two thirds of the changes relabel a random leaf, the others split a random node. */
+    public static final int DRIFT_CHANGE_CLASS_OR_SPLIT = 2;
+
+    private final int driftType;
+    private final int mutateInterval;
+    private final SplitMix64 driftRandom;
+
+    private long count;
+    private int mutationCount;
+
+    /**
+     * @param numAttributes the number of binary attributes
+     * @param numClasses the number of classes
+     * @param noise the probability of replacing the class by a random class
+     * @param conceptSeed the seed of the random concept tree and of its changes
+     * @param seed the seed of the instance stream
+     * @param driftType one of the DRIFT constants
+     * @param mutateInterval the number of instances between concept changes
+     */
+    public DriftingDataGenerator( int numAttributes, int numClasses, double noise, long conceptSeed, long seed, int driftType, int mutateInterval )
+    {
+        super( ConceptTree.random( numAttributes, numClasses, conceptSeed ), noise, false, new SplitMix64( seed ) );
+
+        if ( driftType < DRIFT_NONE || driftType > DRIFT_CHANGE_CLASS_OR_SPLIT )
+        {
+            throw new IllegalArgumentException( "DriftingDataGenerator: unknown drift type " + driftType + "." );
+        }
+        if ( mutateInterval <= 0 )
+        {
+            throw new IllegalArgumentException( "DriftingDataGenerator: mutateInterval must be positive." );
+        }
+
+        this.driftType = driftType;
+        this.mutateInterval = mutateInterval;
+        this.driftRandom = new SplitMix64( conceptSeed ).split( );
+    }
+
+    /**
+     * Creates a generator whose concept changes every 10000 instances (the default
+     * of the original tool).
+     */
+    public DriftingDataGenerator( int numAttributes, int numClasses, double noise, long conceptSeed, long seed, int driftType )
+    {
+        this( numAttributes, numClasses, noise, conceptSeed, seed, driftType, 10000 );
+    }
+
+    /**
+     * @return the number of times the concept has changed
+     */
+    public int getMutationCount( )
+    {
+        return mutationCount;
+    }
+
+    @Override
+    public void generate( int[] values, int offset )
+    {
+        if ( count != 0 && count % mutateInterval == 0 )
+        {
+            mutate( );
+        }
+        count++;
+
+        super.generate( values, offset );
+    }
+
+    private void mutate( )
+    {
+        if ( driftType == DRIFT_NONE ) return;
+
+        if ( driftType == DRIFT_CHANGE_CLASS || driftRandom.nextInt( 100 ) < 66 )
+        {
+            concept.changeLeafClass( driftRandom );
+            mutationCount++;
+        }
+        else if ( concept.splitRandomNode( driftRandom ) )
+        {
+            mutationCount++;
+        }
+    }
+}
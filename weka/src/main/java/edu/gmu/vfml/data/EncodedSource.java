@@ -0,0 +1,110 @@
+package edu.gmu.vfml.data;
+
+import java.io.IOException;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>Reads a data set of nominal attributes as encoded instances (the value index of
+ * every attribute, in attribute order, as generated by {@link StreamGenerator}), in
+ * passes which each start at the first instance (see {@link #rewind()}). Learners
+ * which make several passes over the data (such as {@link weka.classifiers.bayes.VFBN})
+ * read blocks of instances into a flat array with {@link #read(int[], int)}, so the
+ * instances need not fit in memory.</p>
+ *
+ * <p>Every attribute must be nominal. Missing values are read as -1.</p>
+ *
+ * @author ulman
+ */
+public abstract class EncodedSource
+{
+    protected final Instances header;
+    protected final int stride;
+
+    protected EncodedSource( Instances header )
+    {
+        for ( int i = 0 ; i < header.numAttributes( ) ; i++ )
+        {
+            Attribute attribute = header.attribute( i );
+            if ( !attribute.isNominal( ) )
+            {
+                throw new IllegalArgumentException( "EncodedSource: attribute " + attribute.name( ) + " is not nominal." );
+            }
+        }
+
+        this.header = new Instances( header, 0 );
+        this.stride = header.numAttributes( );
+    }
+
+    /**
+     * @return the attributes of the data set
+     */
+    public Instances getHeader( )
+    {
+        return header;
+    }
+
+    /**
+     * @return the number of values per encoded instance
+     */
+    public int getStride( )
+    {
+        return stride;
+    }
+
+    /**
+     * @return the number of instances in the data set, or -1 if it is not known
+     */
+    public long size( )
+    {
+        return -1;
+    }
+
+    /**
+     * Starts a new pass at the first instance.
+     */
+    public abstract void rewind( ) throws IOException;
+
+    /**
+     * @return the next instance of the current pass, or null at the end of the data set
+     */
+    protected abstract Instance nextInstance( ) throws IOException;
+
+    /**
+     * Reads up to maxInstances encoded instances of the current pass into values
+     * (getStride() values per instance, from index 0).
+     *
+     * @return the number of instances read, less than maxInstances only at the end of the data set
+     */
+    public int read( int[] values, int maxInstances ) throws IOException
+    {
+        int count = 0;
+        Instance instance;
+        while ( count < maxInstances && ( instance = nextInstance( ) ) != null )
+        {
+            encode( instance, values, count * stride );
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Copies the value indices of an instance into values, starting at offset.
+     */
+    public void encode( Instance instance, int[] values, int offset )
+    {
+        for ( int j = 0 ; j < stride ; j++ )
+        {
+            values[offset + j] = instance.isMissing( j ) ? -1 : ( int ) instance.value( j );
+        }
+    }
+
+    /**
+     * Releases the underlying data (the source cannot be read afterward).
+     */
+    public void close( ) throws IOException
+    {
+    }
+}
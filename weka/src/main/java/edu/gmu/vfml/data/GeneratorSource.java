@@ -0,0 +1,79 @@
+package edu.gmu.vfml.data;
+
+import weka.core.Instance;
+
+/**
+ * <p>An {@link EncodedSource} reading instances from a {@link StreamGenerator}.</p>
+ *
+ * <p>If the source has a seed, every pass restarts the generator from it, so each
+ * pass reads the same numInstances instances, as from a file. Otherwise each pass
+ * continues the generator's stream and reads new instances (as the original VFML
+ * learners read from standard input).</p>
+ *
+ * @author ulman
+ */
+public class GeneratorSource extends EncodedSource
+{
+    protected final StreamGenerator generator;
+    protected final long seed;
+    protected final boolean reseed;
+    protected final long numInstances;
+    protected long next;
+
+    /**
+     * Each pass reads the same numInstances instances, generated from seed.
+     */
+    public GeneratorSource( StreamGenerator generator, long seed, long numInstances )
+    {
+        this( generator, seed, true, numInstances );
+    }
+
+    /**
+     * Each pass reads the next numInstances instances of the generator's stream
+     * (Long.MAX_VALUE for an unbounded stream).
+     */
+    public GeneratorSource( StreamGenerator generator, long numInstances )
+    {
+        this( generator, 0, false, numInstances );
+    }
+
+    private GeneratorSource( StreamGenerator generator, long seed, boolean reseed, long numInstances )
+    {
+        super( generator.getDataset( ) );
+        this.generator = generator;
+        this.seed = seed;
+        this.reseed = reseed;
+        this.numInstances = numInstances;
+    }
+
+    @Override
+    public long size( )
+    {
+        return reseed ? numInstances : -1;
+    }
+
+    @Override
+    public void rewind( )
+    {
+        if ( reseed ) generator.setSeed( seed );
+        next = 0;
+    }
+
+    @Override
+    protected Instance nextInstance( )
+    {
+        if ( next >= numInstances ) return null;
+
+        next++;
+        return generator.next( );
+    }
+
+    @Override
+    public int read( int[] values, int maxInstances )
+    {
+        int count = ( int ) Math.min( maxInstances, numInstances - next );
+        generator.fill( values, count );
+        next += count;
+        return count;
+    }
+}
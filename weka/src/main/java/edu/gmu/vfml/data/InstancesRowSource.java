@@ -0,0 +1,39 @@
+package edu.gmu.vfml.data;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * A {@link RowSource} reading a data set held in memory.
+ *
+ * @author ulman
+ */
+public class InstancesRowSource extends RowSource
+{
+    protected final Instances data;
+    protected int next;
+
+    public InstancesRowSource( Instances data )
+    {
+        super( data );
+        this.data = data;
+    }
+
+    @Override
+    public long size( )
+    {
+        return data.numInstances( );
+    }
+
+    @Override
+    public void rewind( )
+    {
+        next = 0;
+    }
+
+    @Override
+    protected Instance nextInstance( )
+    {
+        return next < data.numInstances( ) ? data.instance( next++ ) : null;
+    }
+}
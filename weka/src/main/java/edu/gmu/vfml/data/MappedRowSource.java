@@ -0,0 +1,211 @@
+package edu.gmu.vfml.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import weka.core.Instance;
+
+/**
+ * <p>A {@link RowSource} caching the rows of another source in a memory mapped
+ * file. The underlying source is read only once, in order, as passes first reach
+ * its rows; every later pass over those rows copies them from the mapping, so
+ * rescanning a prefix of the data set costs no more than reading memory (or the
+ * page cache) however expensive the underlying source is to decode.</p>
+ *
+ * <p>The cache stores getDimensions() doubles per row in native byte order, mapped
+ * in segments of at most 128MB so data sets larger than the address space a single
+ * mapping allows can be cached. The cache file is deleted when the source is
+ * closed.</p>
+ *
+ * <p>Only the dimensions are cached, so the instances {@link #nextInstance()}
+ * decodes from the cache have the other attributes missing.</p>
+ *
+ * @author ulman
+ */
+public class MappedRowSource extends RowSource
+{
+    private static final long SEGMENT_BYTES = 1L << 27;
+
+    protected final RowSource source;
+    protected final File file;
+    protected final RandomAccessFile cache;
+    protected final FileChannel channel;
+    protected final List<DoubleBuffer> segments;
+    protected final int rowsPerSegment;
+
+    /** The number of rows in the cache. */
+    protected long cached;
+    /** True once the underlying source has been read to its end. */
+    protected boolean complete;
+    protected boolean started;
+    /** The index of the next row of the current pass. */
+    protected long position;
+
+    /**
+     * Caches the rows of source in a temporary file in the default temporary directory.
+     */
+    public MappedRowSource( RowSource source ) throws IOException
+    {
+        this( source, null );
+    }
+
+    /**
+     * Caches the rows of source in a temporary file in the provided directory (or
+     * the default temporary directory if it is null).
+     */
+    public MappedRowSource( RowSource source, File directory ) throws IOException
+    {
+        super( source.getHeader( ) );
+        this.source = source;
+        this.file = File.createTempFile( "vfml", ".rows", directory );
+        this.cache = new RandomAccessFile( file, "rw" );
+        this.channel = cache.getChannel( );
+        this.segments = new ArrayList<DoubleBuffer>( );
+
+        long rowBytes = 8L * Math.max( 1, getDimensions( ) );
+        this.rowsPerSegment = ( int ) Math.max( 1, SEGMENT_BYTES / rowBytes );
+    }
+
+    @Override
+    public long size( )
+    {
+        return complete ? cached : source.size( );
+    }
+
+    @Override
+    public void rewind( )
+    {
+        position = 0;
+    }
+
+    /**
+     * @return the next row of the current pass as an instance of the header, with
+     *         the attributes which are not dimensions missing
+     */
+    @Override
+    protected Instance nextInstance( ) throws IOException
+    {
+        double[] row = new double[attributes.length];
+        if ( read( row, 1 ) == 0 )
+        {
+            return null;
+        }
+
+        double[] values = new double[header.numAttributes( )];
+        Arrays.fill( values, Instance.missingValue( ) );
+        for ( int j = 0 ; j < attributes.length ; j++ )
+        {
+            values[attributes[j]] = row[j];
+        }
+
+        Instance instance = new Instance( 1.0, values );
+        instance.setDataset( header );
+        return instance;
+    }
+
+    @Override
+    public int read( double[] rows, int maxRows ) throws IOException
+    {
+        final int d = getDimensions( );
+
+        int count = 0;
+        while ( count < maxRows )
+        {
+            if ( position < cached )
+            {
+                // copy as many cached rows as possible from the current segment
+                int offset = ( int ) ( position % rowsPerSegment );
+                int n = ( int ) Math.min( maxRows - count, Math.min( rowsPerSegment - offset, cached - position ) );
+
+                DoubleBuffer segment = segments.get( ( int ) ( position / rowsPerSegment ) );
+                segment.position( offset * d );
+                segment.get( rows, count * d, n * d );
+
+                count += n;
+                position += n;
+            }
+            else if ( !complete )
+            {
+                // the underlying source is always positioned at the first uncached row
+                if ( !started )
+                {
+                    source.rewind( );
+                    started = true;
+                }
+
+                Instance instance = source.nextInstance( );
+                if ( instance == null )
+                {
+                    complete = true;
+                    break;
+                }
+
+                source.toRow( instance, rows, count * d );
+                append( rows, count * d );
+
+                count++;
+                position++;
+            }
+            else
+            {
+                break;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Adds the row starting at offset to the end of the cache.
+     */
+    protected void append( double[] rows, int offset ) throws IOException
+    {
+        final int d = getDimensions( );
+
+        int index = ( int ) ( cached / rowsPerSegment );
+        if ( index == segments.size( ) )
+        {
+            // mapping a region past the end of the file extends it
+            long segmentBytes = 8L * d * rowsPerSegment;
+            DoubleBuffer segment = channel.map( MapMode.READ_WRITE, index * segmentBytes, segmentBytes ).order( ByteOrder.nativeOrder( ) ).asDoubleBuffer( );
+            segments.add( segment );
+        }
+
+        DoubleBuffer segment = segments.get( index );
+        segment.position( ( int ) ( cached % rowsPerSegment ) * d );
+        segment.put( rows, offset, d );
+
+        cached++;
+    }
+
+    /**
+     * Closes the underlying source and deletes the cache.
+     */
+    @Override
+    public void close( ) throws IOException
+    {
+        try
+        {
+            source.close( );
+        }
+        finally
+        {
+            segments.clear( );
+            cache.close( );
+
+            // the file may not be deleted on all platforms while its mappings are reachable
+            if ( !file.delete( ) )
+            {
+                file.deleteOnExit( );
+            }
+        }
+    }
+}
@@ -1,26 +1,42 @@
 package edu.gmu.vfml.data;
 
-import java.util.Random;
-
 import weka.core.Attribute;
 import weka.core.FastVector;
-import weka.core.Instance;
 import weka.core.Instances;
 
-public class RandomDataGenerator
+/**
+ * Generates uniformly random binary attributes labeled by a {@link BooleanConcept},
+ * randomly flipping the class value with probability errorRate. Attribute values are
+ * drawn 64 at a time from a single random word and the concept is evaluated on a
+ * reused array, so {@link #fill(int[], int)} does not allocate.
+ */
+public class RandomDataGenerator extends StreamGenerator
 {
     private int numAttributes;
     private double errorRate;
-    private Instances dataset;
     private BooleanConcept concept;
-    private Random r;
+    private boolean[] values;
 
     public RandomDataGenerator( BooleanConcept concept, int numAttributes, double errorRate )
     {
+        this( concept, numAttributes, errorRate, new SplitMix64( ) );
+    }
+
+    /**
+     * Creates a generator producing a reproducible stream.
+     */
+    public RandomDataGenerator( BooleanConcept concept, int numAttributes, double errorRate, long seed )
+    {
+        this( concept, numAttributes, errorRate, new SplitMix64( seed ) );
+    }
+
+    protected RandomDataGenerator( BooleanConcept concept, int numAttributes, double errorRate, SplitMix64 random )
+    {
+        super( random );
         this.concept = concept;
         this.numAttributes = numAttributes;
         this.errorRate = errorRate;
-        this.r = new Random( );
+        this.values = new boolean[numAttributes];
         
         // build the attributes
         FastVector attributes = new FastVector( );
@@ -35,7 +51,7 @@ public class RandomDataGenerator
         attributes.addElement( classAttribute );
         
         // build the dataset wrapper
-        dataset = new Instances( "data", attributes, 0 );
+        setDataset( new Instances( "data", attributes, 0 ) );
         
         // add a single example instance
         dataset.add( next( ) );
@@ -56,35 +72,27 @@ public class RandomDataGenerator
     {
         this.concept = concept;
     }
-    
-    public Instances getDataset( )
-    {
-        return dataset;
-    }
 
-    public Instance next( )
+    @Override
+    public void generate( int[] encoded, int offset )
     {
-        boolean[] values = new boolean[numAttributes];
-        double[] wekaValues = new double[numAttributes+1];
-        
+        long bits = 0;
         for ( int i = 0 ; i < numAttributes ; i++ )
         {
-            values[i] = r.nextBoolean( );
-            wekaValues[i] = values[i] ? 1 : 0;
+            if ( ( i & 63 ) == 0 ) bits = random.nextLong( );
+
+            values[i] = ( bits & 1 ) != 0;
+            encoded[offset + i] = ( int ) ( bits & 1 );
+            bits >>>= 1;
         }
         
         boolean classValue = concept.f( values );
         
-        if ( r.nextDouble( ) < errorRate )
+        if ( errorRate > 0 && random.nextDouble( ) < errorRate )
         {
             classValue = !classValue;
         }
         
-        wekaValues[numAttributes] = classValue ? 1 : 0;
-        
-        Instance instance = new Instance( 1.0, wekaValues );
-        instance.setDataset( dataset );
-        
-        return instance;
+        encoded[offset + numAttributes] = classValue ? 1 : 0;
     }
 }
@@ -0,0 +1,60 @@
+package edu.gmu.vfml.data;
+
+import java.util.Random;
+
+/**
+ * <p>A {@code java.util.Random} whose state can be read and restored (for learner
+ * checkpoints). It implements the same linear congruential generator, so it
+ * produces exactly the same sequence as {@code java.util.Random} for the same seed.</p>
+ *
+ * <p>Note: Unlike {@code java.util.Random}, this class is not thread safe, and the
+ * state of {@link #nextGaussian()} is not part of {@link #getState()}.</p>
+ *
+ * @author ulman
+ */
+public class RestorableRandom extends Random
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = ( 1L << 48 ) - 1;
+
+    // set by the constructor of Random through setSeed( ), so it must not have an initializer
+    private long state;
+
+    public RestorableRandom( long seed )
+    {
+        super( seed );
+    }
+
+    @Override
+    public synchronized void setSeed( long seed )
+    {
+        super.setSeed( seed );
+        state = ( seed ^ MULTIPLIER ) & MASK;
+    }
+
+    @Override
+    protected int next( int bits )
+    {
+        state = ( state * MULTIPLIER + ADDEND ) & MASK;
+        return ( int ) ( state >>> ( 48 - bits ) );
+    }
+
+    /**
+     * @return the current state of the generator (see {@link #setState(long)})
+     */
+    public long getState( )
+    {
+        return state;
+    }
+
+    /**
+     * Restores a state returned by {@link #getState()}.
+     */
+    public void setState( long state )
+    {
+        this.state = state & MASK;
+    }
+}
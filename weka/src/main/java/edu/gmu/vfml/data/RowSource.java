@@ -0,0 +1,121 @@
+package edu.gmu.vfml.data;
+
+import java.io.IOException;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>Reads the numeric attributes of a data set as rows of doubles, in passes which
+ * each start at the first instance (see {@link #rewind()}). Learners which make
+ * several passes over a prefix of the data (such as {@link weka.clusterers.VFKM})
+ * read blocks of rows into a flat array with {@link #read(double[], int)}, so the
+ * instances need not fit in memory.</p>
+ *
+ * <p>Every numeric attribute other than the class attribute is a dimension of the
+ * rows; other attributes are ignored. Missing values are read as NaN.</p>
+ *
+ * @author ulman
+ */
+public abstract class RowSource
+{
+    protected final Instances header;
+    protected final int[] attributes;
+
+    protected RowSource( Instances header )
+    {
+        this.header = new Instances( header, 0 );
+
+        int count = 0;
+        int[] attributes = new int[header.numAttributes( )];
+        for ( int i = 0 ; i < header.numAttributes( ) ; i++ )
+        {
+            if ( i != header.classIndex( ) && header.attribute( i ).isNumeric( ) )
+            {
+                attributes[count++] = i;
+            }
+        }
+
+        this.attributes = new int[count];
+        System.arraycopy( attributes, 0, this.attributes, 0, count );
+    }
+
+    /**
+     * @return the attributes of the data set
+     */
+    public Instances getHeader( )
+    {
+        return header;
+    }
+
+    /**
+     * @return the number of values in each row
+     */
+    public int getDimensions( )
+    {
+        return attributes.length;
+    }
+
+    /**
+     * @return the attribute read into the provided dimension of each row
+     */
+    public Attribute getAttribute( int dimension )
+    {
+        return header.attribute( attributes[dimension] );
+    }
+
+    /**
+     * @return the number of instances in the data set, or -1 if it is not known
+     */
+    public long size( )
+    {
+        return -1;
+    }
+
+    /**
+     * Starts a new pass at the first instance.
+     */
+    public abstract void rewind( ) throws IOException;
+
+    /**
+     * @return the next instance of the current pass, or null at the end of the data set
+     */
+    protected abstract Instance nextInstance( ) throws IOException;
+
+    /**
+     * Reads up to maxRows rows of the current pass into rows (getDimensions() values
+     * per row, from index 0).
+     *
+     * @return the number of rows read, less than maxRows only at the end of the data set
+     */
+    public int read( double[] rows, int maxRows ) throws IOException
+    {
+        int count = 0;
+        Instance instance;
+        while ( count < maxRows && ( instance = nextInstance( ) ) != null )
+        {
+            toRow( instance, rows, count * attributes.length );
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Copies the dimensions of an instance into row, starting at offset.
+     */
+    public void toRow( Instance instance, double[] row, int offset )
+    {
+        for ( int j = 0 ; j < attributes.length ; j++ )
+        {
+            row[offset + j] = instance.isMissing( attributes[j] ) ? Double.NaN : instance.value( attributes[j] );
+        }
+    }
+
+    /**
+     * Releases the underlying data (the source cannot be read afterward).
+     */
+    public void close( ) throws IOException
+    {
+    }
+}
@@ -0,0 +1,127 @@
+package edu.gmu.vfml.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * <p>A small, fast, splittable pseudo random number generator (SplitMix64, the
+ * algorithm of {@code java.util.SplittableRandom}, which is not available on Java 6).
+ * Each generator produces a reproducible sequence from its seed, and
+ * {@link #split()} creates statistically independent generators, so parallel
+ * streams can each use their own generator without synchronization.</p>
+ *
+ * <p>Note: This class is not thread safe. Use one generator per thread.</p>
+ *
+ * @see "Steele, Lea and Flood. Fast splittable pseudorandom number generators. OOPSLA 2014."
+ * @author ulman
+ */
+public class SplitMix64
+{
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+    private static final double DOUBLE_UNIT = 1.0 / ( 1L << 53 );
+
+    /** Source of seeds for generators created without one. */
+    private static final AtomicLong defaultSeeds = new AtomicLong( mix64( System.nanoTime( ) ) ^ mix64( System.currentTimeMillis( ) ) );
+
+    private long seed;
+    private final long gamma;
+
+    /**
+     * Creates a generator with a seed which is different for each generator created
+     * this way (the sequence is not reproducible).
+     */
+    public SplitMix64( )
+    {
+        this( mix64( defaultSeeds.getAndAdd( 2 * GOLDEN_GAMMA ) ), GOLDEN_GAMMA );
+    }
+
+    public SplitMix64( long seed )
+    {
+        this( seed, GOLDEN_GAMMA );
+    }
+
+    private SplitMix64( long seed, long gamma )
+    {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Returns a new generator which shares no state with this one. Advances this
+     * generator, so a sequence of splits is reproducible.
+     */
+    public SplitMix64 split( )
+    {
+        return new SplitMix64( nextLong( ), mixGamma( nextSeed( ) ) );
+    }
+
+    public long nextLong( )
+    {
+        return mix64( nextSeed( ) );
+    }
+
+    public int nextInt( )
+    {
+        return ( int ) ( mix64( nextSeed( ) ) >>> 32 );
+    }
+
+    /**
+     * @return a uniformly distributed value between 0 (inclusive) and bound (exclusive)
+     */
+    public int nextInt( int bound )
+    {
+        if ( bound <= 0 )
+        {
+            throw new IllegalArgumentException( "SplitMix64: bound must be positive." );
+        }
+
+        // Lemire's multiply and shift, rejecting the few values which would bias the result
+        long m = ( nextLong( ) >>> 32 ) * bound;
+        long low = m & 0xffffffffL;
+        if ( low < bound )
+        {
+            long threshold = ( ( 1L << 32 ) - bound ) % bound;
+            while ( low < threshold )
+            {
+                m = ( nextLong( ) >>> 32 ) * bound;
+                low = m & 0xffffffffL;
+            }
+        }
+        return ( int ) ( m >>> 32 );
+    }
+
+    /**
+     * @return a uniformly distributed value between 0 (inclusive) and 1 (exclusive)
+     */
+    public double nextDouble( )
+    {
+        return ( nextLong( ) >>> 11 ) * DOUBLE_UNIT;
+    }
+
+    public boolean nextBoolean( )
+    {
+        return nextLong( ) < 0;
+    }
+
+    private long nextSeed( )
+    {
+        return seed += gamma;
+    }
+
+    private static long mix64( long z )
+    {
+        z = ( z ^ ( z >>> 30 ) ) * 0xbf58476d1ce4e5b9L;
+        z = ( z ^ ( z >>> 27 ) ) * 0x94d049bb133111ebL;
+        return z ^ ( z >>> 31 );
+    }
+
+    private static long mixGamma( long z )
+    {
+        z = ( z ^ ( z >>> 33 ) ) * 0xff51afd7ed558ccdL;
+        z = ( z ^ ( z >>> 33 ) ) * 0xc4ceb9fe1a85ec53L;
+        z = ( z ^ ( z >>> 33 ) ) | 1L;
+
+        // gammas with too few bit transitions give poorly mixed sequences
+        int transitions = Long.bitCount( z ^ ( z >>> 1 ) );
+        return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
@@ -0,0 +1,102 @@
+package edu.gmu.vfml.data;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>A synthetic stream of nominal instances. Instances are generated directly in
+ * the encoded form used by {@code VFDT.classifyInstances} and
+ * {@code InstanceWindow}: the value index of every attribute, class last, so
+ * that batches of instances can be generated without allocating.</p>
+ *
+ * <p>Generators are seeded for reproducible streams. A generator is not thread
+ * safe: to generate in parallel, create one generator per thread, seeded for
+ * example from successive {@link SplitMix64#split()}s of a single generator.</p>
+ *
+ * @author ulman
+ */
+public abstract class StreamGenerator
+{
+    protected Instances dataset;
+    protected SplitMix64 random;
+
+    /** The number of values per encoded instance (the number of attributes, including the class). */
+    protected int stride;
+
+    protected StreamGenerator( SplitMix64 random )
+    {
+        this.random = random;
+    }
+
+    /**
+     * Must be called by subclasses once the dataset header is built.
+     */
+    protected void setDataset( Instances dataset )
+    {
+        this.dataset = dataset;
+        this.stride = dataset.numAttributes( );
+    }
+
+    /**
+     * @return the header describing the generated instances
+     */
+    public Instances getDataset( )
+    {
+        return dataset;
+    }
+
+    /**
+     * @return the number of values per encoded instance
+     */
+    public int getStride( )
+    {
+        return stride;
+    }
+
+    /**
+     * Restarts the random sequence of the generator from the provided seed.
+     */
+    public void setSeed( long seed )
+    {
+        this.random = new SplitMix64( seed );
+    }
+
+    /**
+     * Generates one encoded instance.
+     *
+     * @param values receives the value index of each attribute (class last)
+     * @param offset the index of the first value of the instance in values
+     */
+    public abstract void generate( int[] values, int offset );
+
+    /**
+     * Generates numInstances consecutive encoded instances.
+     */
+    public void fill( int[] values, int numInstances )
+    {
+        for ( int i = 0, offset = 0; i < numInstances; i++, offset += stride )
+        {
+            generate( values, offset );
+        }
+    }
+
+    /**
+     * Generates one instance as a Weka Instance (allocates, use
+     * {@link #fill(int[], int)} where throughput matters).
+     */
+    public Instance next( )
+    {
+        int[] values = new int[stride];
+        generate( values, 0 );
+
+        double[] wekaValues = new double[stride];
+        for ( int i = 0; i < stride; i++ )
+        {
+            wekaValues[i] = values[i];
+        }
+
+        Instance instance = new Instance( 1.0, wekaValues );
+        instance.setDataset( dataset );
+        return instance;
+    }
+}
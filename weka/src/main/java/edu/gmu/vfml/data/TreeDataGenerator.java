@@ -0,0 +1,135 @@
+package edu.gmu.vfml.data;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+
+/**
+ * <p>Generates uniformly random binary attributes labeled by a random
+ * {@link ConceptTree} (a port of the treedata tool of the original VFML
+ * distribution). With probability noise, the class and each attribute value
+ * are independently replaced by a random value after the instance is
+ * labeled.</p>
+ *
+ * <p>The concept seed determines the concept and the stream seed the instances,
+ * so several generators (for example one per thread) can draw different instances
+ * of the same concept.</p>
+ *
+ * @author ulman
+ */
+public class TreeDataGenerator extends StreamGenerator
+{
+    protected final ConceptTree concept;
+    protected final int numAttributes;
+    protected final int numClasses;
+    protected final double noise;
+    protected final boolean attributeNoise;
+
+    /** log(1 - noise), the log probability of an attribute keeping its value. */
+    private final double logKeep;
+
+    /**
+     * @param numAttributes the number of binary attributes
+     * @param numClasses the number of classes
+     * @param noise the probability of replacing each value by a random value
+     * @param conceptSeed the seed of the random concept tree
+     * @param seed the seed of the instance stream
+     */
+    public TreeDataGenerator( int numAttributes, int numClasses, double noise, long conceptSeed, long seed )
+    {
+        this( ConceptTree.random( numAttributes, numClasses, conceptSeed ), noise, seed );
+    }
+
+    public TreeDataGenerator( ConceptTree concept, double noise, long seed )
+    {
+        this( concept, noise, true, new SplitMix64( seed ) );
+    }
+
+    protected TreeDataGenerator( ConceptTree concept, double noise, boolean attributeNoise, SplitMix64 random )
+    {
+        super( random );
+        this.concept = concept;
+        this.numAttributes = concept.getNumAttributes( );
+        this.numClasses = concept.getNumClasses( );
+        this.noise = noise;
+        this.attributeNoise = attributeNoise;
+        this.logKeep = Math.log( 1 - noise );
+
+        // build the attributes
+        FastVector attributes = new FastVector( );
+        for ( int i = 0 ; i < numAttributes ; i++ )
+        {
+            FastVector values = new FastVector( );
+            values.addElement( String.format( "v%d-0", i ) );
+            values.addElement( String.format( "v%d-1", i ) );
+            attributes.addElement( new Attribute( String.format( "d-attribute %d", i ), values ) );
+        }
+
+        // build the class attribute
+        FastVector classValues = new FastVector( );
+        for ( int i = 0 ; i < numClasses ; i++ )
+        {
+            classValues.addElement( String.format( "class %d", i ) );
+        }
+        Attribute classAttribute = new Attribute( "class", classValues );
+        attributes.addElement( classAttribute );
+
+        Instances dataset = new Instances( "treedata", attributes, 0 );
+        dataset.setClass( classAttribute );
+        setDataset( dataset );
+    }
+
+    /**
+     * @return the concept labeling the generated instances
+     */
+    public ConceptTree getConcept( )
+    {
+        return concept;
+    }
+
+    @Override
+    public void generate( int[] values, int offset )
+    {
+        long bits = 0;
+        for ( int i = 0 ; i < numAttributes ; i++ )
+        {
+            if ( ( i & 63 ) == 0 ) bits = random.nextLong( );
+
+            values[offset + i] = ( int ) ( bits & 1 );
+            bits >>>= 1;
+        }
+
+        int classValue = concept.classify( values, offset );
+
+        if ( noise > 0 )
+        {
+            if ( random.nextDouble( ) < noise )
+            {
+                classValue = random.nextInt( numClasses );
+            }
+
+            if ( attributeNoise )
+            {
+                // rather than drawing for each attribute, skip directly to the next
+                // noisy attribute (the gaps between them are geometrically distributed)
+                for ( int i = nextGap( ) ; i < numAttributes ; i += 1 + nextGap( ) )
+                {
+                    values[offset + i] = random.nextInt( 2 );
+                }
+            }
+        }
+
+        values[offset + numAttributes] = classValue;
+    }
+
+    /**
+     * @return the number of attributes left unchanged before the next noisy one
+     */
+    private int nextGap( )
+    {
+        if ( noise >= 1 ) return 0;
+
+        double gap = Math.log( 1 - random.nextDouble( ) ) / logKeep;
+        return gap < numAttributes ? ( int ) gap : numAttributes;
+    }
+}
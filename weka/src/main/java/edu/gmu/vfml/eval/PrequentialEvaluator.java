@@ -0,0 +1,484 @@
+package edu.gmu.vfml.eval;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import weka.core.converters.ArffLoader;
+
+/**
+ * <p>Evaluates several learners prequentially (test-then-train) over a single
+ * stream: each instance is classified by every learner before the learners train
+ * on it, so every instance is used for both testing and training and no separate
+ * test data is needed.</p>
+ *
+ * <p>The stream is decoded once. Batches of instances are shared read-only by all
+ * learners and each learner processes the batch on its own thread (as in
+ * {@link weka.classifiers.trees.OnlineBagging}). Every reportInterval instances a
+ * CSV row is written for each learner with its accumulated, windowed and faded
+ * accuracy, windowed kappa and throughput (see {@link PrequentialStatistics}).</p>
+ *
+ * <p>Learners must implement {@link UpdateableClassifier}. They are initialized
+ * with the (empty) header of the stream when they are added.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * java edu.gmu.vfml.eval.PrequentialEvaluator -t flights.arff -o report.csv \
+ *     -l "weka.classifiers.trees.VFDT" -l "weka.classifiers.trees.CVFDT -W 100000"
+ * </pre>
+ *
+ * @author ulman
+ */
+public class PrequentialEvaluator
+{
+    protected final Instances header;
+
+    protected final List<String> names;
+    protected final List<Classifier> learners;
+    protected final List<PrequentialStatistics> statistics;
+
+    protected int windowSize = 1000;
+    protected double fadingFactor = 0.999;
+    protected int reportInterval = 10000;
+    protected int batchSize = 1000;
+    protected int numThreads = 0;
+
+    protected Writer report;
+    protected boolean reportHeaderWritten;
+    protected long instanceCount;
+    protected long reportedCount;
+
+    protected ExecutorService executor;
+
+    /**
+     * @param header the attributes and class attribute of the stream
+     */
+    public PrequentialEvaluator( Instances header )
+    {
+        this.header = new Instances( header, 0 );
+        this.names = new ArrayList<String>( );
+        this.learners = new ArrayList<Classifier>( );
+        this.statistics = new ArrayList<PrequentialStatistics>( );
+    }
+
+    /**
+     * Sets the number of recent predictions used for windowed accuracy and kappa.
+     * Applies to learners added afterward.
+     */
+    public void setWindowSize( int windowSize )
+    {
+        this.windowSize = windowSize;
+    }
+
+    public int getWindowSize( )
+    {
+        return windowSize;
+    }
+
+    /**
+     * Sets the per instance decay of the faded accuracy. Applies to learners added afterward.
+     */
+    public void setFadingFactor( double fadingFactor )
+    {
+        this.fadingFactor = fadingFactor;
+    }
+
+    public double getFadingFactor( )
+    {
+        return fadingFactor;
+    }
+
+    /**
+     * Sets the number of instances between report rows.
+     */
+    public void setReportInterval( int reportInterval )
+    {
+        this.reportInterval = reportInterval;
+    }
+
+    public int getReportInterval( )
+    {
+        return reportInterval;
+    }
+
+    /**
+     * Sets the number of instances decoded before they are passed to the learners
+     * by {@link #evaluate(Instances)} and {@link #evaluate(ArffLoader)}.
+     */
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize( )
+    {
+        return batchSize;
+    }
+
+    /**
+     * Sets the number of evaluation threads (0 for one per available processor).
+     */
+    public void setNumThreads( int numThreads )
+    {
+        this.numThreads = numThreads;
+    }
+
+    public int getNumThreads( )
+    {
+        return numThreads;
+    }
+
+    /**
+     * Sets the destination of the CSV report (or null for no report). The writer is
+     * flushed after each report but is not closed.
+     */
+    public void setReport( Writer report )
+    {
+        this.report = report;
+    }
+
+    /**
+     * Adds a learner, initializing it with the header of the stream.
+     *
+     * @param name the name of the learner in the report
+     * @throws IllegalArgumentException if the learner does not implement UpdateableClassifier
+     * @throws Exception if the learner cannot be initialized
+     */
+    public void addLearner( String name, Classifier learner ) throws Exception
+    {
+        if ( !( learner instanceof UpdateableClassifier ) )
+        {
+            throw new IllegalArgumentException( "PrequentialEvaluator: " + learner.getClass( ).getName( ) + " is not an UpdateableClassifier." );
+        }
+
+        learner.buildClassifier( new Instances( header, 0 ) );
+
+        names.add( name );
+        learners.add( learner );
+        statistics.add( new PrequentialStatistics( header.numClasses( ), windowSize, fadingFactor ) );
+    }
+
+    /**
+     * Adds a learner from a class name followed by options
+     * (for example "weka.classifiers.trees.CVFDT -W 100000").
+     */
+    public void addLearner( String spec ) throws Exception
+    {
+        String[] options = Utils.splitOptions( spec );
+        if ( options.length == 0 )
+        {
+            throw new IllegalArgumentException( "PrequentialEvaluator: no learner specified." );
+        }
+
+        String className = options[0];
+        options[0] = "";
+
+        addLearner( spec.trim( ), Classifier.forName( className, options ) );
+    }
+
+    public int getLearnerCount( )
+    {
+        return learners.size( );
+    }
+
+    public String getName( int index )
+    {
+        return names.get( index );
+    }
+
+    public Classifier getLearner( int index )
+    {
+        return learners.get( index );
+    }
+
+    public PrequentialStatistics getStatistics( int index )
+    {
+        return statistics.get( index );
+    }
+
+    /**
+     * @return the number of stream instances processed
+     */
+    public long getInstanceCount( )
+    {
+        return instanceCount;
+    }
+
+    /**
+     * Evaluates the learners on all the instances of the data set, then calls {@link #finish()}.
+     */
+    public void evaluate( Instances data ) throws Exception
+    {
+        Instance[] batch = new Instance[batchSize];
+        int size = 0;
+        for ( int i = 0; i < data.numInstances( ); i++ )
+        {
+            batch[size++] = data.instance( i );
+            if ( size == batchSize )
+            {
+                addInstances( batch, size );
+                size = 0;
+            }
+        }
+
+        addInstances( batch, size );
+        finish( );
+    }
+
+    /**
+     * Evaluates the learners on the instances read incrementally from the loader
+     * (so the stream does not need to fit in memory), then calls {@link #finish()}.
+     */
+    public void evaluate( ArffLoader loader ) throws Exception
+    {
+        Instance[] batch = new Instance[batchSize];
+        int size = 0;
+        Instance instance;
+        while ( ( instance = loader.getNextInstance( header ) ) != null )
+        {
+            // the loader's own structure does not have the class index set
+            instance.setDataset( header );
+
+            batch[size++] = instance;
+            if ( size == batchSize )
+            {
+                addInstances( batch, size );
+                size = 0;
+            }
+        }
+
+        addInstances( batch, size );
+        finish( );
+    }
+
+    /**
+     * Tests then trains every learner on the first numInstances instances of the
+     * batch, writing report rows as report intervals are crossed. Returns once all
+     * learners have finished. The batch must not be modified until this method returns.
+     */
+    public void addInstances( Instance[] batch, int numInstances ) throws Exception
+    {
+        // split the batch at report boundaries so rows are written at exact intervals
+        int offset = 0;
+        while ( offset < numInstances )
+        {
+            long untilReport = reportInterval - instanceCount % reportInterval;
+            int size = ( int ) Math.min( numInstances - offset, untilReport );
+
+            process( batch, offset, size );
+            offset += size;
+            instanceCount += size;
+
+            if ( instanceCount % reportInterval == 0 )
+            {
+                writeReport( );
+            }
+        }
+    }
+
+    protected void process( final Instance[] batch, final int offset, final int size ) throws Exception
+    {
+        if ( learners.size( ) == 1 || numThreads == 1 )
+        {
+            for ( int i = 0; i < learners.size( ); i++ )
+            {
+                process( i, batch, offset, size );
+            }
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>( learners.size( ) );
+        for ( int i = 0; i < learners.size( ); i++ )
+        {
+            final int index = i;
+            tasks.add( new Callable<Void>( )
+            {
+                @Override
+                public Void call( ) throws Exception
+                {
+                    process( index, batch, offset, size );
+                    return null;
+                }
+            } );
+        }
+
+        for ( Future<Void> future : getExecutor( ).invokeAll( tasks ) )
+        {
+            future.get( );
+        }
+    }
+
+    /**
+     * Tests then trains one learner on part of a batch (instances with a missing
+     * class are skipped).
+     */
+    protected void process( int index, Instance[] batch, int offset, int size ) throws Exception
+    {
+        Classifier learner = learners.get( index );
+        UpdateableClassifier updateable = ( UpdateableClassifier ) learner;
+        PrequentialStatistics stats = statistics.get( index );
+
+        long start = System.nanoTime( );
+        for ( int j = offset; j < offset + size; j++ )
+        {
+            Instance instance = batch[j];
+            if ( instance.classIsMissing( ) ) continue;
+
+            stats.record( ( int ) instance.classValue( ), learner.classifyInstance( instance ) );
+            updateable.updateClassifier( instance );
+        }
+        stats.addNanos( System.nanoTime( ) - start );
+    }
+
+    /**
+     * Writes a report row for each learner (if a report has been set).
+     */
+    protected void writeReport( ) throws IOException
+    {
+        reportedCount = instanceCount;
+        if ( report == null ) return;
+
+        if ( !reportHeaderWritten )
+        {
+            report.write( "instances,learner,accuracy,window_accuracy,window_kappa,faded_accuracy,seconds,instances_per_second\n" );
+            reportHeaderWritten = true;
+        }
+
+        for ( int i = 0; i < learners.size( ); i++ )
+        {
+            PrequentialStatistics stats = statistics.get( i );
+            report.write( String.format( "%d,%s,%.6f,%.6f,%.6f,%.6f,%.3f,%.1f%n", instanceCount, csvField( names.get( i ) ), stats.getAccuracy( ), stats.getWindowAccuracy( ), stats.getWindowKappa( ), stats.getFadedAccuracy( ), stats.getSeconds( ), stats.getThroughput( ) ) );
+        }
+        report.flush( );
+    }
+
+    private static String csvField( String value )
+    {
+        if ( value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0 && value.indexOf( '\n' ) < 0 ) return value;
+        return '"' + value.replace( "\"", "\"\"" ) + '"';
+    }
+
+    /**
+     * Writes the final report rows (unless the stream ended on a report boundary)
+     * and stops the evaluation threads.
+     */
+    public void finish( ) throws IOException
+    {
+        if ( instanceCount != reportedCount )
+        {
+            writeReport( );
+        }
+
+        if ( executor != null )
+        {
+            executor.shutdown( );
+            executor = null;
+        }
+    }
+
+    protected ExecutorService getExecutor( )
+    {
+        if ( executor == null )
+        {
+            int threads = numThreads > 0 ? numThreads : Runtime.getRuntime( ).availableProcessors( );
+            executor = Executors.newFixedThreadPool( threads, new ThreadFactory( )
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "Prequential evaluation" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+
+        return executor;
+    }
+
+    /**
+     * Evaluates learners on an ARFF file. Options:
+     * <pre>
+     * -t &lt;file&gt;       the ARFF file (required)
+     * -c &lt;index&gt;      the 1 based class index, or "first" or "last" (default last)
+     * -l &lt;spec&gt;       a learner class name and options (repeat for several learners)
+     * -o &lt;file&gt;       the CSV report file (default standard output)
+     * -w &lt;size&gt;       the window size (default 1000)
+     * -f &lt;factor&gt;     the fading factor (default 0.999)
+     * -r &lt;interval&gt;   the report interval (default 10000)
+     * -b &lt;size&gt;       the batch size (default 1000)
+     * -n &lt;threads&gt;    the number of threads (default one per processor)
+     * </pre>
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        String dataFile = Utils.getOption( 't', args );
+        if ( dataFile.isEmpty( ) )
+        {
+            System.err.println( "Usage: PrequentialEvaluator -t <arff file> -l <learner> [-l <learner> ...] [-c <class index>] [-o <report file>] [-w <window size>] [-f <fading factor>] [-r <report interval>] [-b <batch size>] [-n <threads>]" );
+            return;
+        }
+
+        ArffLoader loader = new ArffLoader( );
+        loader.setSource( new File( dataFile ) );
+        Instances structure = loader.getStructure( );
+
+        String classIndex = Utils.getOption( 'c', args );
+        if ( classIndex.isEmpty( ) || classIndex.equals( "last" ) ) structure.setClassIndex( structure.numAttributes( ) - 1 );
+        else if ( classIndex.equals( "first" ) ) structure.setClassIndex( 0 );
+        else structure.setClassIndex( Integer.parseInt( classIndex ) - 1 );
+
+        PrequentialEvaluator evaluator = new PrequentialEvaluator( structure );
+
+        String option;
+        if ( !( option = Utils.getOption( 'w', args ) ).isEmpty( ) ) evaluator.setWindowSize( Integer.parseInt( option ) );
+        if ( !( option = Utils.getOption( 'f', args ) ).isEmpty( ) ) evaluator.setFadingFactor( Double.parseDouble( option ) );
+        if ( !( option = Utils.getOption( 'r', args ) ).isEmpty( ) ) evaluator.setReportInterval( Integer.parseInt( option ) );
+        if ( !( option = Utils.getOption( 'b', args ) ).isEmpty( ) ) evaluator.setBatchSize( Integer.parseInt( option ) );
+        if ( !( option = Utils.getOption( 'n', args ) ).isEmpty( ) ) evaluator.setNumThreads( Integer.parseInt( option ) );
+
+        while ( !( option = Utils.getOption( 'l', args ) ).isEmpty( ) )
+        {
+            evaluator.addLearner( option );
+        }
+
+        if ( evaluator.getLearnerCount( ) == 0 )
+        {
+            throw new IllegalArgumentException( "PrequentialEvaluator: no learners specified (-l)." );
+        }
+
+        String reportFile = Utils.getOption( 'o', args );
+        Writer report = new BufferedWriter( reportFile.isEmpty( ) ? new OutputStreamWriter( System.out ) : new FileWriter( reportFile ) );
+        evaluator.setReport( report );
+
+        try
+        {
+            evaluator.evaluate( loader );
+        }
+        finally
+        {
+            if ( reportFile.isEmpty( ) ) report.flush( );
+            else report.close( );
+        }
+
+        for ( int i = 0; i < evaluator.getLearnerCount( ); i++ )
+        {
+            System.err.println( evaluator.getName( i ) + ": " + evaluator.getStatistics( i ) );
+        }
+    }
+}
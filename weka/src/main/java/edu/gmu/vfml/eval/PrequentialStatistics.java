@@ -0,0 +1,199 @@
+package edu.gmu.vfml.eval;
+
+import java.util.Arrays;
+
+/**
+ * <p>Accuracy statistics of a learner evaluated prequentially (each instance is
+ * classified before the learner trains on it). Tracks the accuracy over the whole
+ * stream, the accuracy and Cohen's kappa over a sliding window of the most recent
+ * predictions, an exponentially faded accuracy and the time spent classifying and
+ * training.</p>
+ *
+ * <p>Recording a prediction takes constant time and does not allocate.</p>
+ *
+ * <p>Note: This class is not thread safe.</p>
+ *
+ * @see PrequentialEvaluator
+ * @author ulman
+ */
+public class PrequentialStatistics
+{
+    protected final int numClasses;
+    protected final double fadingFactor;
+
+    // sliding window of (actual, predicted) class indices
+    protected final int[] windowActual;
+    protected final int[] windowPredicted;
+    protected final int[] actualCounts;
+    protected final int[] predictedCounts;
+    protected int windowPosition;
+    protected int windowCount;
+    protected int windowCorrect;
+
+    protected long count;
+    protected long correct;
+    protected double fadedCount;
+    protected double fadedCorrect;
+    protected long nanos;
+
+    /**
+     * @param numClasses the number of class values
+     * @param windowSize the number of recent predictions used for windowed accuracy and kappa
+     * @param fadingFactor the weight of the previous faded accuracy for each new
+     *        prediction (0 to only use the latest prediction, close to 1 for a long memory)
+     */
+    public PrequentialStatistics( int numClasses, int windowSize, double fadingFactor )
+    {
+        if ( windowSize <= 0 )
+        {
+            throw new IllegalArgumentException( "PrequentialStatistics: window size must be positive." );
+        }
+
+        this.numClasses = numClasses;
+        this.fadingFactor = fadingFactor;
+        this.windowActual = new int[windowSize];
+        this.windowPredicted = new int[windowSize];
+        this.actualCounts = new int[numClasses];
+        this.predictedCounts = new int[numClasses];
+    }
+
+    /**
+     * Records a prediction.
+     *
+     * @param actual the class index of the instance
+     * @param predicted the predicted class (as returned by classifyInstance, a missing
+     *        value or out of range prediction counts as an error)
+     */
+    public void record( int actual, double predicted )
+    {
+        int predictedIndex = predicted >= 0 && predicted < numClasses ? ( int ) predicted : -1;
+        boolean isCorrect = predictedIndex == actual;
+
+        count++;
+        if ( isCorrect ) correct++;
+
+        fadedCount = fadingFactor * fadedCount + 1.0;
+        fadedCorrect = fadingFactor * fadedCorrect + ( isCorrect ? 1.0 : 0.0 );
+
+        // replace the oldest prediction in the window
+        if ( windowCount == windowActual.length )
+        {
+            int oldActual = windowActual[windowPosition];
+            int oldPredicted = windowPredicted[windowPosition];
+            actualCounts[oldActual]--;
+            if ( oldPredicted >= 0 ) predictedCounts[oldPredicted]--;
+            if ( oldActual == oldPredicted ) windowCorrect--;
+        }
+        else
+        {
+            windowCount++;
+        }
+
+        windowActual[windowPosition] = actual;
+        windowPredicted[windowPosition] = predictedIndex;
+        actualCounts[actual]++;
+        if ( predictedIndex >= 0 ) predictedCounts[predictedIndex]++;
+        if ( isCorrect ) windowCorrect++;
+
+        if ( ++windowPosition == windowActual.length ) windowPosition = 0;
+    }
+
+    /**
+     * Adds to the time spent classifying and training.
+     */
+    public void addNanos( long nanos )
+    {
+        this.nanos += nanos;
+    }
+
+    /**
+     * Forgets all recorded predictions and time.
+     */
+    public void reset( )
+    {
+        Arrays.fill( actualCounts, 0 );
+        Arrays.fill( predictedCounts, 0 );
+        windowPosition = 0;
+        windowCount = 0;
+        windowCorrect = 0;
+        count = 0;
+        correct = 0;
+        fadedCount = 0;
+        fadedCorrect = 0;
+        nanos = 0;
+    }
+
+    /**
+     * @return the number of recorded predictions
+     */
+    public long getCount( )
+    {
+        return count;
+    }
+
+    /**
+     * @return the fraction of all recorded predictions which were correct
+     */
+    public double getAccuracy( )
+    {
+        return count == 0 ? 0.0 : ( double ) correct / count;
+    }
+
+    /**
+     * @return the fraction of the predictions in the window which were correct
+     */
+    public double getWindowAccuracy( )
+    {
+        return windowCount == 0 ? 0.0 : ( double ) windowCorrect / windowCount;
+    }
+
+    /**
+     * @return Cohen's kappa over the predictions in the window: the improvement in
+     *         accuracy over a chance classifier predicting classes with the same
+     *         frequencies as the learner (0 when undefined)
+     */
+    public double getWindowKappa( )
+    {
+        if ( windowCount == 0 ) return 0.0;
+
+        double n = windowCount;
+        double chance = 0.0;
+        for ( int i = 0; i < numClasses; i++ )
+        {
+            chance += ( actualCounts[i] / n ) * ( predictedCounts[i] / n );
+        }
+
+        double accuracy = windowCorrect / n;
+        return chance >= 1.0 ? 0.0 : ( accuracy - chance ) / ( 1.0 - chance );
+    }
+
+    /**
+     * @return the accuracy with each prediction weighted by fadingFactor^age
+     */
+    public double getFadedAccuracy( )
+    {
+        return fadedCount == 0 ? 0.0 : fadedCorrect / fadedCount;
+    }
+
+    /**
+     * @return the time spent classifying and training, in seconds
+     */
+    public double getSeconds( )
+    {
+        return nanos / 1e9;
+    }
+
+    /**
+     * @return the number of instances classified and trained on per second
+     */
+    public double getThroughput( )
+    {
+        return nanos == 0 ? 0.0 : count / getSeconds( );
+    }
+
+    @Override
+    public String toString( )
+    {
+        return String.format( "instances: %d accuracy: %.4f window accuracy: %.4f window kappa: %.4f faded accuracy: %.4f instances/s: %.0f", count, getAccuracy( ), getWindowAccuracy( ), getWindowKappa( ), getFadedAccuracy( ), getThroughput( ) );
+    }
+}
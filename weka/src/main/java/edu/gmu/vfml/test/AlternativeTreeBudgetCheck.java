@@ -0,0 +1,115 @@
+package edu.gmu.vfml.test;
+
+import weka.classifiers.trees.CVFDT;
+import weka.core.Instance;
+import edu.gmu.vfml.data.DriftingDataGenerator;
+import edu.gmu.vfml.tree.AlternativeTreeBudget;
+import edu.gmu.vfml.tree.CNode;
+
+/**
+ * Checks that CVFDT's alternative subtree budget accounts for every alternative
+ * node exactly as the alternative subtrees grow, are promoted and are dropped, and
+ * that it never lets them exceed the configured number of trees or bytes.
+ */
+public class AlternativeTreeBudgetCheck
+{
+    private static class BudgetedCVFDT extends CVFDT
+    {
+        private static final long serialVersionUID = 1L;
+
+        public AlternativeTreeBudget getBudget( )
+        {
+            return alternativeTreeBudget;
+        }
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        int numInstances = args.length > 0 ? Integer.parseInt( args[0] ) : 300000;
+
+        // an unlimited run shows how large the alternative subtrees grow on their own
+        BudgetedCVFDT unlimited = newLearner( 0, 0 );
+        long[] peak = run( unlimited, numInstances );
+        FlatTreeEquivalence.check( unlimited.getBudget( ).getEvictionCount( ) == 0, "unlimited budget evicted alternative subtrees" );
+
+        // limits well below that peak, so that admission, growth and eviction are all exercised
+        int maxTrees = Math.max( 1, ( int ) peak[0] / 2 );
+        long maxBytes = Math.max( 1, peak[1] / 3 ) * unlimited.getBudget( ).getNodeBytes( );
+        BudgetedCVFDT limited = newLearner( maxTrees, maxBytes );
+        long[] limitedPeak = run( limited, numInstances );
+        FlatTreeEquivalence.check( limited.getBudget( ).getEvictionCount( ) > 0, "limited budget never evicted an alternative subtree" );
+
+        System.out.println( "AlternativeTreeBudgetCheck: passed, unlimited peak " + peak[0] + " trees / " + peak[1] + " nodes, limited peak " + limitedPeak[0]
+                + " trees / " + limitedPeak[1] + " nodes with " + limited.getBudget( ).getEvictionCount( ) + " evictions." );
+    }
+
+    private static BudgetedCVFDT newLearner( int maxTrees, long maxBytes )
+    {
+        BudgetedCVFDT learner = new BudgetedCVFDT( );
+        learner.setWindowSize( 10000 );
+        learner.setConfidenceLevel( 1e-3 );
+        learner.setSplitRecheckInterval( 2000 );
+        learner.setTestInterval( 1800 );
+        learner.setTestDuration( 200 );
+        learner.setMaxAlternativeTrees( maxTrees );
+        learner.setMaxAlternativeBytes( maxBytes );
+        return learner;
+    }
+
+    /**
+     * Trains learner on a drifting stream, checking the budget after every instance.
+     *
+     * @return the largest number of alternative subtrees and alternative nodes seen
+     */
+    private static long[] run( BudgetedCVFDT learner, int numInstances ) throws Exception
+    {
+        DriftingDataGenerator generator = new DriftingDataGenerator( 12, 2, 0.05, 5, 6, DriftingDataGenerator.DRIFT_CHANGE_CLASS_OR_SPLIT, 20000 );
+        learner.initialize( generator.getDataset( ) );
+        AlternativeTreeBudget budget = learner.getBudget( );
+
+        long[] peak = new long[2];
+        for ( int i = 1; i <= numInstances; i++ )
+        {
+            Instance instance = generator.next( );
+            learner.addInstance( instance );
+
+            long[] counts = new long[2];
+            countAlternatives( learner.getRoot( ), counts );
+            FlatTreeEquivalence.check( counts[0] == budget.getTreeCount( ) && counts[1] == budget.getNodeCount( ), "instance " + i + ": budget counts "
+                    + budget.getTreeCount( ) + " trees / " + budget.getNodeCount( ) + " nodes, tree has " + counts[0] + " / " + counts[1] );
+            FlatTreeEquivalence.check( counts[0] == learner.getMetrics( ).getAlternativeTreeCount( ), "instance " + i + ": metrics count "
+                    + learner.getMetrics( ).getAlternativeTreeCount( ) + " alternative trees, tree has " + counts[0] );
+            if ( learner.getMaxAlternativeTrees( ) > 0 )
+            {
+                FlatTreeEquivalence.check( counts[0] <= learner.getMaxAlternativeTrees( ), "instance " + i + ": " + counts[0] + " alternative trees" );
+            }
+            if ( learner.getMaxAlternativeBytes( ) > 0 )
+            {
+                FlatTreeEquivalence.check( budget.getBytes( ) <= learner.getMaxAlternativeBytes( ), "instance " + i + ": " + budget.getBytes( ) + " alternative bytes" );
+            }
+
+            peak[0] = Math.max( peak[0], counts[0] );
+            peak[1] = Math.max( peak[1], counts[1] );
+        }
+        return peak;
+    }
+
+    private static void countAlternatives( CNode node, long[] counts )
+    {
+        for ( int i = 0; i < node.getAlternativeCount( ); i++ )
+        {
+            CNode alt = node.getAlternativeTree( node.getAlternativeAttributeIndex( i ) );
+            counts[0]++;
+            counts[1] += alt.getTreeSize( );
+            countAlternatives( alt, counts );
+        }
+
+        if ( node.getAttribute( ) != null )
+        {
+            for ( int valueIndex = 0; valueIndex < node.getAttribute( ).numValues( ); valueIndex++ )
+            {
+                countAlternatives( node.getSuccessor( valueIndex ), counts );
+            }
+        }
+    }
+}
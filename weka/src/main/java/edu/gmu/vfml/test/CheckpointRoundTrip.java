@@ -0,0 +1,255 @@
+package edu.gmu.vfml.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import weka.classifiers.trees.CVFDT;
+import weka.classifiers.trees.HoeffdingAdaptiveTree;
+import weka.classifiers.trees.SubspaceVFDT;
+import weka.classifiers.trees.VFDT;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.data.DriftingDataGenerator;
+import edu.gmu.vfml.data.StreamGenerator;
+import edu.gmu.vfml.data.TreeDataGenerator;
+import edu.gmu.vfml.tree.AdaptiveCNode;
+import edu.gmu.vfml.tree.CNode;
+import edu.gmu.vfml.tree.Node;
+
+/**
+ * Checks that checkpoints capture a learner exactly as it was when
+ * {@link VFDT#checkpoint(File, boolean)} was called, although training continues
+ * (and alternative trees are promoted) while the checkpoints are written: a full
+ * checkpoint and a chain of incremental checkpoints are each restored and compared
+ * to a learner trained on the same prefix of the stream, and the last restored
+ * learner must continue learning exactly like the original. Covers CVFDT (with its
+ * window, alternative trees and recheck queue), HoeffdingAdaptiveTree (with its
+ * change detectors and alternates) and SubspaceVFDT (with its attribute subset
+ * generator).
+ */
+public class CheckpointRoundTrip
+{
+    private static final int[] CHECKPOINTS = { 40000, 60000, 80000, 100000 };
+    private static final int NUM_INSTANCES = 140000;
+
+    public static void main( String[] args ) throws Exception
+    {
+        check( CVFDT.class );
+        check( HoeffdingAdaptiveTree.class );
+        check( SubspaceVFDT.class );
+    }
+
+    private static void check( Class<? extends VFDT> learnerClass ) throws Exception
+    {
+        String name = learnerClass.getSimpleName( );
+        File directory = new File( System.getProperty( "java.io.tmpdir" ), "CheckpointRoundTrip" + System.nanoTime( ) );
+        FlatTreeEquivalence.check( directory.mkdir( ), "could not create " + directory );
+
+        File[] files = new File[CHECKPOINTS.length];
+        long[] promotions = new long[CHECKPOINTS.length];
+        int alternatives = 0;
+        List<Future<?>> futures = new ArrayList<Future<?>>( );
+
+        // train, checkpointing along the way without waiting for the checkpoints
+        Source generator = new Source( learnerClass );
+        VFDT learner = newLearner( learnerClass, generator.getDataset( ) );
+        int checkpoint = 0;
+        long splits = 0;
+        for ( int i = 1; i <= NUM_INSTANCES; i++ )
+        {
+            learner.addInstance( generator.next( ) );
+
+            if ( checkpoint < CHECKPOINTS.length && i == CHECKPOINTS[checkpoint] )
+            {
+                files[checkpoint] = new File( directory, "checkpoint" + checkpoint );
+                futures.add( learner.checkpoint( files[checkpoint], checkpoint > 0 ) );
+                promotions[checkpoint] = learner.getMetrics( ).getPromotionCount( );
+                alternatives = Math.max( alternatives, learner.getMetrics( ).getAlternativeTreeCount( ) );
+                splits = learner.getMetrics( ).getSplitCount( );
+                checkpoint++;
+            }
+        }
+
+        for ( Future<?> future : futures )
+        {
+            future.get( );
+        }
+
+        // the restored learner must grow the tree (drawing new attribute subsets for
+        // SubspaceVFDT), and the incremental checkpoints must cover alternative trees
+        // and promotions
+        FlatTreeEquivalence.check( learner.getMetrics( ).getSplitCount( ) > splits, name + ": no splits after the last checkpoint" );
+        if ( learnerClass != SubspaceVFDT.class )
+        {
+            FlatTreeEquivalence.check( alternatives > 0, name + ": no alternative trees when checkpointing" );
+            FlatTreeEquivalence.check( promotions[CHECKPOINTS.length - 1] > promotions[0], name + ": no promotions between checkpoints" );
+        }
+
+        // restore each checkpoint chain and compare it to a learner trained up to the checkpoint
+        Instances header = generator.getDataset( );
+        Source referenceGenerator = new Source( learnerClass );
+        VFDT reference = newLearner( learnerClass, header );
+        VFDT restored = null;
+        int trained = 0;
+        for ( checkpoint = 0; checkpoint < CHECKPOINTS.length; checkpoint++ )
+        {
+            for ( ; trained < CHECKPOINTS[checkpoint]; trained++ )
+            {
+                reference.addInstance( referenceGenerator.next( ) );
+            }
+
+            restored = VFDT.restore( Arrays.copyOf( files, checkpoint + 1 ) );
+            compare( restored.getRoot( ), reference.getRoot( ), header, name + " checkpoint " + checkpoint + " root" );
+        }
+
+        // the last restored learner continues from where it was checkpointed
+        for ( ; trained < NUM_INSTANCES; trained++ )
+        {
+            Instance instance = referenceGenerator.next( );
+            reference.addInstance( instance );
+            restored.addInstance( instance );
+        }
+        compare( restored.getRoot( ), learner.getRoot( ), header, name + " continued root" );
+        compare( reference.getRoot( ), learner.getRoot( ), header, name + " reference root" );
+
+        for ( File file : files )
+        {
+            file.delete( );
+        }
+        directory.delete( );
+
+        System.out.println( "CheckpointRoundTrip: " + name + ", " + CHECKPOINTS.length + " checkpoints covering " + ( promotions[CHECKPOINTS.length - 1] - promotions[0] ) + " promotions passed." );
+    }
+
+    /**
+     * Compares two trees: CNode trees (including their alternative trees) with
+     * {@link FusedTraversalEquivalence#compare(CNode, CNode, Instances, String)},
+     * also comparing the change detectors and alternates of AdaptiveCNodes, and
+     * other trees by their structure, counts and split candidates.
+     */
+    private static void compare( Node node1, Node node2, Instances header, String path )
+    {
+        if ( node1 instanceof CNode )
+        {
+            FusedTraversalEquivalence.compare( ( CNode ) node1, ( CNode ) node2, header, path );
+            compareAlternates( node1, node2, header, path );
+            return;
+        }
+
+        FlatTreeEquivalence.check( attributeIndex( node1 ) == attributeIndex( node2 ), path + ": split attribute differs" );
+        FlatTreeEquivalence.check( node1.getClassValue( ) == node2.getClassValue( ), path + ": class differs" );
+        FlatTreeEquivalence.check( Arrays.equals( node1.getSplitCandidates( ), node2.getSplitCandidates( ) ), path + ": split candidates differ" );
+        FlatTreeEquivalence.check( node1.getCount( ) == node2.getCount( ), path + ": count differs" );
+
+        // SubspaceNodes only keep counts for their split candidates
+        for ( int attributeIndex : node1.getSplitCandidates( ) )
+        {
+            for ( int valueIndex = 0; valueIndex < header.attribute( attributeIndex ).numValues( ); valueIndex++ )
+            {
+                for ( int classIndex = 0; classIndex < header.classAttribute( ).numValues( ); classIndex++ )
+                {
+                    FlatTreeEquivalence.check( node1.getCount( attributeIndex, valueIndex, classIndex ) == node2.getCount( attributeIndex, valueIndex, classIndex ), path + ": counts differ" );
+                }
+            }
+        }
+
+        if ( node1.getAttribute( ) != null )
+        {
+            for ( int valueIndex = 0; valueIndex < node1.getAttribute( ).numValues( ); valueIndex++ )
+            {
+                compare( node1.getSuccessor( valueIndex ), node2.getSuccessor( valueIndex ), header, path + "/" + valueIndex );
+            }
+        }
+    }
+
+    /**
+     * Compares the change detectors and alternates of the AdaptiveCNodes of two trees.
+     */
+    private static void compareAlternates( Node node1, Node node2, Instances header, String path )
+    {
+        if ( !( node1 instanceof AdaptiveCNode ) ) return;
+
+        AdaptiveCNode anode1 = ( AdaptiveCNode ) node1;
+        AdaptiveCNode anode2 = ( AdaptiveCNode ) node2;
+        FlatTreeEquivalence.check( anode1.getErrorWidth( ) == anode2.getErrorWidth( ) && Double.compare( anode1.getErrorEstimation( ), anode2.getErrorEstimation( ) ) == 0, path
+                + ": change detector differs" );
+        FlatTreeEquivalence.check( ( anode1.getAlternate( ) == null ) == ( anode2.getAlternate( ) == null ), path + ": alternate differs" );
+        if ( anode1.getAlternate( ) != null )
+        {
+            compare( anode1.getAlternate( ), anode2.getAlternate( ), header, path + " alternate" );
+        }
+
+        if ( node1.getAttribute( ) != null )
+        {
+            for ( int valueIndex = 0; valueIndex < node1.getAttribute( ).numValues( ); valueIndex++ )
+            {
+                compareAlternates( node1.getSuccessor( valueIndex ), node2.getSuccessor( valueIndex ), header, path + "/" + valueIndex );
+            }
+        }
+    }
+
+    private static int attributeIndex( Node node )
+    {
+        return node.getAttribute( ) == null ? -1 : node.getAttribute( ).index( );
+    }
+
+    /**
+     * CVFDT learns from a gradually drifting concept. The other learners learn from
+     * two concepts which alternate every SWITCH_INTERVAL instances, so that the
+     * change detectors of HoeffdingAdaptiveTree start alternates.
+     */
+    private static class Source
+    {
+        private static final int SWITCH_INTERVAL = 18000;
+
+        private final StreamGenerator[] generators;
+        private int count;
+
+        public Source( Class<? extends VFDT> learnerClass )
+        {
+            if ( learnerClass == CVFDT.class )
+            {
+                generators = new StreamGenerator[] { new DriftingDataGenerator( 12, 2, 0.05, 5, 6, DriftingDataGenerator.DRIFT_CHANGE_CLASS_OR_SPLIT, 20000 ) };
+            }
+            else
+            {
+                generators = new StreamGenerator[] { new TreeDataGenerator( 12, 2, 0.05, 5, 6 ), new TreeDataGenerator( 12, 2, 0.05, 7, 8 ) };
+            }
+        }
+
+        public Instances getDataset( )
+        {
+            return generators[0].getDataset( );
+        }
+
+        public Instance next( )
+        {
+            return generators[( count++ / SWITCH_INTERVAL ) % generators.length].next( );
+        }
+    }
+
+    private static VFDT newLearner( Class<? extends VFDT> learnerClass, Instances header ) throws Exception
+    {
+        VFDT learner = learnerClass.newInstance( );
+        learner.setConfidenceLevel( 1e-3 );
+
+        if ( learner instanceof CVFDT )
+        {
+            CVFDT cvfdt = ( CVFDT ) learner;
+            cvfdt.setWindowSize( 10000 );
+            cvfdt.setSplitRecheckInterval( 2000 );
+            cvfdt.setTestInterval( 1800 );
+            cvfdt.setTestDuration( 200 );
+
+            // limit the rechecks per instance, so that rechecks are sometimes overdue
+            // when a checkpoint is taken
+            cvfdt.setRecheckQuantum( 1 );
+        }
+
+        learner.initialize( header );
+        return learner;
+    }
+}
@@ -0,0 +1,212 @@
+package edu.gmu.vfml.test;
+
+import weka.classifiers.trees.VFDT;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.data.SplitMix64;
+import edu.gmu.vfml.data.TreeDataGenerator;
+import edu.gmu.vfml.tree.CompiledTreeClassifier;
+import edu.gmu.vfml.tree.FlatTree;
+import edu.gmu.vfml.tree.Node;
+import edu.gmu.vfml.tree.TreeCompiler;
+
+/**
+ * Checks that classifiers generated by TreeCompiler classify exactly like the
+ * FlatTree they were generated from: for a tree learned by VFDT, and for a tree
+ * split on attributes with thousands of values (whose switches must be spread
+ * over several methods to stay under the bytecode limit of a method). Also checks
+ * that generated classes compile without the library on the application class path,
+ * and that the thread VFDT generates classifiers on exits once it is idle.
+ */
+public class CompiledTreeEquivalence
+{
+    /**
+     * A node without statistics, so that wide trees can be built by hand.
+     */
+    private static class StructureNode extends Node
+    {
+        private static final long serialVersionUID = 1L;
+
+        StructureNode( Attribute classAttribute, int classValue )
+        {
+            super( classAttribute );
+            this.classValue = classValue;
+        }
+
+        @Override
+        protected Node newNode( Instance instance )
+        {
+            return new StructureNode( classAttribute, 0 );
+        }
+
+        void setClassValue( int classValue )
+        {
+            this.classValue = classValue;
+        }
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        checkLearnedTree( );
+        checkBackgroundGeneration( );
+        checkWideTree( new TreeCompiler( ) );
+
+        TreeCompiler smallMethods = new TreeCompiler( );
+        smallMethods.setMaxCasesPerMethod( 64 );
+        checkWideTree( smallMethods );
+    }
+
+    private static void checkLearnedTree( ) throws Exception
+    {
+        TreeDataGenerator generator = new TreeDataGenerator( 30, 3, 0.05, 1, 2 );
+        VFDT classifier = new VFDT( );
+        classifier.setConfidenceLevel( 1e-3 );
+        classifier.initialize( generator.getDataset( ) );
+        for ( int i = 0; i < 100000; i++ )
+        {
+            classifier.addInstance( generator.next( ) );
+        }
+
+        TreeCompiler compiler = new TreeCompiler( );
+        compiler.setMaxCasesPerMethod( 16 );
+
+        // the class path must come from the class loader of the library, as in a
+        // container where the application class path does not contain it
+        String classPath = System.getProperty( "java.class.path" );
+        System.setProperty( "java.class.path", "" );
+        try
+        {
+            compare( classifier.getFlatTree( ).copy( ), compiler, generator.getDataset( ), new TreeDataGenerator( 30, 3, 0.05, 1, 3 ), 20000 );
+        }
+        finally
+        {
+            System.setProperty( "java.class.path", classPath );
+        }
+    }
+
+    private static void checkBackgroundGeneration( ) throws Exception
+    {
+        TreeDataGenerator generator = new TreeDataGenerator( 30, 3, 0.05, 1, 2 );
+        VFDT classifier = new VFDT( );
+        classifier.setConfidenceLevel( 1e-3 );
+        classifier.setCodeGenerationInterval( 10 );
+        classifier.initialize( generator.getDataset( ) );
+        for ( int i = 0; i < 100000; i++ )
+        {
+            classifier.addInstance( generator.next( ) );
+        }
+
+        long deadline = System.currentTimeMillis( ) + 60000;
+        while ( classifier.getCompiledClassifier( ) == null && System.currentTimeMillis( ) < deadline )
+        {
+            Thread.sleep( 100 );
+        }
+        FlatTreeEquivalence.check( classifier.getCompiledClassifier( ) != null, "no classifier generated in the background" );
+
+        // the generation thread exits once it has been idle for a few seconds
+        deadline = System.currentTimeMillis( ) + 30000;
+        while ( isThreadAlive( "VFDT code generation" ) && System.currentTimeMillis( ) < deadline )
+        {
+            Thread.sleep( 500 );
+        }
+        FlatTreeEquivalence.check( !isThreadAlive( "VFDT code generation" ), "idle code generation thread still alive" );
+        System.out.println( "CompiledTreeEquivalence: background generation thread exited." );
+    }
+
+    private static boolean isThreadAlive( String name )
+    {
+        for ( Thread thread : Thread.getAllStackTraces( ).keySet( ) )
+        {
+            if ( thread.getName( ).equals( name ) && thread.isAlive( ) ) return true;
+        }
+        return false;
+    }
+
+    private static void checkWideTree( TreeCompiler compiler ) throws Exception
+    {
+        FastVector attributes = new FastVector( );
+        attributes.addElement( nominal( "TailNum", 20000 ) );
+        attributes.addElement( nominal( "Origin", 3000 ) );
+        attributes.addElement( nominal( "Weekend", 2 ) );
+        Attribute classAttribute = nominal( "Delayed", 3 );
+        attributes.addElement( classAttribute );
+
+        Instances header = new Instances( "wide", attributes, 0 );
+        header.setClassIndex( 3 );
+        Instance instance = new Instance( 4 );
+        instance.setDataset( header );
+
+        // split the root on TailNum, a few of its children on Origin and one of
+        // their children on Weekend
+        StructureNode root = new StructureNode( header.classAttribute( ), 0 );
+        root.split( header.attribute( 0 ), instance );
+        SplitMix64 random = new SplitMix64( 7 );
+        for ( int i = 0; i < 20000; i++ )
+        {
+            StructureNode child = ( StructureNode ) root.getSuccessor( i );
+            child.setClassValue( random.nextInt( 3 ) );
+
+            if ( i % 5000 == 1 )
+            {
+                child.split( header.attribute( 1 ), instance );
+                for ( int j = 0; j < 3000; j++ )
+                {
+                    ( ( StructureNode ) child.getSuccessor( j ) ).setClassValue( random.nextInt( 3 ) );
+                }
+
+                StructureNode grandchild = ( StructureNode ) child.getSuccessor( 2999 );
+                grandchild.split( header.attribute( 2 ), instance );
+                ( ( StructureNode ) grandchild.getSuccessor( 1 ) ).setClassValue( 2 );
+            }
+        }
+
+        FlatTree tree = FlatTree.compile( root );
+        int[] values = new int[4 * 50000];
+        for ( int i = 0; i < 50000; i++ )
+        {
+            // concentrate the instances on the nodes split on Origin
+            values[i * 4] = i % 2 == 0 ? random.nextInt( 20000 ) : 5000 * random.nextInt( 4 ) + 1;
+            values[i * 4 + 1] = i % 3 == 0 ? 2999 : random.nextInt( 3000 );
+            values[i * 4 + 2] = random.nextInt( 2 );
+        }
+        compare( tree, compiler, header, values, 50000 );
+    }
+
+    private static void compare( FlatTree tree, TreeCompiler compiler, Instances header, TreeDataGenerator generator, int numInstances ) throws Exception
+    {
+        int[] values = new int[numInstances * generator.getStride( )];
+        generator.fill( values, numInstances );
+        compare( tree, compiler, header, values, numInstances );
+    }
+
+    private static void compare( FlatTree tree, TreeCompiler compiler, Instances header, int[] values, int numInstances ) throws Exception
+    {
+        CompiledTreeClassifier compiled = compiler.compile( tree, header );
+
+        int stride = header.numAttributes( );
+        Instance[] instances = FlatTreeEquivalence.toInstances( values, numInstances, header );
+        int[] result = new int[numInstances];
+        compiled.classify( values, numInstances, stride, result );
+
+        for ( int i = 0; i < numInstances; i++ )
+        {
+            int expected = tree.classify( instances[i] );
+            FlatTreeEquivalence.check( result[i] == expected, "compiled batch classification differs on instance " + i );
+            FlatTreeEquivalence.check( compiled.classify( instances[i] ) == expected, "compiled classification differs on instance " + i );
+        }
+
+        System.out.println( "CompiledTreeEquivalence: " + numInstances + " instances of a " + tree.size( ) + " node tree (" + compiler.getMaxCasesPerMethod( ) + " cases per method) passed." );
+    }
+
+    private static Attribute nominal( String name, int numValues )
+    {
+        FastVector values = new FastVector( numValues );
+        for ( int i = 0; i < numValues; i++ )
+        {
+            values.addElement( name + i );
+        }
+        return new Attribute( name, values );
+    }
+}
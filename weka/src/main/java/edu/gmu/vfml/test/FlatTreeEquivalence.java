@@ -0,0 +1,124 @@
+package edu.gmu.vfml.test;
+
+import weka.classifiers.trees.CVFDT;
+import weka.classifiers.trees.VFDT;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.data.DriftingDataGenerator;
+import edu.gmu.vfml.data.StreamGenerator;
+import edu.gmu.vfml.data.TreeDataGenerator;
+import edu.gmu.vfml.tree.FlatTree;
+
+/**
+ * Checks that the FlatTree maintained incrementally by VFDT and CVFDT (and a
+ * FlatTree compiled from scratch) classify every instance exactly like the Node
+ * tree, both from Weka Instances and from batches of encoded instances. CVFDT must
+ * only recompile its flat tree after an alternative tree replaced part of the main
+ * tree.
+ */
+public class FlatTreeEquivalence
+{
+    public static void main( String[] args ) throws Exception
+    {
+        int numInstances = args.length > 0 ? Integer.parseInt( args[0] ) : 200000;
+
+        VFDT vfdt = new VFDT( );
+        vfdt.setConfidenceLevel( 1e-3 );
+        check( vfdt, new TreeDataGenerator( 30, 3, 0.05, 1, 2 ), new TreeDataGenerator( 30, 3, 0.05, 1, 3 ), numInstances );
+
+        CVFDT cvfdt = new CVFDT( );
+        cvfdt.setWindowSize( 10000 );
+        cvfdt.setConfidenceLevel( 1e-3 );
+        cvfdt.setSplitRecheckInterval( 2000 );
+        cvfdt.setTestInterval( 1800 );
+        cvfdt.setTestDuration( 200 );
+        check( cvfdt, new DriftingDataGenerator( 12, 2, 0.05, 5, 6, DriftingDataGenerator.DRIFT_CHANGE_CLASS_OR_SPLIT, 20000 ),
+                new TreeDataGenerator( 12, 2, 0, 5, 7 ), numInstances );
+    }
+
+    private static void check( VFDT classifier, StreamGenerator trainGenerator, StreamGenerator testGenerator, int numInstances ) throws Exception
+    {
+        int checkInterval = 10000;
+        int numTest = 5000;
+
+        Instances header = trainGenerator.getDataset( );
+        int stride = trainGenerator.getStride( );
+
+        int[] testValues = new int[numTest * stride];
+        testGenerator.fill( testValues, numTest );
+        Instance[] testInstances = toInstances( testValues, numTest, header );
+
+        classifier.initialize( header );
+
+        // compile the flat tree up front so that it is maintained as the tree grows
+        FlatTree previous = classifier.getFlatTree( );
+        long previousPromotions = 0;
+        int recompiles = 0;
+
+        int[] batchResult = new int[numTest];
+        int checks = 0;
+        for ( int i = 1; i <= numInstances; i++ )
+        {
+            classifier.addInstance( trainGenerator.next( ) );
+
+            if ( i % checkInterval == 0 )
+            {
+                FlatTree maintained = classifier.getFlatTree( );
+                FlatTree compiled = FlatTree.compile( classifier.getRoot( ) );
+                check( maintained.size( ) == classifier.getRoot( ).getTreeSize( ), "maintained flat tree size " + maintained.size( ) + " != tree size " + classifier.getRoot( ).getTreeSize( ) );
+
+                // the flat tree is only rebuilt when the structure changed in a way it
+                // cannot follow
+                long promotions = classifier.getMetrics( ).getPromotionCount( );
+                if ( maintained != previous )
+                {
+                    check( promotions > previousPromotions, "flat tree recompiled without a promotion after " + i + " instances" );
+                    recompiles++;
+                }
+                previous = maintained;
+                previousPromotions = promotions;
+
+                maintained.classify( testValues, numTest, stride, batchResult );
+                for ( int j = 0; j < numTest; j++ )
+                {
+                    Instance instance = testInstances[j];
+                    int expected = ( int ) classifier.getRoot( ).getLeafNode( instance ).getClassValue( );
+
+                    check( maintained.classify( instance ) == expected, "maintained flat tree differs on instance " + j );
+                    check( batchResult[j] == expected, "batch classification differs on instance " + j );
+                    check( compiled.classify( instance ) == expected, "compiled flat tree differs on instance " + j );
+                    check( ( int ) classifier.classifyInstance( instance ) == expected, "classifyInstance differs on instance " + j );
+                }
+                checks++;
+            }
+        }
+
+        System.out.println( "FlatTreeEquivalence: " + classifier.getClass( ).getSimpleName( ) + ", " + checks + " checks of " + numTest + " instances passed, "
+                + recompiles + " recompiles, final tree size " + classifier.getRoot( ).getTreeSize( ) + "." );
+    }
+
+    static Instance[] toInstances( int[] values, int numInstances, Instances header )
+    {
+        int stride = header.numAttributes( );
+        Instance[] instances = new Instance[numInstances];
+        for ( int i = 0; i < numInstances; i++ )
+        {
+            double[] instanceValues = new double[stride];
+            for ( int j = 0; j < stride; j++ )
+            {
+                instanceValues[j] = values[i * stride + j];
+            }
+            instances[i] = new Instance( 1.0, instanceValues );
+            instances[i].setDataset( header );
+        }
+        return instances;
+    }
+
+    static void check( boolean condition, String message )
+    {
+        if ( !condition )
+        {
+            throw new AssertionError( message );
+        }
+    }
+}
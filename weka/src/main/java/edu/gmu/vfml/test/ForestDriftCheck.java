@@ -0,0 +1,80 @@
+package edu.gmu.vfml.test;
+
+import weka.classifiers.trees.HoeffdingForest;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.data.TreeDataGenerator;
+
+/**
+ * Checks that a HoeffdingForest trained on batches of encoded instances detects
+ * drift and replaces members exactly like a forest trained on the same batches of
+ * Instances: the stream switches abruptly to a different concept halfway, after
+ * which members must be replaced, and both forests must classify a test set of the
+ * new concept identically.
+ */
+public class ForestDriftCheck
+{
+    public static void main( String[] args ) throws Exception
+    {
+        int numInstances = args.length > 0 ? Integer.parseInt( args[0] ) : 100000;
+        int batchSize = 1000;
+        int numTest = 5000;
+
+        TreeDataGenerator before = new TreeDataGenerator( 20, 2, 0.05, 1, 2 );
+        TreeDataGenerator after = new TreeDataGenerator( 20, 2, 0.05, 3, 4 );
+        Instances header = before.getDataset( );
+        int stride = before.getStride( );
+
+        HoeffdingForest encoded = newForest( header );
+        HoeffdingForest decoded = newForest( header );
+
+        int[] values = new int[batchSize * stride];
+        for ( int first = 0; first < numInstances; first += batchSize )
+        {
+            ( first < numInstances / 2 ? before : after ).fill( values, batchSize );
+            encoded.addInstances( values, batchSize );
+            decoded.addInstances( FlatTreeEquivalence.toInstances( values, batchSize, header ), batchSize );
+
+            if ( first + batchSize == numInstances / 2 )
+            {
+                FlatTreeEquivalence.check( countReplacements( encoded ) == 0, "members replaced before the drift" );
+            }
+        }
+
+        int replacements = countReplacements( encoded );
+        FlatTreeEquivalence.check( replacements > 0, "no members replaced after the drift" );
+        FlatTreeEquivalence.check( replacements == countReplacements( decoded ), "encoded forest replaced " + replacements + " members, decoded forest " + countReplacements( decoded ) );
+
+        int[] testValues = new int[numTest * stride];
+        after.fill( testValues, numTest );
+        Instance[] testInstances = FlatTreeEquivalence.toInstances( testValues, numTest, header );
+        int correct = 0;
+        for ( Instance instance : testInstances )
+        {
+            double predicted = encoded.classifyInstance( instance );
+            FlatTreeEquivalence.check( predicted == decoded.classifyInstance( instance ), "encoded and decoded forests disagree" );
+            if ( predicted == instance.classValue( ) ) correct++;
+        }
+
+        System.out.println( "ForestDriftCheck: passed, " + replacements + " members replaced, accuracy on the new concept " + ( double ) correct / numTest + "." );
+    }
+
+    private static HoeffdingForest newForest( Instances header ) throws Exception
+    {
+        HoeffdingForest forest = new HoeffdingForest( );
+        forest.setEnsembleSize( 5 );
+        forest.setNumThreads( 2 );
+        forest.initialize( header );
+        return forest;
+    }
+
+    private static int countReplacements( HoeffdingForest forest )
+    {
+        int replacements = 0;
+        for ( int i = 0; i < forest.getEnsembleSize( ); i++ )
+        {
+            replacements += forest.getReplacementCount( i );
+        }
+        return replacements;
+    }
+}
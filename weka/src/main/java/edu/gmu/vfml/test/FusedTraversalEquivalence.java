@@ -0,0 +1,220 @@
+package edu.gmu.vfml.test;
+
+import weka.classifiers.trees.CVFDT;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.data.DriftingDataGenerator;
+import edu.gmu.vfml.tree.CNode;
+
+/**
+ * Checks that CVFDT's single fused traversal per instance leaves the tree, the
+ * alternative trees and all their counts exactly as the original multi-pass
+ * algorithm does (one pass to increment counts, one to decrement the counts of the
+ * expired instance, then one to test and split), on a drifting stream which
+ * creates, drops and promotes alternative trees.
+ */
+public class FusedTraversalEquivalence
+{
+    /**
+     * CVFDT with the original multi-pass per instance traversals.
+     */
+    private static class MultiPassCVFDT extends CVFDT
+    {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void addInstance( Instance instance )
+        {
+            for ( int i = 0; i < numAttributes; i++ )
+            {
+                instanceValues[i] = ( int ) instance.value( i );
+            }
+
+            traverseAndIncrementCounts( instanceValues, getRoot( ) );
+
+            int expiredId = updateWindow( instanceValues );
+            if ( expiredId >= 0 )
+            {
+                traverseAndDecrementCounts( expiredValues, getRoot( ), expiredId );
+            }
+
+            traverseAndSplitOrTest( instance, getRoot( ) );
+
+            splitValidityCounter++;
+            checkSplitValidity( instance );
+            alternativeTreeBudget.rebalance( );
+
+            invalidateFlatTree( );
+        }
+
+        private void traverseAndIncrementCounts( int[] values, CNode node )
+        {
+            node.incrementCounts( values );
+            for ( CNode alt : node.getAlternativeTrees( ) )
+            {
+                traverseAndIncrementCounts( values, alt );
+            }
+            if ( node.getAttribute( ) != null )
+            {
+                traverseAndIncrementCounts( values, node.getSuccessor( values[node.getAttribute( ).index( )] ) );
+            }
+        }
+
+        private void traverseAndDecrementCounts( int[] values, CNode node, int id )
+        {
+            if ( node.getId( ) <= id )
+            {
+                node.decrementCounts( values );
+            }
+            for ( CNode alt : node.getAlternativeTrees( ) )
+            {
+                traverseAndDecrementCounts( values, alt, id );
+            }
+            if ( node.getAttribute( ) != null )
+            {
+                traverseAndDecrementCounts( values, node.getSuccessor( values[node.getAttribute( ).index( )] ), id );
+            }
+        }
+
+        private void traverseAndSplitOrTest( Instance instance, CNode node )
+        {
+            int altCount = node.getAlternativeCount( );
+            if ( node.incrementTestCount( testInterval, testDuration ) )
+            {
+                recordPromotion( node, instance, alternativeTree == null );
+            }
+            else if ( node.getAlternativeCount( ) < altCount )
+            {
+                alternativeTreeBudget.release( );
+            }
+            if ( node.isTestMode( ) )
+            {
+                node.testInstance( instance );
+            }
+
+            for ( CNode alt : node.getAlternativeTrees( ) )
+            {
+                CNode enclosingTree = alternativeTree;
+                alternativeTree = alt;
+                traverseAndSplitOrTest( instance, alt );
+                alternativeTree = enclosingTree;
+            }
+
+            if ( node.getAttribute( ) != null )
+            {
+                traverseAndSplitOrTest( instance, node.getSuccessor( ( int ) instance.value( node.getAttribute( ) ) ) );
+            }
+            else if ( !node.isTestMode( ) && isSplitCheckDue( node ) )
+            {
+                checkNodeSplit( instance, node );
+            }
+        }
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        int numInstances = args.length > 0 ? Integer.parseInt( args[0] ) : 300000;
+
+        DriftingDataGenerator generator = new DriftingDataGenerator( 12, 2, 0.05, 5, 6, DriftingDataGenerator.DRIFT_CHANGE_CLASS_OR_SPLIT, 20000 );
+        Instances header = generator.getDataset( );
+
+        CVFDT fused = configure( new CVFDT( ) );
+        CVFDT multiPass = configure( new MultiPassCVFDT( ) );
+        fused.initialize( header );
+        multiPass.initialize( header );
+
+        for ( int i = 1; i <= numInstances; i++ )
+        {
+            Instance instance = generator.next( );
+            fused.addInstance( instance );
+            multiPass.addInstance( instance );
+
+            if ( i % 5000 == 0 )
+            {
+                compare( fused.getRoot( ), multiPass.getRoot( ), header, "root" );
+            }
+        }
+
+        System.out.println( "FusedTraversalEquivalence: passed, " + fused.getMetrics( ).getPromotionCount( ) + " promotions, final tree size " + fused.getRoot( ).getTreeSize( ) + "." );
+    }
+
+    private static CVFDT configure( CVFDT classifier )
+    {
+        classifier.setWindowSize( 10000 );
+        classifier.setConfidenceLevel( 1e-3 );
+        classifier.setSplitRecheckInterval( 2000 );
+        classifier.setTestInterval( 1800 );
+        classifier.setTestDuration( 200 );
+        return classifier;
+    }
+
+    /**
+     * Checks that two trees have the same structure, ids, counts, test state and
+     * alternative trees.
+     */
+    static void compare( CNode node1, CNode node2, Instances header, String path )
+    {
+        check( node1.getId( ) == node2.getId( ), path, "id" );
+        FlatTreeEquivalence.check( !node1.isDetached( ) && !node2.isDetached( ), "detached node reachable at " + path );
+        check( attributeIndex( node1 ) == attributeIndex( node2 ), path, "split attribute" );
+        check( node1.getClassValue( ) == node2.getClassValue( ), path, "class" );
+        check( node1.getCount( ) == node2.getCount( ), path, "count" );
+        check( node1.isTestMode( ) == node2.isTestMode( ) && node1.getTestCount( ) == node2.getTestCount( ), path, "test state" );
+        check( node1.getChangesSinceRecheck( ) == node2.getChangesSinceRecheck( ), path, "changes since recheck" );
+
+        Attribute classAttribute = header.classAttribute( );
+        // the class counts of each node must also agree with its attribute counts
+        int total = 0;
+        Attribute attribute = header.attribute( classAttribute.index( ) == 0 ? 1 : 0 );
+        for ( int classIndex = 0; classIndex < classAttribute.numValues( ); classIndex++ )
+        {
+            check( node1.getCount( classIndex ) == node2.getCount( classIndex ), path, "class counts" );
+            int classCount = 0;
+            for ( int valueIndex = 0; valueIndex < attribute.numValues( ); valueIndex++ )
+            {
+                classCount += node1.getCount( attribute, valueIndex, classIndex );
+            }
+            check( node1.getCount( classIndex ) == classCount, path, "class and attribute counts" );
+            total += node1.getCount( classIndex );
+        }
+        check( node1.getCount( ) == total, path, "class and total counts" );
+        for ( int attributeIndex = 0; attributeIndex < header.numAttributes( ); attributeIndex++ )
+        {
+            for ( int valueIndex = 0; valueIndex < header.attribute( attributeIndex ).numValues( ); valueIndex++ )
+            {
+                for ( int classIndex = 0; classIndex < classAttribute.numValues( ); classIndex++ )
+                {
+                    check( node1.getCount( attributeIndex, valueIndex, classIndex ) == node2.getCount( attributeIndex, valueIndex, classIndex ), path, "counts" );
+                }
+            }
+        }
+
+        check( node1.getAlternativeCount( ) == node2.getAlternativeCount( ), path, "alternative count" );
+        for ( int i = 0; i < node1.getAlternativeCount( ); i++ )
+        {
+            int attributeIndex = node1.getAlternativeAttributeIndex( i );
+            check( attributeIndex == node2.getAlternativeAttributeIndex( i ), path, "alternative attribute" );
+            check( Double.compare( node1.getAlternativeStats( attributeIndex ).getError( ), node2.getAlternativeStats( attributeIndex ).getError( ) ) == 0, path, "alternative test error" );
+            compare( node1.getAlternativeTree( attributeIndex ), node2.getAlternativeTree( attributeIndex ), header, path + " alt " + attributeIndex );
+        }
+
+        if ( node1.getAttribute( ) != null )
+        {
+            for ( int valueIndex = 0; valueIndex < node1.getAttribute( ).numValues( ); valueIndex++ )
+            {
+                compare( node1.getSuccessor( valueIndex ), node2.getSuccessor( valueIndex ), header, path + "/" + valueIndex );
+            }
+        }
+    }
+
+    private static int attributeIndex( CNode node )
+    {
+        return node.getAttribute( ) == null ? -1 : node.getAttribute( ).index( );
+    }
+
+    private static void check( boolean condition, String path, String what )
+    {
+        FlatTreeEquivalence.check( condition, what + " differs at " + path );
+    }
+}
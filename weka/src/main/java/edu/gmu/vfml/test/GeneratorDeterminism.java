@@ -0,0 +1,190 @@
+package edu.gmu.vfml.test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Utils;
+import edu.gmu.vfml.bn.BeliefNet;
+import edu.gmu.vfml.data.BeliefNetGenerator;
+import edu.gmu.vfml.data.DriftingDataGenerator;
+import edu.gmu.vfml.data.SplitMix64;
+import edu.gmu.vfml.data.StreamGenerator;
+import edu.gmu.vfml.data.TreeDataGenerator;
+
+/**
+ * Checks that the seeded stream generators produce the same instances whichever way
+ * they are drawn: tree and drifting concept streams through next, generate and fill,
+ * and belief network samples through fill and writeData on any number of threads,
+ * which must match generating each block serially from its own split generator.
+ */
+public class GeneratorDeterminism
+{
+    private static final int[] THREADS = { 1, 2, 3, 8, 0 };
+
+    public static void main( String[] args ) throws Exception
+    {
+        checkSerial( new TreeDataGenerator( 20, 3, 0.05, 1, 2 ), new TreeDataGenerator( 20, 3, 0.05, 1, 2 ), "TreeDataGenerator" );
+        checkSerial( new DriftingDataGenerator( 12, 2, 0.05, 5, 6, DriftingDataGenerator.DRIFT_CHANGE_CLASS_OR_SPLIT, 2000 ),
+                new DriftingDataGenerator( 12, 2, 0.05, 5, 6, DriftingDataGenerator.DRIFT_CHANGE_CLASS_OR_SPLIT, 2000 ), "DriftingDataGenerator" );
+
+        BeliefNet net = newNet( );
+        int classNode = 1;
+        double noise = 0.1;
+        long seed = 17;
+
+        // two fills of uneven length, so that blocks do not line up with the calls
+        int[] lengths = { 3 * BeliefNetGenerator.BLOCK_SIZE + 1000, BeliefNetGenerator.BLOCK_SIZE / 2 };
+        int[][] expected = new int[lengths.length][];
+        SplitMix64 random = new SplitMix64( seed );
+        for ( int call = 0; call < lengths.length; call++ )
+        {
+            expected[call] = serialFill( net, classNode, noise, random, lengths[call] );
+        }
+
+        for ( int threads : THREADS )
+        {
+            BeliefNetGenerator generator = new BeliefNetGenerator( net, classNode, noise, seed );
+            generator.setNumThreads( threads );
+            for ( int call = 0; call < lengths.length; call++ )
+            {
+                int[] values = new int[lengths[call] * generator.getStride( )];
+                generator.fill( values, lengths[call] );
+                FlatTreeEquivalence.check( Arrays.equals( values, expected[call] ), "fill " + call + " differs on " + threads + " threads" );
+            }
+            generator.shutdown( );
+        }
+
+        // writeData formats the same instances as the first fill, whatever the number of threads
+        BeliefNetGenerator reference = new BeliefNetGenerator( net, classNode, noise, seed );
+        byte[] data = format( expected[0], lengths[0], reference.getDataset( ) );
+        for ( int threads : THREADS )
+        {
+            BeliefNetGenerator generator = new BeliefNetGenerator( net, classNode, noise, seed );
+            generator.setNumThreads( threads );
+            ByteArrayOutputStream out = new ByteArrayOutputStream( );
+            generator.writeData( out, lengths[0] );
+            generator.shutdown( );
+            FlatTreeEquivalence.check( Arrays.equals( out.toByteArray( ), data ), "writeData differs on " + threads + " threads" );
+        }
+
+        System.out.println( "GeneratorDeterminism: passed." );
+    }
+
+    /**
+     * Checks that next, generate and fill draw the same stream from two generators
+     * with the same seeds, and that setSeed restarts it.
+     */
+    private static void checkSerial( StreamGenerator generator1, StreamGenerator generator2, String name )
+    {
+        int stride = generator1.getStride( );
+        int numInstances = 10000;
+
+        int[] filled = new int[numInstances * stride];
+        generator1.fill( filled, numInstances );
+
+        int[] values = new int[stride];
+        for ( int i = 0; i < numInstances; i++ )
+        {
+            if ( i % 2 == 0 )
+            {
+                generator2.generate( values, 0 );
+            }
+            else
+            {
+                Instance instance = generator2.next( );
+                for ( int j = 0; j < stride; j++ )
+                {
+                    values[j] = ( int ) instance.value( j );
+                }
+            }
+            FlatTreeEquivalence.check( Arrays.equals( values, Arrays.copyOfRange( filled, i * stride, ( i + 1 ) * stride ) ), name + " instance " + i + " differs" );
+        }
+
+        generator1.setSeed( 99 );
+        generator2.setSeed( 99 );
+        int[] values1 = new int[100 * stride];
+        int[] values2 = new int[100 * stride];
+        generator1.fill( values1, 100 );
+        generator2.fill( values2, 100 );
+        FlatTreeEquivalence.check( Arrays.equals( values1, values2 ), name + " differs after setSeed" );
+    }
+
+    /**
+     * Generates numInstances instances one block at a time, each block from its own
+     * generator split from random.
+     */
+    private static int[] serialFill( BeliefNet net, int classNode, double noise, SplitMix64 random, int numInstances )
+    {
+        int[] values = new int[numInstances * net.getNumNodes( )];
+        for ( int first = 0; first < numInstances; first += BeliefNetGenerator.BLOCK_SIZE )
+        {
+            BeliefNetGenerator block = new BeliefNetGenerator( net, classNode, noise, random.split( ) );
+            int end = Math.min( numInstances, first + BeliefNetGenerator.BLOCK_SIZE );
+            for ( int i = first; i < end; i++ )
+            {
+                block.generate( values, i * block.getStride( ) );
+            }
+        }
+        return values;
+    }
+
+    /**
+     * A network with a class node in the middle, a node with two parents and a
+     * node with four values, with skewed CPTs.
+     */
+    private static BeliefNet newNet( )
+    {
+        String[] names = { "A", "class", "B", "C", "D" };
+        String[][] values = { { "a0", "a1" }, { "c0", "c1", "c2" }, { "b0", "b1" }, { "c0", "c1", "c2", "c3" }, { "d0", "d1" } };
+        BeliefNet net = new BeliefNet( "determinism", names, values );
+        net.setParents( 1, new int[] { 0 } );
+        net.setParents( 2, new int[] { 0, 1 } );
+        net.setParents( 3, new int[] { 2 } );
+        net.setParents( 4, new int[] { 3, 1 } );
+
+        SplitMix64 random = new SplitMix64( 3 );
+        for ( int node = 0; node < net.getNumNodes( ); node++ )
+        {
+            int numValues = net.getNumValues( node );
+            double[] cpt = new double[net.getNumRows( node ) * numValues];
+            for ( int row = 0; row < cpt.length; row += numValues )
+            {
+                double sum = 0;
+                for ( int value = 0; value < numValues; value++ )
+                {
+                    cpt[row + value] = Math.pow( random.nextDouble( ), 3 );
+                    sum += cpt[row + value];
+                }
+                for ( int value = 0; value < numValues; value++ )
+                {
+                    cpt[row + value] /= sum;
+                }
+            }
+            net.setCPT( node, cpt );
+        }
+        return net;
+    }
+
+    /**
+     * @return encoded instances as lines of comma separated value names
+     */
+    private static byte[] format( int[] values, int numInstances, Instances header ) throws Exception
+    {
+        StringBuilder text = new StringBuilder( );
+        int stride = header.numAttributes( );
+        for ( int i = 0; i < numInstances; i++ )
+        {
+            for ( int a = 0; a < stride; a++ )
+            {
+                Attribute attribute = header.attribute( a );
+                if ( a > 0 ) text.append( ',' );
+                text.append( Utils.quote( attribute.value( values[i * stride + a] ) ) );
+            }
+            text.append( '\n' );
+        }
+        return text.toString( ).getBytes( "ISO-8859-1" );
+    }
+}
@@ -0,0 +1,159 @@
+package edu.gmu.vfml.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instances;
+import edu.gmu.vfml.data.SplitMix64;
+import edu.gmu.vfml.tree.InstanceWindow;
+
+/**
+ * Checks that InstanceWindow behaves like a FIFO of (values, id) entries as it wraps
+ * around its ring buffer many times, on the heap and memory mapped, that checkpoint
+ * copies of its entries round trip (including snapshots copied on another thread
+ * while the window changes), and that a mapped window only ever deletes the
+ * temporary file it created.
+ */
+public class InstanceWindowCheck
+{
+    public static void main( String[] args ) throws Exception
+    {
+        FastVector attributes = new FastVector( );
+        attributes.addElement( nominal( "binary", 2 ) );
+        attributes.addElement( nominal( "wide", 300 ) ); // needs 2 bytes per value
+        attributes.addElement( nominal( "class", 3 ) );
+        Instances header = new Instances( "window", attributes, 0 );
+        header.setClassIndex( 2 );
+
+        check( new InstanceWindow( header, 1000 ), header );
+
+        File directory = new File( System.getProperty( "java.io.tmpdir" ), "InstanceWindowCheck" + System.nanoTime( ) );
+        FlatTreeEquivalence.check( directory.mkdir( ), "could not create " + directory );
+
+        // an existing file in the directory must survive the window
+        File existing = new File( directory, "existing.dat" );
+        FileOutputStream out = new FileOutputStream( existing );
+        out.write( new byte[] { 1, 2, 3 } );
+        out.close( );
+
+        InstanceWindow mapped = new InstanceWindow( header, 1000, directory );
+        FlatTreeEquivalence.check( mapped.isMapped( ), "window is not mapped" );
+        FlatTreeEquivalence.check( directory.listFiles( ).length == 2, "window file was not created in " + directory );
+        check( mapped, header );
+
+        FlatTreeEquivalence.check( directory.listFiles( ).length == 1, "window file was not deleted on close" );
+        FlatTreeEquivalence.check( existing.length( ) == 3, "existing file was modified" );
+        existing.delete( );
+        directory.delete( );
+
+        System.out.println( "InstanceWindowCheck: passed." );
+    }
+
+    private static void check( InstanceWindow window, Instances header ) throws Exception
+    {
+        SplitMix64 random = new SplitMix64( 11 );
+        ArrayDeque<int[]> expected = new ArrayDeque<int[]>( );
+        int[] values = new int[3];
+
+        // a snapshot being copied on another thread, and the entries it should contain
+        SnapshotCopy pending = null;
+
+        // grow and shrink the window at random, wrapping around it many times
+        for ( int i = 0; i < 200000; i++ )
+        {
+            boolean add = window.isEmpty( ) || ( window.size( ) < window.capacity( ) && random.nextInt( 5 ) < 3 );
+            if ( add )
+            {
+                int[] entry = new int[] { random.nextInt( 2 ), random.nextInt( 300 ), random.nextInt( 3 ), i };
+                window.add( Arrays.copyOf( entry, 3 ), entry[3] );
+                expected.addLast( entry );
+            }
+            else
+            {
+                int[] entry = expected.removeFirst( );
+                int id = window.removeFirst( values );
+                FlatTreeEquivalence.check( id == entry[3] && Arrays.equals( values, Arrays.copyOf( entry, 3 ) ), "removed entry differs at step " + i );
+            }
+            FlatTreeEquivalence.check( window.size( ) == expected.size( ), "window size differs at step " + i );
+
+            if ( i % 10007 == 0 )
+            {
+                checkCopy( window, header, expected );
+
+                if ( pending != null ) pending.check( window, header );
+                pending = new SnapshotCopy( window.snapshot( ), new ArrayDeque<int[]>( expected ) );
+                pending.start( );
+            }
+        }
+
+        pending.check( window, header );
+        window.close( );
+    }
+
+    /**
+     * Copies the entries of a snapshot on its own thread.
+     */
+    private static class SnapshotCopy extends Thread
+    {
+        private final InstanceWindow.Snapshot snapshot;
+        private final ArrayDeque<int[]> expected;
+        private byte[] entries;
+
+        public SnapshotCopy( InstanceWindow.Snapshot snapshot, ArrayDeque<int[]> expected )
+        {
+            this.snapshot = snapshot;
+            this.expected = expected;
+        }
+
+        @Override
+        public void run( )
+        {
+            entries = snapshot.getEntries( );
+        }
+
+        public void check( InstanceWindow window, Instances header ) throws InterruptedException
+        {
+            join( );
+            InstanceWindow copy = new InstanceWindow( header, window.capacity( ) );
+            copy.addEntries( entries );
+            checkEntries( copy, expected, "snapshot" );
+        }
+    }
+
+    /**
+     * Checks the entries of a window restored from a copy of the entries.
+     */
+    private static void checkCopy( InstanceWindow window, Instances header, ArrayDeque<int[]> expected )
+    {
+        InstanceWindow copy = new InstanceWindow( header, window.capacity( ) );
+        copy.addEntries( window.copyEntries( ) );
+        checkEntries( copy, expected, "copied" );
+    }
+
+    private static void checkEntries( InstanceWindow copy, ArrayDeque<int[]> expected, String name )
+    {
+        FlatTreeEquivalence.check( copy.size( ) == expected.size( ), name + " window size differs" );
+
+        int[] values = new int[3];
+        int index = 0;
+        for ( int[] entry : expected )
+        {
+            int id = copy.get( index++, values );
+            FlatTreeEquivalence.check( id == entry[3] && Arrays.equals( values, Arrays.copyOf( entry, 3 ) ), name + " entry " + index + " differs" );
+        }
+    }
+
+    private static Attribute nominal( String name, int numValues )
+    {
+        FastVector values = new FastVector( numValues );
+        for ( int i = 0; i < numValues; i++ )
+        {
+            values.addElement( name + i );
+        }
+        return new Attribute( name, values );
+    }
+}
@@ -0,0 +1,104 @@
+package edu.gmu.vfml.test;
+
+import java.io.File;
+
+import weka.classifiers.trees.VFDT;
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.data.TreeDataGenerator;
+import edu.gmu.vfml.tree.FlatTree;
+import edu.gmu.vfml.tree.MappedTreeModel;
+
+/**
+ * Checks that models exported with {@link VFDT#exportModel(File)} and mapped with
+ * {@link MappedTreeModel#open(File)} reach the same leaves and predict the same
+ * classes as the learner they were exported from, as the tree grows and each
+ * new model is written over the previous one. Models which are already open must
+ * keep classifying like the tree they were exported from.
+ */
+public class MappedModelEquivalence
+{
+    public static void main( String[] args ) throws Exception
+    {
+        TreeDataGenerator generator = new TreeDataGenerator( 30, 3, 0.05, 1, 2 );
+        Instances header = generator.getDataset( );
+
+        int numTest = 5000;
+        int[] values = new int[numTest * generator.getStride( )];
+        new TreeDataGenerator( 30, 3, 0.05, 1, 3 ).fill( values, numTest );
+        Instance[] instances = FlatTreeEquivalence.toInstances( values, numTest, header );
+
+        VFDT classifier = new VFDT( );
+        classifier.setConfidenceLevel( 1e-3 );
+        classifier.initialize( header );
+
+        File file = File.createTempFile( "MappedModelEquivalence", ".vfml" );
+        MappedTreeModel previous = null;
+        FlatTree previousTree = null;
+
+        int checks = 0;
+        for ( int i = 1; i <= 200000; i++ )
+        {
+            classifier.addInstance( generator.next( ) );
+
+            if ( i % 20000 == 0 )
+            {
+                classifier.exportModel( file );
+                MappedTreeModel model = MappedTreeModel.open( file );
+                FlatTree tree = classifier.getFlatTree( ).copy( );
+
+                model.verify( );
+                FlatTreeEquivalence.check( model.isCompatible( header ), "model is not compatible with its header" );
+                checkSchema( model, header );
+                FlatTreeEquivalence.check( model.size( ) == tree.size( ), "model size differs after " + i + " instances" );
+
+                int[] result = new int[numTest];
+                model.classify( values, numTest, generator.getStride( ), result );
+                for ( int j = 0; j < numTest; j++ )
+                {
+                    int expected = ( int ) classifier.classifyInstance( instances[j] );
+                    int offset = j * generator.getStride( );
+                    FlatTreeEquivalence.check( model.getLeafIndex( values, offset ) == tree.getLeafIndex( values, offset ), "model leaf differs on instance " + j );
+                    FlatTreeEquivalence.check( model.getLeafIndex( instances[j] ) == tree.getLeafIndex( values, offset ), "model leaf differs on instance object " + j );
+                    FlatTreeEquivalence.check( result[j] == expected, "model batch classification differs on instance " + j );
+                    FlatTreeEquivalence.check( model.classify( instances[j] ) == expected, "model classification differs on instance " + j );
+                }
+
+                // the model written over remains mapped and unchanged
+                if ( previous != null )
+                {
+                    for ( int j = 0; j < numTest; j++ )
+                    {
+                        FlatTreeEquivalence.check( previous.classify( instances[j] ) == previousTree.classify( instances[j] ), "replaced model classification differs on instance " + j );
+                    }
+                }
+
+                previous = model;
+                previousTree = tree;
+                checks++;
+            }
+        }
+
+        file.delete( );
+        System.out.println( "MappedModelEquivalence: " + checks + " models of up to " + previousTree.size( ) + " nodes passed." );
+    }
+
+    private static void checkSchema( MappedTreeModel model, Instances header )
+    {
+        FlatTreeEquivalence.check( model.getRelationName( ).equals( header.relationName( ) ), "relation name differs" );
+        FlatTreeEquivalence.check( model.getNumAttributes( ) == header.numAttributes( ), "number of attributes differs" );
+        FlatTreeEquivalence.check( model.getClassAttributeIndex( ) == header.classIndex( ), "class attribute differs" );
+
+        for ( int i = 0; i < header.numAttributes( ); i++ )
+        {
+            Attribute attribute = header.attribute( i );
+            FlatTreeEquivalence.check( model.getAttributeName( i ).equals( attribute.name( ) ), "name of attribute " + i + " differs" );
+            FlatTreeEquivalence.check( model.getNumValues( i ) == attribute.numValues( ), "values of attribute " + i + " differ" );
+            for ( int j = 0; j < attribute.numValues( ); j++ )
+            {
+                FlatTreeEquivalence.check( model.getValue( i, j ).equals( attribute.value( j ) ) && model.indexOfValue( i, attribute.value( j ) ) == j, "value " + j + " of attribute " + i + " differs" );
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package edu.gmu.vfml.test;
+
+import weka.classifiers.trees.CVFDT;
+import weka.classifiers.trees.HoeffdingAdaptiveTree;
+import weka.classifiers.trees.VFDT;
+import weka.core.Attribute;
+import weka.core.Instances;
+import edu.gmu.vfml.data.DriftingDataGenerator;
+import edu.gmu.vfml.data.StreamGenerator;
+import edu.gmu.vfml.data.TreeDataGenerator;
+import edu.gmu.vfml.tree.AdaptiveCNode;
+import edu.gmu.vfml.tree.CNode;
+import edu.gmu.vfml.tree.LearnerMetrics;
+import edu.gmu.vfml.tree.Node;
+
+/**
+ * Checks that the metrics which the learners maintain incrementally (as leaves are
+ * activated, nodes are split, subtrees are replaced and alternative trees are
+ * started, promoted and dropped) match a full recount of the tree: VFDT on a fixed
+ * concept, CVFDT on a drifting concept and HoeffdingAdaptiveTree on two alternating
+ * concepts.
+ */
+public class MetricsRecount
+{
+    private static final int CHECK_INTERVAL = 100;
+
+    public static void main( String[] args ) throws Exception
+    {
+        int numInstances = args.length > 0 ? Integer.parseInt( args[0] ) : 150000;
+
+        check( new VFDT( ), new StreamGenerator[] { new TreeDataGenerator( 20, 2, 0.05, 1, 2 ) }, numInstances );
+
+        CVFDT cvfdt = new CVFDT( );
+        cvfdt.setWindowSize( 10000 );
+        cvfdt.setSplitRecheckInterval( 2000 );
+        cvfdt.setTestInterval( 1800 );
+        cvfdt.setTestDuration( 200 );
+        check( cvfdt, new StreamGenerator[] { new DriftingDataGenerator( 12, 2, 0.05, 5, 6, DriftingDataGenerator.DRIFT_CHANGE_CLASS_OR_SPLIT, 20000 ) }, numInstances );
+
+        check( new HoeffdingAdaptiveTree( ), new StreamGenerator[] { new TreeDataGenerator( 12, 2, 0.05, 5, 6 ), new TreeDataGenerator( 12, 2, 0.05, 7, 8 ) },
+                numInstances );
+    }
+
+    /**
+     * Trains learner on the generators, switching to the next generator every
+     * 18000 instances, and compares its metrics to a recount every CHECK_INTERVAL
+     * instances.
+     */
+    private static void check( VFDT learner, StreamGenerator[] generators, int numInstances ) throws Exception
+    {
+        String name = learner.getClass( ).getSimpleName( );
+        Instances header = generators[0].getDataset( );
+        learner.setConfidenceLevel( 1e-3 );
+        learner.initialize( header );
+        LearnerMetrics metrics = learner.getMetrics( );
+
+        // the root is the only node after the first instance, which gives the bytes per node
+        learner.addInstance( generators[0].next( ) );
+        long nodeBytes = metrics.getStatisticsBytes( );
+        FlatTreeEquivalence.check( nodeBytes > 0, name + ": no statistics bytes" );
+
+        int peakAlternatives = 0;
+        for ( int i = 2; i <= numInstances; i++ )
+        {
+            learner.addInstance( generators[( i / 18000 ) % generators.length].next( ) );
+            if ( i % CHECK_INTERVAL != 0 ) continue;
+
+            Recount recount = new Recount( learner.getRoot( ) );
+            String prefix = name + " instance " + i + ": ";
+            FlatTreeEquivalence.check( metrics.getInstanceCount( ) == i, prefix + "instance count " + metrics.getInstanceCount( ) );
+            FlatTreeEquivalence.check( metrics.getTreeSize( ) == recount.nodes, prefix + "tree size " + metrics.getTreeSize( ) + ", recount " + recount.nodes );
+            FlatTreeEquivalence.check( metrics.getLeafCount( ) == recount.leaves, prefix + "leaf count " + metrics.getLeafCount( ) + ", recount " + recount.leaves );
+            FlatTreeEquivalence.check( metrics.getActiveLeafCount( ) == recount.activeLeaves, prefix + "active leaf count " + metrics.getActiveLeafCount( ) + ", recount "
+                    + recount.activeLeaves );
+            FlatTreeEquivalence.check( metrics.getDepth( ) == recount.depth, prefix + "depth " + metrics.getDepth( ) + ", recount " + recount.depth );
+            FlatTreeEquivalence.check( metrics.getAlternativeTreeCount( ) == recount.alternativeTrees, prefix + "alternative trees " + metrics.getAlternativeTreeCount( )
+                    + ", recount " + recount.alternativeTrees );
+            FlatTreeEquivalence.check( metrics.getStatisticsBytes( ) == ( recount.nodes + recount.alternativeNodes ) * nodeBytes, prefix + "statistics bytes "
+                    + metrics.getStatisticsBytes( ) + ", recount " + ( recount.nodes + recount.alternativeNodes ) * nodeBytes );
+
+            peakAlternatives = Math.max( peakAlternatives, recount.alternativeTrees );
+        }
+
+        FlatTreeEquivalence.check( metrics.getSplitCount( ) > 0, name + ": no splits" );
+        if ( !( learner instanceof CVFDT ) && !( learner instanceof HoeffdingAdaptiveTree ) )
+        {
+            FlatTreeEquivalence.check( peakAlternatives == 0, name + ": alternative trees" );
+        }
+        else
+        {
+            FlatTreeEquivalence.check( peakAlternatives > 0 && metrics.getPromotionCount( ) > 0, name + ": no alternative trees promoted" );
+        }
+
+        System.out.println( "MetricsRecount: " + name + " passed, " + metrics.getTreeSize( ) + " nodes, depth " + metrics.getDepth( ) + ", peak " + peakAlternatives
+                + " alternative trees, " + metrics.getPromotionCount( ) + " promotions." );
+    }
+
+    /**
+     * The shape of a tree counted by walking it: the nodes, leaves, active leaves
+     * (leaves with a nonzero count) and depth of the main tree, and the alternative
+     * trees (CVFDT's alternative subtrees and HoeffdingAdaptiveTree's alternates,
+     * including those nested in other alternative trees) and their nodes.
+     */
+    private static class Recount
+    {
+        private int nodes;
+        private int leaves;
+        private int activeLeaves;
+        private int depth;
+        private int alternativeTrees;
+        private long alternativeNodes;
+
+        public Recount( Node root )
+        {
+            count( root, 0, true );
+        }
+
+        private void count( Node node, int nodeDepth, boolean main )
+        {
+            if ( main ) nodes++;
+            else alternativeNodes++;
+
+            Attribute attribute = node.getAttribute( );
+            if ( attribute == null && main )
+            {
+                leaves++;
+                if ( node.getCount( ) > 0 ) activeLeaves++;
+                depth = Math.max( depth, nodeDepth );
+            }
+
+            if ( node instanceof CNode )
+            {
+                CNode cnode = ( CNode ) node;
+                for ( int i = 0; i < cnode.getAlternativeCount( ); i++ )
+                {
+                    alternativeTrees++;
+                    count( cnode.getAlternativeTree( cnode.getAlternativeAttributeIndex( i ) ), 0, false );
+                }
+            }
+            if ( node instanceof AdaptiveCNode && ( ( AdaptiveCNode ) node ).getAlternate( ) != null )
+            {
+                alternativeTrees++;
+                count( ( ( AdaptiveCNode ) node ).getAlternate( ), 0, false );
+            }
+
+            if ( attribute != null )
+            {
+                for ( int valueIndex = 0; valueIndex < attribute.numValues( ); valueIndex++ )
+                {
+                    count( node.getSuccessor( valueIndex ), nodeDepth + 1, main );
+                }
+            }
+        }
+    }
+}
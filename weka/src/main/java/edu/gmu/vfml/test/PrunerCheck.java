@@ -0,0 +1,161 @@
+package edu.gmu.vfml.test;
+
+import weka.classifiers.trees.VFDT;
+import weka.core.Attribute;
+import weka.core.FastVector;
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.data.InstancesEncodedSource;
+import edu.gmu.vfml.tree.FlatTree;
+import edu.gmu.vfml.tree.Node;
+import edu.gmu.vfml.tree.ReducedErrorPruner;
+
+/**
+ * Checks ReducedErrorPruner on a hand built tree whose held out errors are known,
+ * including a node whose queued delta goes stale when a node below it is pruned
+ * first, and checks that a learner which has not been initialized cannot be pruned.
+ *
+ * <pre>
+ * A = a0 (class 0)      errors as a leaf 1, subtree errors 2: delta -1
+ *   B = b0 (class 0)    errors as a leaf 0, subtree errors 2: delta -2
+ *     C = c0: class 0   errors 0
+ *     C = c1: class 1   errors 2
+ *   B = b1: class 1     errors 0
+ * A = a1 (class 1)      errors as a leaf 0, subtree errors 3: delta -3
+ *   C = c0: class 1     errors 0
+ *   C = c1: class 0     errors 3
+ * A = a2: class 1       errors 2
+ * </pre>
+ *
+ * <p>The node split on C under a1 is pruned first (delta -3), then the node split on
+ * C under b0 (delta -2). Its parent, queued with delta -1, now has delta +1 and must
+ * be kept, leaving 6 of the 10 nodes and 2 of the 7 held out errors.</p>
+ */
+public class PrunerCheck
+{
+    /**
+     * A node without statistics, so that trees can be built by hand.
+     */
+    private static class StructureNode extends Node
+    {
+        private static final long serialVersionUID = 1L;
+
+        StructureNode( Attribute classAttribute, int classValue )
+        {
+            super( classAttribute );
+            this.classValue = classValue;
+        }
+
+        @Override
+        protected Node newNode( Instance instance )
+        {
+            return new StructureNode( classAttribute, 0 );
+        }
+
+        StructureNode split( Attribute attribute, Instance instance, int... classValues )
+        {
+            split( attribute, instance );
+            for ( int i = 0; i < classValues.length; i++ )
+            {
+                ( ( StructureNode ) getSuccessor( i ) ).classValue = classValues[i];
+            }
+            return this;
+        }
+
+        StructureNode child( int value )
+        {
+            return ( StructureNode ) getSuccessor( value );
+        }
+    }
+
+    public static void main( String[] args ) throws Exception
+    {
+        FastVector attributes = new FastVector( );
+        attributes.addElement( nominal( "A", 3 ) );
+        attributes.addElement( nominal( "B", 2 ) );
+        attributes.addElement( nominal( "C", 2 ) );
+        attributes.addElement( nominal( "class", 2 ) );
+        Instances header = new Instances( "pruning", attributes, 0 );
+        header.setClassIndex( 3 );
+        Instance template = new Instance( 4 );
+        template.setDataset( header );
+
+        StructureNode root = new StructureNode( header.classAttribute( ), 0 );
+        root.split( header.attribute( 0 ), template, 0, 1, 1 );
+        root.child( 0 ).split( header.attribute( 1 ), template, 0, 1 );
+        root.child( 0 ).child( 0 ).split( header.attribute( 2 ), template, 0, 1 );
+        root.child( 1 ).split( header.attribute( 2 ), template, 1, 0 );
+
+        // held out instances as { A, B, C, class, count }, -1 for missing
+        int[][] holdout = {
+            { 0, 0, 0, 0, 3 },
+            { 0, 0, 1, 0, 2 },
+            { 0, 1, 0, 1, 1 },
+            { 1, 0, 0, 1, 4 },
+            { 1, 1, 1, 1, 3 },
+            { 2, 0, 0, 0, 2 },
+            { 0, 0, -1, 0, 1 } // skipped, C is tested on its path
+        };
+        Instances data = new Instances( header, 0 );
+        for ( int[] row : holdout )
+        {
+            for ( int i = 0; i < row[4]; i++ )
+            {
+                // values start out missing
+                Instance instance = new Instance( 4 );
+                instance.setDataset( data );
+                for ( int j = 0; j < 4; j++ )
+                {
+                    if ( row[j] >= 0 ) instance.setValue( j, row[j] );
+                }
+                data.add( instance );
+            }
+        }
+
+        ReducedErrorPruner pruner = new ReducedErrorPruner( root );
+        pruner.addAll( new InstancesEncodedSource( data ) );
+        Node pruned = pruner.prune( );
+
+        FlatTreeEquivalence.check( pruner.getNumInstances( ) == 15 && pruner.getNumSkipped( ) == 1, "held out instances miscounted" );
+        FlatTreeEquivalence.check( pruner.getNodesBefore( ) == 10 && pruner.getNodesAfter( ) == 6, "pruned to " + pruner.getNodesAfter( ) + " nodes, expected 6" );
+        FlatTreeEquivalence.check( pruner.getErrorsBefore( ) == 7 && pruner.getErrorsAfter( ) == 2, "pruned to " + pruner.getErrorsAfter( ) + " errors, expected 2" );
+
+        FlatTreeEquivalence.check( pruned.getTreeSize( ) == 6, "pruned tree has " + pruned.getTreeSize( ) + " nodes" );
+        FlatTreeEquivalence.check( pruned.getSuccessor( 0 ).getAttribute( ) == header.attribute( 1 ), "stale delta pruned the node split on B" );
+        FlatTreeEquivalence.check( pruned.getSuccessor( 0 ).getSuccessor( 0 ).getAttribute( ) == null, "node split on C under b0 not pruned" );
+        FlatTreeEquivalence.check( pruned.getSuccessor( 1 ).getAttribute( ) == null, "node split on C under a1 not pruned" );
+        FlatTreeEquivalence.check( root.getTreeSize( ) == 10, "the original tree was modified" );
+
+        // the pruned tree makes the reported number of errors
+        FlatTree tree = FlatTree.compile( pruned );
+        int errors = 0;
+        for ( int i = 0; i < data.numInstances( ); i++ )
+        {
+            Instance instance = data.instance( i );
+            if ( !instance.isMissing( 2 ) && tree.classify( instance ) != ( int ) instance.classValue( ) ) errors++;
+        }
+        FlatTreeEquivalence.check( errors == 2, "pruned tree makes " + errors + " errors" );
+
+        try
+        {
+            new VFDT( ).getPrunedTree( new InstancesEncodedSource( data ) );
+            FlatTreeEquivalence.check( false, "an uninitialized learner was pruned" );
+        }
+        catch ( IllegalStateException e )
+        {
+            // expected
+        }
+
+        System.out.println( "PrunerCheck: passed." );
+    }
+
+    private static Attribute nominal( String name, int numValues )
+    {
+        FastVector values = new FastVector( numValues );
+        for ( int i = 0; i < numValues; i++ )
+        {
+            values.addElement( name + i );
+        }
+        return new Attribute( name, values );
+    }
+}
@@ -10,11 +10,11 @@ import com.metsci.glimpse.support.repaint.RepaintManager;
 
 import weka.classifiers.trees.VFDT;
 import weka.core.Instance;
-import weka.core.NoSupportForMissingValuesException;
 import edu.gmu.vfml.data.BooleanConcept;
 import edu.gmu.vfml.data.RandomDataGenerator;
+import edu.gmu.vfml.eval.PrequentialStatistics;
 import edu.gmu.vfml.ui.TreeVisualization;
-import edu.gmu.vfml.ui.VisualizableNode;
+import edu.gmu.vfml.ui.VisualizationModel;
 
 public class VFDTVisualization
 {
@@ -57,8 +57,17 @@ public class VFDTVisualization
         // build a CVFDT classifier
         final VFDT classifier = buildClassifier( generator );
 
+        // accuracy over the last 1000 instances, each classified before it is learned
+        final PrequentialStatistics statistics = new PrequentialStatistics( generator.getDataset( ).numClasses( ), 1000, 0.0 );
+        final int classIndex = generator.getDataset( ).classIndex( );
+
+        // follow the structural changes of the tree, laid out in the background
+        final VisualizationModel model = new VisualizationModel( classifier.getRoot( ) );
+        classifier.addTreeListener( model );
+
         final TreeVisualization visualization = new TreeVisualization( );
         final Example example = Example.showWithSwing( visualization );
+        visualization.setModel( model );
         final RepaintManager repaintManager = example.getManager( );
         
         example.getCanvas().addKeyListener( new KeyAdapter( )
@@ -98,6 +107,7 @@ public class VFDTVisualization
         	}
         	
             Instance instance = generator.next( );
+            statistics.record( ( int ) instance.value( classIndex ), classifier.classifyInstance( instance ) );
             classifier.addInstance( instance );
 
             // periodically switch the concept to test concept drift adaptation
@@ -116,10 +126,10 @@ public class VFDTVisualization
             
             if ( i % 1000 == 0 )
             {
-                // make a copy of the current classifier tree structure
-                final VisualizableNode vNode = VisualizableNode.copyTree( classifier.getRoot( ) );
+                // send the changed parts of the tree to the layout thread
+                model.update( );
                 
-                final double accuracy = testAccuracy( classifier, generator );
+                final double accuracy = statistics.getWindowAccuracy( );
                 final int n = i;
                 
                 repaintManager.asyncExec( new Runnable( )
@@ -127,7 +137,6 @@ public class VFDTVisualization
                     @Override
                     public void run( )
                     {
-                        visualization.setNode( vNode );
                         visualization.addAccuracy( n, accuracy );
                     }
                 });
@@ -145,24 +154,4 @@ public class VFDTVisualization
         
         return classifier;
     }
-    
-    protected double testAccuracy( VFDT classifier, RandomDataGenerator generator ) throws NoSupportForMissingValuesException
-    {
-    	int total = 500;
-    	int correct = 0;
-    	
-    	int classIndex = generator.getDataset().classIndex();
-    	
-    	for ( int i = 0 ; i < total ; i++ )
-    	{
-    		Instance instance = generator.next();
-    		double result = classifier.classifyInstance( instance );
-    		if ( instance.value( classIndex ) == result )
-    		{
-    			correct++;
-    		}
-    	}
-    	
-    	return (double) correct / (double) total;
-    }
 }
@@ -0,0 +1,225 @@
+package edu.gmu.vfml.tree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>A helper class for {@code weka.classifiers.trees.HoeffdingAdaptiveTree}. Each node
+ * monitors the error of the subtree rooted at it with an {@link Adwin} change detector.
+ * When the error of an internal node increases significantly, an alternate subtree is
+ * grown in parallel from a single leaf. The alternate replaces the node once its error
+ * is significantly lower, or is discarded once it is significantly higher.</p>
+ *
+ * <p>Unlike the alternative trees of {@link CNode}, there is at most one alternate per
+ * node and no test phases are needed: the error estimates are maintained continuously
+ * over adaptively sized windows.</p>
+ *
+ * @author ulman
+ */
+public class AdaptiveCNode extends CNode
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The minimum number of errors recorded in the windows of both a node and
+     * its alternate before they are compared.
+     */
+    public static final int MIN_COMPARISON_WIDTH = 300;
+
+    /**
+     * Confidence of the comparison between the errors of a node and its alternate.
+     */
+    public static final double COMPARISON_DELTA = 0.05;
+
+    /**
+     * The confidence of the change detectors of this node and its descendants.
+     */
+    protected double errorDelta;
+
+    protected Adwin errorEstimator;
+
+    /**
+     * Subtree grown in parallel after a change in the error of this node (or null).
+     */
+    protected AdaptiveCNode alternate;
+
+    protected AdaptiveCNode( Attribute classAttribute, int id, double errorDelta )
+    {
+        super( classAttribute, id );
+        this.errorDelta = errorDelta;
+        this.errorEstimator = new Adwin( errorDelta );
+    }
+
+    public AdaptiveCNode( Attribute[] attributes, Attribute classAttribute, int id, double errorDelta )
+    {
+        super( attributes, classAttribute, id );
+        this.errorDelta = errorDelta;
+        this.errorEstimator = new Adwin( errorDelta );
+    }
+
+    public AdaptiveCNode( Instances instances, Attribute classAttribute, int id, double errorDelta )
+    {
+        super( instances, classAttribute, id );
+        this.errorDelta = errorDelta;
+        this.errorEstimator = new Adwin( errorDelta );
+    }
+
+    public AdaptiveCNode( Instance instance, Attribute classAttribute, int id, double errorDelta )
+    {
+        super( instance, classAttribute, id );
+        this.errorDelta = errorDelta;
+        this.errorEstimator = new Adwin( errorDelta );
+    }
+
+    @Override
+    protected CNode newNode( Instance instance, int id )
+    {
+        return new AdaptiveCNode( instance, classAttribute, id, errorDelta );
+    }
+
+    @Override
+    public void copyNode( Node node )
+    {
+        super.copyNode( node );
+
+        if ( node instanceof AdaptiveCNode )
+        {
+            AdaptiveCNode anode = ( AdaptiveCNode ) node;
+
+            this.errorDelta = anode.errorDelta;
+            this.errorEstimator = anode.errorEstimator;
+            this.alternate = anode.alternate;
+        }
+    }
+
+    @Override
+    protected Node newEmptyNode( )
+    {
+        return new AdaptiveCNode( classAttribute, 0, errorDelta );
+    }
+
+    /**
+     * Also writes the error change detector (the alternate is written by
+     * {@link TreeSnapshot} like the other subtrees).
+     */
+    @Override
+    protected void writeState( DataOutput out ) throws IOException
+    {
+        super.writeState( out );
+        out.writeDouble( errorDelta );
+        errorEstimator.write( out );
+    }
+
+    @Override
+    protected void readState( DataInput in ) throws IOException
+    {
+        super.readState( in );
+        errorDelta = in.readDouble( );
+        errorEstimator = Adwin.read( in );
+    }
+
+    @Override
+    public AdaptiveCNode getSuccessor( int value )
+    {
+        return ( AdaptiveCNode ) super.getSuccessor( value );
+    }
+
+    public AdaptiveCNode getAlternate( )
+    {
+        return alternate;
+    }
+
+    /**
+     * @return the estimated error of the subtree rooted at this node over the current error window
+     */
+    public double getErrorEstimation( )
+    {
+        return errorEstimator.getEstimation( );
+    }
+
+    public long getErrorWidth( )
+    {
+        return errorEstimator.getWidth( );
+    }
+
+    /**
+     * Also measures the error change detector of this node.
+     */
+    @Override
+    protected long measureStatistics( long[] attributeBytes )
+    {
+        return super.measureStatistics( attributeBytes ) + errorEstimator.estimateBytes( );
+    }
+
+    /**
+     * Records whether the subtree rooted at this node misclassified an instance.
+     *
+     * @return true if a significant increase in error was detected
+     */
+    public boolean recordError( boolean error )
+    {
+        double oldError = errorEstimator.getEstimation( );
+        boolean change = errorEstimator.add( error ? 1.0 : 0.0 );
+        return change && errorEstimator.getEstimation( ) > oldError;
+    }
+
+    /**
+     * Also detaches the alternate subtree (if any).
+     */
+    @Override
+    protected void detach( )
+    {
+        super.detach( );
+        if ( alternate != null ) alternate.detach( );
+    }
+
+    /**
+     * Starts growing an alternate subtree (a single leaf) for this node.
+     */
+    public void startAlternate( Instance instance, int id )
+    {
+        alternate = new AdaptiveCNode( instance, classAttribute, id, errorDelta );
+    }
+
+    /**
+     * Compares the error of this node to the error of its alternate (if any) once
+     * enough errors have been recorded for both. If the alternate is significantly
+     * better, this node is replaced by the alternate. If it is significantly worse,
+     * the alternate is discarded.
+     *
+     * @return true if this node was replaced by its alternate
+     */
+    public boolean compareAlternate( )
+    {
+        if ( alternate == null ) return false;
+
+        long width = errorEstimator.getWidth( );
+        long altWidth = alternate.errorEstimator.getWidth( );
+        if ( width < MIN_COMPARISON_WIDTH || altWidth < MIN_COMPARISON_WIDTH ) return false;
+
+        double error = errorEstimator.getEstimation( );
+        double altError = alternate.errorEstimator.getEstimation( );
+        double n = 1.0 / width + 1.0 / altWidth;
+        double bound = Math.sqrt( 2.0 * error * ( 1.0 - error ) * Math.log( 2.0 / COMPARISON_DELTA ) * n );
+
+        if ( bound < error - altError )
+        {
+            AdaptiveCNode promoted = alternate;
+            alternate = null;
+            promote( promoted );
+            return true;
+        }
+        else if ( bound < altError - error )
+        {
+            alternate.detach( );
+            alternate = null;
+        }
+
+        return false;
+    }
+}
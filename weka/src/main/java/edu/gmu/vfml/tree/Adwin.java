@@ -0,0 +1,314 @@
+package edu.gmu.vfml.tree;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * <p>An adaptive sliding window change detector (ADWIN2) over a stream of values in [0,1].
+ * The window grows while the stream is stationary and drops its oldest part whenever two
+ * sub-windows have means which differ by more than a Hoeffding style bound.</p>
+ *
+ * <p>The window is summarized by an exponential histogram: row {@code r} holds at most
+ * {@link #MAX_BUCKETS} buckets each summarizing {@code 2^r} values, so a window of
+ * {@code W} values needs {@code O(log W)} memory and cuts are only tested at bucket
+ * boundaries.</p>
+ *
+ * @see <a href="http://www.lsi.upc.edu/~abifet/Timevarying.pdf">Bifet and Gavalda, Learning from Time-Changing Data with Adaptive Windowing</a>
+ * @author ulman
+ */
+public class Adwin implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Maximum number of buckets of each size. */
+    public static final int MAX_BUCKETS = 5;
+
+    /** Cuts are only tested every CLOCK values. */
+    private static final int CLOCK = 32;
+
+    /** Minimum window size before cuts are tested. */
+    private static final int MIN_WINDOW = 10;
+
+    /** Minimum size of either sub-window of a cut. */
+    private static final int MIN_SUB_WINDOW = 5;
+
+    private static final int SLOTS = MAX_BUCKETS + 1;
+
+    protected final double delta;
+
+    // bucket totals and variances indexed by row * SLOTS + slot, oldest bucket of each row first
+    protected double[] totals;
+    protected double[] variances;
+    protected int[] rowCounts;
+    protected int numRows;
+
+    protected long width;
+    protected double total;
+    protected double variance;
+    protected int time;
+
+    /**
+     * @param delta the confidence of each detected change
+     */
+    public Adwin( double delta )
+    {
+        this.delta = delta;
+        this.totals = new double[SLOTS];
+        this.variances = new double[SLOTS];
+        this.rowCounts = new int[1];
+        this.numRows = 1;
+    }
+
+    /**
+     * Copy constructor.
+     */
+    public Adwin( Adwin adwin )
+    {
+        this.delta = adwin.delta;
+        this.totals = adwin.totals.clone( );
+        this.variances = adwin.variances.clone( );
+        this.rowCounts = adwin.rowCounts.clone( );
+        this.numRows = adwin.numRows;
+        this.width = adwin.width;
+        this.total = adwin.total;
+        this.variance = adwin.variance;
+        this.time = adwin.time;
+    }
+
+    /**
+     * Writes the state of this detector (used by checkpoints).
+     */
+    protected void write( DataOutput out ) throws IOException
+    {
+        out.writeDouble( delta );
+        out.writeInt( numRows );
+        for ( int row = 0; row < numRows; row++ )
+        {
+            out.writeInt( rowCounts[row] );
+            for ( int slot = 0; slot < rowCounts[row]; slot++ )
+            {
+                out.writeDouble( totals[row * SLOTS + slot] );
+                out.writeDouble( variances[row * SLOTS + slot] );
+            }
+        }
+        out.writeLong( width );
+        out.writeDouble( total );
+        out.writeDouble( variance );
+        out.writeInt( time );
+    }
+
+    /**
+     * Reads a detector written by {@link #write(DataOutput)}.
+     */
+    protected static Adwin read( DataInput in ) throws IOException
+    {
+        Adwin adwin = new Adwin( in.readDouble( ) );
+        adwin.numRows = in.readInt( );
+        adwin.rowCounts = new int[adwin.numRows];
+        adwin.totals = new double[adwin.numRows * SLOTS];
+        adwin.variances = new double[adwin.numRows * SLOTS];
+        for ( int row = 0; row < adwin.numRows; row++ )
+        {
+            adwin.rowCounts[row] = in.readInt( );
+            for ( int slot = 0; slot < adwin.rowCounts[row]; slot++ )
+            {
+                adwin.totals[row * SLOTS + slot] = in.readDouble( );
+                adwin.variances[row * SLOTS + slot] = in.readDouble( );
+            }
+        }
+        adwin.width = in.readLong( );
+        adwin.total = in.readDouble( );
+        adwin.variance = in.readDouble( );
+        adwin.time = in.readInt( );
+        return adwin;
+    }
+
+    /**
+     * Estimates the bytes used by this detector, which grow logarithmically with
+     * the width of its window (see {@link MemoryReport}).
+     */
+    public long estimateBytes( )
+    {
+        return MemoryReport.shallowBytes( Adwin.class ) + Node.arrayBytes( totals.length, 8 ) + Node.arrayBytes( variances.length, 8 ) + Node.arrayBytes( rowCounts.length, 4 );
+    }
+
+    /**
+     * @return the mean of the values in the current window
+     */
+    public double getEstimation( )
+    {
+        return width > 0 ? total / width : 0.0;
+    }
+
+    /**
+     * @return the number of values in the current window
+     */
+    public long getWidth( )
+    {
+        return width;
+    }
+
+    /**
+     * Adds a value to the window and checks for a change.
+     *
+     * @return true if a change was detected (and the window shrunk)
+     */
+    public boolean add( double value )
+    {
+        insert( value );
+        compress( );
+
+        if ( ++time % CLOCK == 0 && width > MIN_WINDOW )
+        {
+            return detectChange( );
+        }
+
+        return false;
+    }
+
+    protected void insert( double value )
+    {
+        width++;
+        if ( width > 1 )
+        {
+            double difference = value - total / ( width - 1 );
+            variance += ( width - 1 ) * difference * difference / width;
+        }
+        total += value;
+
+        // new buckets go at the end of the first row
+        totals[rowCounts[0]] = value;
+        variances[rowCounts[0]] = 0.0;
+        rowCounts[0]++;
+    }
+
+    /**
+     * Merges the two oldest buckets of every full row into a bucket of the next row.
+     */
+    protected void compress( )
+    {
+        for ( int row = 0; row < numRows && rowCounts[row] == SLOTS; row++ )
+        {
+            if ( row + 1 == numRows ) addRow( );
+
+            int base = row * SLOTS;
+            double n = 1L << row;
+            double mean1 = totals[base] / n;
+            double mean2 = totals[base + 1] / n;
+            double mergedTotal = totals[base] + totals[base + 1];
+            double mergedVariance = variances[base] + variances[base + 1] + n * ( mean1 - mean2 ) * ( mean1 - mean2 ) / 2;
+
+            removeOldest( row, 2 );
+
+            int next = ( row + 1 ) * SLOTS + rowCounts[row + 1];
+            totals[next] = mergedTotal;
+            variances[next] = mergedVariance;
+            rowCounts[row + 1]++;
+        }
+    }
+
+    private void addRow( )
+    {
+        numRows++;
+        if ( numRows > rowCounts.length )
+        {
+            rowCounts = Arrays.copyOf( rowCounts, numRows );
+            totals = Arrays.copyOf( totals, numRows * SLOTS );
+            variances = Arrays.copyOf( variances, numRows * SLOTS );
+        }
+    }
+
+    private void removeOldest( int row, int count )
+    {
+        int base = row * SLOTS;
+        int remaining = rowCounts[row] - count;
+        System.arraycopy( totals, base + count, totals, base, remaining );
+        System.arraycopy( variances, base + count, variances, base, remaining );
+        rowCounts[row] = remaining;
+    }
+
+    /**
+     * Tests every bucket boundary as a cut between an older and a newer sub-window,
+     * dropping the oldest bucket while any cut shows a significant difference in means.
+     */
+    protected boolean detectChange( )
+    {
+        boolean change = false;
+        boolean reduceWidth = true;
+
+        while ( reduceWidth )
+        {
+            reduceWidth = false;
+
+            long n0 = 0;
+            long n1 = width;
+            double u0 = 0;
+            double u1 = total;
+
+            // walk from the oldest bucket (last row) to the newest
+            search: for ( int row = numRows - 1; row >= 0; row-- )
+            {
+                long n = 1L << row;
+                for ( int slot = 0; slot < rowCounts[row]; slot++ )
+                {
+                    double t = totals[row * SLOTS + slot];
+                    n0 += n;
+                    n1 -= n;
+                    u0 += t;
+                    u1 -= t;
+
+                    if ( row == 0 && slot == rowCounts[row] - 1 ) break search;
+
+                    if ( n0 >= MIN_SUB_WINDOW && n1 >= MIN_SUB_WINDOW && isCut( n0, n1, u0 / n0 - u1 / n1 ) )
+                    {
+                        reduceWidth = true;
+                        change = true;
+                        deleteOldestBucket( );
+                        break search;
+                    }
+                }
+            }
+        }
+
+        return change;
+    }
+
+    protected boolean isCut( long n0, long n1, double meanDifference )
+    {
+        double dd = Math.log( 2 * Math.log( width ) / delta );
+        double v = variance / width;
+        double m = 1.0 / ( n0 - MIN_SUB_WINDOW + 1 ) + 1.0 / ( n1 - MIN_SUB_WINDOW + 1 );
+        double epsilon = Math.sqrt( 2 * m * v * dd ) + 2.0 / 3.0 * dd * m;
+        return Math.abs( meanDifference ) > epsilon;
+    }
+
+    protected void deleteOldestBucket( )
+    {
+        int row = numRows - 1;
+        double n = 1L << row;
+        double t = totals[row * SLOTS];
+        double v = variances[row * SLOTS];
+
+        width -= ( long ) n;
+        total -= t;
+        if ( width > 0 )
+        {
+            double mean = total / width;
+            double bucketMean = t / n;
+            variance -= v + n * width * ( bucketMean - mean ) * ( bucketMean - mean ) / ( n + width );
+        }
+        else
+        {
+            variance = 0.0;
+        }
+
+        removeOldest( row, 1 );
+        if ( rowCounts[row] == 0 && numRows > 1 )
+        {
+            numRows--;
+        }
+    }
+}
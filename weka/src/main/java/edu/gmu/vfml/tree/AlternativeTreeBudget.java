@@ -0,0 +1,386 @@
+package edu.gmu.vfml.tree;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * <p>A tree-wide budget on the number of alternative subtrees grown by CVFDT and on
+ * the estimated memory used by their statistics. Without a budget, the number of
+ * alternative subtrees (each of which is updated on every instance) can explode
+ * under heavy concept drift.</p>
+ *
+ * <p>The priority of an alternative subtree is its promise: its best observed test
+ * error difference against the main tree (see {@link TestStats#getBestError()}).
+ * Untested subtrees have a neutral promise of 0. The budget is spent on the most
+ * promising subtrees:</p>
+ *
+ * <ul>
+ * <li>When the budget is full, a new alternative subtree (with promise 0) is only
+ * admitted if subtrees which have already tested worse than the tree they would
+ * replace can be evicted to make room for it ({@link #admit(int)}).</li>
+ * <li>The growth of a subtree is charged when one of its leaves splits
+ * ({@link #grow(CNode, int)}). A split which does not fit is refused, and at the
+ * next {@link #rebalance()} less promising subtrees are evicted to make room for
+ * it, so that it fits when the leaf next tries to split.</li>
+ * <li>If the budget is exceeded (a subtree grew by taking over one of its own
+ * alternative subtrees), the least promising subtrees are evicted until it fits.</li>
+ * </ul>
+ *
+ * <p>The size of each subtree is kept exact: subtrees are registered when they are
+ * created and charged as they grow. Subtrees discarded by the tree (dropped,
+ * promoted, or inside a discarded subtree) are released at the next
+ * {@link #rebalance()} after {@link #release()} is called. Evictions happen only
+ * in {@link #admit(int)} and {@link #rebalance()}, which must not be called while
+ * the tree is being traversed.</p>
+ *
+ * @see weka.classifiers.trees.CVFDT
+ * @author ulman
+ */
+public class AlternativeTreeBudget
+{
+    /**
+     * An alternative subtree known to the budget.
+     */
+    protected static class Entry
+    {
+        protected CNode parent;
+        protected int attributeIndex;
+        protected CNode alt;
+        protected long size;
+        protected int index;
+
+        /**
+         * @return true if the alternative subtree has not been discarded (a promoted
+         *         subtree is detached too: its root is replaced by the node it replaces)
+         */
+        protected boolean isLive( )
+        {
+            return !alt.isDetached( );
+        }
+
+        protected double getPromise( )
+        {
+            TestStats stats = parent.getAlternativeStats( attributeIndex );
+            double bestError = stats.getBestError( );
+
+            // untested alternative subtrees are given the benefit of the doubt
+            return bestError == -Double.MAX_VALUE ? 0.0 : bestError;
+        }
+
+        /**
+         * @return true if this subtree has a lower priority than the other (the older
+         *         of two equally promising subtrees has the lower priority)
+         */
+        protected boolean isLessPromising( Entry other )
+        {
+            int compare = Double.compare( getPromise( ), other.getPromise( ) );
+            return compare < 0 || ( compare == 0 && alt.getId( ) < other.alt.getId( ) );
+        }
+    }
+
+    protected final int maxTrees;
+    protected final long maxBytes;
+    protected final long nodeBytes;
+
+    protected ArrayList<Entry> entries;
+    protected IdentityHashMap<CNode, Entry> entriesByTree;
+    protected long nodes;
+    protected long evictions;
+
+    /** Set when subtrees may have been discarded since the last rebalance. */
+    protected boolean released;
+
+    /** The subtree with the highest priority whose growth was refused since the last rebalance. */
+    protected Entry waiting;
+    protected int waitingSize;
+
+    /**
+     * @param header the data set header (used to estimate the size of each node)
+     * @param maxTrees maximum number of alternative subtrees (0 for no limit)
+     * @param maxBytes maximum estimated bytes of alternative subtree statistics (0 for no limit)
+     */
+    public AlternativeTreeBudget( Instances header, int maxTrees, long maxBytes )
+    {
+        this.maxTrees = maxTrees;
+        this.maxBytes = maxBytes;
+        this.nodeBytes = estimateNodeBytes( header );
+        this.entries = new ArrayList<Entry>( );
+        this.entriesByTree = new IdentityHashMap<CNode, Entry>( );
+    }
+
+    /**
+     * Estimates the bytes used by the statistics of a single Node for the provided
+     * data set (assuming a 64 bit JVM with compressed object pointers).
+     */
+    public static long estimateNodeBytes( Instances header )
+    {
+        int numClasses = header.classAttribute( ).numValues( );
+        long classArrayBytes = align( 16 + 4L * numClasses );
+
+        long bytes = align( 16 + 4L * header.numAttributes( ) ) + classArrayBytes;
+        for ( int i = 0; i < header.numAttributes( ); i++ )
+        {
+            Attribute attribute = header.attribute( i );
+            bytes += align( 16 + 4L * attribute.numValues( ) ) + attribute.numValues( ) * classArrayBytes;
+        }
+
+        return bytes;
+    }
+
+    private static long align( long bytes )
+    {
+        return ( bytes + 7 ) & ~7L;
+    }
+
+    /**
+     * @return the number of alternative subtrees currently accounted for
+     */
+    public int getTreeCount( )
+    {
+        return entries.size( );
+    }
+
+    /**
+     * @return the estimated bytes used by the alternative subtrees currently accounted for
+     */
+    public long getBytes( )
+    {
+        return nodes * nodeBytes;
+    }
+
+    /**
+     * @return the number of nodes of the alternative subtrees currently accounted for
+     */
+    public long getNodeCount( )
+    {
+        return nodes;
+    }
+
+    /**
+     * @return the total number of alternative subtrees evicted to make room for others
+     */
+    public long getEvictionCount( )
+    {
+        return evictions;
+    }
+
+    public long getNodeBytes( )
+    {
+        return nodeBytes;
+    }
+
+    /**
+     * Forgets all alternative subtrees (before they are re-registered from the tree).
+     */
+    public void clear( )
+    {
+        entries.clear( );
+        entriesByTree.clear( );
+        nodes = 0;
+        released = false;
+        waiting = null;
+    }
+
+    /**
+     * Records a new (or, when the budget is rebuilt, an existing) alternative
+     * subtree of parent.
+     */
+    public void register( CNode parent, int attributeIndex )
+    {
+        Entry entry = new Entry( );
+        entry.parent = parent;
+        entry.attributeIndex = attributeIndex;
+        entry.alt = parent.getAlternativeTree( attributeIndex );
+        entry.size = entry.alt.getTreeSize( );
+        entry.index = entries.size( );
+
+        entries.add( entry );
+        entriesByTree.put( entry.alt, entry );
+        nodes += entry.size;
+    }
+
+    /**
+     * Decides whether a new alternative subtree with the provided number of nodes
+     * may be created, evicting less promising alternative subtrees if necessary.
+     * If true is returned, the caller must create the subtree and {@link #register(CNode, int)} it.
+     */
+    public boolean admit( int size )
+    {
+        if ( fits( 1, size ) ) return true;
+
+        // subtrees may have been dropped or promoted since they were last released
+        purge( );
+
+        while ( !fits( 1, size ) )
+        {
+            // only evict subtrees which have tested worse than the main tree
+            Entry worst = findLeastPromising( null );
+            if ( worst == null || worst.getPromise( ) >= 0.0 ) return false;
+
+            evict( worst );
+        }
+
+        return true;
+    }
+
+    /**
+     * Charges the growth of the alternative subtree rooted at tree (a leaf of the
+     * subtree splitting into size new nodes), if it fits in the budget. Otherwise
+     * the growth is refused and room is made for it at the next {@link #rebalance()}
+     * if less promising subtrees can be evicted.
+     *
+     * @return true if the subtree may grow
+     */
+    public boolean grow( CNode tree, int size )
+    {
+        Entry entry = entriesByTree.get( tree );
+        if ( fits( 0, size ) )
+        {
+            entry.size += size;
+            nodes += size;
+            return true;
+        }
+
+        if ( waiting == null || waiting.isLessPromising( entry ) )
+        {
+            waiting = entry;
+            waitingSize = size;
+        }
+        return false;
+    }
+
+    /**
+     * Called when part of the alternative subtree rooted at tree was replaced by one
+     * of its own alternative subtrees.
+     *
+     * @param removed the number of nodes which were replaced
+     * @param added the number of nodes of the promoted alternative subtree
+     */
+    public void replace( CNode tree, long removed, long added )
+    {
+        Entry entry = entriesByTree.get( tree );
+        entry.size += added - removed;
+        nodes += added - removed;
+    }
+
+    /**
+     * Called after an alternative subtree of node replaced it: the alternative
+     * subtrees of the promoted subtree now belong to node.
+     */
+    public void reparent( CNode node )
+    {
+        for ( int i = 0; i < node.getAlternativeCount( ); i++ )
+        {
+            int attributeIndex = node.getAlternativeAttributeIndex( i );
+            Entry entry = entriesByTree.get( node.getAlternativeTree( attributeIndex ) );
+            entry.parent = node;
+            entry.attributeIndex = attributeIndex;
+        }
+    }
+
+    /**
+     * Called when alternative subtrees may have been discarded by the tree.
+     */
+    public void release( )
+    {
+        released = true;
+    }
+
+    /**
+     * Releases discarded subtrees, evicts less promising subtrees to make room for
+     * the most promising growth refused since the last rebalance, and evicts the
+     * least promising subtrees while the budget is exceeded.
+     */
+    public void rebalance( )
+    {
+        if ( released )
+        {
+            purge( );
+        }
+
+        if ( waiting != null )
+        {
+            Entry entry = waiting;
+            waiting = null;
+
+            while ( entry.isLive( ) && !fits( 0, waitingSize ) )
+            {
+                Entry worst = findLeastPromising( entry );
+                if ( worst == null || !worst.isLessPromising( entry ) ) break;
+
+                evict( worst );
+            }
+        }
+
+        while ( !fits( 0, 0 ) )
+        {
+            evict( findLeastPromising( null ) );
+        }
+    }
+
+    protected boolean fits( int trees, long size )
+    {
+        boolean treesFit = maxTrees <= 0 || entries.size( ) + trees <= maxTrees;
+        boolean bytesFit = maxBytes <= 0 || ( nodes + size ) * nodeBytes <= maxBytes;
+        return treesFit && bytesFit;
+    }
+
+    /**
+     * @return the least promising subtree other than the excluded one (or null)
+     */
+    protected Entry findLeastPromising( Entry excluded )
+    {
+        Entry worst = null;
+        for ( Entry entry : entries )
+        {
+            if ( entry != excluded && ( worst == null || entry.isLessPromising( worst ) ) )
+            {
+                worst = entry;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * Discards an alternative subtree, and releases the subtrees nested inside it.
+     */
+    protected void evict( Entry entry )
+    {
+        entry.parent.removeAlternativeNode( entry.attributeIndex );
+        remove( entry );
+        evictions++;
+        purge( );
+    }
+
+    /**
+     * Removes the entries of alternative subtrees which have been discarded.
+     */
+    protected void purge( )
+    {
+        for ( int i = entries.size( ) - 1; i >= 0; i-- )
+        {
+            Entry entry = entries.get( i );
+            if ( !entry.isLive( ) )
+            {
+                remove( entry );
+            }
+        }
+        released = false;
+    }
+
+    private void remove( Entry entry )
+    {
+        // swap with the last entry to avoid shifting the list
+        Entry last = entries.remove( entries.size( ) - 1 );
+        if ( entry != last )
+        {
+            entries.set( entry.index, last );
+            last.index = entry.index;
+        }
+        entriesByTree.remove( entry.alt );
+        nodes -= entry.size;
+    }
+}
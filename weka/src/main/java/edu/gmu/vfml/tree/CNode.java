@@ -1,9 +1,10 @@
 package edu.gmu.vfml.tree;
 
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import weka.core.Attribute;
 import weka.core.Instance;
@@ -20,11 +21,20 @@ public class CNode extends Node
     private static final long serialVersionUID = 1L;
 
     /**
-     * A map of subtrees made from splitting on alternative Attributes (instead of
-     * splitting on the Attribute specified in this.attribute).
+     * Subtrees made from splitting on alternative Attributes (instead of
+     * splitting on the Attribute specified in this.attribute) and their test
+     * statistics, indexed by the index of the alternative Attribute. Both
+     * arrays are null until the first alternative subtree is created.
      */
-    protected Map<Attribute, CNode> altNodes = new LinkedHashMap<Attribute, CNode>( );
-    protected Map<Attribute, TestStats> altStats = new LinkedHashMap<Attribute, TestStats>( );
+    protected CNode[] altNodes;
+    protected TestStats[] altStats;
+
+    /**
+     * The attribute indices of the existing alternative subtrees
+     * (the first altCount entries are valid).
+     */
+    protected int[] altAttributes;
+    protected int altCount;
 
     /**
      * @see InstanceId
@@ -47,12 +57,46 @@ public class CNode extends Node
      */
     transient protected boolean testMode = false;
 
+    /**
+     * Number of count updates since the validity of this node's split was last rechecked.
+     */
+    transient protected int changesSinceRecheck = 0;
+
+    /**
+     * Whether this node is queued to have the validity of its split rechecked, and
+     * the value of the learner's instance counter at which the recheck is due.
+     */
+    transient protected boolean recheckScheduled = false;
+    transient protected int recheckDue;
+
+    /**
+     * True once this node has been discarded from the tree: it belonged to an alternative
+     * subtree which was dropped, or to a subtree which was replaced by an alternative
+     * subtree (see {@link #isDetached()}).
+     */
+    transient protected boolean detached = false;
+
+    /**
+     * The subtree (and alternative subtrees) this node had before it was last
+     * replaced by an alternative subtree (see {@link #takeReplacedTree()}).
+     */
+    transient protected CNode replaced;
+
     public CNode( Attribute[] attributes, Attribute classAttribute, int id )
     {
         super( attributes, classAttribute );
         this.id = id;
     }
 
+    /**
+     * @see Node#Node(Attribute)
+     */
+    protected CNode( Attribute classAttribute, int id )
+    {
+        super( classAttribute );
+        this.id = id;
+    }
+
     public CNode( Instances instances, Attribute classAttribute, int id )
     {
         super( instances, classAttribute );
@@ -80,6 +124,8 @@ public class CNode extends Node
             this.id = cnode.id;
             this.altNodes = cnode.altNodes;
             this.altStats = cnode.altStats;
+            this.altAttributes = cnode.altAttributes;
+            this.altCount = cnode.altCount;
         }
     }
 
@@ -102,9 +148,131 @@ public class CNode extends Node
         }
     }
 
-    public Collection<CNode> getAlternativeTrees( )
+    /**
+     * @return a new list containing the alternative subtrees of this node
+     */
+    public List<CNode> getAlternativeTrees( )
+    {
+        List<CNode> trees = new ArrayList<CNode>( altCount );
+        for ( int i = 0; i < altCount; i++ )
+        {
+            trees.add( altNodes[altAttributes[i]] );
+        }
+        return trees;
+    }
+
+    /**
+     * @return the number of alternative subtrees of this node
+     */
+    public int getAlternativeCount( )
+    {
+        return altCount;
+    }
+
+    /**
+     * @param i a value between 0 and {@link #getAlternativeCount()} - 1
+     * @return the index of the attribute the i-th alternative subtree is split on
+     */
+    public int getAlternativeAttributeIndex( int i )
+    {
+        return altAttributes[i];
+    }
+
+    /**
+     * @return the alternative tree created by splitting on the provided attribute (or null)
+     */
+    public CNode getAlternativeTree( int attributeIndex )
+    {
+        return altNodes == null ? null : altNodes[attributeIndex];
+    }
+
+    /**
+     * @return the test statistics of the alternative tree created by splitting
+     *         on the provided attribute (or null)
+     */
+    public TestStats getAlternativeStats( int attributeIndex )
+    {
+        return altStats == null ? null : altStats[attributeIndex];
+    }
+
+    @Override
+    protected void adjustTotalCount( int amount )
+    {
+        super.adjustTotalCount( amount );
+        changesSinceRecheck++;
+    }
+
+    /**
+     * @return the number of count updates since {@link #resetChangesSinceRecheck()} was last called
+     */
+    public int getChangesSinceRecheck( )
+    {
+        return changesSinceRecheck;
+    }
+
+    public void resetChangesSinceRecheck( )
+    {
+        changesSinceRecheck = 0;
+    }
+
+    public boolean isRecheckScheduled( )
+    {
+        return recheckScheduled;
+    }
+
+    public int getRecheckDue( )
+    {
+        return recheckDue;
+    }
+
+    /**
+     * Records that this node is queued to have its split rechecked once the learner's
+     * instance counter reaches due.
+     */
+    public void scheduleRecheck( int due )
+    {
+        recheckScheduled = true;
+        recheckDue = due;
+    }
+
+    /**
+     * Records that this node has been removed from the learner's recheck queue.
+     */
+    public void unscheduleRecheck( )
+    {
+        recheckScheduled = false;
+    }
+
+    /**
+     * Nodes may still be referenced after they are discarded from the tree (for
+     * example by a scheduled split recheck), but must no longer be grown.
+     *
+     * @return true if this node is no longer part of the tree or of any alternative subtree
+     */
+    public boolean isDetached( )
     {
-        return altNodes.values( );
+        return detached;
+    }
+
+    /**
+     * Marks this node, its descendants and their alternative subtrees as detached.
+     */
+    protected void detach( )
+    {
+        detached = true;
+
+        for ( int i = 0; i < altCount; i++ )
+        {
+            altNodes[altAttributes[i]].detach( );
+        }
+
+        if ( successors != null )
+        {
+            for ( Node successor : successors )
+            {
+                ( ( CNode ) successor ).detach( );
+            }
+        }
     }
 
     /**
@@ -117,34 +285,55 @@ public class CNode extends Node
     public void testInstance( Instance instance )
     {
         // test this node
-        double predicted = getLeafNode( instance ).getClassValue( );
         double actual = instance.classValue( );
-        if ( predicted == actual )
+        recordTest( getLeafNode( instance ).getClassValue( ) == actual );
+
+        // test all alternative nodes
+        for ( int i = 0; i < altCount; i++ )
+        {
+            int attributeIndex = altAttributes[i];
+            CNode alt = altNodes[attributeIndex];
+            recordAlternativeTest( attributeIndex, alt.getLeafNode( instance ).getClassValue( ) == actual );
+        }
+    }
+
+    /**
+     * Records the result of testing the tree rooted at this node on a test mode instance.
+     * 
+     * @param correct whether the tree predicted the correct class
+     */
+    public void recordTest( boolean correct )
+    {
+        if ( correct )
         {
             this.testCorrectCount++;
         }
-        
-        // test all alternative nodes
-        Iterator<Attribute> iter = altNodes.keySet( ).iterator( );
-        while ( iter.hasNext( ) )
+    }
+
+    /**
+     * Records the result of testing one of this node's alternative trees on a test
+     * mode instance.
+     * 
+     * @param attributeIndex the index of the attribute the alternative tree is split on
+     * @param correct whether the alternative tree predicted the correct class
+     */
+    public void recordAlternativeTest( int attributeIndex, boolean correct )
+    {
+        TestStats stats = altStats[attributeIndex];
+        if ( correct )
         {
-            Attribute attribute = iter.next( );
-            CNode alt = altNodes.get( attribute );
-            TestStats stats = altStats.get( attribute );
-            
-            double altPredicted = alt.getLeafNode( instance ).getClassValue( );
-            if ( altPredicted == actual )
-            {
-                stats.correct( );
-            }
-            else
-            {
-                stats.incorrect( );
-            }
+            stats.correct( );
+        }
+        else
+        {
+            stats.incorrect( );
         }
     }
 
-    public void incrementTestCount( int testInterval, int testDuration )
+    /**
+     * @return true if leaving test mode replaced this node with one of its alternative trees
+     */
+    public boolean incrementTestCount( int testInterval, int testDuration )
     {
         // check whether we should enter or exit test mode
         this.testCount++;
@@ -152,7 +341,7 @@ public class CNode extends Node
         {
             if ( this.testCount > testDuration )
             {
-                endTest( );
+                return endTest( );
             }
         }
         else
@@ -162,6 +351,7 @@ public class CNode extends Node
                 startTest( );
             }
         }
+        return false;
     }
     
     public boolean isTestMode( )
@@ -181,12 +371,7 @@ public class CNode extends Node
 
     public boolean doesAltNodeExist( int attributeIndex )
     {
-        for ( Attribute altAttribute : altNodes.keySet( ) )
-        {
-            if ( altAttribute.index( ) == attributeIndex ) return true;
-        }
-
-        return false;
+        return altNodes != null && altNodes[attributeIndex] != null;
     }
 
     public boolean doesAltNodeExist( Attribute attribute )
@@ -197,7 +382,7 @@ public class CNode extends Node
     public void addAlternativeNode( Instance instance, Attribute attribute, int newId )
     {
         // create the alternative node and immediately split it on the new attribute
-        CNode node = new CNode( instance, classAttribute, newId );
+        CNode node = newNode( instance, newId );
         node.split( attribute, instance, newId );
         
         TestStats stats = new TestStats( );
@@ -209,25 +394,71 @@ public class CNode extends Node
             stats.setNew( true );
         }
 
-        altStats.put( attribute, stats );
-        altNodes.put( attribute, node );
+        if ( altNodes == null )
+        {
+            int numAttributes = instance.numAttributes( );
+            altNodes = new CNode[numAttributes];
+            altStats = new TestStats[numAttributes];
+            altAttributes = new int[numAttributes];
+        }
+
+        int attributeIndex = attribute.index( );
+        altStats[attributeIndex] = stats;
+        altNodes[attributeIndex] = node;
+        altAttributes[altCount++] = attributeIndex;
+    }
+
+    /**
+     * Discards the alternative subtree split on the provided attribute (if any).
+     */
+    public void removeAlternativeNode( int attributeIndex )
+    {
+        if ( !doesAltNodeExist( attributeIndex ) ) return;
+
+        altNodes[attributeIndex].detach( );
+        unlinkAlternativeNode( attributeIndex );
+    }
+
+    /**
+     * Removes the alternative subtree split on the provided attribute from the
+     * alternative subtrees of this node, without detaching it.
+     */
+    private void unlinkAlternativeNode( int attributeIndex )
+    {
+        altNodes[attributeIndex] = null;
+        altStats[attributeIndex] = null;
+
+        // keep the list of existing alternative attributes compact
+        for ( int i = 0; i < altCount; i++ )
+        {
+            if ( altAttributes[i] == attributeIndex )
+            {
+                altAttributes[i] = altAttributes[--altCount];
+                break;
+            }
+        }
     }
 
     /**
      * Called when enough data instances have been seen that it is time to end test mode.
+     *
+     * @return true if this node was replaced with one of its alternative trees
      */
-    protected void endTest( )
+    protected boolean endTest( )
     {
-        Attribute bestAttribute = null;
         CNode bestAlt = null;
         double bestErrorDiff = 0;
         double mainError = getTestError( );
-        Iterator<Attribute> iter = altNodes.keySet( ).iterator( );
-        while ( iter.hasNext( ) )
+        int[] dropped = new int[altCount];
+        int droppedCount = 0;
+
+        // dropped alternative nodes are only removed once the best alternative node is
+        // known (the promoted node may have been dropped too)
+        for ( int i = altCount - 1; i >= 0; i-- )
         {
-            Attribute attribute = iter.next( );
-            CNode alt = altNodes.get( attribute );
-            TestStats stats = altStats.get( attribute );
+            int attributeIndex = altAttributes[i];
+            CNode alt = altNodes[attributeIndex];
+            TestStats stats = altStats[attributeIndex];
             
             // if an alternative tree was created while we were in
             // test mode, it will not yet be in test mode and will
@@ -247,16 +478,12 @@ public class CNode extends Node
                 // best, then drop the alternative node
                 else if ( errorDiff < stats.getBestError( ) * 1.01 )
                 {
-                    //TODO having two maps is awkward (it's only done because we sometimes
-                    //     want lists of just CNodes)
-                    iter.remove( );
-                    altStats.remove( attribute );
+                    dropped[droppedCount++] = attributeIndex;
                 }
 
                 // remember the alternative node with the best error
                 if ( bestErrorDiff < errorDiff )
                 {
-                    bestAttribute = attribute;
                     bestErrorDiff = errorDiff;
                     bestAlt = alt;
                 }
@@ -266,19 +493,68 @@ public class CNode extends Node
         }
 
         // one of the alternative trees is better than the current tree!
-        // replace this node with the alternative node
+        // replace this node with the alternative node (which also discards
+        // all the other alternative nodes)
         if ( bestAlt != null )
         {
-            this.copyNode( bestAlt );
-            // remove the alternative node which was promoted
-            // from the list of alternative nodes
-            this.altNodes.remove( bestAttribute );
-            this.altStats.remove( bestAttribute );
+            promote( bestAlt );
+        }
+        else
+        {
+            for ( int i = 0; i < droppedCount; i++ )
+            {
+                removeAlternativeNode( dropped[i] );
+            }
         }
 
         this.testCorrectCount = 0;
         this.testCount = 0;
         this.testMode = false;
+
+        return bestAlt != null;
+    }
+
+    /**
+     * Replaces this node with the provided alternative subtree (which takes over its
+     * successors and alternative subtrees). The replaced successors and the other
+     * alternative subtrees of this node are detached, as is the root of the promoted
+     * subtree, whose place is taken by this node.
+     */
+    protected void promote( CNode alt )
+    {
+        for ( int i = 0; i < altCount; i++ )
+        {
+            int attributeIndex = altAttributes[i];
+            if ( altNodes[attributeIndex] == alt )
+            {
+                unlinkAlternativeNode( attributeIndex );
+                break;
+            }
+        }
+
+        // keep what is replaced (until it is taken) so that it can be measured
+        replaced = ( CNode ) newEmptyNode( );
+        replaced.copyNode( this );
+        replaced.detach( );
+
+        alt.detached = true;
+        copyNode( alt );
+    }
+
+    /**
+     * Returns (and forgets) the node this node was a copy of before it was last
+     * replaced by one of its alternative subtrees. The returned node is detached,
+     * and still has the replaced successors and the alternative subtrees which were
+     * discarded by the promotion.
+     *
+     * @return the replaced node, or null if this node has not been replaced since
+     *         this method was last called
+     */
+    public CNode takeReplacedTree( )
+    {
+        CNode node = replaced;
+        replaced = null;
+        return node;
     }
 
     /**
@@ -291,7 +567,7 @@ public class CNode extends Node
 
         // if there are no alternative nodes to test, don't enter test mode (wait another
         // testInterval instances then check again)
-        this.testMode = !this.altNodes.isEmpty( );
+        this.testMode = this.altCount > 0;
     }
 
     /**
@@ -305,8 +581,77 @@ public class CNode extends Node
 
         for ( int valueIndex = 0; valueIndex < attribute.numValues( ); valueIndex++ )
         {
-            this.successors[valueIndex] = new CNode( instance, classAttribute, id );
+            this.successors[valueIndex] = newNode( instance, id );
+        }
+    }
+
+    @Override
+    protected Node newEmptyNode( )
+    {
+        return new CNode( classAttribute, 0 );
+    }
+
+    @Override
+    protected void writeState( DataOutput out ) throws IOException
+    {
+        super.writeState( out );
+        out.writeInt( id );
+        out.writeInt( testCount );
+        out.writeInt( testCorrectCount );
+        out.writeBoolean( testMode );
+        out.writeInt( changesSinceRecheck );
+    }
+
+    @Override
+    protected void readState( DataInput in ) throws IOException
+    {
+        super.readState( in );
+        id = in.readInt( );
+        testCount = in.readInt( );
+        testCorrectCount = in.readInt( );
+        testMode = in.readBoolean( );
+        changesSinceRecheck = in.readInt( );
+    }
+
+    /**
+     * Also measures the alternative subtree arrays and test statistics (but not
+     * the alternative subtrees themselves).
+     */
+    @Override
+    protected long measureStructure( )
+    {
+        long bytes = super.measureStructure( );
+        if ( altNodes != null )
+        {
+            bytes += arrayBytes( altNodes.length, 4 ) + arrayBytes( altStats.length, 4 ) + arrayBytes( altAttributes.length, 4 );
+            bytes += altCount * MemoryReport.shallowBytes( TestStats.class );
         }
+        return bytes;
+    }
+
+    /**
+     * Adds an alternative subtree restored from a checkpoint.
+     */
+    protected void addAlternativeNode( CNode node, TestStats stats, int attributeIndex, int numAttributes )
+    {
+        if ( altNodes == null )
+        {
+            altNodes = new CNode[numAttributes];
+            altStats = new TestStats[numAttributes];
+            altAttributes = new int[numAttributes];
+        }
+
+        altStats[attributeIndex] = stats;
+        altNodes[attributeIndex] = node;
+        altAttributes[altCount++] = attributeIndex;
+    }
+
+    /**
+     * Creates the successor and alternative nodes of this node.
+     */
+    protected CNode newNode( Instance instance, int id )
+    {
+        return new CNode( instance, classAttribute, id );
     }
 
     /**
@@ -320,26 +665,26 @@ public class CNode extends Node
     @Override
     protected String getText( )
     {
-        if ( altNodes.isEmpty( ) )
+        if ( altCount == 0 )
         {
             return String.format( "id %d %s", id, super.getText( ) );
         }
         else
         {
-            return String.format( "id %d %s (%d alt)", id, super.getText( ), altNodes.size( ) );
+            return String.format( "id %d %s (%d alt)", id, super.getText( ), altCount );
         }
     }
     
     @Override
     protected String getText( int attributeIndex )
     {
-        if ( altNodes.isEmpty( ) )
+        if ( altCount == 0 )
         {
             return String.format( "id %d %s", id, super.getText( attributeIndex ) );
         }
         else
         {
-            return String.format( "id %d %s (%d alt)", id, super.getText( attributeIndex ), altNodes.size( ) );
+            return String.format( "id %d %s (%d alt)", id, super.getText( attributeIndex ), altCount );
         }
     }
 }
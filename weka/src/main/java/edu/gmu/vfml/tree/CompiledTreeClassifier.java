@@ -0,0 +1,97 @@
+package edu.gmu.vfml.tree;
+
+import weka.classifiers.Classifier;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.NoSupportForMissingValuesException;
+
+/**
+ * <p>Base class for classifiers generated by {@link TreeCompiler}. Subclasses
+ * hard code the structure of a learned tree as nested switch statements over
+ * attribute values, which the JIT can inline far more aggressively than the
+ * generic {@code Node} or {@code FlatTree} traversals.</p>
+ *
+ * <p>Generated classifiers are read-only: they cannot be (re)built and are
+ * safe to use from multiple threads.</p>
+ *
+ * @see TreeCompiler
+ * @author ulman
+ */
+public abstract class CompiledTreeClassifier extends Classifier
+{
+    private static final long serialVersionUID = 1L;
+
+    protected final int numClasses;
+
+    protected CompiledTreeClassifier( int numClasses )
+    {
+        this.numClasses = numClasses;
+    }
+
+    /**
+     * @return the predicted class index for the provided instance
+     */
+    public abstract int classify( Instance instance );
+
+    /**
+     * @param values encoded attribute values
+     * @param offset the position of the first attribute of the instance in values
+     * @return the predicted class index for the provided encoded instance
+     */
+    public abstract int classify( int[] values, int offset );
+
+    /**
+     * Classifies a batch of encoded instances stored row by row in values.
+     *
+     * @see FlatTree#classify(int[], int, int, int[])
+     */
+    public void classify( int[] values, int numInstances, int stride, int[] result )
+    {
+        for ( int i = 0, offset = 0; i < numInstances; i++, offset += stride )
+        {
+            result[i] = classify( values, offset );
+        }
+    }
+
+    @Override
+    public double classifyInstance( Instance instance ) throws NoSupportForMissingValuesException
+    {
+        if ( instance.hasMissingValue( ) )
+        {
+            throw new NoSupportForMissingValuesException( "CompiledTreeClassifier: missing values not supported." );
+        }
+
+        return classify( instance );
+    }
+
+    @Override
+    public double[] distributionForInstance( Instance instance ) throws NoSupportForMissingValuesException
+    {
+        double[] distribution = new double[numClasses];
+        distribution[( int ) classifyInstance( instance )] = 1.0;
+        return distribution;
+    }
+
+    /**
+     * Generated classifiers cannot be trained.
+     */
+    @Override
+    public void buildClassifier( Instances data ) throws Exception
+    {
+        throw new Exception( "CompiledTreeClassifier: compiled trees are read-only." );
+    }
+
+    @Override
+    public Capabilities getCapabilities( )
+    {
+        Capabilities result = super.getCapabilities( );
+        result.disableAll( );
+
+        result.enable( Capability.NOMINAL_ATTRIBUTES );
+        result.enable( Capability.NOMINAL_CLASS );
+
+        return result;
+    }
+}
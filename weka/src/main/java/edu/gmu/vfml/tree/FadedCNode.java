@@ -0,0 +1,332 @@
+package edu.gmu.vfml.tree;
+
+import static edu.gmu.vfml.util.InstanceUtils.getAttributes;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>A CNode whose counts decay exponentially with every instance (see
+ * {@link FadingClock}) instead of being decremented when instances leave the
+ * CVFDT window. No window needs to be stored and no decrement traversal is
+ * needed.</p>
+ *
+ * <p>Decay is applied lazily using forward decay: each node stores its counts
+ * relative to a per-node landmark time, new counts are recorded with weight
+ * {@code fadingFactor^-(now - landmark)}, and counts are only scaled by
+ * {@code fadingFactor^(now - landmark)} when they are read. Nodes which do not
+ * receive instances therefore cost nothing. When the weights of a node grow too
+ * large, they are rescaled and the landmark is moved to the current time.</p>
+ *
+ * <p>Counts are reported as rounded integers through the usual Node accessors.</p>
+ *
+ * @see weka.classifiers.trees.CVFDT#setFadingFactor(double)
+ * @author ulman
+ */
+public class FadedCNode extends CNode
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Weights are rescaled before they grow beyond e^MAX_EXPONENT. */
+    private static final double MAX_EXPONENT = 200.0;
+
+    protected FadingClock clock;
+
+    // weights indexed by [attribute][value][class], relative to landmark
+    protected transient double[][][] weights;
+    protected transient double[] classWeights;
+    protected transient double totalWeight;
+    protected transient long landmark;
+
+    /**
+     * Number of instances seen by this node (without decay). Used to schedule split checks.
+     */
+    protected transient int seenCount;
+
+    // cached result of clock.decay( landmark )
+    private transient long decayTime = -1;
+    private transient double decay;
+
+    public FadedCNode( Attribute[] attributes, Attribute classAttribute, int id, FadingClock clock )
+    {
+        super( classAttribute, id );
+        this.clock = clock;
+        this.landmark = clock.getTime( );
+
+        int numClasses = classAttribute.numValues( );
+        this.classWeights = new double[numClasses];
+        this.weights = new double[attributes.length][][];
+        for ( int i = 0; i < attributes.length; i++ )
+        {
+            this.weights[i] = new double[attributes[i].numValues( )][numClasses];
+        }
+    }
+
+    /**
+     * @see Node#Node(Attribute)
+     */
+    protected FadedCNode( Attribute classAttribute, int id, FadingClock clock )
+    {
+        super( classAttribute, id );
+        this.clock = clock;
+    }
+
+    public FadedCNode( Instances instances, Attribute classAttribute, int id, FadingClock clock )
+    {
+        this( getAttributes( instances ), classAttribute, id, clock );
+    }
+
+    public FadedCNode( Instance instance, Attribute classAttribute, int id, FadingClock clock )
+    {
+        this( getAttributes( instance ), classAttribute, id, clock );
+    }
+
+    @Override
+    protected CNode newNode( Instance instance, int id )
+    {
+        return new FadedCNode( instance, classAttribute, id, clock );
+    }
+
+    @Override
+    public void copyNode( Node node )
+    {
+        super.copyNode( node );
+
+        if ( node instanceof FadedCNode )
+        {
+            FadedCNode fnode = ( FadedCNode ) node;
+
+            this.clock = fnode.clock;
+            this.weights = fnode.weights;
+            this.classWeights = fnode.classWeights;
+            this.totalWeight = fnode.totalWeight;
+            this.landmark = fnode.landmark;
+            this.seenCount = fnode.seenCount;
+            this.decayTime = -1;
+        }
+    }
+
+    @Override
+    protected Node newEmptyNode( )
+    {
+        return new FadedCNode( classAttribute, 0, clock );
+    }
+
+    @Override
+    protected long measureStatistics( long[] attributeBytes )
+    {
+        long bytes = arrayBytes( classWeights.length, 8 ) + arrayBytes( weights.length, 4 );
+        for ( int attributeIndex = 0; attributeIndex < weights.length; attributeIndex++ )
+        {
+            double[][] values = weights[attributeIndex];
+            long valueBytes = arrayBytes( values.length, 4 );
+            for ( double[] classes : values )
+            {
+                valueBytes += arrayBytes( classes.length, 8 );
+            }
+
+            bytes += valueBytes;
+            if ( attributeBytes != null ) attributeBytes[attributeIndex] += valueBytes;
+        }
+        return bytes;
+    }
+
+    @Override
+    protected void copyCounts( )
+    {
+        weights = TreeSnapshot.copy( weights );
+        classWeights = classWeights.clone( );
+    }
+
+    @Override
+    protected Object[] shareCounts( )
+    {
+        shared = true;
+        dirty = false;
+        return new Object[] { weights, classWeights };
+    }
+
+    @Override
+    protected void writeCounts( DataOutput out, Object[] arrays ) throws IOException
+    {
+        TreeSnapshot.write( out, ( double[][][] ) arrays[0] );
+        TreeSnapshot.write( out, ( double[] ) arrays[1] );
+    }
+
+    @Override
+    protected void readCounts( DataInput in ) throws IOException
+    {
+        weights = TreeSnapshot.readDoubleArray3( in );
+        classWeights = TreeSnapshot.readDoubleArray( in );
+    }
+
+    @Override
+    protected void takeCounts( Node node )
+    {
+        FadedCNode fnode = ( FadedCNode ) node;
+        weights = fnode.weights;
+        classWeights = fnode.classWeights;
+    }
+
+    @Override
+    protected void writeState( DataOutput out ) throws IOException
+    {
+        super.writeState( out );
+        out.writeDouble( totalWeight );
+        out.writeLong( landmark );
+        out.writeInt( seenCount );
+    }
+
+    @Override
+    protected void readState( DataInput in ) throws IOException
+    {
+        super.readState( in );
+        totalWeight = in.readDouble( );
+        landmark = in.readLong( );
+        seenCount = in.readInt( );
+        decayTime = -1;
+    }
+
+    /**
+     * @return the number of instances seen by this node, ignoring decay
+     */
+    public int getSeenCount( )
+    {
+        return seenCount;
+    }
+
+    /**
+     * @return the factor converting stored weights into current counts
+     */
+    protected double getDecay( )
+    {
+        long time = clock.getTime( );
+        if ( decayTime != time )
+        {
+            decay = clock.decay( landmark );
+            decayTime = time;
+        }
+        return decay;
+    }
+
+    @Override
+    public int getCount( )
+    {
+        return ( int ) Math.round( totalWeight * getDecay( ) );
+    }
+
+    @Override
+    public int getCount( int classIndex )
+    {
+        return ( int ) Math.round( classWeights[classIndex] * getDecay( ) );
+    }
+
+    @Override
+    public int getCount( int attributeIndex, int valueIndex, int classIndex )
+    {
+        return ( int ) Math.round( weights[attributeIndex][valueIndex][classIndex] * getDecay( ) );
+    }
+
+    @Override
+    public void adjustCounts( Instance instance, int amount )
+    {
+        int instanceClassValue = ( int ) instance.classValue( );
+        double weight = startAdjust( instanceClassValue, amount );
+
+        for ( int i = 0; i < instance.numAttributes( ); i++ )
+        {
+            weights[i][( int ) instance.value( i )][instanceClassValue] += weight;
+        }
+
+        updateClass( );
+    }
+
+    @Override
+    public void adjustCounts( int[] values, int amount )
+    {
+        int instanceClassValue = values[classAttribute.index( )];
+        double weight = startAdjust( instanceClassValue, amount );
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            weights[i][values[i]][instanceClassValue] += weight;
+        }
+
+        updateClass( );
+    }
+
+    /**
+     * Updates the total and class weights for a new instance.
+     *
+     * @return the weight to add to each attribute count for the instance
+     */
+    private double startAdjust( int instanceClassValue, int amount )
+    {
+        beforeUpdate( );
+
+        if ( ( clock.getTime( ) - landmark ) * -clock.lnFadingFactor > MAX_EXPONENT )
+        {
+            rescale( );
+        }
+
+        double weight = amount / getDecay( );
+
+        seenCount += amount;
+        changesSinceRecheck++;
+        totalWeight += weight;
+        classWeights[instanceClassValue] += weight;
+
+        return weight;
+    }
+
+    /**
+     * Applies the decay accumulated since the landmark to all weights and
+     * moves the landmark to the current time.
+     */
+    protected void rescale( )
+    {
+        double decay = getDecay( );
+
+        totalWeight *= decay;
+        for ( int i = 0; i < classWeights.length; i++ )
+        {
+            classWeights[i] *= decay;
+        }
+
+        for ( double[][] attributeWeights : weights )
+        {
+            for ( double[] valueWeights : attributeWeights )
+            {
+                for ( int i = 0; i < valueWeights.length; i++ )
+                {
+                    valueWeights[i] *= decay;
+                }
+            }
+        }
+
+        landmark = clock.getTime( );
+        decayTime = -1;
+    }
+
+    @Override
+    protected void updateClass( )
+    {
+        int maxIndex = 0;
+        for ( int i = 1; i < classWeights.length; i++ )
+        {
+            if ( classWeights[i] > classWeights[maxIndex] )
+            {
+                maxIndex = i;
+            }
+        }
+
+        //XXX assumes nominal class
+        classValue = maxIndex;
+        classCount = getCount( maxIndex );
+    }
+}
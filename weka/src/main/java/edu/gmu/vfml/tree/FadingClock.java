@@ -0,0 +1,72 @@
+package edu.gmu.vfml.tree;
+
+import java.io.Serializable;
+
+/**
+ * <p>The global instance clock shared by the {@link FadedCNode}s of a tree. Every
+ * instance ages all existing statistics by the fading factor: a count recorded
+ * {@code n} instances ago contributes {@code fadingFactor^n} to the current count.</p>
+ *
+ * @see weka.classifiers.trees.CVFDT#setFadingFactor(double)
+ * @author ulman
+ */
+public class FadingClock implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    protected final double fadingFactor;
+    protected final double lnFadingFactor;
+    protected long time;
+
+    /**
+     * @param fadingFactor the fraction of its weight a count retains per
+     *        instance, strictly between 0 and 1 (e.g. 1 - 1 / windowSize)
+     */
+    public FadingClock( double fadingFactor )
+    {
+        if ( fadingFactor <= 0 || fadingFactor >= 1 )
+        {
+            throw new IllegalArgumentException( "FadingClock: fading factor must be between 0 and 1 (exclusive)." );
+        }
+
+        this.fadingFactor = fadingFactor;
+        this.lnFadingFactor = Math.log( fadingFactor );
+    }
+
+    public double getFadingFactor( )
+    {
+        return fadingFactor;
+    }
+
+    /**
+     * @return the number of instances seen so far
+     */
+    public long getTime( )
+    {
+        return time;
+    }
+
+    /**
+     * Sets the number of instances seen so far (used when restoring a checkpoint).
+     */
+    public void setTime( long time )
+    {
+        this.time = time;
+    }
+
+    /**
+     * Advances the clock by one instance.
+     */
+    public void tick( )
+    {
+        time++;
+    }
+
+    /**
+     * @return the factor by which a count recorded at the provided time has decayed
+     */
+    public double decay( long since )
+    {
+        return Math.exp( lnFadingFactor * ( time - since ) );
+    }
+}
@@ -0,0 +1,257 @@
+package edu.gmu.vfml.tree;
+
+import java.util.Arrays;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+
+/**
+ * <p>A compact, read-only inference form of a {@code Node} tree. The tree is stored
+ * in struct-of-arrays layout: for node {@code i}, {@code attributes[i]} holds the
+ * index of the split attribute (or -1 for a leaf), {@code children[i]} holds the
+ * offset of the node's first child (children of a node are stored contiguously,
+ * one per attribute value) and {@code classes[i]} holds the predicted class index.</p>
+ *
+ * <p>Classification walks the arrays iteratively and never touches the training
+ * statistics, so a FlatTree can be used in place of the full Node graph for scoring.
+ * Encoded instances are {@code int} arrays holding the nominal value index of each
+ * attribute (the class attribute slot is ignored).</p>
+ *
+ * <p>The tree may be grown incrementally via {@link #split(Node)} and
+ * {@link #update(Node)} as the trainer splits nodes.</p>
+ *
+ * <p>Note: This class is not thread safe. Use {@link #copy()} to publish
+ * a snapshot to scoring threads.</p>
+ *
+ * @see weka.classifiers.trees.VFDT#getFlatTree()
+ * @author ulman
+ */
+public class FlatTree
+{
+    private static final int LEAF = -1;
+
+    protected int[] attributes;
+    protected int[] children;
+    protected int[] classes;
+    protected int size;
+
+    public FlatTree( int initialCapacity )
+    {
+        initialCapacity = Math.max( 1, initialCapacity );
+        this.attributes = new int[initialCapacity];
+        this.children = new int[initialCapacity];
+        this.classes = new int[initialCapacity];
+        this.size = 0;
+    }
+
+    /**
+     * Builds an independent FlatTree from the provided tree (the nodes are not modified).
+     */
+    public static FlatTree compile( Node root )
+    {
+        return compile( root, false );
+    }
+
+    /**
+     * Builds a FlatTree from the provided tree. If track is true, each Node is tagged
+     * with its index in the FlatTree so that the FlatTree can be updated incrementally
+     * afterward with {@link #split(Node)} and {@link #update(Node)}. A tree can only be
+     * tracked by one FlatTree at a time.
+     */
+    public static FlatTree compile( Node root, boolean track )
+    {
+        FlatTree tree = new FlatTree( root.getTreeSize( ) );
+
+        // nodes are laid out in breadth first order, so the children of each
+        // node occupy a contiguous block allocated when the node is visited
+        Node[] queue = new Node[tree.attributes.length];
+        queue[0] = root;
+        tree.add( root );
+        if ( track ) root.flatIndex = 0;
+
+        for ( int head = 0; head < tree.size; head++ )
+        {
+            Node node = queue[head];
+            Attribute attribute = node.getAttribute( );
+
+            if ( attribute != null )
+            {
+                int numValues = attribute.numValues( );
+                tree.attributes[head] = attribute.index( );
+                tree.children[head] = tree.size;
+
+                for ( int valueIndex = 0; valueIndex < numValues; valueIndex++ )
+                {
+                    Node child = node.getSuccessor( valueIndex );
+                    int index = tree.add( child );
+                    queue[index] = child;
+                    if ( track ) child.flatIndex = index;
+                }
+            }
+        }
+
+        return tree;
+    }
+
+    /**
+     * Appends the provided node as a leaf and returns its index.
+     */
+    protected int add( Node node )
+    {
+        ensureCapacity( size + 1 );
+
+        attributes[size] = LEAF;
+        children[size] = 0;
+        classes[size] = ( int ) node.getClassValue( );
+
+        return size++;
+    }
+
+    /**
+     * Called after the provided (previously compiled) leaf node has been split.
+     * Converts the leaf into an internal node and appends its new children.
+     */
+    public void split( Node node )
+    {
+        int index = node.flatIndex;
+        Attribute attribute = node.getAttribute( );
+        int numValues = attribute.numValues( );
+
+        ensureCapacity( size + numValues );
+
+        attributes[index] = attribute.index( );
+        children[index] = size;
+
+        for ( int valueIndex = 0; valueIndex < numValues; valueIndex++ )
+        {
+            Node child = node.getSuccessor( valueIndex );
+            child.flatIndex = add( child );
+        }
+    }
+
+    /**
+     * Called after the counts of the provided (previously compiled) node
+     * change in order to update its predicted class.
+     */
+    public void update( Node node )
+    {
+        classes[node.flatIndex] = ( int ) node.getClassValue( );
+    }
+
+    protected void ensureCapacity( int capacity )
+    {
+        if ( capacity > attributes.length )
+        {
+            int newCapacity = Math.max( capacity, attributes.length * 2 );
+            attributes = Arrays.copyOf( attributes, newCapacity );
+            children = Arrays.copyOf( children, newCapacity );
+            classes = Arrays.copyOf( classes, newCapacity );
+        }
+    }
+
+    /**
+     * @return a trimmed, independent copy of this tree
+     */
+    public FlatTree copy( )
+    {
+        FlatTree copy = new FlatTree( size );
+        System.arraycopy( attributes, 0, copy.attributes, 0, size );
+        System.arraycopy( children, 0, copy.children, 0, size );
+        System.arraycopy( classes, 0, copy.classes, 0, size );
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * @return the number of nodes (internal and leaf) in the tree
+     */
+    public int size( )
+    {
+        return size;
+    }
+
+    /**
+     * Estimates the bytes used by the node arrays, including unused capacity
+     * (see {@link MemoryReport}).
+     */
+    public long estimateBytes( )
+    {
+        return MemoryReport.shallowBytes( FlatTree.class ) + Node.arrayBytes( attributes.length, 4 ) + Node.arrayBytes( children.length, 4 ) + Node.arrayBytes( classes.length, 4 );
+    }
+
+    public int getAttribute( int index )
+    {
+        return attributes[index];
+    }
+
+    public int getChild( int index, int valueIndex )
+    {
+        return children[index] + valueIndex;
+    }
+
+    public int getClassIndex( int index )
+    {
+        return classes[index];
+    }
+
+    public boolean isLeaf( int index )
+    {
+        return attributes[index] == LEAF;
+    }
+
+    /**
+     * @return the index of the leaf node reached by the provided instance
+     */
+    public int getLeafIndex( Instance instance )
+    {
+        int index = 0;
+        int attribute;
+        while ( ( attribute = attributes[index] ) != LEAF )
+        {
+            index = children[index] + ( int ) instance.value( attribute );
+        }
+        return index;
+    }
+
+    /**
+     * @param values encoded attribute values
+     * @param offset the position of the first attribute of the instance in values
+     * @return the index of the leaf node reached by the provided encoded instance
+     */
+    public int getLeafIndex( int[] values, int offset )
+    {
+        int index = 0;
+        int attribute;
+        while ( ( attribute = attributes[index] ) != LEAF )
+        {
+            index = children[index] + values[offset + attribute];
+        }
+        return index;
+    }
+
+    public int classify( Instance instance )
+    {
+        return classes[getLeafIndex( instance )];
+    }
+
+    public int classify( int[] values )
+    {
+        return classes[getLeafIndex( values, 0 )];
+    }
+
+    /**
+     * Classifies a batch of encoded instances stored row by row in values.
+     *
+     * @param values encoded attribute values for numInstances instances
+     * @param numInstances the number of instances to classify
+     * @param stride the number of values stored for each instance
+     * @param result receives the predicted class index of each instance
+     */
+    public void classify( int[] values, int numInstances, int stride, int[] result )
+    {
+        for ( int i = 0, offset = 0; i < numInstances; i++, offset += stride )
+        {
+            result[i] = classes[getLeafIndex( values, offset )];
+        }
+    }
+}
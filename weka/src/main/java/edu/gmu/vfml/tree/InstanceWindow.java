@@ -0,0 +1,463 @@
+package edu.gmu.vfml.tree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>A fixed capacity FIFO of encoded instances used to store the CVFDT learning
+ * window. Each entry stores the nominal value index of every attribute (including
+ * the class) followed by the id of the largest existing CNode at the time the
+ * instance arrived (see {@link InstanceId}).</p>
+ *
+ * <p>Entries are packed into preallocated buffers using 1, 2 or 4 bytes per value
+ * depending on the largest attribute cardinality, so a window costs a few bytes
+ * per attribute per instance instead of a full {@code weka.core.Instance} plus a
+ * list node. If a directory is provided, the buffers are memory mapped from a new
+ * temporary file in that directory instead of being allocated on the heap, allowing
+ * windows larger than RAM.</p>
+ *
+ * <p>Note: This class is not thread safe, except that a {@link Snapshot} may be
+ * read on another thread while the window changes.</p>
+ *
+ * @see weka.classifiers.trees.CVFDT
+ * @author ulman
+ */
+public class InstanceWindow
+{
+    /** Maximum size of a single buffer (mapped files are mapped in segments of this size). */
+    private static final int MAX_SEGMENT_BYTES = 1 << 30;
+
+    protected final int numAttributes;
+    protected final int valueBytes;
+    protected final int entryBytes;
+    protected final int capacity;
+    protected final int entriesPerSegment;
+    protected final ByteBuffer[] segments;
+
+    protected RandomAccessFile file;
+    protected File spillFile;
+
+    protected long head; // total number of entries removed
+    protected long tail; // total number of entries added
+
+    /** The snapshot whose entries are still being copied (or null). */
+    protected Snapshot snapshot;
+
+    /**
+     * <p>A point in time copy of the entries of a window, taken in constant time by
+     * {@link #snapshot()}. The entries are copied by {@link #getEntries()}, typically
+     * on a checkpoint thread, while the window continues to change: before the
+     * window overwrites an entry which has not been copied yet, it copies the
+     * entries up to that one itself. Copies are made in order, in chunks of at most
+     * CHUNK_ENTRIES entries, under the lock of the snapshot.</p>
+     */
+    public static class Snapshot
+    {
+        protected static final int CHUNK_ENTRIES = 4096;
+
+        protected final InstanceWindow window;
+        protected final long end;
+        protected final byte[] bytes;
+
+        /** The first entry which has not been copied yet (guarded by this). */
+        protected long next;
+
+        protected Snapshot( InstanceWindow window )
+        {
+            this.window = window;
+            this.next = window.head;
+            this.end = window.tail;
+            this.bytes = new byte[window.size( ) * window.entryBytes];
+        }
+
+        /**
+         * Waits for the entries to be copied (copying them on the calling thread).
+         *
+         * @return the raw bytes of the entries at the time of the snapshot, oldest
+         *         first (see {@link InstanceWindow#addEntries(byte[])})
+         */
+        public byte[] getEntries( )
+        {
+            while ( !copyChunk( Long.MAX_VALUE ) )
+            {
+                // release the lock between chunks, so that the window is not blocked for long
+            }
+            return bytes;
+        }
+
+        /**
+         * Copies the next chunk of entries, up to and including entry.
+         *
+         * @return true if all the entries up to entry (or all the entries) have been copied
+         */
+        protected synchronized boolean copyChunk( long entry )
+        {
+            long first = end - bytes.length / window.entryBytes;
+            long last = Math.min( entry, end - 1 ) + 1;
+            if ( next < last )
+            {
+                long chunkEnd = Math.min( last, next + CHUNK_ENTRIES );
+                window.copy( next, chunkEnd, bytes, ( int ) ( next - first ) * window.entryBytes );
+                next = chunkEnd;
+            }
+            return next >= last;
+        }
+
+        protected synchronized boolean isComplete( )
+        {
+            return next >= end;
+        }
+    }
+
+    /**
+     * Creates a window stored on the heap.
+     */
+    public InstanceWindow( Instances header, int capacity )
+    {
+        this( header, capacity, valueBytes( header ) );
+        for ( int i = 0; i < segments.length; i++ )
+        {
+            segments[i] = ByteBuffer.allocate( segmentBytes( i ) );
+        }
+    }
+
+    /**
+     * Creates a window stored in a memory mapped file. A new temporary file is created
+     * in the provided directory (existing files are never reused), and is deleted when
+     * the window is closed or the JVM exits.
+     */
+    public InstanceWindow( Instances header, int capacity, File directory ) throws IOException
+    {
+        this( header, capacity, valueBytes( header ) );
+        if ( !directory.isDirectory( ) )
+        {
+            throw new IOException( "InstanceWindow: " + directory + " is not a directory." );
+        }
+
+        this.spillFile = File.createTempFile( "window", ".vfml", directory );
+        this.spillFile.deleteOnExit( );
+        this.file = new RandomAccessFile( spillFile, "rw" );
+
+        FileChannel channel = file.getChannel( );
+        long position = 0;
+        for ( int i = 0; i < segments.length; i++ )
+        {
+            int size = segmentBytes( i );
+            segments[i] = channel.map( MapMode.READ_WRITE, position, size );
+            position += size;
+        }
+    }
+
+    private InstanceWindow( Instances header, int capacity, int valueBytes )
+    {
+        this.numAttributes = header.numAttributes( );
+        this.valueBytes = valueBytes;
+        this.entryBytes = numAttributes * valueBytes + 4;
+        this.capacity = capacity;
+        this.entriesPerSegment = Math.max( 1, Math.min( capacity, MAX_SEGMENT_BYTES / entryBytes ) );
+        this.segments = new ByteBuffer[( capacity + entriesPerSegment - 1 ) / entriesPerSegment];
+    }
+
+    /**
+     * @return the number of bytes needed to store the largest value index of any attribute
+     */
+    private static int valueBytes( Instances header )
+    {
+        int maxValues = 0;
+        for ( int i = 0; i < header.numAttributes( ); i++ )
+        {
+            maxValues = Math.max( maxValues, header.attribute( i ).numValues( ) );
+        }
+
+        if ( maxValues <= 1 << 8 ) return 1;
+        else if ( maxValues <= 1 << 16 ) return 2;
+        else return 4;
+    }
+
+    private int segmentBytes( int segment )
+    {
+        int entries = Math.min( entriesPerSegment, capacity - segment * entriesPerSegment );
+        return entries * entryBytes;
+    }
+
+    public int size( )
+    {
+        return ( int ) ( tail - head );
+    }
+
+    public int capacity( )
+    {
+        return capacity;
+    }
+
+    public boolean isEmpty( )
+    {
+        return tail == head;
+    }
+
+    /**
+     * @return the number of bytes used to store each entry
+     */
+    public int getEntryBytes( )
+    {
+        return entryBytes;
+    }
+
+    /**
+     * @return the number of bytes reserved for the entries of the window (on the
+     *         heap, or in the mapped file if {@link #isMapped()})
+     */
+    public long getBytes( )
+    {
+        return ( long ) capacity * entryBytes;
+    }
+
+    /**
+     * @return true if the window is memory mapped from a file rather than stored on the heap
+     */
+    public boolean isMapped( )
+    {
+        return file != null;
+    }
+
+    /**
+     * Adds an instance to the end of the window.
+     *
+     * @param instance the instance to add
+     * @param id the largest node id at the time the instance arrived
+     * @throws IllegalStateException if the window is full
+     */
+    public void add( Instance instance, int id )
+    {
+        if ( size( ) == capacity )
+        {
+            throw new IllegalStateException( "InstanceWindow: window is full." );
+        }
+
+        beforeOverwrite( tail );
+        long entry = tail++;
+        ByteBuffer buffer = segment( entry );
+        int position = position( entry );
+
+        for ( int i = 0; i < numAttributes; i++, position += valueBytes )
+        {
+            putValue( buffer, position, ( int ) instance.value( i ) );
+        }
+        buffer.putInt( position, id );
+    }
+
+    /**
+     * Adds an encoded instance to the end of the window.
+     *
+     * @see #add(Instance, int)
+     */
+    public void add( int[] values, int id )
+    {
+        if ( size( ) == capacity )
+        {
+            throw new IllegalStateException( "InstanceWindow: window is full." );
+        }
+
+        beforeOverwrite( tail );
+        long entry = tail++;
+        ByteBuffer buffer = segment( entry );
+        int position = position( entry );
+
+        for ( int i = 0; i < numAttributes; i++, position += valueBytes )
+        {
+            putValue( buffer, position, values[i] );
+        }
+        buffer.putInt( position, id );
+    }
+
+    /**
+     * Removes the oldest instance from the window.
+     *
+     * @param values receives the encoded attribute values of the removed instance
+     * @return the id stored with the removed instance
+     * @throws IllegalStateException if the window is empty
+     */
+    public int removeFirst( int[] values )
+    {
+        if ( isEmpty( ) )
+        {
+            throw new IllegalStateException( "InstanceWindow: window is empty." );
+        }
+
+        return get( head++, values );
+    }
+
+    /**
+     * Reads the entry at the provided position (0 is the oldest entry) without removing it.
+     *
+     * @return the id stored with the instance
+     */
+    public int get( int index, int[] values )
+    {
+        return get( head + index, values );
+    }
+
+    protected int get( long entry, int[] values )
+    {
+        ByteBuffer buffer = segment( entry );
+        int position = position( entry );
+
+        for ( int i = 0; i < numAttributes; i++, position += valueBytes )
+        {
+            values[i] = getValue( buffer, position );
+        }
+        return buffer.getInt( position );
+    }
+
+    /**
+     * Copies the raw bytes of all entries, oldest first.
+     *
+     * @see #addEntries(byte[])
+     */
+    public byte[] copyEntries( )
+    {
+        byte[] bytes = new byte[size( ) * entryBytes];
+        copy( head, tail, bytes, 0 );
+        return bytes;
+    }
+
+    /**
+     * Takes a snapshot of the entries of the window, which may be copied on another
+     * thread (used by checkpoints). Only the most recent snapshot is kept up to date:
+     * the entries of a previous snapshot which are still being copied are copied first.
+     */
+    public Snapshot snapshot( )
+    {
+        if ( snapshot != null )
+        {
+            snapshot.getEntries( );
+        }
+
+        snapshot = new Snapshot( this );
+        return snapshot;
+    }
+
+    /**
+     * Called before the slot of the provided entry is written: copies the entry it
+     * replaces into the pending snapshot first (if it has not been copied yet).
+     */
+    protected void beforeOverwrite( long entry )
+    {
+        if ( snapshot == null ) return;
+
+        long replaced = entry - capacity;
+        while ( !snapshot.copyChunk( replaced ) )
+        {
+            // copy in chunks (the checkpoint thread may be copying too)
+        }
+
+        if ( snapshot.isComplete( ) )
+        {
+            snapshot = null;
+        }
+    }
+
+    /**
+     * Copies the raw bytes of the entries from first (inclusive) to end (exclusive).
+     */
+    protected void copy( long first, long end, byte[] bytes, int offset )
+    {
+        long entry = first;
+        while ( entry < end )
+        {
+            // copy the contiguous run of entries up to the end of the segment
+            int position = position( entry );
+            int run = ( int ) Math.min( end - entry, entriesPerSegment - position / entryBytes );
+            run = ( int ) Math.min( run, capacity - entry % capacity );
+
+            ByteBuffer view = segment( entry ).duplicate( );
+            view.position( position );
+            view.get( bytes, offset, run * entryBytes );
+
+            offset += run * entryBytes;
+            entry += run;
+        }
+    }
+
+    /**
+     * Adds entries previously returned by {@link #copyEntries()} (from a window
+     * with the same header) to the end of the window.
+     *
+     * @throws IllegalStateException if the entries do not fit in the window
+     */
+    public void addEntries( byte[] bytes )
+    {
+        int count = bytes.length / entryBytes;
+        if ( size( ) + count > capacity )
+        {
+            throw new IllegalStateException( "InstanceWindow: window is full." );
+        }
+
+        for ( int i = 0; i < count; i++ )
+        {
+            beforeOverwrite( tail );
+            long entry = tail++;
+            ByteBuffer view = segment( entry ).duplicate( );
+            view.position( position( entry ) );
+            view.put( bytes, i * entryBytes, entryBytes );
+        }
+    }
+
+    /**
+     * Releases and deletes the memory mapped file (if any).
+     */
+    public void close( ) throws IOException
+    {
+        if ( file != null )
+        {
+            file.close( );
+            file = null;
+            spillFile.delete( );
+        }
+    }
+
+    private ByteBuffer segment( long entry )
+    {
+        return segments[( int ) ( ( entry % capacity ) / entriesPerSegment )];
+    }
+
+    private int position( long entry )
+    {
+        return ( int ) ( ( entry % capacity ) % entriesPerSegment ) * entryBytes;
+    }
+
+    private void putValue( ByteBuffer buffer, int position, int value )
+    {
+        switch ( valueBytes )
+        {
+            case 1:
+                buffer.put( position, ( byte ) value );
+                break;
+            case 2:
+                buffer.putShort( position, ( short ) value );
+                break;
+            default:
+                buffer.putInt( position, value );
+        }
+    }
+
+    private int getValue( ByteBuffer buffer, int position )
+    {
+        switch ( valueBytes )
+        {
+            case 1:
+                return buffer.get( position ) & 0xFF;
+            case 2:
+                return buffer.getShort( position ) & 0xFFFF;
+            default:
+                return buffer.getInt( position );
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package edu.gmu.vfml.tree;
+
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import weka.core.Attribute;
+
+/**
+ * <p>Live telemetry for a learner, exposed as a standard MBean. Every metric is
+ * maintained incrementally by the training thread as the tree changes (only the
+ * subtrees involved are walked when an alternative subtree is promoted, and the whole
+ * tree only when it is restored), so metrics are always enabled.</p>
+ *
+ * <p>The training thread is the only writer. Values are published with ordered
+ * (lazySet) writes, which are as cheap as plain writes on common hardware, and may
+ * be read from any thread. Rates are computed by readers from the change in the
+ * counters since the previous rate sample.</p>
+ *
+ * @see weka.classifiers.trees.VFDT#getMetrics()
+ * @author ulman
+ */
+public class LearnerMetrics implements LearnerMetricsMBean, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final int INSTANCES = 0;
+    private static final int NODES = 1;
+    private static final int LEAVES = 2;
+    private static final int ACTIVE_LEAVES = 3;
+    private static final int DEPTH = 4;
+    private static final int SPLITS = 5;
+    private static final int SPLIT_CHECKS = 6;
+    private static final int SPLIT_CHECK_NANOS = 7;
+    private static final int ALTERNATIVE_TREES = 8;
+    private static final int ALTERNATIVE_NODES = 9;
+    private static final int PROMOTIONS = 10;
+    private static final int WINDOW = 11;
+    private static final int NODE_BYTES = 12;
+    private static final int SIZE = 13;
+
+    private static final int BUCKETS = 64;
+
+    /** Rates are resampled at most this often. */
+    private static final long MIN_SAMPLE_NANOS = 1000000000L;
+
+    protected final AtomicLongArray values;
+    protected final AtomicLongArray splitCheckHistogram;
+
+    /**
+     * The number of leaves of the main tree at each depth, so that the depth can be
+     * maintained when subtrees are replaced (training thread only).
+     */
+    protected int[] leafDepths;
+
+    // reader side rate sampling (guarded by this)
+    private transient long sampleTime;
+    private transient long sampleInstances;
+    private transient long sampleSplits;
+    private transient double instancesPerSecond;
+    private transient double splitsPerMinute;
+
+    private transient ObjectName objectName;
+
+    public LearnerMetrics( )
+    {
+        this.values = new AtomicLongArray( SIZE );
+        this.splitCheckHistogram = new AtomicLongArray( BUCKETS );
+        this.leafDepths = new int[16];
+    }
+
+    /**
+     * The shape of a subtree, counted by walking it.
+     */
+    public static class Shape
+    {
+        protected int nodes;
+        protected int leaves;
+        protected int activeLeaves;
+
+        /** The number of leaves at each depth below the root of the subtree. */
+        protected int[] leafDepths = new int[8];
+
+        public Shape( Node root )
+        {
+            count( root, 0 );
+        }
+
+        private void count( Node node, int depth )
+        {
+            nodes++;
+
+            Attribute attribute = node.getAttribute( );
+            if ( attribute == null )
+            {
+                leaves++;
+                if ( node.getCount( ) > 0 ) activeLeaves++;
+
+                if ( depth >= leafDepths.length ) leafDepths = Arrays.copyOf( leafDepths, 2 * depth );
+                leafDepths[depth]++;
+            }
+            else
+            {
+                for ( int valueIndex = 0; valueIndex < attribute.numValues( ); valueIndex++ )
+                {
+                    count( node.getSuccessor( valueIndex ), depth + 1 );
+                }
+            }
+        }
+
+        public int getNodes( )
+        {
+            return nodes;
+        }
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as
+     * {@code edu.gmu.vfml:type=<type>,name=<name>}, replacing any
+     * MBean previously registered under that name.
+     */
+    public synchronized ObjectName register( String type, String name ) throws JMException
+    {
+        unregister( );
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer( );
+        ObjectName objectName = new ObjectName( "edu.gmu.vfml:type=" + type + ",name=" + ObjectName.quote( name ) );
+
+        if ( server.isRegistered( objectName ) )
+        {
+            server.unregisterMBean( objectName );
+        }
+
+        server.registerMBean( this, objectName );
+        this.objectName = objectName;
+        return objectName;
+    }
+
+    /**
+     * Removes the metrics from the platform MBean server (if registered).
+     */
+    public synchronized void unregister( ) throws JMException
+    {
+        if ( objectName != null )
+        {
+            ManagementFactory.getPlatformMBeanServer( ).unregisterMBean( objectName );
+            objectName = null;
+        }
+    }
+
+    //// updates (training thread only) ////
+
+    private void add( int index, long amount )
+    {
+        values.lazySet( index, values.get( index ) + amount );
+    }
+
+    private void set( int index, long value )
+    {
+        values.lazySet( index, value );
+    }
+
+    /**
+     * Resets all metrics for a new (single leaf) tree.
+     */
+    public void reset( long nodeBytes )
+    {
+        for ( int i = 0; i < SIZE; i++ )
+        {
+            set( i, 0 );
+        }
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            splitCheckHistogram.lazySet( i, 0 );
+        }
+
+        set( NODES, 1 );
+        set( LEAVES, 1 );
+        set( NODE_BYTES, nodeBytes );
+
+        Arrays.fill( leafDepths, 0 );
+        leafDepths[0] = 1;
+
+        synchronized ( this )
+        {
+            sampleTime = 0;
+            instancesPerSecond = 0;
+            splitsPerMinute = 0;
+        }
+    }
+
+    public void recordInstance( )
+    {
+        add( INSTANCES, 1 );
+    }
+
+    /**
+     * Called when a leaf of the main tree receives its first instance.
+     */
+    public void recordLeafActivated( )
+    {
+        add( ACTIVE_LEAVES, 1 );
+    }
+
+    /**
+     * Called when the statistics of a leaf of the main tree become empty.
+     */
+    public void recordLeafDeactivated( )
+    {
+        add( ACTIVE_LEAVES, -1 );
+    }
+
+    public void recordSplitCheck( long nanos )
+    {
+        add( SPLIT_CHECKS, 1 );
+        add( SPLIT_CHECK_NANOS, nanos );
+
+        int bucket = 63 - Long.numberOfLeadingZeros( Math.max( 1, nanos ) );
+        splitCheckHistogram.lazySet( bucket, splitCheckHistogram.get( bucket ) + 1 );
+    }
+
+    /**
+     * Called when an active leaf of the main tree at the provided depth is split
+     * into numValues empty leaves.
+     */
+    public void recordSplit( int depth, int numValues )
+    {
+        add( SPLITS, 1 );
+        add( NODES, numValues );
+        add( LEAVES, numValues - 1 );
+        add( ACTIVE_LEAVES, -1 );
+
+        addLeaves( depth, -1 );
+        addLeaves( depth + 1, numValues );
+        if ( depth + 1 > values.get( DEPTH ) )
+        {
+            set( DEPTH, depth + 1 );
+        }
+    }
+
+    /**
+     * Called when the subtree of the main tree rooted at the provided depth is
+     * replaced by another subtree (for example a promoted alternative subtree).
+     *
+     * @param removed the shape of the replaced subtree
+     * @param added the shape of the subtree which replaced it
+     */
+    public void recordReplacement( int depth, Shape removed, Shape added )
+    {
+        add( NODES, added.nodes - removed.nodes );
+        add( LEAVES, added.leaves - removed.leaves );
+        add( ACTIVE_LEAVES, added.activeLeaves - removed.activeLeaves );
+
+        for ( int i = 0; i < removed.leafDepths.length; i++ )
+        {
+            addLeaves( depth + i, -removed.leafDepths[i] );
+        }
+        for ( int i = 0; i < added.leafDepths.length; i++ )
+        {
+            addLeaves( depth + i, added.leafDepths[i] );
+        }
+        setDepth( );
+    }
+
+    private void addLeaves( int depth, int leaves )
+    {
+        if ( leaves == 0 ) return;
+        if ( depth >= leafDepths.length ) leafDepths = Arrays.copyOf( leafDepths, 2 * depth );
+        leafDepths[depth] += leaves;
+    }
+
+    /**
+     * Sets the depth to the deepest depth with leaves.
+     */
+    private void setDepth( )
+    {
+        int depth = leafDepths.length - 1;
+        while ( depth > 0 && leafDepths[depth] == 0 )
+        {
+            depth--;
+        }
+        set( DEPTH, depth );
+    }
+
+    /**
+     * Called when a leaf of an alternative subtree is split.
+     */
+    public void recordAlternativeSplit( int numValues )
+    {
+        add( SPLITS, 1 );
+        add( ALTERNATIVE_NODES, numValues );
+    }
+
+    /**
+     * Sets the shape of the main tree after it has been recounted.
+     */
+    public void setTree( Shape shape )
+    {
+        set( NODES, shape.nodes );
+        set( LEAVES, shape.leaves );
+        set( ACTIVE_LEAVES, shape.activeLeaves );
+
+        leafDepths = shape.leafDepths.clone( );
+        setDepth( );
+    }
+
+    /**
+     * Sets the number of alternative subtrees and their total number of nodes after
+     * they have been recounted.
+     */
+    public void setAlternativeTrees( int trees, long nodes )
+    {
+        set( ALTERNATIVE_TREES, trees );
+        set( ALTERNATIVE_NODES, nodes );
+    }
+
+    public void recordAlternativeTreesAdded( int trees, long nodes )
+    {
+        add( ALTERNATIVE_TREES, trees );
+        add( ALTERNATIVE_NODES, nodes );
+    }
+
+    /**
+     * Called when alternative subtrees with the provided total number of nodes are
+     * discarded (or promoted into the main tree).
+     */
+    public void recordAlternativeTreesRemoved( int trees, long nodes )
+    {
+        add( ALTERNATIVE_TREES, -trees );
+        add( ALTERNATIVE_NODES, -nodes );
+    }
+
+    public void recordPromotion( )
+    {
+        add( PROMOTIONS, 1 );
+    }
+
+    public void setWindowOccupancy( int size )
+    {
+        set( WINDOW, size );
+    }
+
+    //// MBean attributes ////
+
+    @Override
+    public long getInstanceCount( )
+    {
+        return values.get( INSTANCES );
+    }
+
+    @Override
+    public double getInstancesPerSecond( )
+    {
+        sample( );
+        synchronized ( this )
+        {
+            return instancesPerSecond;
+        }
+    }
+
+    @Override
+    public int getTreeSize( )
+    {
+        return ( int ) values.get( NODES );
+    }
+
+    @Override
+    public int getLeafCount( )
+    {
+        return ( int ) values.get( LEAVES );
+    }
+
+    @Override
+    public int getActiveLeafCount( )
+    {
+        return ( int ) values.get( ACTIVE_LEAVES );
+    }
+
+    @Override
+    public int getDepth( )
+    {
+        return ( int ) values.get( DEPTH );
+    }
+
+    @Override
+    public long getSplitCount( )
+    {
+        return values.get( SPLITS );
+    }
+
+    @Override
+    public double getSplitsPerMinute( )
+    {
+        sample( );
+        synchronized ( this )
+        {
+            return splitsPerMinute;
+        }
+    }
+
+    @Override
+    public long getSplitCheckCount( )
+    {
+        return values.get( SPLIT_CHECKS );
+    }
+
+    @Override
+    public double getMeanSplitCheckMicros( )
+    {
+        long checks = values.get( SPLIT_CHECKS );
+        return checks == 0 ? 0 : values.get( SPLIT_CHECK_NANOS ) / 1000.0 / checks;
+    }
+
+    @Override
+    public double getSplitCheckMicrosP50( )
+    {
+        return getSplitCheckMicros( 0.5 );
+    }
+
+    @Override
+    public double getSplitCheckMicrosP99( )
+    {
+        return getSplitCheckMicros( 0.99 );
+    }
+
+    /**
+     * @return the upper bound of the histogram bucket containing the provided quantile
+     */
+    public double getSplitCheckMicros( double quantile )
+    {
+        long[] histogram = getSplitCheckLatencyHistogram( );
+
+        long total = 0;
+        for ( long count : histogram )
+        {
+            total += count;
+        }
+        if ( total == 0 ) return 0;
+
+        long rank = ( long ) Math.ceil( quantile * total );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += histogram[i];
+            if ( seen >= rank )
+            {
+                return Math.pow( 2, i + 1 ) / 1000.0;
+            }
+        }
+
+        return Math.pow( 2, BUCKETS ) / 1000.0;
+    }
+
+    @Override
+    public long[] getSplitCheckLatencyHistogram( )
+    {
+        long[] histogram = new long[BUCKETS];
+        for ( int i = 0; i < BUCKETS; i++ )
+        {
+            histogram[i] = splitCheckHistogram.get( i );
+        }
+        return histogram;
+    }
+
+    @Override
+    public int getAlternativeTreeCount( )
+    {
+        return ( int ) values.get( ALTERNATIVE_TREES );
+    }
+
+    @Override
+    public long getPromotionCount( )
+    {
+        return values.get( PROMOTIONS );
+    }
+
+    @Override
+    public int getWindowOccupancy( )
+    {
+        return ( int ) values.get( WINDOW );
+    }
+
+    @Override
+    public long getStatisticsBytes( )
+    {
+        return ( values.get( NODES ) + values.get( ALTERNATIVE_NODES ) ) * values.get( NODE_BYTES );
+    }
+
+    /**
+     * Updates the rates if at least MIN_SAMPLE_NANOS have passed since the previous sample.
+     */
+    protected synchronized void sample( )
+    {
+        long time = System.nanoTime( );
+        long instances = values.get( INSTANCES );
+        long splits = values.get( SPLITS );
+
+        if ( sampleTime == 0 || instances < sampleInstances )
+        {
+            // first sample (or the learner was reset)
+            sampleTime = time;
+            sampleInstances = instances;
+            sampleSplits = splits;
+            return;
+        }
+
+        long elapsed = time - sampleTime;
+        if ( elapsed < MIN_SAMPLE_NANOS ) return;
+
+        instancesPerSecond = ( instances - sampleInstances ) * 1e9 / elapsed;
+        splitsPerMinute = ( splits - sampleSplits ) * 60e9 / elapsed;
+
+        sampleTime = time;
+        sampleInstances = instances;
+        sampleSplits = splits;
+    }
+}
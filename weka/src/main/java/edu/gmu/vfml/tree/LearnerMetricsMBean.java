@@ -0,0 +1,84 @@
+package edu.gmu.vfml.tree;
+
+/**
+ * Management interface of {@link LearnerMetrics}.
+ *
+ * @author ulman
+ */
+public interface LearnerMetricsMBean
+{
+    /**
+     * @return the number of instances learned since the learner was initialized
+     */
+    public long getInstanceCount( );
+
+    /**
+     * @return the learning rate, averaged over the time since the previous rate sample
+     */
+    public double getInstancesPerSecond( );
+
+    /**
+     * @return the number of nodes (internal and leaf) in the main tree
+     */
+    public int getTreeSize( );
+
+    public int getLeafCount( );
+
+    /**
+     * @return the number of leaves of the main tree whose statistics are not empty
+     */
+    public int getActiveLeafCount( );
+
+    /**
+     * @return the depth of the deepest leaf of the main tree (0 for a single leaf)
+     */
+    public int getDepth( );
+
+    public long getSplitCount( );
+
+    /**
+     * @return the split rate, averaged over the time since the previous rate sample
+     */
+    public double getSplitsPerMinute( );
+
+    public long getSplitCheckCount( );
+
+    public double getMeanSplitCheckMicros( );
+
+    /**
+     * @return the median split check latency (the upper bound of its histogram bucket)
+     */
+    public double getSplitCheckMicrosP50( );
+
+    /**
+     * @return the 99th percentile split check latency (the upper bound of its histogram bucket)
+     */
+    public double getSplitCheckMicrosP99( );
+
+    /**
+     * @return element i holds the number of split checks which took between
+     *         2^i and 2^(i+1) nanoseconds
+     */
+    public long[] getSplitCheckLatencyHistogram( );
+
+    /**
+     * @return the number of alternative subtrees (zero for learners without alternative subtrees)
+     */
+    public int getAlternativeTreeCount( );
+
+    /**
+     * @return the number of times an alternative subtree replaced a subtree of the tree
+     */
+    public long getPromotionCount( );
+
+    /**
+     * @return the number of instances in the learning window (zero for learners without a window)
+     */
+    public int getWindowOccupancy( );
+
+    /**
+     * @return the estimated bytes used by the sufficient statistics of the main
+     *         tree and its alternative subtrees
+     */
+    public long getStatisticsBytes( );
+}
@@ -0,0 +1,404 @@
+package edu.gmu.vfml.tree;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>A read-only inference model memory mapped from a file written by
+ * {@link #write(FlatTree, Instances, File)}. Instances are classified directly
+ * from the mapped node table, so opening a model costs a file mapping plus
+ * reading the (small) schema dictionary regardless of the size of the tree,
+ * and the pages of the model are shared by all processes mapping the same file.</p>
+ *
+ * <p>File format (version 1, big endian):</p>
+ * <pre>
+ * int     magic ("VFMD")
+ * int     version
+ * int     number of nodes
+ * int     offset of the node table
+ * string  relation name
+ * int     number of attributes
+ * int     class attribute index
+ * per attribute:
+ *   string  attribute name
+ *   int     number of values
+ *   string  each value
+ * (padding)
+ * per node, in {@link FlatTree} order:
+ *   int     split attribute index (-1 for a leaf)
+ *   int     index of the first child
+ *   int     predicted class index
+ * </pre>
+ * <p>Strings are stored as an int byte length followed by UTF-8 bytes. The node
+ * table is 8 byte aligned and stores the three fields of each node together, so
+ * each step of a traversal touches a single cache line.</p>
+ *
+ * <p>Opening a model only checks the header. Use {@link #verify()} before using
+ * models from untrusted sources (a corrupted node table could make classification
+ * fail or not terminate).</p>
+ *
+ * <p>A MappedTreeModel is immutable and safe to use from multiple threads.</p>
+ *
+ * @see weka.classifiers.trees.VFDT#exportModel(File)
+ * @author ulman
+ */
+public class MappedTreeModel
+{
+    private static final int MAGIC = 0x56464D44; // "VFMD"
+    private static final int VERSION = 1;
+    private static final int NODE_INTS = 3;
+    private static final int LEAF = -1;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+    protected final IntBuffer nodes;
+    protected final int size;
+
+    protected final String relationName;
+    protected final String[] attributeNames;
+    protected final String[][] attributeValues;
+    protected final int classIndex;
+
+    protected MappedTreeModel( ByteBuffer buffer ) throws IOException
+    {
+        if ( buffer.getInt( ) != MAGIC )
+        {
+            throw new IOException( "MappedTreeModel: not a model file." );
+        }
+
+        int version = buffer.getInt( );
+        if ( version != VERSION )
+        {
+            throw new IOException( "MappedTreeModel: unsupported model version " + version + "." );
+        }
+
+        this.size = buffer.getInt( );
+        int nodeOffset = buffer.getInt( );
+
+        // schema dictionary
+        this.relationName = readString( buffer );
+        int numAttributes = buffer.getInt( );
+        this.classIndex = buffer.getInt( );
+        this.attributeNames = new String[numAttributes];
+        this.attributeValues = new String[numAttributes][];
+        for ( int i = 0; i < numAttributes; i++ )
+        {
+            attributeNames[i] = readString( buffer );
+            attributeValues[i] = new String[buffer.getInt( )];
+            for ( int j = 0; j < attributeValues[i].length; j++ )
+            {
+                attributeValues[i][j] = readString( buffer );
+            }
+        }
+
+        if ( size <= 0 || nodeOffset < buffer.position( ) || ( long ) nodeOffset + ( long ) size * NODE_INTS * 4 > buffer.limit( ) )
+        {
+            throw new IOException( "MappedTreeModel: truncated model file." );
+        }
+
+        buffer.position( nodeOffset );
+        this.nodes = buffer.slice( ).asIntBuffer( );
+    }
+
+    /**
+     * Maps a model file. The file may be closed (or replaced by renaming a new
+     * model over it) while the model is in use.
+     */
+    public static MappedTreeModel open( File file ) throws IOException
+    {
+        RandomAccessFile in = new RandomAccessFile( file, "r" );
+        try
+        {
+            FileChannel channel = in.getChannel( );
+            if ( channel.size( ) > Integer.MAX_VALUE )
+            {
+                throw new IOException( "MappedTreeModel: model files are limited to 2GB." );
+            }
+
+            return new MappedTreeModel( channel.map( MapMode.READ_ONLY, 0, channel.size( ) ) );
+        }
+        finally
+        {
+            // the mapping remains valid after the channel is closed
+            in.close( );
+        }
+    }
+
+    /**
+     * Writes the provided tree and the schema of the data it was trained on. The
+     * model is written to a temporary file which is then renamed, so processes
+     * opening the model concurrently never see a partially written file.
+     */
+    public static void write( FlatTree tree, Instances header, File file ) throws IOException
+    {
+        File temp = new File( file.getPath( ) + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ), 1 << 16 ) );
+        try
+        {
+            // the schema is written to memory first to compute the node table offset
+            ByteArrayOutputStream schemaBytes = new ByteArrayOutputStream( );
+            DataOutputStream schema = new DataOutputStream( schemaBytes );
+            writeString( schema, header.relationName( ) );
+            schema.writeInt( header.numAttributes( ) );
+            schema.writeInt( header.classIndex( ) );
+            for ( int i = 0; i < header.numAttributes( ); i++ )
+            {
+                Attribute attribute = header.attribute( i );
+                writeString( schema, attribute.name( ) );
+                schema.writeInt( attribute.numValues( ) );
+                for ( int j = 0; j < attribute.numValues( ); j++ )
+                {
+                    writeString( schema, attribute.value( j ) );
+                }
+            }
+
+            int headerSize = 16 + schemaBytes.size( );
+            int nodeOffset = ( headerSize + 7 ) & ~7;
+
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeInt( tree.size( ) );
+            out.writeInt( nodeOffset );
+            schemaBytes.writeTo( out );
+            for ( int i = headerSize; i < nodeOffset; i++ )
+            {
+                out.writeByte( 0 );
+            }
+
+            for ( int i = 0; i < tree.size( ); i++ )
+            {
+                out.writeInt( tree.attributes[i] );
+                out.writeInt( tree.children[i] );
+                out.writeInt( tree.classes[i] );
+            }
+        }
+        finally
+        {
+            out.close( );
+        }
+
+        if ( !temp.renameTo( file ) )
+        {
+            // renameTo does not replace existing files on all platforms
+            if ( !file.delete( ) || !temp.renameTo( file ) )
+            {
+                throw new IOException( "Could not rename " + temp + " to " + file + "." );
+            }
+        }
+    }
+
+    private static void writeString( DataOutputStream out, String string ) throws IOException
+    {
+        byte[] bytes = string.getBytes( UTF8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+    private static String readString( ByteBuffer buffer )
+    {
+        byte[] bytes = new byte[buffer.getInt( )];
+        buffer.get( bytes );
+        return new String( bytes, UTF8 );
+    }
+
+    /**
+     * Checks that every node is well formed: split attributes exist, children
+     * lie after their parent and inside the table, and predicted classes are
+     * values of the class attribute. Takes time proportional to the size of the tree.
+     *
+     * @throws IOException describing the first malformed node
+     */
+    public void verify( ) throws IOException
+    {
+        int numClasses = attributeValues[classIndex].length;
+        for ( int index = 0; index < size; index++ )
+        {
+            int attribute = getAttribute( index );
+            int classValue = getClassIndex( index );
+
+            if ( classValue < 0 || classValue >= numClasses )
+            {
+                throw new IOException( "MappedTreeModel: node " + index + " has an invalid class." );
+            }
+
+            if ( attribute == LEAF ) continue;
+
+            if ( attribute < 0 || attribute >= attributeNames.length || attribute == classIndex )
+            {
+                throw new IOException( "MappedTreeModel: node " + index + " has an invalid split attribute." );
+            }
+
+            int child = nodes.get( index * NODE_INTS + 1 );
+            if ( child <= index || ( long ) child + attributeValues[attribute].length > size )
+            {
+                throw new IOException( "MappedTreeModel: node " + index + " has invalid children." );
+            }
+        }
+    }
+
+    /**
+     * @return true if the provided data set has the attributes (names and values,
+     *         in the same order) and class attribute this model was trained on
+     */
+    public boolean isCompatible( Instances header )
+    {
+        if ( header.numAttributes( ) != attributeNames.length || header.classIndex( ) != classIndex )
+        {
+            return false;
+        }
+
+        for ( int i = 0; i < attributeNames.length; i++ )
+        {
+            Attribute attribute = header.attribute( i );
+            if ( !attribute.name( ).equals( attributeNames[i] ) || attribute.numValues( ) != attributeValues[i].length )
+            {
+                return false;
+            }
+
+            for ( int j = 0; j < attributeValues[i].length; j++ )
+            {
+                if ( !attribute.value( j ).equals( attributeValues[i][j] ) )
+                {
+                    return false;
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of nodes (internal and leaf) in the tree
+     */
+    public int size( )
+    {
+        return size;
+    }
+
+    public String getRelationName( )
+    {
+        return relationName;
+    }
+
+    public int getNumAttributes( )
+    {
+        return attributeNames.length;
+    }
+
+    public int getClassAttributeIndex( )
+    {
+        return classIndex;
+    }
+
+    public String getAttributeName( int attributeIndex )
+    {
+        return attributeNames[attributeIndex];
+    }
+
+    public int getNumValues( int attributeIndex )
+    {
+        return attributeValues[attributeIndex].length;
+    }
+
+    public String getValue( int attributeIndex, int valueIndex )
+    {
+        return attributeValues[attributeIndex][valueIndex];
+    }
+
+    /**
+     * @return the index of the provided value of the provided attribute, or -1 if
+     *         the attribute has no such value
+     */
+    public int indexOfValue( int attributeIndex, String value )
+    {
+        String[] values = attributeValues[attributeIndex];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            if ( values[i].equals( value ) ) return i;
+        }
+        return -1;
+    }
+
+    public int getAttribute( int index )
+    {
+        return nodes.get( index * NODE_INTS );
+    }
+
+    public int getChild( int index, int valueIndex )
+    {
+        return nodes.get( index * NODE_INTS + 1 ) + valueIndex;
+    }
+
+    public int getClassIndex( int index )
+    {
+        return nodes.get( index * NODE_INTS + 2 );
+    }
+
+    public boolean isLeaf( int index )
+    {
+        return getAttribute( index ) == LEAF;
+    }
+
+    /**
+     * @return the index of the leaf node reached by the provided instance
+     */
+    public int getLeafIndex( Instance instance )
+    {
+        int base = 0;
+        int attribute;
+        while ( ( attribute = nodes.get( base ) ) != LEAF )
+        {
+            base = ( nodes.get( base + 1 ) + ( int ) instance.value( attribute ) ) * NODE_INTS;
+        }
+        return base / NODE_INTS;
+    }
+
+    /**
+     * @see FlatTree#getLeafIndex(int[], int)
+     */
+    public int getLeafIndex( int[] values, int offset )
+    {
+        int base = 0;
+        int attribute;
+        while ( ( attribute = nodes.get( base ) ) != LEAF )
+        {
+            base = ( nodes.get( base + 1 ) + values[offset + attribute] ) * NODE_INTS;
+        }
+        return base / NODE_INTS;
+    }
+
+    public int classify( Instance instance )
+    {
+        return getClassIndex( getLeafIndex( instance ) );
+    }
+
+    public int classify( int[] values )
+    {
+        return getClassIndex( getLeafIndex( values, 0 ) );
+    }
+
+    /**
+     * @see FlatTree#classify(int[], int, int, int[])
+     */
+    public void classify( int[] values, int numInstances, int stride, int[] result )
+    {
+        for ( int i = 0, offset = 0; i < numInstances; i++, offset += stride )
+        {
+            result[i] = getClassIndex( getLeafIndex( values, offset ) );
+        }
+    }
+}
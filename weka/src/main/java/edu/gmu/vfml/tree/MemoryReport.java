@@ -0,0 +1,476 @@
+package edu.gmu.vfml.tree;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * <p>A breakdown of the memory used by a learner: the sufficient statistics and the
+ * structure (node objects and the arrays linking them) of the tree and of its
+ * alternative trees, the CVFDT window and the compiled flat tree. Statistics are
+ * further broken down per attribute and, with structure, per depth, so that the
+ * attributes and levels of the tree responsible for most of the memory can be
+ * identified without a heap dump.</p>
+ *
+ * <p>Sizes are computed from the actual arrays and fields of each node, assuming the
+ * object layout of a 64 bit HotSpot JVM with compressed object pointers (12 byte
+ * object headers, 16 byte array headers, 4 byte references, 8 byte alignment).
+ * Objects shared by all nodes (attributes, the class attribute, the fading clock)
+ * are not counted. Building a report walks the whole tree and must be done on the
+ * thread which trains it.</p>
+ *
+ * @see weka.classifiers.trees.VFDT#getMemoryReport()
+ * @author ulman
+ */
+public class MemoryReport
+{
+    private static final int OBJECT_HEADER_BYTES = 12;
+    private static final int REFERENCE_BYTES = 4;
+
+    private static final Map<Class<?>, Long> shallowBytes = new HashMap<Class<?>, Long>( );
+
+    // per depth fields
+    private static final int NODES = 0;
+    private static final int LEAVES = 1;
+    private static final int STATISTICS = 2;
+    private static final int STRUCTURE = 3;
+    private static final int ALTERNATIVE_NODES = 4;
+    private static final int ALTERNATIVE_BYTES = 5;
+    private static final int DEPTH_FIELDS = 6;
+
+    protected final Instances header;
+
+    protected long statisticsBytes;
+    protected long structureBytes;
+    protected long alternativeStatisticsBytes;
+    protected long alternativeStructureBytes;
+    protected long windowBytes;
+    protected boolean windowMapped;
+    protected long flatTreeBytes;
+
+    protected int nodeCount;
+    protected int leafCount;
+    protected int alternativeTreeCount;
+    protected int alternativeNodeCount;
+
+    protected final List<long[]> depths;
+    protected final long[] attributeBytes;
+    protected final long[] alternativeAttributeBytes;
+    protected final int[] splitCounts;
+
+    /**
+     * Creates an empty report for trees learned from data with the provided attributes.
+     */
+    public MemoryReport( Instances header )
+    {
+        this.header = header;
+        this.depths = new ArrayList<long[]>( );
+        this.attributeBytes = new long[header.numAttributes( )];
+        this.alternativeAttributeBytes = new long[header.numAttributes( )];
+        this.splitCounts = new int[header.numAttributes( )];
+    }
+
+    /**
+     * Estimates the bytes used by an instance of the provided class, excluding the
+     * objects it references: an object header plus the size of each instance field
+     * declared by the class and its superclasses, rounded up to 8 bytes.
+     */
+    public static long shallowBytes( Class<?> type )
+    {
+        synchronized ( shallowBytes )
+        {
+            Long bytes = shallowBytes.get( type );
+            if ( bytes == null )
+            {
+                long size = OBJECT_HEADER_BYTES;
+                for ( Class<?> c = type; c != null; c = c.getSuperclass( ) )
+                {
+                    for ( Field field : c.getDeclaredFields( ) )
+                    {
+                        if ( !Modifier.isStatic( field.getModifiers( ) ) )
+                        {
+                            size += fieldBytes( field.getType( ) );
+                        }
+                    }
+                }
+
+                bytes = ( size + 7 ) & ~7L;
+                shallowBytes.put( type, bytes );
+            }
+            return bytes;
+        }
+    }
+
+    private static int fieldBytes( Class<?> type )
+    {
+        if ( type == long.class || type == double.class ) return 8;
+        else if ( type == int.class || type == float.class ) return 4;
+        else if ( type == short.class || type == char.class ) return 2;
+        else if ( type == byte.class || type == boolean.class ) return 1;
+        else return REFERENCE_BYTES;
+    }
+
+    /**
+     * Adds the tree rooted at root, including its alternative trees (the alternative
+     * subtrees of CNodes and the alternates of AdaptiveCNodes), to the report.
+     */
+    public void addTree( Node root )
+    {
+        measure( root, 0, false );
+    }
+
+    /**
+     * @param bytes the bytes reserved for the CVFDT window
+     * @param mapped true if the window is memory mapped from a file (and so does
+     *        not use heap memory)
+     */
+    public void setWindow( long bytes, boolean mapped )
+    {
+        this.windowBytes = bytes;
+        this.windowMapped = mapped;
+    }
+
+    public void setFlatTreeBytes( long bytes )
+    {
+        this.flatTreeBytes = bytes;
+    }
+
+    protected void measure( Node node, int depth, boolean alternative )
+    {
+        long statistics = node.measureStatistics( alternative ? alternativeAttributeBytes : attributeBytes );
+        long structure = node.measureStructure( );
+
+        while ( depths.size( ) <= depth )
+        {
+            depths.add( new long[DEPTH_FIELDS] );
+        }
+        long[] row = depths.get( depth );
+
+        Attribute attribute = node.getAttribute( );
+        if ( alternative )
+        {
+            alternativeNodeCount++;
+            alternativeStatisticsBytes += statistics;
+            alternativeStructureBytes += structure;
+            row[ALTERNATIVE_NODES]++;
+            row[ALTERNATIVE_BYTES] += statistics + structure;
+        }
+        else
+        {
+            nodeCount++;
+            statisticsBytes += statistics;
+            structureBytes += structure;
+            row[NODES]++;
+            row[STATISTICS] += statistics;
+            row[STRUCTURE] += structure;
+
+            if ( attribute == null )
+            {
+                leafCount++;
+                row[LEAVES]++;
+            }
+            else
+            {
+                splitCounts[attribute.index( )]++;
+            }
+        }
+
+        // alternative trees replace the node they are attached to, so they start at its depth
+        if ( node instanceof CNode )
+        {
+            CNode cnode = ( CNode ) node;
+            for ( int i = 0; i < cnode.getAlternativeCount( ); i++ )
+            {
+                alternativeTreeCount++;
+                measure( cnode.getAlternativeTree( cnode.getAlternativeAttributeIndex( i ) ), depth, true );
+            }
+        }
+
+        if ( node instanceof AdaptiveCNode && ( ( AdaptiveCNode ) node ).getAlternate( ) != null )
+        {
+            alternativeTreeCount++;
+            measure( ( ( AdaptiveCNode ) node ).getAlternate( ), depth, true );
+        }
+
+        if ( attribute != null )
+        {
+            for ( int valueIndex = 0; valueIndex < attribute.numValues( ); valueIndex++ )
+            {
+                measure( node.getSuccessor( valueIndex ), depth + 1, alternative );
+            }
+        }
+    }
+
+    /**
+     * @return the bytes used by the statistics of the nodes of the tree
+     */
+    public long getStatisticsBytes( )
+    {
+        return statisticsBytes;
+    }
+
+    /**
+     * @return the bytes used by the node objects of the tree and the arrays linking them
+     */
+    public long getStructureBytes( )
+    {
+        return structureBytes;
+    }
+
+    public long getAlternativeStatisticsBytes( )
+    {
+        return alternativeStatisticsBytes;
+    }
+
+    public long getAlternativeStructureBytes( )
+    {
+        return alternativeStructureBytes;
+    }
+
+    public long getWindowBytes( )
+    {
+        return windowBytes;
+    }
+
+    public boolean isWindowMapped( )
+    {
+        return windowMapped;
+    }
+
+    public long getFlatTreeBytes( )
+    {
+        return flatTreeBytes;
+    }
+
+    /**
+     * @return the heap memory used by the learner (a memory mapped window is not included)
+     */
+    public long getTotalBytes( )
+    {
+        long total = statisticsBytes + structureBytes + alternativeStatisticsBytes + alternativeStructureBytes + flatTreeBytes;
+        return windowMapped ? total : total + windowBytes;
+    }
+
+    public int getNodeCount( )
+    {
+        return nodeCount;
+    }
+
+    public int getLeafCount( )
+    {
+        return leafCount;
+    }
+
+    public int getAlternativeTreeCount( )
+    {
+        return alternativeTreeCount;
+    }
+
+    public int getAlternativeNodeCount( )
+    {
+        return alternativeNodeCount;
+    }
+
+    /**
+     * @return the number of depths in the report (the depth of the deepest node plus one)
+     */
+    public int getDepthCount( )
+    {
+        return depths.size( );
+    }
+
+    public int getNodeCount( int depth )
+    {
+        return ( int ) depths.get( depth )[NODES];
+    }
+
+    public int getLeafCount( int depth )
+    {
+        return ( int ) depths.get( depth )[LEAVES];
+    }
+
+    public long getStatisticsBytes( int depth )
+    {
+        return depths.get( depth )[STATISTICS];
+    }
+
+    public long getStructureBytes( int depth )
+    {
+        return depths.get( depth )[STRUCTURE];
+    }
+
+    public int getAlternativeNodeCount( int depth )
+    {
+        return ( int ) depths.get( depth )[ALTERNATIVE_NODES];
+    }
+
+    /**
+     * @return the bytes used by the statistics and structure of the alternative tree
+     *         nodes at the provided depth (the root of an alternative tree has the depth
+     *         of the node it would replace)
+     */
+    public long getAlternativeBytes( int depth )
+    {
+        return depths.get( depth )[ALTERNATIVE_BYTES];
+    }
+
+    /**
+     * @return the bytes used by the counts of the provided attribute in the nodes of the tree
+     */
+    public long getAttributeStatisticsBytes( int attributeIndex )
+    {
+        return attributeBytes[attributeIndex];
+    }
+
+    /**
+     * @return the bytes used by the counts of the provided attribute in the nodes of
+     *         the alternative trees
+     */
+    public long getAlternativeAttributeStatisticsBytes( int attributeIndex )
+    {
+        return alternativeAttributeBytes[attributeIndex];
+    }
+
+    /**
+     * @return the bytes used by node statistics which do not belong to a (non class)
+     *         attribute: class counts, the outer count arrays and node change detectors
+     */
+    public long getNodeStatisticsBytes( )
+    {
+        long bytes = statisticsBytes;
+        for ( int attributeIndex = 0; attributeIndex < attributeBytes.length; attributeIndex++ )
+        {
+            if ( attributeIndex != header.classIndex( ) ) bytes -= attributeBytes[attributeIndex];
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of nodes of the tree split on the provided attribute
+     */
+    public int getSplitCount( int attributeIndex )
+    {
+        return splitCounts[attributeIndex];
+    }
+
+    /**
+     * Returns the report as long format CSV with the columns section, key, metric
+     * and value. Sections are "total" (keyed by category), "depth" (keyed by depth)
+     * and "attribute" (keyed by attribute name).
+     */
+    public String toCsv( )
+    {
+        StringBuilder csv = new StringBuilder( );
+        csv.append( "section,key,metric,value\n" );
+
+        appendCsv( csv, "total", "statistics", "bytes", statisticsBytes );
+        appendCsv( csv, "total", "statistics", "nodes", nodeCount );
+        appendCsv( csv, "total", "statistics", "leaves", leafCount );
+        appendCsv( csv, "total", "structure", "bytes", structureBytes );
+        appendCsv( csv, "total", "alternative_statistics", "bytes", alternativeStatisticsBytes );
+        appendCsv( csv, "total", "alternative_statistics", "trees", alternativeTreeCount );
+        appendCsv( csv, "total", "alternative_statistics", "nodes", alternativeNodeCount );
+        appendCsv( csv, "total", "alternative_structure", "bytes", alternativeStructureBytes );
+        appendCsv( csv, "total", "window", "bytes", windowBytes );
+        appendCsv( csv, "total", "window", "mapped", windowMapped ? 1 : 0 );
+        appendCsv( csv, "total", "flat_tree", "bytes", flatTreeBytes );
+        appendCsv( csv, "total", "heap", "bytes", getTotalBytes( ) );
+
+        for ( int depth = 0; depth < depths.size( ); depth++ )
+        {
+            String key = String.valueOf( depth );
+            appendCsv( csv, "depth", key, "nodes", getNodeCount( depth ) );
+            appendCsv( csv, "depth", key, "leaves", getLeafCount( depth ) );
+            appendCsv( csv, "depth", key, "statistics_bytes", getStatisticsBytes( depth ) );
+            appendCsv( csv, "depth", key, "structure_bytes", getStructureBytes( depth ) );
+            appendCsv( csv, "depth", key, "alternative_nodes", getAlternativeNodeCount( depth ) );
+            appendCsv( csv, "depth", key, "alternative_bytes", getAlternativeBytes( depth ) );
+        }
+
+        for ( int attributeIndex = 0; attributeIndex < attributeBytes.length; attributeIndex++ )
+        {
+            if ( attributeIndex == header.classIndex( ) ) continue;
+
+            String key = csvField( header.attribute( attributeIndex ).name( ) );
+            appendCsv( csv, "attribute", key, "values", header.attribute( attributeIndex ).numValues( ) );
+            appendCsv( csv, "attribute", key, "splits", splitCounts[attributeIndex] );
+            appendCsv( csv, "attribute", key, "statistics_bytes", attributeBytes[attributeIndex] );
+            appendCsv( csv, "attribute", key, "alternative_statistics_bytes", alternativeAttributeBytes[attributeIndex] );
+        }
+        appendCsv( csv, "attribute", "(node)", "statistics_bytes", getNodeStatisticsBytes( ) );
+
+        return csv.toString( );
+    }
+
+    private static void appendCsv( StringBuilder csv, String section, String key, String metric, long value )
+    {
+        csv.append( section ).append( ',' ).append( key ).append( ',' ).append( metric ).append( ',' ).append( value ).append( '\n' );
+    }
+
+    private static String csvField( String value )
+    {
+        if ( value.indexOf( ',' ) < 0 && value.indexOf( '"' ) < 0 && value.indexOf( '\n' ) < 0 ) return value;
+        return '"' + value.replace( "\"", "\"\"" ) + '"';
+    }
+
+    /**
+     * Returns the report as text, with attributes listed from the largest to the
+     * smallest statistics.
+     */
+    @Override
+    public String toString( )
+    {
+        StringBuilder text = new StringBuilder( );
+
+        text.append( "Memory (bytes, 64 bit JVM with compressed pointers)\n" );
+        text.append( String.format( "  %-24s%14d  (%d nodes, %d leaves)%n", "statistics", statisticsBytes, nodeCount, leafCount ) );
+        text.append( String.format( "  %-24s%14d%n", "structure", structureBytes ) );
+        text.append( String.format( "  %-24s%14d  (%d trees, %d nodes)%n", "alternative statistics", alternativeStatisticsBytes, alternativeTreeCount, alternativeNodeCount ) );
+        text.append( String.format( "  %-24s%14d%n", "alternative structure", alternativeStructureBytes ) );
+        text.append( String.format( "  %-24s%14d%s%n", "window", windowBytes, windowMapped ? "  (memory mapped)" : "" ) );
+        text.append( String.format( "  %-24s%14d%n", "flat tree", flatTreeBytes ) );
+        text.append( String.format( "  %-24s%14d%n", "total (heap)", getTotalBytes( ) ) );
+
+        text.append( String.format( "%nBy depth%n  %5s %10s %10s %14s %14s %10s %14s%n", "depth", "nodes", "leaves", "statistics", "structure", "alt nodes", "alt bytes" ) );
+        for ( int depth = 0; depth < depths.size( ); depth++ )
+        {
+            text.append( String.format( "  %5d %10d %10d %14d %14d %10d %14d%n", depth, getNodeCount( depth ), getLeafCount( depth ), getStatisticsBytes( depth ), getStructureBytes( depth ), getAlternativeNodeCount( depth ), getAlternativeBytes( depth ) ) );
+        }
+
+        Integer[] order = new Integer[attributeBytes.length];
+        for ( int i = 0; i < order.length; i++ )
+        {
+            order[i] = i;
+        }
+        Arrays.sort( order, new Comparator<Integer>( )
+        {
+            @Override
+            public int compare( Integer index1, Integer index2 )
+            {
+                long bytes1 = attributeBytes[index1] + alternativeAttributeBytes[index1];
+                long bytes2 = attributeBytes[index2] + alternativeAttributeBytes[index2];
+                return bytes1 < bytes2 ? 1 : bytes1 > bytes2 ? -1 : index1 - index2;
+            }
+        } );
+
+        text.append( String.format( "%nBy attribute%n  %-24s %8s %8s %14s %14s%n", "attribute", "values", "splits", "statistics", "alt statistics" ) );
+        for ( int attributeIndex : order )
+        {
+            if ( attributeIndex == header.classIndex( ) ) continue;
+
+            Attribute attribute = header.attribute( attributeIndex );
+            text.append( String.format( "  %-24s %8d %8d %14d %14d%n", attribute.name( ), attribute.numValues( ), splitCounts[attributeIndex], attributeBytes[attributeIndex], alternativeAttributeBytes[attributeIndex] ) );
+        }
+        text.append( String.format( "  %-24s %8s %8s %14d%n", "(node)", "", "", getNodeStatisticsBytes( ) ) );
+
+        return text.toString( );
+    }
+}
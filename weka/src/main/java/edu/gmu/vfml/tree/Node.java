@@ -2,6 +2,9 @@ package edu.gmu.vfml.tree;
 
 import static edu.gmu.vfml.util.InstanceUtils.getAttributes;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 import weka.core.Attribute;
@@ -44,6 +47,28 @@ public class Node implements Serializable
     protected transient int[] classCounts;
     protected transient int totalCount;
 
+    /** Index of this node in the FlatTree compiled from its tree (if any). */
+    protected transient int flatIndex;
+
+    /**
+     * Identifies this node across incremental checkpoints (0 until the node
+     * is first checkpointed).
+     * 
+     * @see TreeSnapshot
+     */
+    protected transient int checkpointId;
+
+    /**
+     * True while a checkpoint snapshot still references the count arrays of this
+     * node. The arrays are copied before they are next modified (copy-on-write).
+     */
+    protected transient boolean shared;
+
+    /**
+     * True if the counts of this node changed since they were last checkpointed.
+     */
+    protected transient boolean dirty;
+
     public Node( Attribute[] attributes, Attribute classAttribute )
     {
         this.classAttribute = classAttribute;
@@ -64,6 +89,15 @@ public class Node implements Serializable
         }
     }
 
+    /**
+     * Creates a Node without count arrays, for subclasses which store
+     * their statistics differently.
+     */
+    protected Node( Attribute classAttribute )
+    {
+        this.classAttribute = classAttribute;
+    }
+
     public Node( Instances instances, Attribute classAttribute )
     {
         this( getAttributes( instances ), classAttribute );
@@ -85,8 +119,12 @@ public class Node implements Serializable
         this.classValue = node.classValue;
         this.classCount = node.classCount;
         this.counts = node.counts;
-        this.classCount = node.classCount;
+        this.classCounts = node.classCounts;
         this.totalCount = node.totalCount;
+
+        // the copied count arrays may still be referenced by a checkpoint snapshot
+        this.shared = node.shared;
+        this.dirty = true;
     }
 
     public int getTreeSize( )
@@ -138,18 +176,16 @@ public class Node implements Serializable
      */
     protected Node getLeafNode( Node node, Instance instance )
     {
-        // this is a leaf node, so return this node
-        if ( node.getAttribute( ) == null )
+        // while this is an internal node, move to the next child based on the attribute for the node
+        Attribute attribute;
+        while ( ( attribute = node.attribute ) != null )
         {
-            return node;
-        }
-        // this is an internal node, move to the next child based on the m_Attribute for this node
-        else
-        {
-            int attributeValue = ( int ) instance.value( node.getAttribute( ) );
-            Node childNode = node.getSuccessor( attributeValue );
-            return getLeafNode( childNode, instance );
+            int attributeValue = ( int ) instance.value( attribute );
+            node = node.successors[attributeValue];
         }
+
+        // this is a leaf node, so return this node
+        return node;
     }
 
     public Attribute getClassAttribute( )
@@ -174,10 +210,29 @@ public class Node implements Serializable
 
         for ( int valueIndex = 0; valueIndex < attribute.numValues( ); valueIndex++ )
         {
-            this.successors[valueIndex] = new Node( instance, classAttribute );
+            this.successors[valueIndex] = newNode( instance );
         }
     }
 
+    /**
+     * Creates the children of this node when it is split. Subclasses
+     * override this to create children of their own type.
+     */
+    protected Node newNode( Instance instance )
+    {
+        return new Node( instance, classAttribute );
+    }
+
+    /**
+     * @return the indices of the attributes this node keeps counts for and which
+     *         may be chosen to split it, or null if all attributes (except the
+     *         class attribute) may be chosen
+     */
+    public int[] getSplitCandidates( )
+    {
+        return null;
+    }
+
     public int getNumClasses( )
     {
         return this.classAttribute.numValues( );
@@ -249,6 +304,7 @@ public class Node implements Serializable
         //XXX assumes nominal class
         int instanceClassValue = ( int ) instance.classValue( );
 
+        beforeUpdate( );
         adjustTotalCount( amount );
         adjustClassCount( instanceClassValue, amount );
 
@@ -258,6 +314,44 @@ public class Node implements Serializable
             adjustCount( attribute, instance, amount );
         }
 
+        adjustClassValue( instanceClassValue, amount );
+    }
+
+    public void incrementCounts( int[] values )
+    {
+        adjustCounts( values, 1 );
+    }
+
+    public void decrementCounts( int[] values )
+    {
+        adjustCounts( values, -1 );
+    }
+
+    /**
+     * Like {@link #adjustCounts(Instance, int)}, but for an encoded instance holding
+     * the nominal value index of each attribute (including the class attribute).
+     */
+    public void adjustCounts( int[] values, int amount )
+    {
+        int instanceClassValue = values[classAttribute.index( )];
+
+        beforeUpdate( );
+        adjustTotalCount( amount );
+        adjustClassCount( instanceClassValue, amount );
+
+        for ( int i = 0; i < values.length; i++ )
+        {
+            adjustCount( i, values[i], instanceClassValue, amount );
+        }
+
+        adjustClassValue( instanceClassValue, amount );
+    }
+
+    /**
+     * Updates classValue and classCount after the count of the provided class changed.
+     */
+    protected void adjustClassValue( int instanceClassValue, int amount )
+    {
         // update classValue and classCount
         int instanceClassCount = getCount( instanceClassValue );
 
@@ -267,7 +361,7 @@ public class Node implements Serializable
         if ( amount > 0 && instanceClassCount > classCount )
         {
             classCount = instanceClassCount;
-            classValue = instance.value( classAttribute );
+            classValue = instanceClassValue;
         }
         // if we decremented the current leading class, make sure it's
         // still the leading class
@@ -296,6 +390,156 @@ public class Node implements Serializable
         classValue = maxIndex;
     }
 
+    /**
+     * Called before the counts of this node are modified. Copies the count arrays if
+     * they are referenced by a checkpoint snapshot and marks the node as changed.
+     */
+    protected void beforeUpdate( )
+    {
+        if ( shared )
+        {
+            copyCounts( );
+            shared = false;
+        }
+
+        dirty = true;
+    }
+
+    /**
+     * Replaces the count arrays of this node with copies.
+     */
+    protected void copyCounts( )
+    {
+        counts = TreeSnapshot.copy( counts );
+        classCounts = classCounts.clone( );
+    }
+
+    /**
+     * Marks the count arrays of this node as shared with a checkpoint snapshot.
+     * 
+     * @return the count arrays of this node (which will not be modified by this node
+     *         until they have been copied)
+     */
+    protected Object[] shareCounts( )
+    {
+        shared = true;
+        dirty = false;
+        return new Object[] { counts, classCounts };
+    }
+
+    /**
+     * Writes count arrays previously returned by {@link #shareCounts()}.
+     */
+    protected void writeCounts( DataOutput out, Object[] arrays ) throws IOException
+    {
+        TreeSnapshot.write( out, ( int[][][] ) arrays[0] );
+        TreeSnapshot.write( out, ( int[] ) arrays[1] );
+    }
+
+    /**
+     * Reads count arrays written by {@link #writeCounts(DataOutput, Object[])}.
+     */
+    protected void readCounts( DataInput in ) throws IOException
+    {
+        counts = TreeSnapshot.readIntArray3( in );
+        classCounts = TreeSnapshot.readIntArray( in );
+    }
+
+    /**
+     * Takes over the count arrays of the provided node of the same type (used when
+     * an incremental checkpoint does not contain the counts of a node).
+     */
+    protected void takeCounts( Node node )
+    {
+        counts = node.counts;
+        classCounts = node.classCounts;
+    }
+
+    /**
+     * Writes the scalar state of this node (everything except the tree structure
+     * and count arrays) to a checkpoint.
+     */
+    protected void writeState( DataOutput out ) throws IOException
+    {
+        out.writeDouble( classValue );
+        out.writeInt( classCount );
+        out.writeInt( totalCount );
+    }
+
+    /**
+     * @see #writeState(DataOutput)
+     */
+    protected void readState( DataInput in ) throws IOException
+    {
+        classValue = in.readDouble( );
+        classCount = in.readInt( );
+        totalCount = in.readInt( );
+    }
+
+    /**
+     * Creates a node of the same type as this node without count arrays, to be
+     * filled in from a checkpoint.
+     */
+    protected Node newEmptyNode( )
+    {
+        return new Node( classAttribute );
+    }
+
+    /**
+     * Estimates the bytes used by the statistics of this node (assuming a 64 bit
+     * JVM with compressed object pointers).
+     */
+    public long estimateStatisticsBytes( )
+    {
+        return measureStatistics( null );
+    }
+
+    /**
+     * Measures the bytes used by the statistics of this node (assuming a 64 bit
+     * JVM with compressed object pointers).
+     *
+     * @param attributeBytes if not null, receives the bytes used by the counts of
+     *        each attribute (indexed by attribute index)
+     * @return the bytes used by all the statistics of this node, including those
+     *         which do not belong to an attribute (such as the class counts)
+     * @see MemoryReport
+     */
+    protected long measureStatistics( long[] attributeBytes )
+    {
+        long bytes = arrayBytes( classCounts.length, 4 ) + arrayBytes( counts.length, 4 );
+        for ( int attributeIndex = 0; attributeIndex < counts.length; attributeIndex++ )
+        {
+            int[][] values = counts[attributeIndex];
+            if ( values == null ) continue;
+
+            long valueBytes = arrayBytes( values.length, 4 );
+            for ( int[] classes : values )
+            {
+                valueBytes += arrayBytes( classes.length, 4 );
+            }
+
+            bytes += valueBytes;
+            if ( attributeBytes != null ) attributeBytes[attributeIndex] += valueBytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Measures the bytes used by this node object and the arrays linking it to
+     * other nodes, excluding its statistics and the nodes it links to.
+     */
+    protected long measureStructure( )
+    {
+        long bytes = MemoryReport.shallowBytes( getClass( ) );
+        if ( successors != null ) bytes += arrayBytes( successors.length, 4 );
+        return bytes;
+    }
+
+    protected static long arrayBytes( int length, int elementBytes )
+    {
+        return ( 16 + ( long ) length * elementBytes + 7 ) & ~7L;
+    }
+
     protected void adjustTotalCount( int amount )
     {
         totalCount += amount;
@@ -0,0 +1,412 @@
+package edu.gmu.vfml.tree;
+
+import java.io.IOException;
+import java.util.PriorityQueue;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import edu.gmu.vfml.data.EncodedSource;
+
+/**
+ * <p>Reduced error pruning of a learned tree against held out instances (a port of
+ * VFDTREPrune from vfdt-engine.c). The pruner works on a copy of the tree's structure
+ * without statistics, so the learner keeps growing its own tree, and produces a
+ * smaller copy for serving (see {@link FlatTree#compile(Node)} and
+ * {@link MappedTreeModel}).</p>
+ *
+ * <p>Held out instances are streamed through the copy once: every node on an
+ * instance's path counts an error when its class (the majority class of the training
+ * instances which reached it) is not the instance's class, so a node's count is the
+ * number of errors it would make as a leaf. The error delta of an internal node is
+ * its own count minus the counts of the leaves below it. {@link #prune()} then
+ * repeatedly turns the internal node with the smallest delta into a leaf, as long as
+ * that delta is not positive (ties go to the node nearest the root), and subtracts
+ * the delta from the deltas of the node's ancestors. Deltas only grow as subtrees are
+ * collapsed, so candidates are kept in a priority queue and stale entries are
+ * re-queued with their current delta when they come up.</p>
+ *
+ * <p>Instances with a missing class, or a missing value of an attribute tested on
+ * their path, are skipped.</p>
+ *
+ * @see weka.classifiers.trees.VFDT#getPrunedTree(EncodedSource)
+ * @author ulman
+ */
+public class ReducedErrorPruner
+{
+    public static final int BLOCK_SIZE = 4096;
+
+    /**
+     * An internal node queued for pruning with its delta at the time it was queued.
+     */
+    private static class Candidate implements Comparable<Candidate>
+    {
+        final long delta;
+        final int index;
+
+        Candidate( long delta, int index )
+        {
+            this.delta = delta;
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo( Candidate other )
+        {
+            if ( delta != other.delta ) return delta < other.delta ? -1 : 1;
+            return index < other.index ? -1 : index == other.index ? 0 : 1;
+        }
+    }
+
+    protected final Node root;
+    protected final FlatTree tree;
+    protected final Node[] nodes;
+    protected final int classIndex;
+
+    /** The errors of each node (by FlatTree index) as a leaf. */
+    protected final long[] errors;
+
+    /** The nodes on the path of the current instance. */
+    protected final int[] path;
+
+    protected long numInstances;
+    protected long numSkipped;
+    protected boolean pruned;
+
+    protected int numPrunedNodes;
+    protected long errorsBefore;
+    protected long errorsAfter;
+
+    /**
+     * @param root the tree to prune (not modified)
+     */
+    public ReducedErrorPruner( Node root )
+    {
+        this.root = copy( root );
+        this.classIndex = root.getClassAttribute( ).index( );
+
+        // the copy is laid out breadth first, so ancestors come before descendants
+        this.tree = FlatTree.compile( this.root, true );
+        this.nodes = new Node[tree.size( )];
+        this.errors = new long[tree.size( )];
+
+        int maxDepth = index( this.root, 1 );
+        this.path = new int[maxDepth];
+    }
+
+    /**
+     * Copies the structure and classes of a tree, without statistics.
+     */
+    protected static Node copy( Node node )
+    {
+        Node copy = new Node( node.getClassAttribute( ) );
+        copy.attribute = node.attribute;
+        copy.classValue = node.classValue;
+        copy.classCount = node.classCount;
+
+        if ( node.attribute != null )
+        {
+            copy.successors = new Node[node.successors.length];
+            for ( int i = 0 ; i < node.successors.length ; i++ )
+            {
+                copy.successors[i] = copy( node.successors[i] );
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Records the nodes of the copy by FlatTree index.
+     *
+     * @return the depth of the deepest leaf below node
+     */
+    private int index( Node node, int depth )
+    {
+        nodes[node.flatIndex] = node;
+        if ( node.attribute == null ) return depth;
+
+        int maxDepth = depth;
+        for ( Node successor : node.successors )
+        {
+            maxDepth = Math.max( maxDepth, index( successor, depth + 1 ) );
+        }
+        return maxDepth;
+    }
+
+    /**
+     * Counts the errors of the nodes on the path of an encoded instance (the value
+     * index of every attribute, in attribute order, -1 if missing).
+     *
+     * @return false if the instance was skipped because of a missing value
+     */
+    public boolean add( int[] values, int offset )
+    {
+        checkNotPruned( );
+
+        int instanceClass = values[offset + classIndex];
+        int length = 0;
+        int index = 0;
+        if ( instanceClass >= 0 )
+        {
+            while ( true )
+            {
+                path[length++] = index;
+                int attributeIndex = tree.getAttribute( index );
+                if ( attributeIndex < 0 ) break;
+
+                int value = values[offset + attributeIndex];
+                if ( value < 0 )
+                {
+                    length = 0;
+                    break;
+                }
+                index = tree.getChild( index, value );
+            }
+        }
+
+        if ( length == 0 )
+        {
+            numSkipped++;
+            return false;
+        }
+
+        for ( int i = 0 ; i < length ; i++ )
+        {
+            int node = path[i];
+            if ( tree.getClassIndex( node ) != instanceClass ) errors[node]++;
+        }
+
+        numInstances++;
+        return true;
+    }
+
+    /**
+     * Counts the errors of the nodes on the path of an instance.
+     *
+     * @return false if the instance was skipped because of a missing value
+     */
+    public boolean add( Instance instance )
+    {
+        checkNotPruned( );
+
+        int length = 0;
+        int index = 0;
+        if ( !instance.isMissing( classIndex ) )
+        {
+            while ( true )
+            {
+                path[length++] = index;
+                int attributeIndex = tree.getAttribute( index );
+                if ( attributeIndex < 0 ) break;
+
+                if ( instance.isMissing( attributeIndex ) )
+                {
+                    length = 0;
+                    break;
+                }
+                index = tree.getChild( index, ( int ) instance.value( attributeIndex ) );
+            }
+        }
+
+        if ( length == 0 )
+        {
+            numSkipped++;
+            return false;
+        }
+
+        int instanceClass = ( int ) instance.value( classIndex );
+        for ( int i = 0 ; i < length ; i++ )
+        {
+            int node = path[i];
+            if ( tree.getClassIndex( node ) != instanceClass ) errors[node]++;
+        }
+
+        numInstances++;
+        return true;
+    }
+
+    public void addAll( Instances instances )
+    {
+        for ( int i = 0 ; i < instances.numInstances( ) ; i++ )
+        {
+            add( instances.instance( i ) );
+        }
+    }
+
+    /**
+     * Streams a pass of the source (from its first instance) through the tree, in
+     * blocks of {@link #BLOCK_SIZE} instances.
+     */
+    public void addAll( EncodedSource source ) throws IOException
+    {
+        int stride = source.getStride( );
+        int[] values = new int[BLOCK_SIZE * stride];
+
+        source.rewind( );
+        int count;
+        do
+        {
+            count = source.read( values, BLOCK_SIZE );
+            for ( int i = 0 ; i < count ; i++ )
+            {
+                add( values, i * stride );
+            }
+        }
+        while ( count == BLOCK_SIZE );
+    }
+
+    /**
+     * Prunes the copy of the tree against the instances added so far. May be
+     * called once.
+     *
+     * @return the root of the pruned copy (which has no statistics and cannot learn)
+     */
+    public Node prune( )
+    {
+        checkNotPruned( );
+        pruned = true;
+
+        int size = tree.size( );
+        long[] subtreeErrors = new long[size];
+        long[] delta = new long[size];
+        int[] parent = new int[size];
+        parent[0] = -1;
+
+        // children come after their parents, so visit the nodes backward
+        for ( int index = size - 1 ; index >= 0 ; index-- )
+        {
+            if ( tree.isLeaf( index ) )
+            {
+                subtreeErrors[index] = errors[index];
+                continue;
+            }
+
+            int numValues = nodes[index].attribute.numValues( );
+            long sum = 0;
+            for ( int value = 0 ; value < numValues ; value++ )
+            {
+                int child = tree.getChild( index, value );
+                parent[child] = index;
+                sum += subtreeErrors[child];
+            }
+            subtreeErrors[index] = sum;
+            delta[index] = errors[index] - sum;
+        }
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>( );
+        for ( int index = 0 ; index < size ; index++ )
+        {
+            if ( !tree.isLeaf( index ) && delta[index] <= 0 )
+            {
+                queue.add( new Candidate( delta[index], index ) );
+            }
+        }
+
+        errorsBefore = subtreeErrors[0];
+        errorsAfter = errorsBefore;
+        boolean[] removed = new boolean[size];
+
+        Candidate candidate;
+        while ( ( candidate = queue.poll( ) ) != null )
+        {
+            int index = candidate.index;
+            if ( removed[index] ) continue;
+
+            // the delta grew since the node was queued
+            if ( candidate.delta != delta[index] )
+            {
+                if ( delta[index] <= 0 ) queue.add( new Candidate( delta[index], index ) );
+                continue;
+            }
+
+            long change = delta[index];
+            for ( int ancestor = parent[index] ; ancestor >= 0 ; ancestor = parent[ancestor] )
+            {
+                delta[ancestor] -= change;
+            }
+            errorsAfter += change;
+
+            Node node = nodes[index];
+            for ( int value = 0 ; value < node.successors.length ; value++ )
+            {
+                removeSubtree( tree.getChild( index, value ), removed );
+            }
+            node.attribute = null;
+            node.successors = null;
+        }
+
+        return root;
+    }
+
+    /**
+     * Marks the node and its descendants as removed.
+     */
+    private void removeSubtree( int index, boolean[] removed )
+    {
+        removed[index] = true;
+        numPrunedNodes++;
+        if ( tree.isLeaf( index ) ) return;
+
+        int numValues = nodes[index].attribute.numValues( );
+        for ( int value = 0 ; value < numValues ; value++ )
+        {
+            removeSubtree( tree.getChild( index, value ), removed );
+        }
+    }
+
+    private void checkNotPruned( )
+    {
+        if ( pruned )
+        {
+            throw new IllegalStateException( "ReducedErrorPruner: already pruned." );
+        }
+    }
+
+    /**
+     * @return the number of held out instances counted
+     */
+    public long getNumInstances( )
+    {
+        return numInstances;
+    }
+
+    /**
+     * @return the number of held out instances skipped because of missing values
+     */
+    public long getNumSkipped( )
+    {
+        return numSkipped;
+    }
+
+    /**
+     * @return the number of nodes of the tree before pruning
+     */
+    public int getNodesBefore( )
+    {
+        return tree.size( );
+    }
+
+    /**
+     * @return the number of nodes of the pruned tree (only known after {@link #prune()})
+     */
+    public int getNodesAfter( )
+    {
+        return tree.size( ) - numPrunedNodes;
+    }
+
+    /**
+     * @return the held out errors of the tree before pruning (only known after {@link #prune()})
+     */
+    public long getErrorsBefore( )
+    {
+        return errorsBefore;
+    }
+
+    /**
+     * @return the held out errors of the pruned tree (only known after {@link #prune()})
+     */
+    public long getErrorsAfter( )
+    {
+        return errorsAfter;
+    }
+}
@@ -0,0 +1,185 @@
+package edu.gmu.vfml.tree;
+
+import static edu.gmu.vfml.util.InstanceUtils.getAttributes;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>A Node which only keeps counts for a random subset of the attributes and may
+ * only be split on one of them (as in a random forest). Each node draws its own
+ * subset when it is created, so the memory used by the counts of a node and the cost
+ * of checking it for splits shrink in proportion to the size of the subset.</p>
+ *
+ * @see weka.classifiers.trees.SubspaceVFDT
+ * @author ulman
+ */
+public class SubspaceNode extends Node
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Sorted indices of the attributes this node keeps counts for. */
+    protected int[] candidates;
+
+    protected int subspaceSize;
+
+    /** Source of the attribute subsets (shared by all the nodes of a tree). */
+    protected Random random;
+
+    /**
+     * @param subspaceSize the number of (non class) attributes to keep counts for
+     * @param random the source of the attribute subset
+     */
+    public SubspaceNode( Attribute[] attributes, Attribute classAttribute, int subspaceSize, Random random )
+    {
+        super( classAttribute );
+        this.subspaceSize = subspaceSize;
+        this.random = random;
+
+        int numClasses = classAttribute.numValues( );
+        this.candidates = chooseCandidates( attributes.length, classAttribute.index( ), subspaceSize, random );
+        this.classCounts = new int[numClasses];
+
+        // only the candidate attributes have counts
+        this.counts = new int[attributes.length][][];
+        for ( int attributeIndex : candidates )
+        {
+            this.counts[attributeIndex] = new int[attributes[attributeIndex].numValues( )][numClasses];
+        }
+    }
+
+    /**
+     * @see Node#Node(Attribute)
+     */
+    protected SubspaceNode( Attribute classAttribute, int subspaceSize, Random random )
+    {
+        super( classAttribute );
+        this.subspaceSize = subspaceSize;
+        this.random = random;
+    }
+
+    public SubspaceNode( Instances instances, Attribute classAttribute, int subspaceSize, Random random )
+    {
+        this( getAttributes( instances ), classAttribute, subspaceSize, random );
+    }
+
+    public SubspaceNode( Instance instance, Attribute classAttribute, int subspaceSize, Random random )
+    {
+        this( getAttributes( instance ), classAttribute, subspaceSize, random );
+    }
+
+    /**
+     * Draws a sorted random subset of the attribute indices, excluding the class index.
+     */
+    protected static int[] chooseCandidates( int numAttributes, int classIndex, int subspaceSize, Random random )
+    {
+        int[] indices = new int[numAttributes - 1];
+        for ( int i = 0, j = 0; i < numAttributes; i++ )
+        {
+            if ( i != classIndex ) indices[j++] = i;
+        }
+
+        // partial Fisher-Yates shuffle
+        int size = Math.min( subspaceSize, indices.length );
+        for ( int i = 0; i < size; i++ )
+        {
+            int j = i + random.nextInt( indices.length - i );
+            int swap = indices[i];
+            indices[i] = indices[j];
+            indices[j] = swap;
+        }
+
+        int[] candidates = Arrays.copyOf( indices, size );
+        Arrays.sort( candidates );
+        return candidates;
+    }
+
+    @Override
+    protected Node newNode( Instance instance )
+    {
+        return new SubspaceNode( instance, classAttribute, subspaceSize, random );
+    }
+
+    @Override
+    public void copyNode( Node node )
+    {
+        super.copyNode( node );
+
+        if ( node instanceof SubspaceNode )
+        {
+            SubspaceNode snode = ( SubspaceNode ) node;
+
+            this.candidates = snode.candidates;
+            this.subspaceSize = snode.subspaceSize;
+            this.random = snode.random;
+        }
+    }
+
+    @Override
+    protected Node newEmptyNode( )
+    {
+        return new SubspaceNode( classAttribute, subspaceSize, random );
+    }
+
+    @Override
+    protected void writeState( DataOutput out ) throws IOException
+    {
+        super.writeState( out );
+        TreeSnapshot.write( out, candidates );
+    }
+
+    @Override
+    protected void readState( DataInput in ) throws IOException
+    {
+        super.readState( in );
+        candidates = TreeSnapshot.readIntArray( in );
+    }
+
+    @Override
+    public int[] getSplitCandidates( )
+    {
+        return candidates;
+    }
+
+    @Override
+    public void adjustCounts( Instance instance, int amount )
+    {
+        //XXX assumes nominal class
+        int instanceClassValue = ( int ) instance.classValue( );
+
+        beforeUpdate( );
+        adjustTotalCount( amount );
+        adjustClassCount( instanceClassValue, amount );
+
+        for ( int attributeIndex : candidates )
+        {
+            adjustCount( attributeIndex, ( int ) instance.value( attributeIndex ), instanceClassValue, amount );
+        }
+
+        adjustClassValue( instanceClassValue, amount );
+    }
+
+    @Override
+    public void adjustCounts( int[] values, int amount )
+    {
+        int instanceClassValue = values[classAttribute.index( )];
+
+        beforeUpdate( );
+        adjustTotalCount( amount );
+        adjustClassCount( instanceClassValue, amount );
+
+        for ( int attributeIndex : candidates )
+        {
+            adjustCount( attributeIndex, values[attributeIndex], instanceClassValue, amount );
+        }
+
+        adjustClassValue( instanceClassValue, amount );
+    }
+}
@@ -1,5 +1,9 @@
 package edu.gmu.vfml.tree;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 /**
  * A helper class used to keep track of test statistics for alternative trees in CVFDT.
  * 
@@ -79,4 +83,22 @@ public class TestStats
     {
         return 1.0 - (double) correctCount / (double) totalCount;
     }
+
+    protected void write( DataOutput out ) throws IOException
+    {
+        out.writeInt( totalCount );
+        out.writeInt( correctCount );
+        out.writeDouble( bestErrorDiff );
+        out.writeBoolean( isNew );
+    }
+
+    protected static TestStats read( DataInput in ) throws IOException
+    {
+        TestStats stats = new TestStats( );
+        stats.totalCount = in.readInt( );
+        stats.correctCount = in.readInt( );
+        stats.bestErrorDiff = in.readDouble( );
+        stats.isNew = in.readBoolean( );
+        return stats;
+    }
 }
@@ -0,0 +1,422 @@
+package edu.gmu.vfml.tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.JavaFileObject.Kind;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * <p>Generates Java source for a {@link CompiledTreeClassifier} which hard codes the
+ * structure of a {@link FlatTree} as nested switch statements over attribute values,
+ * then compiles and loads the class in-process using {@code javax.tools}.</p>
+ *
+ * <p>To stay under the JVM's per-method bytecode limit, the size of each generated
+ * method is budgeted by the number of {@code case} arms it contains: subtrees which
+ * do not fit in the current method are moved into methods of their own, and the
+ * switch of a node with more values than {@code maxCasesPerMethod} (an attribute
+ * with thousands of values, for example) is split across several methods, each
+ * covering a range of values.</p>
+ *
+ * <p>Compilation requires a JDK (the system Java compiler is not available on a
+ * plain JRE). The generated classes are compiled against, and loaded by, the class
+ * loader which loaded this library, so that it also works when the library is not
+ * on the application class path (in a container or a plugin).</p>
+ *
+ * @author ulman
+ */
+public class TreeCompiler
+{
+    public static final String PACKAGE = "edu.gmu.vfml.tree.generated";
+
+    private static final AtomicInteger classCounter = new AtomicInteger( );
+
+    /**
+     * The number of switch cases (one per value of each inlined node) emitted into a
+     * single generated method. Each case compiles to at most a few bytes of bytecode
+     * plus a switch table entry, so the default keeps methods well under 64KB.
+     */
+    protected int maxCasesPerMethod = 2048;
+
+    public int getMaxCasesPerMethod( )
+    {
+        return maxCasesPerMethod;
+    }
+
+    public void setMaxCasesPerMethod( int maxCasesPerMethod )
+    {
+        this.maxCasesPerMethod = Math.max( 1, maxCasesPerMethod );
+    }
+
+    /**
+     * Generates, compiles and instantiates a classifier for the provided tree.
+     *
+     * @param tree the tree to compile (must not be modified during compilation)
+     * @param header the data set header the tree was learned from
+     * @return a new classifier equivalent to the tree
+     * @throws Exception if the system Java compiler is unavailable or compilation fails
+     */
+    public CompiledTreeClassifier compile( FlatTree tree, Instances header ) throws Exception
+    {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler( );
+        if ( compiler == null )
+        {
+            throw new IllegalStateException( "TreeCompiler: no system Java compiler available (a JDK is required)." );
+        }
+
+        String className = "GeneratedTree" + classCounter.incrementAndGet( );
+        String qualifiedName = PACKAGE + "." + className;
+        String source = generateSource( className, tree, header );
+
+        StandardJavaFileManager standardManager = compiler.getStandardFileManager( null, null, null );
+        MemoryFileManager fileManager = new MemoryFileManager( standardManager );
+        StringWriter diagnostics = new StringWriter( );
+        try
+        {
+            JavaFileObject sourceFile = new SourceFile( qualifiedName, source );
+            Iterable<String> options = Arrays.asList( "-classpath", getClassPath( ) );
+            boolean success = compiler.getTask( diagnostics, fileManager, null, options, null, Arrays.asList( sourceFile ) ).call( );
+            if ( !success )
+            {
+                throw new IllegalStateException( "TreeCompiler: compilation of generated tree failed.\n" + diagnostics );
+            }
+        }
+        finally
+        {
+            fileManager.close( );
+        }
+
+        ClassLoader loader = new MemoryClassLoader( fileManager.classes, CompiledTreeClassifier.class.getClassLoader( ) );
+        Class<?> compiledClass = loader.loadClass( qualifiedName );
+        return ( CompiledTreeClassifier ) compiledClass.newInstance( );
+    }
+
+    /**
+     * @return the class path the generated classes are compiled against: the
+     *         locations the class loader of {@link CompiledTreeClassifier} (and its
+     *         parents) load classes from, and the locations of the classes the
+     *         generated source refers to
+     */
+    protected static String getClassPath( )
+    {
+        Set<String> entries = new LinkedHashSet<String>( );
+        for ( ClassLoader loader = CompiledTreeClassifier.class.getClassLoader( ); loader != null; loader = loader.getParent( ) )
+        {
+            if ( loader instanceof URLClassLoader )
+            {
+                for ( URL url : ( ( URLClassLoader ) loader ).getURLs( ) )
+                {
+                    addClassPathEntry( entries, url );
+                }
+            }
+        }
+
+        // class loaders which do not expose their locations (such as the application
+        // class loader of recent JVMs) still record where each class came from
+        for ( Class<?> referenced : new Class<?>[] { CompiledTreeClassifier.class, Instance.class } )
+        {
+            CodeSource source = referenced.getProtectionDomain( ).getCodeSource( );
+            if ( source != null && source.getLocation( ) != null )
+            {
+                addClassPathEntry( entries, source.getLocation( ) );
+            }
+        }
+
+        StringBuilder classPath = new StringBuilder( );
+        for ( String entry : entries )
+        {
+            if ( classPath.length( ) > 0 ) classPath.append( File.pathSeparatorChar );
+            classPath.append( entry );
+        }
+        return classPath.toString( );
+    }
+
+    private static void addClassPathEntry( Set<String> entries, URL url )
+    {
+        // javac only reads directories and archives from the file system
+        if ( !"file".equals( url.getProtocol( ) ) ) return;
+        try
+        {
+            entries.add( new File( url.toURI( ) ).getPath( ) );
+        }
+        catch ( URISyntaxException e )
+        {
+            entries.add( url.getPath( ) );
+        }
+    }
+
+    /**
+     * Generates the source of a {@link CompiledTreeClassifier} subclass for the provided tree.
+     */
+    public String generateSource( String className, FlatTree tree, Instances header )
+    {
+        StringBuilder out = new StringBuilder( );
+
+        out.append( "package " ).append( PACKAGE ).append( ";\n\n" );
+        out.append( "public final class " ).append( className ).append( " extends " ).append( CompiledTreeClassifier.class.getName( ) ).append( "\n{\n" );
+        out.append( "    private static final long serialVersionUID = 1L;\n\n" );
+        out.append( "    public " ).append( className ).append( "( )\n    {\n" );
+        out.append( "        super( " ).append( header.classAttribute( ).numValues( ) ).append( " );\n    }\n\n" );
+
+        out.append( "    public int classify( weka.core.Instance i )\n    {\n        return i0( i );\n    }\n\n" );
+        out.append( "    public int classify( int[] v, int o )\n    {\n        return e0( v, o );\n    }\n" );
+
+        // each method inlines a bounded part of the tree, larger subtrees are
+        // deferred to methods of their own named after their root's index (and,
+        // for the parts of a split switch, the range of values they cover)
+        LinkedList<int[]> methods = new LinkedList<int[]>( );
+        methods.add( new int[] { 0, -1 } );
+        while ( !methods.isEmpty( ) )
+        {
+            int[] method = methods.removeFirst( );
+            String name = methodName( method[0], method[1] );
+
+            out.append( "\n    private static int i" ).append( name ).append( "( weka.core.Instance i )\n    {\n" );
+            generateMethod( out, tree, header, method[0], method[1], "(int) i.value( %d )", "i%s( i )", null );
+            out.append( "    }\n" );
+
+            out.append( "\n    private static int e" ).append( name ).append( "( int[] v, int o )\n    {\n" );
+            generateMethod( out, tree, header, method[0], method[1], "v[o + %d]", "e%s( v, o )", methods );
+            out.append( "    }\n" );
+        }
+
+        out.append( "}\n" );
+
+        return out.toString( );
+    }
+
+    private static String methodName( int index, int part )
+    {
+        return part < 0 ? String.valueOf( index ) : index + "_" + part;
+    }
+
+    /**
+     * Appends the body of a generated method.
+     *
+     * @param index the index of the node at the root of the method
+     * @param part -1 if the method classifies the whole subtree rooted at index,
+     *        otherwise the part of the node's split switch covered by the method
+     * @param methods receives the methods deferred from this method (or null if
+     *        they have already been recorded)
+     */
+    protected void generateMethod( StringBuilder out, FlatTree tree, Instances header, int index, int part, String valueFormat, String callFormat, LinkedList<int[]> methods )
+    {
+        int[] caseCount = new int[] { 0 };
+        if ( part < 0 )
+        {
+            generateNode( out, tree, header, index, 2, valueFormat, callFormat, caseCount, methods, true );
+        }
+        else
+        {
+            int numValues = header.attribute( tree.getAttribute( index ) ).numValues( );
+            int first = part * maxCasesPerMethod;
+            int last = Math.min( numValues, first + maxCasesPerMethod );
+            generateSwitch( out, tree, header, index, first, last, 2, valueFormat, callFormat, caseCount, methods );
+        }
+    }
+
+    /**
+     * Appends the statements classifying the subtree rooted at index.
+     *
+     * @param caseCount the number of switch cases emitted into the current method so far
+     * @param methods receives subtrees deferred to their own method (or null if
+     *        they have already been recorded)
+     * @param methodRoot true if index is the root of the current method
+     */
+    protected void generateNode( StringBuilder out, FlatTree tree, Instances header, int index, int level, String valueFormat, String callFormat, int[] caseCount, LinkedList<int[]> methods, boolean methodRoot )
+    {
+        if ( tree.isLeaf( index ) )
+        {
+            indent( out, level ).append( "return " ).append( tree.getClassIndex( index ) ).append( ";\n" );
+            return;
+        }
+
+        int attributeIndex = tree.getAttribute( index );
+        Attribute attribute = header.attribute( attributeIndex );
+        int numValues = attribute.numValues( );
+
+        // move subtrees which do not fit into the current method into their own method
+        if ( !methodRoot && caseCount[0] + numValues > maxCasesPerMethod )
+        {
+            if ( methods != null ) methods.add( new int[] { index, -1 } );
+            indent( out, level ).append( "return " ).append( String.format( callFormat, methodName( index, -1 ) ) ).append( ";\n" );
+            return;
+        }
+
+        if ( numValues <= maxCasesPerMethod )
+        {
+            generateSwitch( out, tree, header, index, 0, numValues, level, valueFormat, callFormat, caseCount, methods );
+            return;
+        }
+
+        // too many values for a single method, dispatch on the range of the value
+        // to methods which each hold the cases of one range
+        int numParts = ( numValues + maxCasesPerMethod - 1 ) / maxCasesPerMethod;
+        caseCount[0] += numParts;
+
+        indent( out, level ).append( "// " ).append( comment( attribute.name( ) ) ).append( "\n" );
+        indent( out, level ).append( "switch ( " ).append( String.format( valueFormat, attributeIndex ) ).append( " / " ).append( maxCasesPerMethod ).append( " )\n" );
+        indent( out, level ).append( "{\n" );
+        for ( int part = 0; part < numParts; part++ )
+        {
+            if ( methods != null ) methods.add( new int[] { index, part } );
+            indent( out, level + 1 ).append( "case " ).append( part ).append( ":\n" );
+            indent( out, level + 2 ).append( "return " ).append( String.format( callFormat, methodName( index, part ) ) ).append( ";\n" );
+        }
+        indent( out, level ).append( "}\n" );
+
+        // unreachable for valid attribute values, fall back to the node's majority class
+        indent( out, level ).append( "return " ).append( tree.getClassIndex( index ) ).append( ";\n" );
+    }
+
+    /**
+     * Appends a switch over the values first (inclusive) to last (exclusive) of the
+     * attribute the node at index is split on.
+     */
+    protected void generateSwitch( StringBuilder out, FlatTree tree, Instances header, int index, int first, int last, int level, String valueFormat, String callFormat, int[] caseCount, LinkedList<int[]> methods )
+    {
+        int attributeIndex = tree.getAttribute( index );
+        Attribute attribute = header.attribute( attributeIndex );
+        caseCount[0] += last - first;
+
+        indent( out, level ).append( "// " ).append( comment( attribute.name( ) ) ).append( "\n" );
+        indent( out, level ).append( "switch ( " ).append( String.format( valueFormat, attributeIndex ) ).append( " )\n" );
+        indent( out, level ).append( "{\n" );
+        for ( int valueIndex = first; valueIndex < last; valueIndex++ )
+        {
+            indent( out, level + 1 ).append( "case " ).append( valueIndex ).append( ": // " ).append( comment( attribute.value( valueIndex ) ) ).append( "\n" );
+            generateNode( out, tree, header, tree.getChild( index, valueIndex ), level + 2, valueFormat, callFormat, caseCount, methods, false );
+        }
+        indent( out, level ).append( "}\n" );
+
+        // unreachable for valid attribute values, fall back to the node's majority class
+        indent( out, level ).append( "return " ).append( tree.getClassIndex( index ) ).append( ";\n" );
+    }
+
+    private static StringBuilder indent( StringBuilder out, int level )
+    {
+        for ( int i = 0; i < level; i++ )
+        {
+            out.append( "    " );
+        }
+        return out;
+    }
+
+    private static String comment( String text )
+    {
+        // attribute names and values may contain anything, keep them from escaping the comment
+        return text.replace( '\n', ' ' ).replace( '\r', ' ' ).replace( "\\u", "\\\\u" );
+    }
+
+    /**
+     * In-memory Java source file.
+     */
+    protected static class SourceFile extends SimpleJavaFileObject
+    {
+        protected final String source;
+
+        public SourceFile( String qualifiedName, String source )
+        {
+            super( URI.create( "string:///" + qualifiedName.replace( '.', '/' ) + Kind.SOURCE.extension ), Kind.SOURCE );
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent( boolean ignoreEncodingErrors )
+        {
+            return source;
+        }
+    }
+
+    /**
+     * In-memory class file produced by the compiler.
+     */
+    protected static class ClassFile extends SimpleJavaFileObject
+    {
+        protected final ByteArrayOutputStream bytes = new ByteArrayOutputStream( );
+
+        public ClassFile( String qualifiedName )
+        {
+            super( URI.create( "bytes:///" + qualifiedName.replace( '.', '/' ) + Kind.CLASS.extension ), Kind.CLASS );
+        }
+
+        @Override
+        public OutputStream openOutputStream( )
+        {
+            return bytes;
+        }
+    }
+
+    /**
+     * Captures compiler output in memory instead of writing class files to disk.
+     */
+    protected static class MemoryFileManager extends ForwardingJavaFileManager<StandardJavaFileManager>
+    {
+        protected final Map<String, ClassFile> classes = new HashMap<String, ClassFile>( );
+
+        public MemoryFileManager( StandardJavaFileManager fileManager )
+        {
+            super( fileManager );
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput( Location location, String className, Kind kind, FileObject sibling ) throws IOException
+        {
+            ClassFile file = new ClassFile( className );
+            classes.put( className, file );
+            return file;
+        }
+    }
+
+    /**
+     * Defines classes from the bytes captured by a {@link MemoryFileManager}.
+     */
+    protected static class MemoryClassLoader extends ClassLoader
+    {
+        protected final Map<String, ClassFile> classes;
+
+        public MemoryClassLoader( Map<String, ClassFile> classes, ClassLoader parent )
+        {
+            super( parent );
+            this.classes = classes;
+        }
+
+        @Override
+        protected Class<?> findClass( String name ) throws ClassNotFoundException
+        {
+            ClassFile file = classes.get( name );
+            if ( file == null )
+            {
+                throw new ClassNotFoundException( name );
+            }
+
+            byte[] bytes = file.bytes.toByteArray( );
+            return defineClass( name, bytes, 0, bytes.length );
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package edu.gmu.vfml.tree;
+
+/**
+ * <p>Receives the structural changes of a learner's tree (see
+ * {@link weka.classifiers.trees.VFDT#addTreeListener(TreeListener)}). Listeners are
+ * called on the thread which trains the tree, immediately after the change, so they
+ * must return quickly: typically they only record which nodes changed, and read the
+ * tree later on the same thread.</p>
+ *
+ * <p>Changes to the counts of nodes (and thus to the class predicted by a leaf) are
+ * not reported.</p>
+ *
+ * @author ulman
+ */
+public interface TreeListener
+{
+    /**
+     * The tree was (re)initialized.
+     *
+     * @param root the new root of the tree
+     */
+    public void treeReset( Node root );
+
+    /**
+     * The subtree rooted at node changed: node was split, or its subtree was
+     * replaced (for example by a promoted alternative tree). Also called for the
+     * nodes of alternative trees, which are not reachable from the root.
+     */
+    public void subtreeChanged( Node node );
+}
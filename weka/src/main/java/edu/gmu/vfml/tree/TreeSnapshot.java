@@ -0,0 +1,429 @@
+package edu.gmu.vfml.tree;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import weka.core.Attribute;
+import weka.core.Instances;
+
+/**
+ * <p>A point in time copy of a tree (structure, node state and count arrays) which
+ * can be written to a checkpoint while the tree continues to learn.</p>
+ *
+ * <p>{@link #capture(Node, IdSource, boolean)} runs on the training thread and costs time
+ * proportional to the number of nodes: the structure and the scalar state of each
+ * node are serialized immediately, but count arrays are not copied. Instead they are
+ * marked as shared and the training thread copies them the next time it modifies
+ * them (copy-on-write, see {@link Node#beforeUpdate()}). The count arrays are
+ * serialized when {@link #write(DataOutput)} is called, typically on a background thread.</p>
+ *
+ * <p>Incremental snapshots only contain the count arrays of nodes whose counts changed
+ * since the previous snapshot of the tree (for VFDT, the leaves which received
+ * instances). The counts of other nodes are taken from the previous checkpoints when
+ * the tree is read back.</p>
+ *
+ * <p>Supported node types are Node, CNode, FadedCNode, AdaptiveCNode and SubspaceNode
+ * (node types which keep additional state must override the checkpoint methods of
+ * Node). The alternative subtrees of CNodes and the alternates of AdaptiveCNodes are
+ * captured with the tree.</p>
+ *
+ * @see weka.classifiers.trees.VFDT#checkpoint(java.io.File, boolean)
+ * @author ulman
+ */
+public class TreeSnapshot
+{
+    /**
+     * Assigns checkpoint ids to the nodes of a tree, which identify them across
+     * incremental checkpoints.
+     */
+    public static class IdSource
+    {
+        protected int nextId = 1;
+
+        public int getNextId( )
+        {
+            return nextId;
+        }
+
+        public void setNextId( int nextId )
+        {
+            this.nextId = nextId;
+        }
+    }
+
+    protected final IdSource ids;
+    protected final boolean incremental;
+    protected final ByteArrayOutputStream structure;
+    protected final List<Node> countNodes;
+    protected final List<Object[]> countArrays;
+
+    protected TreeSnapshot( IdSource ids, boolean incremental )
+    {
+        this.ids = ids;
+        this.incremental = incremental;
+        this.structure = new ByteArrayOutputStream( );
+        this.countNodes = new ArrayList<Node>( );
+        this.countArrays = new ArrayList<Object[]>( );
+    }
+
+    /**
+     * Captures the current state of the tree rooted at root. Must be called on
+     * the thread which trains the tree.
+     *
+     * @param ids assigns ids to nodes not yet checkpointed
+     * @param incremental if true, only the counts of nodes which changed since
+     *        the previous snapshot are included
+     * @throws IllegalArgumentException if the tree contains unsupported node types
+     */
+    public static TreeSnapshot capture( Node root, IdSource ids, boolean incremental ) throws IOException
+    {
+        TreeSnapshot snapshot = new TreeSnapshot( ids, incremental );
+        snapshot.captureNode( new DataOutputStream( snapshot.structure ), root, root.newEmptyNode( ).getClass( ) );
+        return snapshot;
+    }
+
+    /**
+     * @return true if the snapshot only contains the counts of changed nodes
+     */
+    public boolean isIncremental( )
+    {
+        return incremental;
+    }
+
+    /**
+     * @return the number of nodes whose count arrays are included in the snapshot
+     */
+    public int getCountNodes( )
+    {
+        return countNodes.size( );
+    }
+
+    protected void captureNode( DataOutput out, Node node, Class<?> nodeClass ) throws IOException
+    {
+        // node types which do not override newEmptyNode( ) keep state which is not checkpointed
+        if ( node.getClass( ) != nodeClass )
+        {
+            throw new IllegalArgumentException( "TreeSnapshot: unsupported node type " + node.getClass( ).getName( ) + "." );
+        }
+
+        boolean newNode = node.checkpointId == 0;
+        if ( newNode )
+        {
+            node.checkpointId = ids.nextId++;
+        }
+
+        boolean includeCounts = !incremental || newNode || node.dirty;
+
+        out.writeInt( node.checkpointId );
+        out.writeBoolean( includeCounts );
+        node.writeState( out );
+
+        if ( includeCounts )
+        {
+            countNodes.add( node );
+            countArrays.add( node.shareCounts( ) );
+        }
+
+        if ( node instanceof CNode )
+        {
+            CNode cnode = ( CNode ) node;
+            int altCount = cnode.getAlternativeCount( );
+            out.writeInt( altCount );
+            for ( int i = 0; i < altCount; i++ )
+            {
+                int attributeIndex = cnode.getAlternativeAttributeIndex( i );
+                out.writeInt( attributeIndex );
+                cnode.getAlternativeStats( attributeIndex ).write( out );
+                captureNode( out, cnode.getAlternativeTree( attributeIndex ), nodeClass );
+            }
+        }
+
+        if ( node instanceof AdaptiveCNode )
+        {
+            AdaptiveCNode alternate = ( ( AdaptiveCNode ) node ).getAlternate( );
+            out.writeBoolean( alternate != null );
+            if ( alternate != null )
+            {
+                captureNode( out, alternate, nodeClass );
+            }
+        }
+
+        Attribute attribute = node.getAttribute( );
+        out.writeInt( attribute == null ? -1 : attribute.index( ) );
+        if ( attribute != null )
+        {
+            for ( int valueIndex = 0; valueIndex < attribute.numValues( ); valueIndex++ )
+            {
+                captureNode( out, node.getSuccessor( valueIndex ), nodeClass );
+            }
+        }
+    }
+
+    /**
+     * Writes the snapshot. May be called on any thread, while training continues.
+     */
+    public void write( DataOutput out ) throws IOException
+    {
+        out.writeBoolean( incremental );
+        out.writeInt( structure.size( ) );
+        out.write( structure.toByteArray( ) );
+
+        for ( int i = 0; i < countNodes.size( ); i++ )
+        {
+            countNodes.get( i ).writeCounts( out, countArrays.get( i ) );
+        }
+    }
+
+    /**
+     * Reads a tree written by {@link #write(DataOutput)}.
+     *
+     * @param prototype a node of the type of the tree's nodes, used to create the nodes
+     * @param previous the nodes read from the previous checkpoint by checkpoint id (used to fill
+     *        in counts missing from incremental checkpoints), receives the nodes read
+     * @return the root of the tree
+     * @throws IOException if the checkpoint is incremental and previous does not contain
+     *         the counts of an unchanged node
+     */
+    public static Node read( DataInput in, Instances header, Node prototype, Map<Integer, Node> previous ) throws IOException
+    {
+        boolean incremental = in.readBoolean( );
+        if ( incremental && previous.isEmpty( ) )
+        {
+            throw new IOException( "TreeSnapshot: incremental checkpoint without a base checkpoint." );
+        }
+
+        // the structure length is only needed by readers which skip the tree
+        in.readInt( );
+
+        Map<Integer, Node> nodes = new HashMap<Integer, Node>( );
+        List<Node> countNodes = new ArrayList<Node>( );
+        Node root = readNode( in, header, prototype, previous, nodes, countNodes );
+
+        for ( Node node : countNodes )
+        {
+            node.readCounts( in );
+        }
+
+        previous.clear( );
+        previous.putAll( nodes );
+
+        return root;
+    }
+
+    protected static Node readNode( DataInput in, Instances header, Node prototype, Map<Integer, Node> previous, Map<Integer, Node> nodes, List<Node> countNodes ) throws IOException
+    {
+        Node node = prototype.newEmptyNode( );
+        node.checkpointId = in.readInt( );
+        boolean includeCounts = in.readBoolean( );
+        node.readState( in );
+        nodes.put( node.checkpointId, node );
+
+        if ( includeCounts )
+        {
+            countNodes.add( node );
+        }
+        else
+        {
+            Node previousNode = previous.get( node.checkpointId );
+            if ( previousNode == null )
+            {
+                throw new IOException( "TreeSnapshot: missing counts for node " + node.checkpointId + " (checkpoints out of order?)." );
+            }
+            node.takeCounts( previousNode );
+        }
+
+        if ( node instanceof CNode )
+        {
+            CNode cnode = ( CNode ) node;
+            int altCount = in.readInt( );
+            for ( int i = 0; i < altCount; i++ )
+            {
+                int attributeIndex = in.readInt( );
+                TestStats stats = TestStats.read( in );
+                CNode alt = ( CNode ) readNode( in, header, prototype, previous, nodes, countNodes );
+                cnode.addAlternativeNode( alt, stats, attributeIndex, header.numAttributes( ) );
+            }
+        }
+
+        if ( node instanceof AdaptiveCNode && in.readBoolean( ) )
+        {
+            ( ( AdaptiveCNode ) node ).alternate = ( AdaptiveCNode ) readNode( in, header, prototype, previous, nodes, countNodes );
+        }
+
+        int attributeIndex = in.readInt( );
+        if ( attributeIndex >= 0 )
+        {
+            Attribute attribute = header.attribute( attributeIndex );
+            node.attribute = attribute;
+            node.successors = node instanceof CNode ? new CNode[attribute.numValues( )] : new Node[attribute.numValues( )];
+            for ( int valueIndex = 0; valueIndex < attribute.numValues( ); valueIndex++ )
+            {
+                node.successors[valueIndex] = readNode( in, header, prototype, previous, nodes, countNodes );
+            }
+        }
+
+        return node;
+    }
+
+    /**
+     * @return the largest checkpoint id in the provided nodes
+     */
+    public static int getMaxId( Map<Integer, Node> nodes )
+    {
+        int max = 0;
+        for ( Integer id : nodes.keySet( ) )
+        {
+            max = Math.max( max, id );
+        }
+        return max;
+    }
+
+    //// array utilities ////
+
+    public static int[][][] copy( int[][][] array )
+    {
+        int[][][] copy = new int[array.length][][];
+        for ( int i = 0; i < array.length; i++ )
+        {
+            if ( array[i] == null ) continue;
+
+            copy[i] = new int[array[i].length][];
+            for ( int j = 0; j < array[i].length; j++ )
+            {
+                copy[i][j] = array[i][j].clone( );
+            }
+        }
+        return copy;
+    }
+
+    public static double[][][] copy( double[][][] array )
+    {
+        double[][][] copy = new double[array.length][][];
+        for ( int i = 0; i < array.length; i++ )
+        {
+            if ( array[i] == null ) continue;
+
+            copy[i] = new double[array[i].length][];
+            for ( int j = 0; j < array[i].length; j++ )
+            {
+                copy[i][j] = array[i][j].clone( );
+            }
+        }
+        return copy;
+    }
+
+    public static void write( DataOutput out, int[] array ) throws IOException
+    {
+        out.writeInt( array.length );
+        for ( int value : array )
+        {
+            out.writeInt( value );
+        }
+    }
+
+    public static void write( DataOutput out, double[] array ) throws IOException
+    {
+        out.writeInt( array.length );
+        for ( double value : array )
+        {
+            out.writeDouble( value );
+        }
+    }
+
+    /**
+     * Writes a possibly ragged array (null entries of the outer array are preserved).
+     */
+    public static void write( DataOutput out, int[][][] array ) throws IOException
+    {
+        out.writeInt( array.length );
+        for ( int[][] values : array )
+        {
+            out.writeInt( values == null ? -1 : values.length );
+            if ( values == null ) continue;
+
+            for ( int[] classes : values )
+            {
+                write( out, classes );
+            }
+        }
+    }
+
+    /**
+     * @see #write(DataOutput, int[][][])
+     */
+    public static void write( DataOutput out, double[][][] array ) throws IOException
+    {
+        out.writeInt( array.length );
+        for ( double[][] values : array )
+        {
+            out.writeInt( values == null ? -1 : values.length );
+            if ( values == null ) continue;
+
+            for ( double[] classes : values )
+            {
+                write( out, classes );
+            }
+        }
+    }
+
+    public static int[] readIntArray( DataInput in ) throws IOException
+    {
+        int[] array = new int[in.readInt( )];
+        for ( int i = 0; i < array.length; i++ )
+        {
+            array[i] = in.readInt( );
+        }
+        return array;
+    }
+
+    public static double[] readDoubleArray( DataInput in ) throws IOException
+    {
+        double[] array = new double[in.readInt( )];
+        for ( int i = 0; i < array.length; i++ )
+        {
+            array[i] = in.readDouble( );
+        }
+        return array;
+    }
+
+    public static int[][][] readIntArray3( DataInput in ) throws IOException
+    {
+        int[][][] array = new int[in.readInt( )][][];
+        for ( int i = 0; i < array.length; i++ )
+        {
+            int length = in.readInt( );
+            if ( length < 0 ) continue;
+
+            array[i] = new int[length][];
+            for ( int j = 0; j < length; j++ )
+            {
+                array[i][j] = readIntArray( in );
+            }
+        }
+        return array;
+    }
+
+    public static double[][][] readDoubleArray3( DataInput in ) throws IOException
+    {
+        double[][][] array = new double[in.readInt( )][][];
+        for ( int i = 0; i < array.length; i++ )
+        {
+            int length = in.readInt( );
+            if ( length < 0 ) continue;
+
+            array[i] = new double[length][];
+            for ( int j = 0; j < length; j++ )
+            {
+                array[i][j] = readDoubleArray( in );
+            }
+        }
+        return array;
+    }
+}
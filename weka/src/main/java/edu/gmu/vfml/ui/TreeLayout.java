@@ -0,0 +1,265 @@
+package edu.gmu.vfml.ui;
+
+import edu.gmu.vfml.tree.Node;
+
+/**
+ * <p>The positions and labels of the visible nodes of a tree of {@link VisualizableNode}s,
+ * in flat arrays which are not modified after the layout is built (so it can be drawn
+ * on one thread while the next layout is built on another).</p>
+ *
+ * <p>The layout is computed in two linear passes: the first measures the size and
+ * the traffic (number of instances which reached it) of every subtree, the second
+ * places the visible nodes. Leaves are spread evenly between x = -1 and x = 1 and
+ * internal nodes are centered over their successors; node y is minus its depth.
+ * Subtrees deeper than maxDepth, or which received less than minTraffic of the
+ * instances reaching the root, are collapsed into their root node.</p>
+ *
+ * @author ulman
+ */
+public class TreeLayout
+{
+    protected final long version;
+    protected final int size;
+    protected final float[] x;
+    protected final float[] y;
+    protected final int[] parents;
+    protected final String[] labels;
+    protected final boolean[] collapsed;
+    protected final int depth;
+    protected int slots;
+
+    /** The visible nodes and the tree nodes they show (used to refresh their counts). */
+    protected final VisualizableNode[] nodes;
+    protected final Node[] sources;
+
+    private TreeLayout( long version, int size, int depth )
+    {
+        this.version = version;
+        this.size = size;
+        this.depth = depth;
+        this.x = new float[size];
+        this.y = new float[size];
+        this.parents = new int[size];
+        this.labels = new String[size];
+        this.collapsed = new boolean[size];
+        this.nodes = new VisualizableNode[size];
+        this.sources = new Node[size];
+    }
+
+    /**
+     * Lays out the tree rooted at root. Also sets the positions of the visible
+     * nodes themselves.
+     *
+     * @param maxDepth the depth below which subtrees are collapsed
+     * @param minTraffic the fraction of the root's traffic below which subtrees are collapsed
+     * @param version identifies the layout (see {@link #getVersion()})
+     */
+    public static TreeLayout layout( VisualizableNode root, int maxDepth, double minTraffic, long version )
+    {
+        measure( root );
+
+        Placement placement = new Placement( maxDepth, ( long ) Math.ceil( minTraffic * root.traffic ) );
+        placement.count( root, 0 );
+
+        TreeLayout layout = new TreeLayout( version, placement.visible, placement.deepest );
+        placement.layout = layout;
+        placement.place( root, 0, -1 );
+
+        // spread the leaf slots between -1 and 1
+        layout.slots = placement.slots;
+        float scale = 2.0f / placement.slots;
+        for ( int i = 0 ; i < layout.size ; i++ )
+        {
+            layout.x[i] = -1 + ( layout.x[i] + 0.5f ) * scale;
+            layout.nodes[i].x = layout.x[i];
+            layout.nodes[i].y = layout.y[i];
+        }
+
+        return layout;
+    }
+
+    /**
+     * Computes the size and traffic of every subtree. The traffic of an internal
+     * node is the larger of its own count and the total traffic of its successors
+     * (nodes of VFDT stop counting when they split, while CVFDT keeps counting).
+     */
+    private static void measure( VisualizableNode node )
+    {
+        int size = 1;
+        long traffic = 0;
+        for ( VisualizableNode successor : node.successorArray )
+        {
+            measure( successor );
+            size += successor.subtreeSize;
+            traffic += successor.traffic;
+        }
+        node.subtreeSize = size;
+        node.traffic = Math.max( node.count, traffic );
+    }
+
+    private static class Placement
+    {
+        final int maxDepth;
+        final long minTraffic;
+        TreeLayout layout;
+        int visible;
+        int deepest;
+        int slots;
+        int next;
+
+        Placement( int maxDepth, long minTraffic )
+        {
+            this.maxDepth = maxDepth;
+            this.minTraffic = minTraffic;
+        }
+
+        boolean isCollapsed( VisualizableNode node, int depth )
+        {
+            return node.successorArray.length > 0 && ( depth >= maxDepth || node.traffic < minTraffic );
+        }
+
+        /**
+         * Counts the visible nodes (to size the layout arrays).
+         */
+        void count( VisualizableNode node, int depth )
+        {
+            visible++;
+            if ( depth > deepest ) deepest = depth;
+            if ( isCollapsed( node, depth ) ) return;
+
+            for ( VisualizableNode successor : node.successorArray )
+            {
+                count( successor, depth + 1 );
+            }
+        }
+
+        /**
+         * Assigns indices in depth first order and slot positions to the visible nodes.
+         *
+         * @return the x position (in slots) of node
+         */
+        float place( VisualizableNode node, int depth, int parent )
+        {
+            int index = next++;
+            TreeLayout layout = this.layout;
+            layout.nodes[index] = node;
+            layout.sources[index] = node.source;
+            layout.parents[index] = parent;
+            layout.y[index] = -depth;
+
+            float position;
+            if ( node.successorArray.length == 0 )
+            {
+                position = slots++;
+                layout.labels[index] = node.getText( );
+            }
+            else if ( isCollapsed( node, depth ) )
+            {
+                position = slots++;
+                layout.collapsed[index] = true;
+                layout.labels[index] = String.format( "%s (+%d nodes)", node.getText( ), node.subtreeSize - 1 );
+            }
+            else
+            {
+                VisualizableNode[] successors = node.successorArray;
+                float first = place( successors[0], depth + 1, index );
+                float last = first;
+                for ( int i = 1 ; i < successors.length ; i++ )
+                {
+                    last = place( successors[i], depth + 1, index );
+                }
+                position = ( first + last ) / 2;
+                layout.labels[index] = node.getText( );
+            }
+
+            layout.x[index] = position;
+            return position;
+        }
+    }
+
+    /**
+     * @return identifies this layout: a layout with a different version may differ
+     */
+    public long getVersion( )
+    {
+        return version;
+    }
+
+    /**
+     * @return the number of visible nodes
+     */
+    public int size( )
+    {
+        return size;
+    }
+
+    /**
+     * @return the depth of the deepest visible node
+     */
+    public int getDepth( )
+    {
+        return depth;
+    }
+
+    /**
+     * @return the horizontal distance between adjacent leaves (and collapsed subtrees)
+     */
+    public float getSpacing( )
+    {
+        return 2.0f / slots;
+    }
+
+    public float getX( int index )
+    {
+        return x[index];
+    }
+
+    public float getY( int index )
+    {
+        return y[index];
+    }
+
+    /**
+     * @return the index of the parent of the node at index, or -1 for the root
+     */
+    public int getParent( int index )
+    {
+        return parents[index];
+    }
+
+    public String getLabel( int index )
+    {
+        return labels[index];
+    }
+
+    /**
+     * @return true if the node at index stands for a collapsed subtree
+     */
+    public boolean isCollapsed( int index )
+    {
+        return collapsed[index];
+    }
+
+    /**
+     * @return the tree node shown at index
+     */
+    protected Node getSource( int index )
+    {
+        return sources[index];
+    }
+
+    /**
+     * @return true if this layout shows the same nodes, labels and collapsed
+     *         subtrees as other
+     */
+    protected boolean isSameAs( TreeLayout other )
+    {
+        if ( other == null || other.size != size ) return false;
+
+        for ( int i = 0 ; i < size ; i++ )
+        {
+            if ( nodes[i] != other.nodes[i] || collapsed[i] != other.collapsed[i] || !labels[i].equals( other.labels[i] ) ) return false;
+        }
+        return true;
+    }
+}
@@ -116,4 +116,12 @@ public class TreeVisualization implements GlimpseLayoutProvider
     {
         this.treePainter.setVisualizableNode( node );
     }
+
+    /**
+     * Displays the latest layout of the model (see {@link VisualizationModel}).
+     */
+    public void setModel( VisualizationModel model )
+    {
+        this.treePainter.setModel( model );
+    }
 }
\ No newline at end of file
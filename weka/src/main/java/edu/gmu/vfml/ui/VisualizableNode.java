@@ -1,107 +1,231 @@
 package edu.gmu.vfml.ui;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import weka.core.Attribute;
 import edu.gmu.vfml.tree.Node;
 
+/**
+ * <p>A display copy of a tree node. The copy keeps the split attribute, predicted
+ * class and count of the node rather than its label, which is only formatted when
+ * first requested (and again after the node changes).</p>
+ *
+ * <p>Copies are made on the thread which trains the tree (see {@link #copySubtree(Node)}),
+ * then owned by the thread which lays them out (see {@link TreeLayout}).</p>
+ */
 public class VisualizableNode
 {
+    private static final VisualizableNode[] NO_SUCCESSORS = new VisualizableNode[0];
+
     protected String text = null;
     protected List<VisualizableNode> successors;
-    
+
     protected float x;
     protected float y;
-    
+
+    /** The copied node (identifies the node, its fields are not read off the training thread). */
+    protected Node source;
+    protected VisualizableNode parent;
+    protected VisualizableNode[] successorArray = NO_SUCCESSORS;
+
+    /** The index of this node among the successors of its parent. */
+    protected int valueIndex = -1;
+
+    protected Attribute attribute;
+    protected Attribute classAttribute;
+    protected int classValue;
+    protected int count;
+
+    // maintained by TreeLayout
+    protected int subtreeSize = 1;
+    protected long traffic;
+
     public VisualizableNode( String text, List<VisualizableNode> successors )
     {
         this.text = text;
         this.successors = Collections.unmodifiableList( successors );
+        this.successorArray = successors.toArray( NO_SUCCESSORS );
+
+        for ( int i = 0 ; i < successorArray.length ; i++ )
+        {
+            successorArray[i].parent = this;
+            successorArray[i].valueIndex = i;
+        }
     }
-    
+
+    protected VisualizableNode( Node source )
+    {
+        this.source = source;
+        this.attribute = source.getAttribute( );
+        this.classAttribute = source.getClassAttribute( );
+        this.classValue = ( int ) source.getClassValue( );
+        this.count = source.getCount( );
+    }
+
     public float getX( )
     {
         return this.x;
     }
-    
+
     public float getY( )
     {
         return this.y;
     }
-    
+
     public void setText( String text )
     {
         this.text = text;
     }
-    
+
+    /**
+     * @return the label of the node: the attribute value leading to the node and,
+     *         for leaves, the predicted class
+     */
     public String getText( )
     {
+        if ( this.text == null )
+        {
+            this.text = formatText( );
+        }
         return this.text;
     }
-    
+
     public List<VisualizableNode> getSuccessors( )
     {
+        if ( this.successors == null )
+        {
+            this.successors = Collections.unmodifiableList( Arrays.asList( successorArray ) );
+        }
         return this.successors;
     }
-    
-    private static final void setPosition( VisualizableNode node )
+
+    public VisualizableNode getParent( )
     {
-        setPosition0( node, 0, -1, 1 );
+        return this.parent;
     }
-    
-    private static final void setPosition0( VisualizableNode node, int level, float left, float right )
+
+    public Node getSource( )
+    {
+        return this.source;
+    }
+
+    /**
+     * @return the number of nodes in the subtree rooted at this node (as of the last layout)
+     */
+    public int getSubtreeSize( )
+    {
+        return this.subtreeSize;
+    }
+
+    /**
+     * @return the number of instances which reached this subtree (as of the last layout)
+     */
+    public long getTraffic( )
     {
-        float center = ( right + left ) / 2.0f;
-        node.x = center;
-        node.y = level;
-        
-        int size = node.getSuccessors( ).size( );
-        float step = ( right - left ) / size;
-        
-        for ( int i = 0 ; i < size ; i++ )
+        return this.traffic;
+    }
+
+    protected String formatText( )
+    {
+        StringBuilder text = new StringBuilder( );
+
+        if ( parent != null && parent.attribute != null )
         {
-            float newLeft = left + step * i;
-            float newRight = left + step * (i+1);
-            int newLevel = level-1;
-            VisualizableNode successor = node.getSuccessors( ).get( i );
-            setPosition0( successor, newLevel, newLeft, newRight );
+            text.append( parent.attribute.name( ) ).append( " = " ).append( parent.attribute.value( valueIndex ) );
         }
+
+        if ( attribute == null && classAttribute != null )
+        {
+            if ( text.length( ) > 0 ) text.append( ' ' );
+            text.append( "class = " ).append( classAttribute.value( classValue ) );
+        }
+
+        return text.toString( );
     }
-    
-    public static final VisualizableNode copyTree( Node node )
+
+    /**
+     * Updates the predicted class and count of this node, read from the tree on
+     * the training thread.
+     */
+    protected void refresh( int classValue, int count )
     {
-        VisualizableNode vNode = copyTree0( node );
-        setPosition( vNode );
-        return vNode;
+        if ( classValue != this.classValue )
+        {
+            this.classValue = classValue;
+            this.text = null;
+        }
+        this.count = count;
     }
-    
-    private static final VisualizableNode copyTree0( Node node )
+
+    /**
+     * Replaces the successor at index with a new copy.
+     */
+    protected void setSuccessor( int index, VisualizableNode successor )
     {
-        List<VisualizableNode> successors = new LinkedList<VisualizableNode>( );
-        String text = "";
+        successor.parent = this;
+        successor.valueIndex = index;
+        successorArray[index] = successor;
+        successors = null;
+    }
+
+    /**
+     * Copies the structure, predicted classes and counts of the subtree rooted at
+     * node. Runs in time proportional to the size of the subtree and does not
+     * format any labels. Must be called on the thread which trains the tree.
+     */
+    public static VisualizableNode copySubtree( Node node )
+    {
+        VisualizableNode copy = new VisualizableNode( node );
 
         Attribute splitAttribute = node.getAttribute( );
-        
         if ( splitAttribute != null )
         {
             int numValues = splitAttribute.numValues( );
-            
+            copy.successorArray = new VisualizableNode[numValues];
+
             for ( int i = 0 ; i < numValues ; i++ )
             {
-                Node successor = node.getSuccessor( i );
-                VisualizableNode vSuccessor = copyTree( successor );
-                successors.add( vSuccessor );
-                vSuccessor.setText( String.format( "%s = %s %s", splitAttribute.name( ), splitAttribute.value( i ), vSuccessor.getText( ) ) );
+                VisualizableNode successor = copySubtree( node.getSuccessor( i ) );
+                successor.parent = copy;
+                successor.valueIndex = i;
+                copy.successorArray[i] = successor;
             }
         }
-        else
+
+        return copy;
+    }
+
+    /**
+     * Copies the tree rooted at node and positions its nodes (see {@link TreeLayout},
+     * without collapsing any subtrees).
+     */
+    public static final VisualizableNode copyTree( Node node )
+    {
+        VisualizableNode vNode = copySubtree( node );
+        TreeLayout.layout( vNode, Integer.MAX_VALUE, 0.0, 0 );
+        return vNode;
+    }
+
+    /**
+     * @return the nodes of the subtree rooted at node in depth first order
+     */
+    protected static List<VisualizableNode> listSubtree( VisualizableNode node )
+    {
+        List<VisualizableNode> nodes = new ArrayList<VisualizableNode>( );
+        List<VisualizableNode> stack = new ArrayList<VisualizableNode>( );
+        stack.add( node );
+        while ( !stack.isEmpty( ) )
         {
-            String classValue = node.getClassAttribute( ).value( (int) node.getClassValue( ) );
-            text = String.format( "class = %s", classValue );
+            VisualizableNode next = stack.remove( stack.size( ) - 1 );
+            nodes.add( next );
+            for ( int i = next.successorArray.length - 1 ; i >= 0 ; i-- )
+            {
+                stack.add( next.successorArray[i] );
+            }
         }
-        
-        return new VisualizableNode( text, successors );
+        return nodes;
     }
 }
@@ -0,0 +1,333 @@
+package edu.gmu.vfml.ui;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import weka.core.Attribute;
+import edu.gmu.vfml.tree.Node;
+import edu.gmu.vfml.tree.TreeListener;
+
+/**
+ * <p>Keeps a {@link TreeLayout} of a learner's tree up to date, for display while
+ * the tree learns. Register the model with the learner
+ * ({@link weka.classifiers.trees.VFDT#addTreeListener(TreeListener)}) and call
+ * {@link #update()} periodically on the thread which trains the tree.</p>
+ *
+ * <p>The work on the training thread is kept small: the listener methods only record
+ * which nodes changed, and {@link #update()} copies only the changed subtrees of the
+ * main tree (structure, predicted class and count, no labels; alternative trees are
+ * shown once they are promoted) and reads the predicted class and
+ * count of a bounded number of visible nodes, round robin. The copies are applied to
+ * a display copy of the tree and laid out (see {@link TreeLayout}) on a background
+ * thread. While the background thread is busy, updates are skipped and the changes
+ * accumulate until the next update.</p>
+ *
+ * <p>The latest layout is available from {@link #getLayout()} on any thread.</p>
+ *
+ * @author ulman
+ */
+public class VisualizationModel implements TreeListener
+{
+    /**
+     * A changed subtree, copied on the training thread.
+     */
+    protected static class Patch
+    {
+        final Node source;
+        final VisualizableNode copy;
+
+        Patch( Node source, VisualizableNode copy )
+        {
+            this.source = source;
+            this.copy = copy;
+        }
+    }
+
+    // accessed on the training thread
+    protected Node root;
+    protected boolean reset;
+    protected final Set<Node> changed = Collections.newSetFromMap( new IdentityHashMap<Node, Boolean>( ) );
+    /**
+     * The nodes of the main tree as of the last update, with their successors (null
+     * for leaves), so that changes to nodes of alternative trees, which are not
+     * reachable from the root, are not copied.
+     */
+    protected final Map<Node, Node[]> attached = new IdentityHashMap<Node, Node[]>( );
+    protected int refreshBudget = 256;
+    protected int refreshCursor;
+
+    // accessed on the layout thread
+    protected VisualizableNode displayRoot;
+    protected final Map<Node, VisualizableNode> displayNodes = new IdentityHashMap<Node, VisualizableNode>( );
+    protected long nextVersion = 1;
+
+    protected volatile int maxDepth = 12;
+    protected volatile double minTraffic = 0.001;
+    protected volatile boolean relayout;
+
+    protected volatile TreeLayout layout;
+    protected final AtomicBoolean busy = new AtomicBoolean( );
+    protected final ExecutorService executor;
+
+    /**
+     * @param root the root of the tree (further trees are reported by {@link #treeReset(Node)})
+     */
+    public VisualizationModel( Node root )
+    {
+        this.executor = Executors.newSingleThreadExecutor( new ThreadFactory( )
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "Tree visualization layout" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        treeReset( root );
+    }
+
+    @Override
+    public void treeReset( Node root )
+    {
+        this.root = root;
+        this.reset = true;
+        this.changed.clear( );
+    }
+
+    @Override
+    public void subtreeChanged( Node node )
+    {
+        if ( !reset ) changed.add( node );
+    }
+
+    /**
+     * Sends the changes since the previous update to the layout thread, unless it
+     * is still busy with the previous update. Must be called on the thread which
+     * trains the tree.
+     */
+    public void update( )
+    {
+        if ( root == null || !busy.compareAndSet( false, true ) ) return;
+
+        // copy the changed subtrees
+        final List<Patch> patches = new ArrayList<Patch>( );
+        final boolean newTree = reset;
+        if ( reset )
+        {
+            attached.clear( );
+            attach( root );
+            patches.add( new Patch( root, VisualizableNode.copySubtree( root ) ) );
+            reset = false;
+        }
+        else
+        {
+            for ( Node node : changed )
+            {
+                if ( !attached.containsKey( node ) ) continue;
+
+                detachSuccessors( node );
+                attach( node );
+                patches.add( new Patch( node, VisualizableNode.copySubtree( node ) ) );
+            }
+        }
+        changed.clear( );
+
+        // read the class and count of the next visible nodes
+        TreeLayout current = layout;
+        int refreshCount = current == null || newTree ? 0 : Math.min( refreshBudget, current.size );
+        final Node[] refreshed = new Node[refreshCount];
+        final int[] classValues = new int[refreshCount];
+        final int[] counts = new int[refreshCount];
+        for ( int i = 0; i < refreshCount; i++ )
+        {
+            if ( refreshCursor >= current.size ) refreshCursor = 0;
+
+            Node node = current.getSource( refreshCursor++ );
+            refreshed[i] = node;
+            classValues[i] = ( int ) node.getClassValue( );
+            counts[i] = node.getCount( );
+        }
+
+        executor.execute( new Runnable( )
+        {
+            @Override
+            public void run( )
+            {
+                try
+                {
+                    apply( newTree, patches, refreshed, classValues, counts );
+                }
+                finally
+                {
+                    busy.set( false );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Records the subtree rooted at node as part of the main tree.
+     */
+    private void attach( Node node )
+    {
+        Node[] successors = null;
+        Attribute attribute = node.getAttribute( );
+        if ( attribute != null )
+        {
+            successors = new Node[attribute.numValues( )];
+            for ( int valueIndex = 0; valueIndex < successors.length; valueIndex++ )
+            {
+                successors[valueIndex] = node.getSuccessor( valueIndex );
+                attach( successors[valueIndex] );
+            }
+        }
+        attached.put( node, successors );
+    }
+
+    /**
+     * Forgets the nodes below node as they were when node was last attached (its
+     * subtree may since have been replaced).
+     */
+    private void detachSuccessors( Node node )
+    {
+        Node[] successors = attached.get( node );
+        if ( successors == null ) return;
+
+        for ( Node successor : successors )
+        {
+            detachSuccessors( successor );
+            attached.remove( successor );
+        }
+    }
+
+    /**
+     * Applies an update to the display tree and publishes a new layout if the
+     * visible nodes or their labels changed. Runs on the layout thread.
+     */
+    protected void apply( boolean newTree, List<Patch> patches, Node[] refreshed, int[] classValues, int[] counts )
+    {
+        boolean changed = newTree || relayout;
+        relayout = false;
+
+        for ( Patch patch : patches )
+        {
+            if ( newTree )
+            {
+                displayNodes.clear( );
+                displayRoot = patch.copy;
+                index( patch.copy );
+                continue;
+            }
+
+            // changes to nodes no longer in the display tree (e.g. of a subtree
+            // replaced by an earlier patch of this update) are ignored
+            VisualizableNode previous = displayNodes.get( patch.source );
+            if ( previous == null ) continue;
+
+            for ( VisualizableNode node : VisualizableNode.listSubtree( previous ) )
+            {
+                displayNodes.remove( node.source );
+            }
+            index( patch.copy );
+
+            if ( previous.parent == null )
+            {
+                displayRoot = patch.copy;
+            }
+            else
+            {
+                previous.parent.setSuccessor( previous.valueIndex, patch.copy );
+            }
+            changed = true;
+        }
+
+        for ( int i = 0; i < refreshed.length; i++ )
+        {
+            VisualizableNode node = displayNodes.get( refreshed[i] );
+            if ( node != null ) node.refresh( classValues[i], counts[i] );
+        }
+
+        if ( displayRoot == null ) return;
+
+        // counts change the traffic of subtrees, and thus which are collapsed
+        TreeLayout next = TreeLayout.layout( displayRoot, maxDepth, minTraffic, nextVersion );
+        if ( changed || !next.isSameAs( layout ) )
+        {
+            nextVersion++;
+            layout = next;
+        }
+    }
+
+    private void index( VisualizableNode subtree )
+    {
+        for ( VisualizableNode node : VisualizableNode.listSubtree( subtree ) )
+        {
+            displayNodes.put( node.source, node );
+        }
+    }
+
+    /**
+     * @return the latest layout of the tree, or null before the first update was laid out
+     */
+    public TreeLayout getLayout( )
+    {
+        return layout;
+    }
+
+    /**
+     * Sets the depth below which subtrees are collapsed (12 by default), from the
+     * next update.
+     */
+    public void setMaxDepth( int maxDepth )
+    {
+        this.maxDepth = maxDepth;
+        this.relayout = true;
+    }
+
+    public int getMaxDepth( )
+    {
+        return maxDepth;
+    }
+
+    /**
+     * Sets the fraction of the instances reaching the root below which a subtree
+     * is collapsed (0.001 by default), from the next update.
+     */
+    public void setMinTraffic( double minTraffic )
+    {
+        this.minTraffic = minTraffic;
+        this.relayout = true;
+    }
+
+    public double getMinTraffic( )
+    {
+        return minTraffic;
+    }
+
+    /**
+     * Sets the maximum number of visible nodes whose class and count are read on
+     * each update (256 by default).
+     */
+    public void setRefreshBudget( int refreshBudget )
+    {
+        this.refreshBudget = refreshBudget;
+    }
+
+    /**
+     * Stops the layout thread.
+     */
+    public void close( )
+    {
+        executor.shutdown( );
+    }
+}
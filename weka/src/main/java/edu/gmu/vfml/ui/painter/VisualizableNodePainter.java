@@ -1,89 +1,228 @@
 package edu.gmu.vfml.ui.painter;
 
 import java.awt.Color;
+import java.nio.FloatBuffer;
 
 import javax.media.opengl.GL;
 
+import com.metsci.glimpse.axis.Axis1D;
 import com.metsci.glimpse.axis.Axis2D;
 import com.metsci.glimpse.context.GlimpseBounds;
 import com.metsci.glimpse.painter.base.GlimpseDataPainter2D;
 import com.metsci.glimpse.support.color.GlimpseColor;
 import com.metsci.glimpse.support.font.FontUtils;
+import com.sun.opengl.util.BufferUtil;
 import com.sun.opengl.util.j2d.TextRenderer;
 
+import edu.gmu.vfml.ui.TreeLayout;
 import edu.gmu.vfml.ui.VisualizableNode;
+import edu.gmu.vfml.ui.VisualizationModel;
 
+/**
+ * <p>Paints a {@link TreeLayout}: a point per node, a line from each node to its
+ * parent and the node labels. Collapsed subtrees are painted in gray.</p>
+ *
+ * <p>The points and lines are uploaded to vertex buffers when the layout changes
+ * and drawn with one call each per frame. Labels are drawn in a single text pass,
+ * only for the nodes inside the visible axis bounds, and only while they are
+ * spread out enough to be read (see {@link #setMinLabelSpacing(int)}).</p>
+ *
+ * @author ulman
+ */
 public class VisualizableNodePainter extends GlimpseDataPainter2D
 {
-    protected VisualizableNode node;
+    protected TreeLayout layout;
+    protected VisualizationModel model;
     protected TextRenderer textRenderer;
-    
+
+    private static final int MAX_LABEL_WIDTH = 400;
+    private static final int LINE_HEIGHT = 20;
+
+    protected int minLabelSpacing = 12;
+
+    // the layout currently in the vertex buffers (read on the rendering thread only)
+    protected TreeLayout uploaded;
+    protected int[] buffers;
+    protected FloatBuffer pointData;
+    protected FloatBuffer lineData;
+    protected int expandedCount;
+    protected int collapsedCount;
+    protected int lineVertexCount;
+
     public VisualizableNodePainter( )
     {
         this.textRenderer = new TextRenderer( FontUtils.getDefaultBold( 14.0f ) );
     }
-    
+
     public void setVisualizableNode( VisualizableNode node )
     {
-        this.node = node;
+        this.model = null;
+        this.layout = node == null ? null : TreeLayout.layout( node, Integer.MAX_VALUE, 0.0, 0 );
+    }
+
+    /**
+     * Paints the latest layout of the model on each frame.
+     */
+    public void setModel( VisualizationModel model )
+    {
+        this.model = model;
+        this.layout = null;
+    }
+
+    /**
+     * Sets the horizontal distance, in pixels, between adjacent leaves below which
+     * labels are not drawn (12 by default).
+     */
+    public void setMinLabelSpacing( int minLabelSpacing )
+    {
+        this.minLabelSpacing = minLabelSpacing;
     }
-    
+
     @Override
     public void paintTo( GL gl, GlimpseBounds bounds, Axis2D axis )
     {
-        this.textRenderer.setColor( Color.black );
-        GlimpseColor.glColor( gl, GlimpseColor.getBlack( ) );
-        gl.glPointSize( 18f );
-        gl.glLineWidth( 3.5f );
-        
-        if ( this.node != null )
+        TreeLayout layout = this.model != null ? this.model.getLayout( ) : this.layout;
+        if ( layout == null ) return;
+
+        if ( layout != this.uploaded )
         {
-            paintNode( this.node, gl, bounds, axis );
+            upload( gl, layout );
         }
+
+        paintGeometry( gl );
+        paintLabels( layout, bounds, axis );
     }
-    
-    private void paintNode( VisualizableNode node, GL gl, GlimpseBounds bounds, Axis2D axis )
+
+    /**
+     * Copies the points and lines of layout to the vertex buffers. The points of
+     * collapsed subtrees follow the points of the other nodes, so each group can
+     * be drawn in its own color.
+     */
+    protected void upload( GL gl, TreeLayout layout )
     {
-        if  ( node.getText( ) != null )
+        if ( this.buffers == null )
         {
-            this.textRenderer.beginRendering( bounds.getWidth( ), bounds.getHeight( ) );
-            try
-            {
-                int x = axis.getAxisX( ).valueToScreenPixel( node.getX( ) ) + 10;
-                int y = axis.getAxisY( ).valueToScreenPixel( node.getY( ) );
-                
-                this.textRenderer.draw( node.getText( ), x, y );
-            }
-            finally
+            this.buffers = new int[2];
+            gl.glGenBuffers( 2, this.buffers, 0 );
+        }
+
+        int size = layout.size( );
+        this.pointData = ensureCapacity( this.pointData, size * 2 );
+        this.lineData = ensureCapacity( this.lineData, Math.max( 0, size - 1 ) * 4 );
+
+        int expanded = 0;
+        for ( int i = 0 ; i < size ; i++ )
+        {
+            if ( !layout.isCollapsed( i ) ) expanded++;
+        }
+
+        int nextExpanded = 0;
+        int nextCollapsed = expanded;
+        for ( int i = 0 ; i < size ; i++ )
+        {
+            float x = layout.getX( i );
+            float y = layout.getY( i );
+
+            int point = layout.isCollapsed( i ) ? nextCollapsed++ : nextExpanded++;
+            this.pointData.put( point * 2, x );
+            this.pointData.put( point * 2 + 1, y );
+
+            int parent = layout.getParent( i );
+            if ( parent >= 0 )
             {
-                this.textRenderer.endRendering( );
+                this.lineData.put( layout.getX( parent ) ).put( layout.getY( parent ) ).put( x ).put( y );
             }
         }
-        
-        gl.glBegin( GL.GL_POINTS );
+
+        this.pointData.position( 0 ).limit( size * 2 );
+        this.lineData.flip( );
+
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, this.buffers[0] );
+        gl.glBufferData( GL.GL_ARRAY_BUFFER, this.pointData.limit( ) * BufferUtil.SIZEOF_FLOAT, this.pointData, GL.GL_STATIC_DRAW );
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, this.buffers[1] );
+        gl.glBufferData( GL.GL_ARRAY_BUFFER, this.lineData.limit( ) * BufferUtil.SIZEOF_FLOAT, this.lineData, GL.GL_STATIC_DRAW );
+        gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+
+        this.expandedCount = expanded;
+        this.collapsedCount = size - expanded;
+        this.lineVertexCount = this.lineData.limit( ) / 2;
+        this.uploaded = layout;
+    }
+
+    private static FloatBuffer ensureCapacity( FloatBuffer buffer, int capacity )
+    {
+        if ( buffer == null || buffer.capacity( ) < capacity )
+        {
+            buffer = BufferUtil.newFloatBuffer( Math.max( capacity, buffer == null ? 0 : buffer.capacity( ) * 2 ) );
+        }
+        buffer.clear( );
+        return buffer;
+    }
+
+    protected void paintGeometry( GL gl )
+    {
+        gl.glEnableClientState( GL.GL_VERTEX_ARRAY );
         try
         {
-            gl.glVertex2f( node.getX( ), node.getY( ) );
+            GlimpseColor.glColor( gl, GlimpseColor.getBlack( ) );
+            gl.glLineWidth( 3.5f );
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, this.buffers[1] );
+            gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
+            gl.glDrawArrays( GL.GL_LINES, 0, this.lineVertexCount );
+
+            gl.glPointSize( 18f );
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, this.buffers[0] );
+            gl.glVertexPointer( 2, GL.GL_FLOAT, 0, 0 );
+            gl.glDrawArrays( GL.GL_POINTS, 0, this.expandedCount );
+
+            if ( this.collapsedCount > 0 )
+            {
+                GlimpseColor.glColor( gl, GlimpseColor.getGray( ) );
+                gl.glDrawArrays( GL.GL_POINTS, this.expandedCount, this.collapsedCount );
+            }
         }
         finally
         {
-            gl.glEnd( );
+            gl.glBindBuffer( GL.GL_ARRAY_BUFFER, 0 );
+            gl.glDisableClientState( GL.GL_VERTEX_ARRAY );
         }
-        
-        for ( VisualizableNode child : node.getSuccessors( ) )
+    }
+
+    /**
+     * Draws the labels of the nodes inside the axis bounds in one text pass.
+     */
+    protected void paintLabels( TreeLayout layout, GlimpseBounds bounds, Axis2D axis )
+    {
+        Axis1D axisX = axis.getAxisX( );
+        Axis1D axisY = axis.getAxisY( );
+
+        double spacing = layout.getSpacing( ) * bounds.getWidth( ) / ( axisX.getMax( ) - axisX.getMin( ) );
+        if ( spacing < this.minLabelSpacing ) return;
+
+        int width = bounds.getWidth( );
+        int height = bounds.getHeight( );
+
+        this.textRenderer.beginRendering( width, height );
+        try
         {
-            gl.glBegin( GL.GL_LINES );
-            try
-            {
-                gl.glVertex2f( node.getX( ), node.getY( ) );
-                gl.glVertex2f( child.getX( ), child.getY( ) );
-            }
-            finally
+            this.textRenderer.setColor( Color.black );
+
+            for ( int i = 0 ; i < layout.size( ) ; i++ )
             {
-                gl.glEnd( );
+                String label = layout.getLabel( i );
+                if ( label == null ) continue;
+
+                // labels extend to the right of their node and a line above and below it
+                int x = axisX.valueToScreenPixel( layout.getX( i ) ) + 10;
+                int y = axisY.valueToScreenPixel( layout.getY( i ) );
+                if ( x > width || x < -MAX_LABEL_WIDTH || y < -LINE_HEIGHT || y > height + LINE_HEIGHT ) continue;
+
+                this.textRenderer.draw( label, x, y );
             }
-            
-            paintNode( child, gl, bounds, axis );
+        }
+        finally
+        {
+            this.textRenderer.endRendering( );
         }
     }
-}
\ No newline at end of file
+}
@@ -14,7 +14,16 @@ public class InstanceUtils
 
     public static Attribute[] getAttributes( Instances instances )
     {
-        return getAttributes( instances.instance( 0 ) );
+        // read from the header so that empty data sets are supported
+        int numAttributes = instances.numAttributes( );
+        Attribute[] attributes = new Attribute[numAttributes];
+
+        for ( int i = 0; i < numAttributes; i++ )
+        {
+            attributes[i] = instances.attribute( i );
+        }
+
+        return attributes;
     }
 
     public static Attribute[] getAttributes( Instance instance )
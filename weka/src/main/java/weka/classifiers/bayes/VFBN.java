@@ -0,0 +1,1513 @@
+package weka.classifiers.bayes;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import weka.classifiers.Classifier;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.TechnicalInformationHandler;
+import weka.core.Utils;
+import edu.gmu.vfml.bn.BeliefNet;
+import edu.gmu.vfml.bn.BifReader;
+import edu.gmu.vfml.bn.BifWriter;
+import edu.gmu.vfml.bn.FamilyCounts;
+import edu.gmu.vfml.bn.StructureChange;
+import edu.gmu.vfml.data.ArffEncodedSource;
+import edu.gmu.vfml.data.EncodedSource;
+import edu.gmu.vfml.data.InstancesEncodedSource;
+
+/**
+ * <!-- globalinfo-start -->
+ * will be automatically replaced
+ * <!-- globalinfo-end -->
+ *
+ *  <!-- technical-bibtex-start -->
+ * will be automatically replaced
+ * <!-- technical-bibtex-end -->
+ *
+ *  <!-- options-start -->
+ * will be automatically replaced
+ * <!-- options-end -->
+ *
+ * <p>Very Fast Belief Net structure learning (a port of the VFML vfbn1 learner).
+ * Hill climbing from the empty network (or a starting network), where each search
+ * step considers every network one link addition, removal or reversal away from
+ * the current one, and reads only as many examples as are needed to pick the best
+ * of them with confidence 1 - delta. Every chunk examples, candidates whose score
+ * is worse than the best candidate's by more than a Hoeffding bound are dropped, and
+ * the step ends when one candidate is left. If the data runs out first, the
+ * remaining candidates are compared with the BD score. Search stops when no change
+ * improves the current network.</p>
+ *
+ * <p>Every candidate differs from the current network in the family (the parents) of
+ * at most two nodes, so examples are only counted in the distinct changed families
+ * of the remaining candidates and in the current network's families, each shared by
+ * every candidate that needs it (see {@link FamilyCounts}). Blocks of examples are
+ * counted on several threads, each thread counting and scoring the families of its
+ * own set of nodes without synchronization, while the next block is read. Each
+ * search step reads the data set from its start through an {@link EncodedSource},
+ * so a file is streamed from disk rather than loaded (see
+ * {@link #buildClassifier(EncodedSource)} and {@link #main(String[])}).</p>
+ *
+ * <p>The learned network classifies from the Markov blanket of the class node.
+ * Training instances with missing values are skipped. The CPTs of the learned
+ * network are estimated, with Laplace smoothing, from the examples of the last
+ * search step.</p>
+ *
+ * @author ulman
+ */
+public class VFBN extends Classifier implements OptionHandler, TechnicalInformationHandler
+{
+    private static final long serialVersionUID = 1L;
+
+    protected double delta = 1e-5;
+    protected double tau = 0.001;
+    protected int chunk = 10000;
+    protected double kappa = 0.5;
+    protected int maxSearchSteps = -1;
+    protected int maxParentsPerNode = -1;
+    protected int maxParameterGrowthMult = -1;
+    protected long maxParameterCount = -1;
+    protected double limitMegabytes = -1;
+    protected double limitMinutes = -1;
+    protected boolean noReverse = false;
+    protected boolean batch = false;
+    protected boolean parametersOnly = false;
+    protected File startFrom = null;
+    protected int numThreads = 0;
+
+    // the model
+    protected Instances header;
+    protected BeliefNet net;
+    protected int classIndex;
+    protected int[] classChildren;
+    protected int searchSteps;
+    protected long examplesRead;
+    protected long boundsUsed;
+    protected List<Long> examplesPerStep;
+    protected List<String> changes;
+
+    // the state of a run of buildClassifier
+    transient protected EncodedSource source;
+    transient protected BeliefNet priorNet;
+    transient protected long initialParameterCount;
+    transient protected FamilyCounts[] current;
+    transient protected Map<Integer, FamilyCounts> added;
+    transient protected Map<Integer, FamilyCounts> removed;
+    transient protected List<StructureChange> candidates;
+    transient protected int[][] groups;
+    transient protected List<List<FamilyCounts>> familiesByNode;
+    transient protected long seenRound;
+    transient protected int[][] blocks;
+    transient protected int[][][] columns;
+    transient protected ExecutorService executor;
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String deltaTipText( )
+    {
+        return "The allowed chance of error in each decision to drop a candidate.";
+    }
+
+    public double getDelta( )
+    {
+        return delta;
+    }
+
+    public void setDelta( double delta )
+    {
+        this.delta = delta;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String tauTipText( )
+    {
+        return "Call a tie between two candidates when their scores might differ by less than tau times the range of the score.";
+    }
+
+    public double getTau( )
+    {
+        return tau;
+    }
+
+    public void setTau( double tau )
+    {
+        this.tau = tau;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String chunkTipText( )
+    {
+        return "The number of examples read between checks for a winning search step (and read from the data set at once).";
+    }
+
+    public int getChunk( )
+    {
+        return chunk;
+    }
+
+    public void setChunk( int chunk )
+    {
+        if ( chunk < 1 )
+        {
+            throw new IllegalArgumentException( "VFBN: the chunk must be at least 1." );
+        }
+        this.chunk = chunk;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String kappaTipText( )
+    {
+        return "The structure prior of the BD score used when the data runs out: each link added or removed relative to the starting network multiplies the prior by kappa (1 is no penalty).";
+    }
+
+    public double getKappa( )
+    {
+        return kappa;
+    }
+
+    public void setKappa( double kappa )
+    {
+        this.kappa = kappa;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String maxSearchStepsTipText( )
+    {
+        return "The largest number of search steps (-1 for no limit).";
+    }
+
+    public int getMaxSearchSteps( )
+    {
+        return maxSearchSteps;
+    }
+
+    public void setMaxSearchSteps( int maxSearchSteps )
+    {
+        this.maxSearchSteps = maxSearchSteps;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String maxParentsPerNodeTipText( )
+    {
+        return "The largest number of parents of a node (-1 for no limit).";
+    }
+
+    public int getMaxParentsPerNode( )
+    {
+        return maxParentsPerNode;
+    }
+
+    public void setMaxParentsPerNode( int maxParentsPerNode )
+    {
+        this.maxParentsPerNode = maxParentsPerNode;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String maxParameterGrowthMultTipText( )
+    {
+        return "Limit the network to this many times the parameters of the starting network (-1 for no limit).";
+    }
+
+    public int getMaxParameterGrowthMult( )
+    {
+        return maxParameterGrowthMult;
+    }
+
+    public void setMaxParameterGrowthMult( int maxParameterGrowthMult )
+    {
+        this.maxParameterGrowthMult = maxParameterGrowthMult;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String maxParameterCountTipText( )
+    {
+        return "The largest number of CPT entries of a node (-1 for no limit).";
+    }
+
+    public long getMaxParameterCount( )
+    {
+        return maxParameterCount;
+    }
+
+    public void setMaxParameterCount( long maxParameterCount )
+    {
+        this.maxParameterCount = maxParameterCount;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String limitMegabytesTipText( )
+    {
+        return "Limit the counts of a search step to about this many megabytes by not considering candidates whose counts take more than their share (-1 for no limit).";
+    }
+
+    public double getLimitMegabytes( )
+    {
+        return limitMegabytes;
+    }
+
+    public void setLimitMegabytes( double limitMegabytes )
+    {
+        this.limitMegabytes = limitMegabytes;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String limitMinutesTipText( )
+    {
+        return "Stop searching after this many minutes and return the current network (-1 for no limit).";
+    }
+
+    public double getLimitMinutes( )
+    {
+        return limitMinutes;
+    }
+
+    public void setLimitMinutes( double limitMinutes )
+    {
+        this.limitMinutes = limitMinutes;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String noReverseTipText( )
+    {
+        return "Do not consider reversing links.";
+    }
+
+    public boolean getNoReverse( )
+    {
+        return noReverse;
+    }
+
+    public void setNoReverse( boolean noReverse )
+    {
+        this.noReverse = noReverse;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String batchTipText( )
+    {
+        return "Read all the data in every search step and pick the best candidate with the BD score (no bounds).";
+    }
+
+    public boolean getBatch( )
+    {
+        return batch;
+    }
+
+    public void setBatch( boolean batch )
+    {
+        this.batch = batch;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String parametersOnlyTipText( )
+    {
+        return "Only estimate the parameters of the starting network.";
+    }
+
+    public boolean getParametersOnly( )
+    {
+        return parametersOnly;
+    }
+
+    public void setParametersOnly( boolean parametersOnly )
+    {
+        this.parametersOnly = parametersOnly;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String startFromTipText( )
+    {
+        return "A BIF file whose structure is the starting point of the search (none for the empty network).";
+    }
+
+    public File getStartFrom( )
+    {
+        return startFrom;
+    }
+
+    public void setStartFrom( File startFrom )
+    {
+        this.startFrom = startFrom;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String numThreadsTipText( )
+    {
+        return "The number of threads counting examples (0 for one per processor).";
+    }
+
+    public int getNumThreads( )
+    {
+        return numThreads;
+    }
+
+    public void setNumThreads( int numThreads )
+    {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Lists the command-line options for this classifier.
+     */
+    @Override
+    @SuppressWarnings( { "rawtypes", "unchecked" } )
+    public Enumeration listOptions( )
+    {
+        Vector newVector = new Vector( );
+        newVector.addElement( new Option( "\tDelta.\n", "D", 1, "-D <delta>" ) );
+        newVector.addElement( new Option( "\tTau.\n", "T", 1, "-T <tau>" ) );
+        newVector.addElement( new Option( "\tChunk.\n", "C", 1, "-C <examples>" ) );
+        newVector.addElement( new Option( "\tKappa.\n", "K", 1, "-K <kappa>" ) );
+        newVector.addElement( new Option( "\tMaximum Search Steps.\n", "S", 1, "-S <steps>" ) );
+        newVector.addElement( new Option( "\tMaximum Parents per Node.\n", "M", 1, "-M <parents>" ) );
+        newVector.addElement( new Option( "\tMaximum Parameter Growth Multiple.\n", "G", 1, "-G <multiple>" ) );
+        newVector.addElement( new Option( "\tMaximum Parameters per Node.\n", "Q", 1, "-Q <parameters>" ) );
+        newVector.addElement( new Option( "\tMemory Limit.\n", "X", 1, "-X <megabytes>" ) );
+        newVector.addElement( new Option( "\tTime Limit.\n", "L", 1, "-L <minutes>" ) );
+        newVector.addElement( new Option( "\tNo Reversals.\n", "R", 0, "-R" ) );
+        newVector.addElement( new Option( "\tBatch.\n", "B", 0, "-B" ) );
+        newVector.addElement( new Option( "\tParameters Only.\n", "O", 0, "-O" ) );
+        newVector.addElement( new Option( "\tStarting Network.\n", "I", 1, "-I <bif file>" ) );
+        newVector.addElement( new Option( "\tNumber of Threads.\n", "P", 1, "-P <threads>" ) );
+        return newVector.elements( );
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     * @param options the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions( String[] options ) throws Exception
+    {
+        String deltaString = Utils.getOption( 'D', options );
+        if ( !deltaString.isEmpty( ) )
+        {
+            delta = Double.parseDouble( deltaString );
+        }
+
+        String tauString = Utils.getOption( 'T', options );
+        if ( !tauString.isEmpty( ) )
+        {
+            tau = Double.parseDouble( tauString );
+        }
+
+        String chunkString = Utils.getOption( 'C', options );
+        if ( !chunkString.isEmpty( ) )
+        {
+            setChunk( Integer.parseInt( chunkString ) );
+        }
+
+        String kappaString = Utils.getOption( 'K', options );
+        if ( !kappaString.isEmpty( ) )
+        {
+            kappa = Double.parseDouble( kappaString );
+        }
+
+        String stepsString = Utils.getOption( 'S', options );
+        if ( !stepsString.isEmpty( ) )
+        {
+            maxSearchSteps = Integer.parseInt( stepsString );
+        }
+
+        String parentsString = Utils.getOption( 'M', options );
+        if ( !parentsString.isEmpty( ) )
+        {
+            maxParentsPerNode = Integer.parseInt( parentsString );
+        }
+
+        String growthString = Utils.getOption( 'G', options );
+        if ( !growthString.isEmpty( ) )
+        {
+            maxParameterGrowthMult = Integer.parseInt( growthString );
+        }
+
+        String parametersString = Utils.getOption( 'Q', options );
+        if ( !parametersString.isEmpty( ) )
+        {
+            maxParameterCount = Long.parseLong( parametersString );
+        }
+
+        String megabytesString = Utils.getOption( 'X', options );
+        if ( !megabytesString.isEmpty( ) )
+        {
+            limitMegabytes = Double.parseDouble( megabytesString );
+        }
+
+        String minutesString = Utils.getOption( 'L', options );
+        if ( !minutesString.isEmpty( ) )
+        {
+            limitMinutes = Double.parseDouble( minutesString );
+        }
+
+        noReverse = Utils.getFlag( 'R', options );
+        batch = Utils.getFlag( 'B', options );
+        parametersOnly = Utils.getFlag( 'O', options );
+
+        String startString = Utils.getOption( 'I', options );
+        startFrom = startString.isEmpty( ) ? null : new File( startString );
+
+        String numThreadsString = Utils.getOption( 'P', options );
+        if ( !numThreadsString.isEmpty( ) )
+        {
+            numThreads = Integer.parseInt( numThreadsString );
+        }
+    }
+
+    /**
+     * Gets the current settings of the Classifier.
+     *
+     * @return an array of strings suitable for passing to setOptions
+     */
+    @Override
+    public String[] getOptions( )
+    {
+        List<String> options = new LinkedList<String>( );
+
+        options.add( "-D" );
+        options.add( String.valueOf( delta ) );
+
+        options.add( "-T" );
+        options.add( String.valueOf( tau ) );
+
+        options.add( "-C" );
+        options.add( String.valueOf( chunk ) );
+
+        options.add( "-K" );
+        options.add( String.valueOf( kappa ) );
+
+        options.add( "-S" );
+        options.add( String.valueOf( maxSearchSteps ) );
+
+        options.add( "-M" );
+        options.add( String.valueOf( maxParentsPerNode ) );
+
+        options.add( "-G" );
+        options.add( String.valueOf( maxParameterGrowthMult ) );
+
+        options.add( "-Q" );
+        options.add( String.valueOf( maxParameterCount ) );
+
+        options.add( "-X" );
+        options.add( String.valueOf( limitMegabytes ) );
+
+        options.add( "-L" );
+        options.add( String.valueOf( limitMinutes ) );
+
+        if ( noReverse ) options.add( "-R" );
+        if ( batch ) options.add( "-B" );
+        if ( parametersOnly ) options.add( "-O" );
+
+        if ( startFrom != null )
+        {
+            options.add( "-I" );
+            options.add( startFrom.getPath( ) );
+        }
+
+        options.add( "-P" );
+        options.add( String.valueOf( numThreads ) );
+
+        return options.toArray( new String[0] );
+    }
+
+    /**
+     * Returns a string describing the classifier.
+     * @return a description suitable for the GUI.
+     */
+    public String globalInfo( )
+    {
+        //@formatter:off
+        return "Class for learning the structure of a Bayesian network from a very large data set " +
+               "by hill climbing, with the number of examples used in each search step chosen to " +
+               "bound the chance of picking the wrong step. " +
+               "For more information see: \n\n" +
+               getTechnicalInformation( ).toString( );
+        //@formatter:on
+    }
+
+    /**
+     * Returns an instance of a TechnicalInformation object, containing
+     * detailed information about the technical background of this class,
+     * e.g., paper reference or book this class is based on.
+     *
+     * @return the technical information about this class
+     */
+    @Override
+    public TechnicalInformation getTechnicalInformation( )
+    {
+        TechnicalInformation info = new TechnicalInformation( Type.INPROCEEDINGS );
+
+        info.setValue( Field.AUTHOR, "Geoff Hulten and Pedro Domingos" );
+        info.setValue( Field.YEAR, "2002" );
+        info.setValue( Field.TITLE, "Mining Complex Models from Arbitrarily Large Databases in Constant Time" );
+        info.setValue( Field.BOOKTITLE, "Proceedings of the Eighth ACM SIGKDD International Conference on Knowledge Discovery and Data Mining" );
+        info.setValue( Field.PAGES, "525-531" );
+        info.setValue( Field.PUBLISHER, "ACM" );
+
+        return info;
+    }
+
+    /**
+     * Returns default capabilities of the classifier.
+     *
+     * @return the capabilities of this classifier
+     */
+    @Override
+    public Capabilities getCapabilities( )
+    {
+        Capabilities result = super.getCapabilities( );
+        result.disableAll( );
+
+        // attributes (instances with missing values are skipped)
+        result.enable( Capability.NOMINAL_ATTRIBUTES );
+        result.enable( Capability.MISSING_VALUES );
+
+        // class
+        result.enable( Capability.NOMINAL_CLASS );
+        result.enable( Capability.MISSING_CLASS_VALUES );
+
+        // instances
+        result.setMinimumNumberInstances( 0 );
+
+        return result;
+    }
+
+    /**
+     * Learns a network over all the attributes of the data set.
+     *
+     * @param data the training data
+     * @exception Exception if the classifier can't be built successfully
+     */
+    @Override
+    public void buildClassifier( Instances data ) throws Exception
+    {
+        // can classifier handle the data?
+        getCapabilities( ).testWithFail( data );
+
+        buildClassifier( new InstancesEncodedSource( data ) );
+    }
+
+    /**
+     * Learns a network over all the attributes of the source, reading the data set
+     * from its start in each search step. The source is closed when the classifier
+     * is built.
+     */
+    public void buildClassifier( EncodedSource source ) throws Exception
+    {
+        this.source = source;
+        try
+        {
+            initialize( );
+
+            long deadline = limitMinutes < 0 ? Long.MAX_VALUE : System.nanoTime( ) + ( long ) ( limitMinutes * 60e9 );
+            List<BeliefNet> previous = new ArrayList<BeliefNet>( );
+
+            boolean allDone = false;
+            while ( !allDone )
+            {
+                searchSteps++;
+
+                createCandidates( );
+                allDone = search( deadline );
+
+                // pick the best remaining candidate if the data or time ran out
+                if ( candidates.size( ) > 1 )
+                {
+                    compareByBD( );
+                }
+
+                StructureChange winner = candidates.get( 0 );
+                BeliefNet next = winner.apply( net );
+                FamilyCounts[] families = current.clone( );
+                for ( FamilyCounts family : winner.getFamilies( ) )
+                {
+                    families[family.getNode( )] = family;
+                }
+                for ( int i = 0 ; i < next.getNumNodes( ) ; i++ )
+                {
+                    next.setCPT( i, families[i].getCPT( ) );
+                }
+
+                examplesPerStep.add( seenRound );
+                changes.add( winner.toString( net ) );
+
+                // done when the current network wins, or the search returns to an earlier network
+                if ( winner.getKind( ) == StructureChange.NONE || parametersOnly )
+                {
+                    allDone = true;
+                }
+                else if ( maxSearchSteps != -1 && searchSteps >= maxSearchSteps )
+                {
+                    allDone = true;
+                }
+                else
+                {
+                    for ( BeliefNet earlier : previous )
+                    {
+                        if ( earlier.structureEquals( next ) ) allDone = true;
+                    }
+                }
+
+                previous.add( net );
+                net = next;
+            }
+
+            classChildren = children( net, classIndex );
+        }
+        finally
+        {
+            source.close( );
+            cleanup( );
+        }
+    }
+
+    /**
+     * Reads the header and the starting network.
+     */
+    protected void initialize( ) throws Exception
+    {
+        header = source.getHeader( );
+        classIndex = header.classIndex( ) >= 0 ? header.classIndex( ) : header.numAttributes( ) - 1;
+        net = new BeliefNet( header );
+
+        if ( startFrom != null )
+        {
+            BeliefNet start = BifReader.read( startFrom );
+            for ( int i = 0 ; i < net.getNumNodes( ) ; i++ )
+            {
+                int node = start.lookupNode( net.getNodeName( i ) );
+                if ( node < 0 )
+                {
+                    throw new IllegalArgumentException( "VFBN: the starting network has no node " + net.getNodeName( i ) + "." );
+                }
+
+                int[] parents = start.getParents( node );
+                int[] mapped = new int[parents.length];
+                for ( int p = 0 ; p < parents.length ; p++ )
+                {
+                    mapped[p] = net.lookupNode( start.getNodeName( parents[p] ) );
+                    if ( mapped[p] < 0 )
+                    {
+                        throw new IllegalArgumentException( "VFBN: the data has no attribute " + start.getNodeName( parents[p] ) + "." );
+                    }
+                }
+                net.setParents( i, mapped );
+            }
+        }
+
+        priorNet = new BeliefNet( net );
+        initialParameterCount = net.getNumParameters( );
+
+        searchSteps = 0;
+        examplesRead = 0;
+        boundsUsed = 0;
+        examplesPerStep = new ArrayList<Long>( );
+        changes = new ArrayList<String>( );
+
+        int n = net.getNumNodes( );
+        blocks = new int[][] { new int[chunk * n], new int[chunk * n] };
+        columns = new int[2][n][chunk];
+    }
+
+    /**
+     * Creates the families of the current network and every candidate one change
+     * away from it that satisfies the limits and has no cycle. Changes equivalent to
+     * the current network (reversing a covered link) are not considered.
+     */
+    protected void createCandidates( )
+    {
+        int n = net.getNumNodes( );
+
+        current = new FamilyCounts[n];
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            current[i] = new FamilyCounts( net, i, FamilyCounts.CURRENT, -1 );
+        }
+        added = new HashMap<Integer, FamilyCounts>( );
+        removed = new HashMap<Integer, FamilyCounts>( );
+
+        candidates = new ArrayList<StructureChange>( );
+        candidates.add( StructureChange.none( ) );
+
+        if ( !parametersOnly )
+        {
+            BitSet[] ancestors = ancestors( net );
+            for ( int i = 0 ; i < n ; i++ )
+            {
+                for ( int j = i + 1 ; j < n ; j++ )
+                {
+                    boolean jParentOfI = net.hasParent( i, j );
+                    boolean iParentOfJ = net.hasParent( j, i );
+                    if ( !jParentOfI && !iParentOfJ )
+                    {
+                        // add j -> i, and i -> j unless the link would be covered (so equivalent)
+                        boolean covered = false;
+                        if ( !ancestors[j].get( i ) && allowAdd( i, j ) )
+                        {
+                            candidates.add( new StructureChange( StructureChange.ADD, j, i, new FamilyCounts[] { family( i, FamilyCounts.ADD, j ) }, current ) );
+                            covered = sameParents( net.getParents( i ), net.getParents( j ), -1 );
+                        }
+                        if ( !covered && !ancestors[i].get( j ) && allowAdd( j, i ) )
+                        {
+                            candidates.add( new StructureChange( StructureChange.ADD, i, j, new FamilyCounts[] { family( j, FamilyCounts.ADD, i ) }, current ) );
+                        }
+                    }
+                    else
+                    {
+                        int parent = jParentOfI ? j : i;
+                        int child = jParentOfI ? i : j;
+
+                        if ( allowRemove( parent, child ) )
+                        {
+                            candidates.add( new StructureChange( StructureChange.REMOVE, parent, child, new FamilyCounts[] { family( child, FamilyCounts.REMOVE, parent ) }, current ) );
+                        }
+                        if ( !noReverse && allowReverse( parent, child, ancestors ) )
+                        {
+                            candidates.add( new StructureChange( StructureChange.REVERSE, parent, child, new FamilyCounts[] { family( child, FamilyCounts.REMOVE, parent ), family( parent, FamilyCounts.ADD, child ) }, current ) );
+                        }
+                    }
+                }
+            }
+        }
+
+        updateFamilies( );
+    }
+
+    /**
+     * @return the (shared) family of node with the other node added to or removed from its parents
+     */
+    private FamilyCounts family( int node, int kind, int other )
+    {
+        Map<Integer, FamilyCounts> families = kind == FamilyCounts.ADD ? added : removed;
+        Integer key = node * net.getNumNodes( ) + other;
+        FamilyCounts family = families.get( key );
+        if ( family == null )
+        {
+            family = new FamilyCounts( net, node, kind, other );
+            families.put( key, family );
+        }
+        return family;
+    }
+
+    /**
+     * @return the ancestors of each node
+     */
+    private static BitSet[] ancestors( BeliefNet net )
+    {
+        BitSet[] ancestors = new BitSet[net.getNumNodes( )];
+        for ( int node : net.getTopologicalOrder( ) )
+        {
+            ancestors[node] = new BitSet( net.getNumNodes( ) );
+            for ( int parent : net.getParents( node ) )
+            {
+                ancestors[node].or( ancestors[parent] );
+                ancestors[node].set( parent );
+            }
+        }
+        return ancestors;
+    }
+
+    /**
+     * @return true if the parent sets are equal once except (if not -1) is left out of second
+     */
+    private static boolean sameParents( int[] first, int[] second, int except )
+    {
+        if ( first.length != second.length - ( except < 0 ? 0 : 1 ) ) return false;
+        for ( int parent : first )
+        {
+            boolean found = false;
+            for ( int other : second )
+            {
+                if ( other == parent && other != except ) found = true;
+            }
+            if ( !found ) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true if adding other to the parents of node stays within the limits
+     */
+    private boolean allowAdd( int node, int other )
+    {
+        long parameters = FamilyCounts.getNumParameters( net, node, FamilyCounts.ADD, other );
+        long growth = parameters - FamilyCounts.getNumParameters( net, node, FamilyCounts.CURRENT, -1 );
+
+        return ( maxParentsPerNode == -1 || net.getNumParents( node ) + 1 <= maxParentsPerNode ) && allowParameters( parameters, growth ) && allowBytes( parameters );
+    }
+
+    /**
+     * @return true if removing the link parent -> child stays within the limits
+     */
+    private boolean allowRemove( int parent, int child )
+    {
+        long parameters = FamilyCounts.getNumParameters( net, child, FamilyCounts.REMOVE, parent );
+        long growth = parameters - FamilyCounts.getNumParameters( net, child, FamilyCounts.CURRENT, -1 );
+
+        return allowParameters( parameters, growth ) && allowParameters( FamilyCounts.getNumParameters( net, parent, FamilyCounts.CURRENT, -1 ), growth ) && allowBytes( parameters );
+    }
+
+    /**
+     * @return true if reversing the link parent -> child stays within the limits, has
+     *         no cycle and is not equivalent to the current network
+     */
+    private boolean allowReverse( int parent, int child, BitSet[] ancestors )
+    {
+        int[] parentParents = net.getParents( parent );
+        int[] childParents = net.getParents( child );
+
+        // the reversed link is covered if the parent's other parents are the child's other parents
+        if ( sameParents( parentParents, childParents, parent ) ) return false;
+
+        // reversing makes a cycle if there is another path from parent to child
+        for ( int other : childParents )
+        {
+            if ( other != parent && ancestors[other].get( parent ) ) return false;
+        }
+
+        if ( maxParentsPerNode != -1 && parentParents.length + 1 > maxParentsPerNode ) return false;
+
+        long childParameters = FamilyCounts.getNumParameters( net, child, FamilyCounts.REMOVE, parent );
+        long parentParameters = FamilyCounts.getNumParameters( net, parent, FamilyCounts.ADD, child );
+        long growth = childParameters + parentParameters - FamilyCounts.getNumParameters( net, child, FamilyCounts.CURRENT, -1 ) - FamilyCounts.getNumParameters( net, parent, FamilyCounts.CURRENT, -1 );
+
+        return allowParameters( childParameters, growth ) && allowParameters( parentParameters, growth ) && allowBytes( childParameters + parentParameters );
+    }
+
+    /**
+     * @param parameters the number of CPT entries of a changed node
+     * @param growth the change in the number of CPT entries of the network
+     */
+    private boolean allowParameters( long parameters, long growth )
+    {
+        if ( maxParameterCount != -1 && parameters > maxParameterCount ) return false;
+        if ( maxParameterGrowthMult != -1 && net.getNumParameters( ) + growth >= maxParameterGrowthMult * initialParameterCount ) return false;
+        return true;
+    }
+
+    /**
+     * Each candidate may take its share of the memory limit (the limit divided by the
+     * number of node pairs, as in the original).
+     */
+    private boolean allowBytes( long parameters )
+    {
+        if ( limitMegabytes < 0 ) return true;
+
+        long n = net.getNumNodes( );
+        return 4 * parameters < limitMegabytes * 1024 * 1024 / ( n * n );
+    }
+
+    /**
+     * Collects the families the current network and the remaining candidates need,
+     * by node, and divides the nodes between the counting tasks.
+     */
+    protected void updateFamilies( )
+    {
+        int n = net.getNumNodes( );
+
+        familiesByNode = new ArrayList<List<FamilyCounts>>( n );
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            List<FamilyCounts> families = new ArrayList<FamilyCounts>( );
+            families.add( current[i] );
+            familiesByNode.add( families );
+        }
+
+        Map<FamilyCounts, Boolean> seen = new IdentityHashMap<FamilyCounts, Boolean>( );
+        long total = n;
+        for ( StructureChange candidate : candidates )
+        {
+            for ( FamilyCounts family : candidate.getFamilies( ) )
+            {
+                if ( seen.put( family, Boolean.TRUE ) == null )
+                {
+                    familiesByNode.get( family.getNode( ) ).add( family );
+                    total++;
+                }
+            }
+        }
+
+        // contiguous runs of nodes with about the same number of families per task
+        int threads = numThreads > 0 ? numThreads : Runtime.getRuntime( ).availableProcessors( );
+        long perGroup = Math.max( 1, total / ( 4L * threads ) );
+        List<int[]> result = new ArrayList<int[]>( );
+        int first = 0;
+        long size = 0;
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            size += familiesByNode.get( i ).size( );
+            if ( size >= perGroup || i == n - 1 )
+            {
+                result.add( new int[] { first, i + 1 } );
+                first = i + 1;
+                size = 0;
+            }
+        }
+        groups = result.toArray( new int[result.size( )][] );
+    }
+
+    /**
+     * Reads the data set from its start, counting blocks of examples, and drops
+     * candidates after every chunk until one is left or the data runs out.
+     *
+     * @return true if the time limit expired
+     */
+    protected boolean search( long deadline ) throws Exception
+    {
+        source.rewind( );
+        seenRound = 0;
+
+        int current = 0;
+        int count = readBlock( current );
+        while ( count > 0 )
+        {
+            // check for a winner after every full chunk
+            boolean check = count == chunk && !batch;
+            List<Future<Void>> futures = submitCount( columns[current], count, check );
+
+            // read the next block while this one is counted (a short block ends the pass)
+            int nextCount = count == chunk ? readBlock( 1 - current ) : 0;
+
+            for ( Future<Void> future : futures )
+            {
+                future.get( );
+            }
+
+            seenRound += count;
+            examplesRead += count;
+
+            if ( check )
+            {
+                compareByBound( );
+                if ( candidates.size( ) == 1 ) return false;
+            }
+
+            if ( System.nanoTime( ) > deadline ) return true;
+
+            // counts are ints, so a step reads at most Integer.MAX_VALUE examples
+            if ( seenRound > Integer.MAX_VALUE - chunk ) return false;
+
+            current = 1 - current;
+            count = nextCount;
+        }
+        return false;
+    }
+
+    /**
+     * Reads the next chunk of examples of the pass (dropping those with missing
+     * values) and transposes them into columns, one per node.
+     *
+     * @return the number of examples read
+     */
+    private int readBlock( int index ) throws Exception
+    {
+        int n = net.getNumNodes( );
+        int[] block = blocks[index];
+
+        int count = 0;
+        while ( count < chunk )
+        {
+            int read = source.read( block, chunk - count );
+            if ( read == 0 ) break;
+
+            // keep the examples without missing values, in place
+            for ( int e = 0 ; e < read ; e++ )
+            {
+                boolean missing = false;
+                for ( int i = 0 ; i < n && !missing ; i++ )
+                {
+                    missing = block[e * n + i] < 0;
+                }
+                if ( !missing )
+                {
+                    int[][] into = columns[index];
+                    for ( int i = 0 ; i < n ; i++ )
+                    {
+                        into[i][count] = block[e * n + i];
+                    }
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private List<Future<Void>> submitCount( final int[][] block, final int count, final boolean score )
+    {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>( groups.length );
+        for ( final int[] group : groups )
+        {
+            futures.add( getExecutor( ).submit( new Callable<Void>( )
+            {
+                @Override
+                public Void call( )
+                {
+                    // the rows of each node's current family, for the nodes of the group
+                    int[][] rows = new int[net.getNumNodes( )][];
+                    int[] buffer = new int[count];
+                    for ( int node = group[0] ; node < group[1] ; node++ )
+                    {
+                        rows[node] = buffer;
+                        FamilyCounts.computeRows( net, node, block, count, buffer );
+
+                        for ( FamilyCounts family : familiesByNode.get( node ) )
+                        {
+                            family.add( block, rows, count );
+                            if ( score ) family.updateScore( seenRound + count );
+                        }
+
+                        rows[node] = null;
+                    }
+                    return null;
+                }
+            } ) );
+        }
+        return futures;
+    }
+
+    /**
+     * Drops the candidates which are worse than the best by more than the bound, and
+     * resolves ties in favor of the simpler candidate.
+     */
+    protected void compareByBound( )
+    {
+        // the best candidate (the last of equals)
+        StructureChange best = candidates.get( 0 );
+        double bestDelta = best.getScoreDelta( current );
+        for ( int i = 1 ; i < candidates.size( ) ; i++ )
+        {
+            double delta = candidates.get( i ).getScoreDelta( current );
+            if ( !( bestDelta > delta ) )
+            {
+                best = candidates.get( i );
+                bestDelta = delta;
+            }
+        }
+        candidates.remove( best );
+
+        double logDelta = Math.log( 1.0 / delta );
+        for ( int i = candidates.size( ) - 1 ; i >= 0 ; i-- )
+        {
+            StructureChange compare = candidates.get( i );
+            double deltaScore = bestDelta - compare.getScoreDelta( current );
+            double range = best.getScoreRange( ) + compare.getScoreRange( );
+            double epsilon = Math.sqrt( range * range * logDelta / ( 2.0 * seenRound ) );
+
+            if ( deltaScore - epsilon > 0 )
+            {
+                boundsUsed++;
+                candidates.remove( i );
+            }
+            else if ( Math.abs( deltaScore ) <= epsilon && 2 * epsilon <= tau * range )
+            {
+                // a tie, keep the simpler candidate (the current network among equals)
+                boundsUsed++;
+                candidates.remove( i );
+                if ( best.getParameterDelta( ) == compare.getParameterDelta( ) && compare.getKind( ) == StructureChange.NONE )
+                {
+                    best = compare;
+                    bestDelta = best.getScoreDelta( current );
+                }
+            }
+        }
+
+        candidates.add( best );
+        updateFamilies( );
+    }
+
+    /**
+     * Keeps the remaining candidate with the best BD score (the first of equals).
+     */
+    protected void compareByBD( ) throws Exception
+    {
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>( groups.length );
+        for ( final int[] group : groups )
+        {
+            tasks.add( new Callable<Void>( )
+            {
+                @Override
+                public Void call( )
+                {
+                    for ( int node = group[0] ; node < group[1] ; node++ )
+                    {
+                        int[] priorParents = priorNet.getParents( node );
+                        for ( FamilyCounts family : familiesByNode.get( node ) )
+                        {
+                            family.updateBDScore( kappa, difference( family.getParents( ), priorParents ) );
+                        }
+                    }
+                    return null;
+                }
+            } );
+        }
+        invokeAll( tasks );
+
+        StructureChange best = candidates.get( candidates.size( ) - 1 );
+        for ( int i = candidates.size( ) - 2 ; i >= 0 ; i-- )
+        {
+            StructureChange compare = candidates.get( i );
+            if ( !( best.getScoreDelta( current ) > compare.getScoreDelta( current ) ) )
+            {
+                best = compare;
+            }
+        }
+
+        candidates.clear( );
+        candidates.add( best );
+    }
+
+    /**
+     * @return the number of parents in one set but not the other
+     */
+    private static int difference( int[] parents, int[] priorParents )
+    {
+        int difference = 0;
+        for ( int parent : parents )
+        {
+            if ( !contains( priorParents, parent ) ) difference++;
+        }
+        for ( int parent : priorParents )
+        {
+            if ( !contains( parents, parent ) ) difference++;
+        }
+        return difference;
+    }
+
+    private static boolean contains( int[] array, int value )
+    {
+        for ( int element : array )
+        {
+            if ( element == value ) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the nodes with node as a parent
+     */
+    private static int[] children( BeliefNet net, int node )
+    {
+        int count = 0;
+        int[] children = new int[net.getNumNodes( )];
+        for ( int i = 0 ; i < net.getNumNodes( ) ; i++ )
+        {
+            if ( net.hasParent( i, node ) ) children[count++] = i;
+        }
+
+        int[] result = new int[count];
+        System.arraycopy( children, 0, result, 0, count );
+        return result;
+    }
+
+    /**
+     * Runs the tasks on the counting thread pool and rethrows the first failure.
+     */
+    protected void invokeAll( List<Callable<Void>> tasks ) throws Exception
+    {
+        for ( Future<Void> future : getExecutor( ).invokeAll( tasks ) )
+        {
+            future.get( );
+        }
+    }
+
+    protected ExecutorService getExecutor( )
+    {
+        if ( executor == null )
+        {
+            int threads = numThreads > 0 ? numThreads : Runtime.getRuntime( ).availableProcessors( );
+            executor = Executors.newFixedThreadPool( threads, new ThreadFactory( )
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "VFBN counting" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+
+        return executor;
+    }
+
+    /**
+     * Releases the state of a run of buildClassifier (keeping the model).
+     */
+    protected void cleanup( )
+    {
+        if ( executor != null )
+        {
+            executor.shutdown( );
+            executor = null;
+        }
+
+        source = null;
+        priorNet = null;
+        current = null;
+        added = null;
+        removed = null;
+        candidates = null;
+        groups = null;
+        familiesByNode = null;
+        blocks = null;
+        columns = null;
+    }
+
+    /**
+     * Computes the class distribution from the class node's Markov blanket: its own
+     * CPT and the CPTs of its children. Factors involving a missing value are left out.
+     */
+    @Override
+    public double[] distributionForInstance( Instance instance ) throws Exception
+    {
+        if ( net == null )
+        {
+            throw new IllegalStateException( "VFBN: No model built yet." );
+        }
+
+        int n = net.getNumNodes( );
+        int[] values = new int[n];
+        for ( int i = 0 ; i < n ; i++ )
+        {
+            values[i] = instance.isMissing( i ) ? -1 : ( int ) instance.value( i );
+        }
+
+        int numClasses = net.getNumValues( classIndex );
+        double[] logP = new double[numClasses];
+        for ( int c = 0 ; c < numClasses ; c++ )
+        {
+            values[classIndex] = c;
+            logP[c] = logFactor( classIndex, values );
+            for ( int child : classChildren )
+            {
+                logP[c] += logFactor( child, values );
+            }
+        }
+
+        double max = logP[Utils.maxIndex( logP )];
+        double[] distribution = new double[numClasses];
+        for ( int c = 0 ; c < numClasses ; c++ )
+        {
+            distribution[c] = Math.exp( logP[c] - max );
+        }
+        Utils.normalize( distribution );
+        return distribution;
+    }
+
+    /**
+     * @return log P(node | parents) for the encoded values, or 0 if any of them is missing
+     */
+    private double logFactor( int node, int[] values )
+    {
+        if ( values[node] < 0 ) return 0;
+        for ( int parent : net.getParents( node ) )
+        {
+            if ( values[parent] < 0 ) return 0;
+        }
+        return Math.log( net.getProbability( node, net.getRow( node, values, 0 ), values[node] ) );
+    }
+
+    /**
+     * @return the learned network
+     */
+    public BeliefNet getNet( )
+    {
+        return net;
+    }
+
+    public int getSearchSteps( )
+    {
+        return searchSteps;
+    }
+
+    /**
+     * @return the number of examples counted, over all search steps
+     */
+    public long getExamplesRead( )
+    {
+        return examplesRead;
+    }
+
+    /**
+     * @return the number of examples counted in each search step
+     */
+    public List<Long> getExamplesPerStep( )
+    {
+        return examplesPerStep;
+    }
+
+    /**
+     * @return the change made by each search step
+     */
+    public List<String> getChanges( )
+    {
+        return changes;
+    }
+
+    /**
+     * @return the number of candidates dropped (or tied) by a bound
+     */
+    public long getBoundsUsed( )
+    {
+        return boundsUsed;
+    }
+
+    /**
+     * Prints the search steps and the structure of the network.
+     */
+    @Override
+    public String toString( )
+    {
+        if ( net == null )
+        {
+            return "VFBN: No model built yet.";
+        }
+
+        StringBuilder b = new StringBuilder( "VFBN\n====\n\n" );
+        b.append( String.format( "Search steps: %d, examples read: %d, bounds used: %d%n", searchSteps, examplesRead, boundsUsed ) );
+        b.append( String.format( "Links: %d, parameters: %d%n%n", net.getNumLinks( ), net.getNumIndependentParameters( ) ) );
+
+        for ( int s = 0 ; s < changes.size( ) ; s++ )
+        {
+            b.append( String.format( "Step %d: %s (%d examples)%n", s + 1, changes.get( s ), examplesPerStep.get( s ) ) );
+        }
+
+        b.append( "\nParents:\n" );
+        for ( int i = 0 ; i < net.getNumNodes( ) ; i++ )
+        {
+            b.append( net.getNodeName( i ) ).append( ':' );
+            for ( int parent : net.getParents( i ) )
+            {
+                b.append( ' ' ).append( net.getNodeName( parent ) );
+            }
+            b.append( '\n' );
+        }
+
+        return b.toString( );
+    }
+
+    /**
+     * Learns a network from an ARFF file, streaming it from disk. Options:
+     * <pre>
+     * -t &lt;file&gt;       the ARFF file (required)
+     * -c &lt;index&gt;      the 1 based index of the class attribute, or "first" or "last" (default last)
+     * -o &lt;file&gt;       write the learned network to this BIF file
+     * </pre>
+     * followed by the classifier's options (see {@link #setOptions(String[])}).
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        String dataFile = Utils.getOption( 't', args );
+        if ( dataFile.isEmpty( ) )
+        {
+            System.err.println( "Usage: VFBN -t <arff file> [-c <class index>] [-o <bif file>] [classifier options]" );
+            return;
+        }
+
+        File file = new File( dataFile );
+        String classIndex = Utils.getOption( 'c', args );
+        int index = -1;
+        if ( classIndex.equals( "first" ) ) index = 0;
+        else if ( !classIndex.isEmpty( ) && !classIndex.equals( "last" ) ) index = Integer.parseInt( classIndex ) - 1;
+        if ( index < 0 ) index = new ArffEncodedSource( file, -1 ).getHeader( ).numAttributes( ) - 1;
+
+        String outputFile = Utils.getOption( 'o', args );
+
+        VFBN classifier = new VFBN( );
+        classifier.setOptions( args );
+
+        long start = System.nanoTime( );
+        classifier.buildClassifier( new ArffEncodedSource( file, index ) );
+        long end = System.nanoTime( );
+
+        System.out.println( classifier );
+        System.out.printf( "Learning time: %.3f s%n", ( end - start ) / 1e9 );
+
+        if ( !outputFile.isEmpty( ) )
+        {
+            BifWriter.write( classifier.getNet( ), new File( outputFile ) );
+        }
+    }
+}
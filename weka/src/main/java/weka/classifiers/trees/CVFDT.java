@@ -2,8 +2,14 @@ package weka.classifiers.trees;
 
 import static com.metsci.glimpse.util.logging.LoggerUtils.logWarning;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.LinkedList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Vector;
 import java.util.logging.Logger;
@@ -16,8 +22,13 @@ import weka.core.TechnicalInformation;
 import weka.core.Utils;
 import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
+import edu.gmu.vfml.tree.AlternativeTreeBudget;
 import edu.gmu.vfml.tree.CNode;
-import edu.gmu.vfml.tree.InstanceId;
+import edu.gmu.vfml.tree.FadedCNode;
+import edu.gmu.vfml.tree.FadingClock;
+import edu.gmu.vfml.tree.InstanceWindow;
+import edu.gmu.vfml.tree.LearnerMetrics;
+import edu.gmu.vfml.tree.MemoryReport;
 import edu.gmu.vfml.tree.Node;
 
 /**
@@ -43,9 +54,9 @@ public class CVFDT extends VFDT
     private static final long serialVersionUID = 1L;
 
     /**
-     * Linked list of instances currently inside the CVFDT learning window.
+     * Encoded instances currently inside the CVFDT learning window.
      */
-    protected LinkedList<InstanceId> window;
+    transient protected InstanceWindow window;
 
     /**
      * The maximum size of the window list.
@@ -53,12 +64,28 @@ public class CVFDT extends VFDT
     protected int windowSize = 200000;
 
     /**
-     * The number of data instances between rechecks of the validity of all
-     * alternative trees. This is a global count on instances (see
-     * splitValidityCounter).
+     * If not empty, the window is memory mapped from a temporary file created in
+     * this directory instead of being stored on the heap (for windows larger than
+     * available memory).
+     */
+    protected String windowDirectory = "";
+
+    /**
+     * The number of data instances between rechecks of the validity of the split
+     * of each internal node of the tree and alternative trees, counted from when
+     * the node was split (or last rechecked). This is a global count on instances
+     * (see splitValidityCounter), so the rechecks of nodes split at different times
+     * are spread out.
      */
     protected int splitRecheckInterval = 20000;
 
+    /**
+     * The maximum number of nodes rechecked per data instance (0 for no limit).
+     * Rechecks which are due but exceed the quantum are performed on the following
+     * instances.
+     */
+    protected int recheckQuantum = 0;
+
     /**
      * Every altTestModeInterval instances, CNodes enter a test state where they
      * use the next altTestModeDuration instances to evaluate whether or not
@@ -67,9 +94,57 @@ public class CVFDT extends VFDT
     protected int testInterval = 9000;
     protected int testDuration = 1000;
 
+    /**
+     * Tree-wide limits on the number of alternative trees and on the estimated
+     * bytes of their statistics (0 for no limit).
+     * 
+     * @see AlternativeTreeBudget
+     */
+    protected int maxAlternativeTrees = 0;
+    protected long maxAlternativeBytes = 0;
+
+    /**
+     * If greater than 0, node statistics decay exponentially by this factor per
+     * instance instead of being maintained over a sliding window (see {@link FadedCNode}).
+     * No window is stored and windowSize and windowDirectory are ignored. A fading
+     * factor of 1 - 1 / windowSize gives an effective window of similar size.
+     */
+    protected double fadingFactor = 0;
+
+    transient protected FadingClock fadingClock;
+
     transient protected int largestNodeId;
     transient protected int splitValidityCounter;
 
+    /**
+     * Internal nodes of the tree and alternative trees waiting to have the validity
+     * of their split rechecked, in the order they are due. Every node is queued
+     * splitRecheckInterval instances ahead when it splits and again after each
+     * recheck, so appending keeps the queue sorted. Nodes discarded from the tree
+     * are dropped when they reach the head of the queue.
+     *
+     * @see CNode#getRecheckDue()
+     */
+    transient protected ArrayDeque<CNode> recheckQueue;
+
+    transient protected AlternativeTreeBudget alternativeTreeBudget;
+
+    /**
+     * The root of the innermost alternative tree being traversed (null while
+     * traversing the main tree), which is charged for the splits of its leaves.
+     */
+    transient protected CNode alternativeTree;
+
+    /**
+     * Receives the values of instances as they roll off the window.
+     */
+    transient protected int[] expiredValues;
+
+    /**
+     * Receives the encoded values of the instance currently being processed.
+     */
+    transient protected int[] instanceValues;
+
     public int getWindowSize( )
     {
         return windowSize;
@@ -80,6 +155,39 @@ public class CVFDT extends VFDT
         this.windowSize = windowSize;
     }
 
+    /**
+     * @return the path of the directory in which the window is memory mapped
+     *         (or an empty string if the window is stored on the heap)
+     */
+    public String getWindowDirectory( )
+    {
+        return windowDirectory;
+    }
+
+    /**
+     * @see #getWindowDirectory()
+     */
+    public void setWindowDirectory( String windowDirectory )
+    {
+        this.windowDirectory = windowDirectory;
+    }
+
+    /**
+     * @return the per instance decay of node statistics (or 0 if a sliding window is used)
+     */
+    public double getFadingFactor( )
+    {
+        return fadingFactor;
+    }
+
+    /**
+     * @see #getFadingFactor()
+     */
+    public void setFadingFactor( double fadingFactor )
+    {
+        this.fadingFactor = fadingFactor;
+    }
+
     public int getSplitRecheckInterval( )
     {
         return splitRecheckInterval;
@@ -90,6 +198,16 @@ public class CVFDT extends VFDT
         this.splitRecheckInterval = splitRecheckInterval;
     }
 
+    public int getRecheckQuantum( )
+    {
+        return recheckQuantum;
+    }
+
+    public void setRecheckQuantum( int recheckQuantum )
+    {
+        this.recheckQuantum = recheckQuantum;
+    }
+
     public int getTestInterval( )
     {
         return testInterval;
@@ -110,6 +228,26 @@ public class CVFDT extends VFDT
         this.testDuration = testDuration;
     }
 
+    public int getMaxAlternativeTrees( )
+    {
+        return maxAlternativeTrees;
+    }
+
+    public void setMaxAlternativeTrees( int maxAlternativeTrees )
+    {
+        this.maxAlternativeTrees = maxAlternativeTrees;
+    }
+
+    public long getMaxAlternativeBytes( )
+    {
+        return maxAlternativeBytes;
+    }
+
+    public void setMaxAlternativeBytes( long maxAlternativeBytes )
+    {
+        this.maxAlternativeBytes = maxAlternativeBytes;
+    }
+
     /**
      * Lists the command line options available to this classifier.
      */
@@ -119,9 +257,14 @@ public class CVFDT extends VFDT
     {
         Vector list = super.listOptionsVector( );
         list.addElement( new Option( "\tWindow Size.\n", "W", 1, "-W <window size>" ) );
+        list.addElement( new Option( "\tMemory Mapped Window Directory.\n", "M", 1, "-M <window directory>" ) );
+        list.addElement( new Option( "\tFading Factor (0 to use a sliding window).\n", "E", 1, "-E <fading factor>" ) );
         list.addElement( new Option( "\tSplit Recheck Interval.\n", "F", 1, "-F <split recheck interval>" ) );
+        list.addElement( new Option( "\tSplit Recheck Quantum (0 for no limit).\n", "Q", 1, "-Q <maximum nodes rechecked per instance>" ) );
         list.addElement( new Option( "\tTest Mode Interval.\n", "I", 1, "-I <test mode interval>" ) );
         list.addElement( new Option( "\tTest Mode Duration.\n", "D", 1, "-D <test mode duration>" ) );
+        list.addElement( new Option( "\tMaximum Alternative Trees.\n", "A", 1, "-A <max alternative trees>" ) );
+        list.addElement( new Option( "\tMaximum Alternative Tree Bytes.\n", "B", 1, "-B <max alternative tree bytes>" ) );
         return list;
     }
 
@@ -142,12 +285,26 @@ public class CVFDT extends VFDT
             windowSize = Integer.parseInt( windowSizeString );
         }
 
+        windowDirectory = Utils.getOption( 'M', options );
+
+        String fadingFactorString = Utils.getOption( 'E', options );
+        if ( !fadingFactorString.isEmpty( ) )
+        {
+            fadingFactor = Double.parseDouble( fadingFactorString );
+        }
+
         String splitRecheckString = Utils.getOption( 'F', options );
         if ( !splitRecheckString.isEmpty( ) )
         {
             splitRecheckInterval = Integer.parseInt( splitRecheckString );
         }
 
+        String recheckQuantumString = Utils.getOption( 'Q', options );
+        if ( !recheckQuantumString.isEmpty( ) )
+        {
+            recheckQuantum = Integer.parseInt( recheckQuantumString );
+        }
+
         String altTestModeIntervalString = Utils.getOption( 'I', options );
         if ( !splitRecheckString.isEmpty( ) )
         {
@@ -159,6 +316,18 @@ public class CVFDT extends VFDT
         {
             testDuration = Integer.parseInt( altTestModeDurationString );
         }
+
+        String maxAlternativeTreesString = Utils.getOption( 'A', options );
+        if ( !maxAlternativeTreesString.isEmpty( ) )
+        {
+            maxAlternativeTrees = Integer.parseInt( maxAlternativeTreesString );
+        }
+
+        String maxAlternativeBytesString = Utils.getOption( 'B', options );
+        if ( !maxAlternativeBytesString.isEmpty( ) )
+        {
+            maxAlternativeBytes = Long.parseLong( maxAlternativeBytesString );
+        }
     }
 
     /**
@@ -174,15 +343,33 @@ public class CVFDT extends VFDT
         options.add( "-W" );
         options.add( String.valueOf( windowSize ) );
 
+        if ( !windowDirectory.isEmpty( ) )
+        {
+            options.add( "-M" );
+            options.add( windowDirectory );
+        }
+
+        options.add( "-E" );
+        options.add( String.valueOf( fadingFactor ) );
+
         options.add( "-F" );
         options.add( String.valueOf( splitRecheckInterval ) );
 
+        options.add( "-Q" );
+        options.add( String.valueOf( recheckQuantum ) );
+
         options.add( "-I" );
         options.add( String.valueOf( testInterval ) );
 
         options.add( "-D" );
         options.add( String.valueOf( testDuration ) );
 
+        options.add( "-A" );
+        options.add( String.valueOf( maxAlternativeTrees ) );
+
+        options.add( "-B" );
+        options.add( String.valueOf( maxAlternativeBytes ) );
+
         return options;
     }
 
@@ -224,34 +411,227 @@ public class CVFDT extends VFDT
     @Override
     public void initialize( Instances data ) throws Exception
     {
+        // the clock must exist before the root node is created
+        this.fadingClock = fadingFactor > 0 ? new FadingClock( fadingFactor ) : null;
+
         super.initialize( data );
 
-        this.window = new LinkedList<InstanceId>( );
+        if ( this.window != null )
+        {
+            this.window.close( );
+            this.window = null;
+        }
+
+        // the window holds at most windowSize instances plus the newly arrived instance
+        // (faded statistics forget old instances without storing them)
+        if ( !isFading( ) )
+        {
+            if ( windowDirectory.isEmpty( ) )
+            {
+                this.window = new InstanceWindow( header, windowSize + 1 );
+            }
+            else
+            {
+                this.window = new InstanceWindow( header, windowSize + 1, new File( windowDirectory ) );
+            }
+        }
+
+        this.expiredValues = new int[numAttributes];
+        this.instanceValues = new int[numAttributes];
         this.largestNodeId = 0;
         this.splitValidityCounter = 0;
+        this.recheckQueue = new ArrayDeque<CNode>( );
+        this.alternativeTreeBudget = new AlternativeTreeBudget( header, maxAlternativeTrees, maxAlternativeBytes );
+    }
+
+    /**
+     * Adds the CVFDT bookkeeping (and the fading clock) to checkpoints. The recheck
+     * queue is stored as the positions of the queued nodes in a walk of the tree,
+     * with their due counts. The window is written by {@link #captureCheckpointData()}.
+     */
+    @Override
+    protected void writeCheckpointState( DataOutput out ) throws IOException
+    {
+        super.writeCheckpointState( out );
+
+        out.writeInt( largestNodeId );
+        out.writeInt( splitValidityCounter );
+
+        List<CNode> nodes = new ArrayList<CNode>( );
+        collectNodes( getRoot( ), nodes );
+        IdentityHashMap<CNode, Integer> positions = new IdentityHashMap<CNode, Integer>( );
+        for ( int i = 0; i < nodes.size( ); i++ )
+        {
+            positions.put( nodes.get( i ), i );
+        }
+
+        // queued nodes which have been discarded from the tree are left out
+        int queued = 0;
+        for ( CNode node : recheckQueue )
+        {
+            if ( positions.containsKey( node ) ) queued++;
+        }
+        out.writeInt( queued );
+        for ( CNode node : recheckQueue )
+        {
+            Integer position = positions.get( node );
+            if ( position != null )
+            {
+                out.writeInt( position );
+                out.writeInt( node.getRecheckDue( ) );
+            }
+        }
+
+        if ( isFading( ) )
+        {
+            out.writeLong( fadingClock.getTime( ) );
+        }
+    }
+
+    @Override
+    protected void readCheckpointState( DataInput in ) throws IOException
+    {
+        super.readCheckpointState( in );
+
+        largestNodeId = in.readInt( );
+        splitValidityCounter = in.readInt( );
+
+        List<CNode> nodes = new ArrayList<CNode>( );
+        collectNodes( getRoot( ), nodes );
+        recheckQueue.clear( );
+        int queued = in.readInt( );
+        for ( int i = 0; i < queued; i++ )
+        {
+            CNode node = nodes.get( in.readInt( ) );
+            node.scheduleRecheck( in.readInt( ) );
+            recheckQueue.addLast( node );
+        }
+
+        if ( isFading( ) )
+        {
+            fadingClock.setTime( in.readLong( ) );
+        }
+
+        alternativeTreeBudget.clear( );
+        registerAlternativeTrees( getRoot( ) );
+    }
+
+    /**
+     * Takes a snapshot of the window, which is copied on the checkpoint thread
+     * while training continues (see {@link InstanceWindow.Snapshot}).
+     */
+    @Override
+    protected CheckpointData captureCheckpointData( ) throws IOException
+    {
+        if ( isFading( ) ) return null;
+
+        final InstanceWindow.Snapshot snapshot = window.snapshot( );
+        return new CheckpointData( )
+        {
+            @Override
+            public void write( DataOutput out ) throws IOException
+            {
+                byte[] entries = snapshot.getEntries( );
+                out.writeInt( entries.length );
+                out.write( entries );
+            }
+        };
+    }
+
+    @Override
+    protected void readCheckpointData( DataInput in ) throws IOException
+    {
+        if ( isFading( ) ) return;
+
+        byte[] entries = new byte[in.readInt( )];
+        in.readFully( entries );
+        window.addEntries( entries );
+    }
+
+    /**
+     * Adds the nodes of the tree rooted at node to the provided list, each node
+     * followed by its alternative trees and then its successors.
+     */
+    protected void collectNodes( CNode node, List<CNode> nodes )
+    {
+        nodes.add( node );
+
+        for ( int i = 0; i < node.getAlternativeCount( ); i++ )
+        {
+            collectNodes( node.getAlternativeTree( node.getAlternativeAttributeIndex( i ) ), nodes );
+        }
+
+        if ( node.getAttribute( ) != null )
+        {
+            for ( int valueIndex = 0; valueIndex < node.getAttribute( ).numValues( ); valueIndex++ )
+            {
+                collectNodes( node.getSuccessor( valueIndex ), nodes );
+            }
+        }
+    }
+
+    /**
+     * Registers the alternative trees of the tree rooted at node (and the
+     * alternative trees nested inside them) with the alternative tree budget.
+     */
+    protected void registerAlternativeTrees( CNode node )
+    {
+        for ( int i = 0; i < node.getAlternativeCount( ); i++ )
+        {
+            int altAttributeIndex = node.getAlternativeAttributeIndex( i );
+            alternativeTreeBudget.register( node, altAttributeIndex );
+            registerAlternativeTrees( node.getAlternativeTree( altAttributeIndex ) );
+        }
+
+        if ( node.getAttribute( ) != null )
+        {
+            for ( int valueIndex = 0; valueIndex < node.getAttribute( ).numValues( ); valueIndex++ )
+            {
+                registerAlternativeTrees( node.getSuccessor( valueIndex ) );
+            }
+        }
     }
 
     public void addInstance( Instance instance )
     {
         try
         {
-            // update the counts associated with this instance
-            // unlike VFDT, we start at the root because we will reach multiple
-            // leaf nodes in the various alternative trees
-            traverseAndIncrementCounts( instance, getRoot( ) );
-
-            // add the new instance to the window and remove old instance (if necessary)
-            updateWindow( instance );
+            // encode the instance once, all node counts are updated from the encoded values
+            for ( int i = 0; i < numAttributes; i++ )
+            {
+                instanceValues[i] = ( int ) instance.value( i );
+            }
 
-            // split nodes with attributes which have surpassed the hoeffding bound
-            // and/or test the alternative subtrees for nodes in test mode
-            traverseAndSplitOrTest( instance, getRoot( ) );
+            metrics.recordInstance( );
 
-            // check whether new alternative nodes should be created
-            if ( ++splitValidityCounter % splitRecheckInterval == 0 )
+            int expiredId = -1;
+            if ( isFading( ) )
             {
-                traverseAndCheckSplitValidity( instance, getRoot( ) );
+                // age the statistics of every node by one instance
+                fadingClock.tick( );
             }
+            else
+            {
+                // add the new instance to the window and remove old instance (if necessary)
+                expiredId = updateWindow( instanceValues );
+                metrics.setWindowOccupancy( window.size( ) );
+            }
+            int[] expired = expiredId < 0 ? null : expiredValues;
+
+            // in a single pass over the tree (starting at the root because we will reach
+            // multiple leaf nodes in the various alternative trees) update the counts
+            // associated with this instance and the expired instance, split nodes with
+            // attributes which have surpassed the hoeffding bound and/or test the
+            // alternative subtrees for nodes in test mode
+            traverse( instance, instanceValues, expired, expiredId, getRoot( ), true );
+
+            // recheck the nodes whose split is due to be rechecked (which may create alternative trees)
+            splitValidityCounter++;
+            checkSplitValidity( instance );
+
+            // spend the alternative tree budget on the most promising alternative trees
+            alternativeTreeBudget.rebalance( );
+            metrics.setAlternativeTrees( alternativeTreeBudget.getTreeCount( ), alternativeTreeBudget.getNodeCount( ) );
         }
         catch ( Exception e )
         {
@@ -274,7 +654,33 @@ public class CVFDT extends VFDT
     @Override
     protected Node newNode( Instances instances )
     {
-        return new CNode( instances, classAttribute, ++largestNodeId );
+        if ( isFading( ) )
+        {
+            return new FadedCNode( instances, classAttribute, ++largestNodeId, fadingClock );
+        }
+        else
+        {
+            return new CNode( instances, classAttribute, ++largestNodeId );
+        }
+    }
+
+    /**
+     * @return true if node statistics are exponentially faded instead of being
+     *         maintained over a sliding window
+     */
+    protected boolean isFading( )
+    {
+        return fadingClock != null;
+    }
+
+    /**
+     * @return true if the leaf has seen a multiple of nMin instances
+     */
+    protected boolean isSplitCheckDue( CNode node )
+    {
+        // faded counts converge instead of growing, so use the undecayed count
+        int count = isFading( ) ? ( ( FadedCNode ) node ).getSeenCount( ) : node.getCount( );
+        return count % nMin == 0;
     }
 
     /**
@@ -290,138 +696,321 @@ public class CVFDT extends VFDT
     }
 
     /**
-     * Traverse the entire tree and determine if new alternative trees should be created.
+     * Also reports the memory reserved for the window.
+     */
+    @Override
+    public MemoryReport getMemoryReport( )
+    {
+        MemoryReport report = super.getMemoryReport( );
+        if ( window != null ) report.setWindow( window.getBytes( ), window.isMapped( ) );
+        return report;
+    }
+
+    /**
+     * Applies the change in the shape of the tree caused by the promotion of an
+     * alternative tree of node to the metrics (by walking the replaced subtree and
+     * the promoted subtree rather than the whole tree) and to the alternative tree
+     * budget.
      */
-    protected void traverseAndCheckSplitValidity( Instance instance, CNode node )
+    protected void recordPromotion( CNode node, Instance instance, boolean mainTree )
     {
-        // only check the validity of split for non-leaf node (i.e. nodes with splits)
-        if ( node.getAttribute( ) != null )
+        CNode replaced = node.takeReplacedTree( );
+
+        // the alternative trees of the promoted tree now belong to node, and the
+        // alternative trees of node and in the replaced subtree are discarded
+        alternativeTreeBudget.reparent( node );
+        alternativeTreeBudget.release( );
+
+        // node keeps its place in the recheck queue (the detached root of the
+        // promoted tree is dropped from it when it is due)
+        scheduleRecheck( node );
+
+        if ( mainTree )
         {
-            // check the validity of the split on node.getAttribute() by
-            // potentially creating a node with an alternative split
-            recheckNodeSplit( instance, node );
+            // the nodes of the promoted tree now belong to the main tree
+            metrics.recordReplacement( getDepth( node, instance ), new LearnerMetrics.Shape( replaced ), new LearnerMetrics.Shape( node ) );
+        }
+        else
+        {
+            // the nodes of the promoted tree replace nodes of the alternative tree containing node
+            alternativeTreeBudget.replace( alternativeTree, replaced.getTreeSize( ), node.getTreeSize( ) );
+        }
+    }
 
-            // traverse into all the alternative nodes
-            for ( CNode alt : node.getAlternativeTrees( ) )
-            {
-                traverseAndCheckSplitValidity( instance, alt );
-            }
+    /**
+     * Also recounts the alternative subtrees.
+     */
+    @Override
+    protected void recountMetrics( )
+    {
+        super.recountMetrics( );
 
-            // descend into all child nodes
-            int numValues = node.getAttribute( ).numValues( );
-            for ( int attributeValue = 0; attributeValue < numValues; attributeValue++ )
+        // alternative trees, alternative tree nodes
+        long[] alternatives = new long[2];
+        countAlternatives( getRoot( ), alternatives );
+        metrics.setAlternativeTrees( ( int ) alternatives[0], alternatives[1] );
+    }
+
+    private void countAlternatives( CNode node, long[] alternatives )
+    {
+        for ( int i = 0; i < node.getAlternativeCount( ); i++ )
+        {
+            CNode alt = node.getAlternativeTree( node.getAlternativeAttributeIndex( i ) );
+            alternatives[0]++;
+            alternatives[1] += alt.getTreeSize( );
+            countAlternatives( alt, alternatives );
+        }
+
+        if ( node.getAttribute( ) != null )
+        {
+            for ( int valueIndex = 0; valueIndex < node.getAttribute( ).numValues( ); valueIndex++ )
             {
-                CNode childNode = node.getSuccessor( attributeValue );
-                traverseAndCheckSplitValidity( instance, childNode );
+                countAlternatives( node.getSuccessor( valueIndex ), alternatives );
             }
         }
     }
 
     /**
-     * In addition to incrementing the counts for the main tree,
-     * increment the counts of any alternative trees being grown from this Node.
+     * Queues node (which has just split) to have the validity of its split
+     * rechecked splitRecheckInterval instances from now, unless it is already queued.
      */
-    protected void traverseAndIncrementCounts( Instance instance, CNode node )
+    protected void scheduleRecheck( CNode node )
     {
-        // increment the counts for this node
-        // (unlike VFDT, statistics are kept for each data instance
-        // at every node in the tree in order to continuously monitor
-        // the validity of previous decisions)
-        node.incrementCounts( instance );
-
-        // traverse into all the alternative nodes
-        for ( CNode alt : node.getAlternativeTrees( ) )
+        if ( !node.isRecheckScheduled( ) )
         {
-            traverseAndIncrementCounts( instance, alt );
+            node.scheduleRecheck( splitValidityCounter + splitRecheckInterval );
+            recheckQueue.addLast( node );
         }
+    }
 
-        // if tree node is not a leaf node,
-        // descend into the appropriate child node
-        if ( node.getAttribute( ) != null )
+    /**
+     * Rechecks the split validity of the queued nodes which are due (at most
+     * recheckQuantum of them, if set), and queues them for their next recheck.
+     * Nodes whose counts have not changed since their last recheck are queued
+     * again without being rechecked (rechecking them could not produce a
+     * different result).
+     */
+    protected void checkSplitValidity( Instance instance )
+    {
+        int rechecked = 0;
+        while ( !recheckQueue.isEmpty( ) && ( recheckQuantum <= 0 || rechecked < recheckQuantum ) )
         {
-            int attributeValue = ( int ) instance.value( node.getAttribute( ) );
-            CNode childNode = node.getSuccessor( attributeValue );
-            traverseAndIncrementCounts( instance, childNode );
+            // compared by difference, so that the instance counter may wrap around
+            CNode node = recheckQueue.peekFirst( );
+            if ( node.getRecheckDue( ) - splitValidityCounter > 0 ) break;
+
+            recheckQueue.removeFirst( );
+            node.unscheduleRecheck( );
+
+            // the node may have been discarded (with a dropped alternative tree or a
+            // subtree replaced by an alternative tree) or pruned since it was queued
+            if ( node.isDetached( ) || node.getAttribute( ) == null ) continue;
+
+            if ( node.getChangesSinceRecheck( ) > 0 )
+            {
+                // check the validity of the split on node.getAttribute() by
+                // potentially creating a node with an alternative split
+                recheckNodeSplit( instance, node );
+                node.resetChangesSinceRecheck( );
+                rechecked++;
+
+                // evictions may have discarded the alternative tree containing node
+                if ( node.isDetached( ) ) continue;
+            }
+
+            scheduleRecheck( node );
         }
     }
 
     /**
-     * Called when an instance rolls off the window. Removes the instance
-     * from the counts of each node
+     * <p>Performs all the per instance work of CVFDT in a single traversal of the
+     * main tree and alternative trees:</p>
+     * 
+     * <ul>
+     * <li>Increments the counts of each node the instance reaches (unlike VFDT,
+     * statistics are kept for each data instance at every node in the tree in order
+     * to continuously monitor the validity of previous decisions).</li>
+     * <li>Decrements the counts of the expired instance (if any) for nodes on
+     * its path. Once the expired instance's path diverges from the new instance's path,
+     * the rest of its path is handled by {@link #traverseAndDecrementCounts(int[], CNode, int, boolean)}.</li>
+     * <li>If a node is in test mode, compares the predictions of the node and its
+     * alternative trees against the true class. The predictions are the values
+     * returned from the traversal of each subtree, so subtrees are not walked again.</li>
+     * <li>If not in test mode, checks leaf nodes which have reached a multiple of nMin
+     * instances for potential new splits.</li>
+     * </ul>
+     * 
+     * @param instance the new instance
+     * @param values the encoded attribute values of the new instance
+     * @param expired the encoded attribute values of the expired instance (or null)
+     * @param expiredId the id stored with the expired instance
+     * @param mainTree true if node is part of the main tree, false if it belongs
+     *        to an alternative subtree (used to maintain the metrics)
+     * @return the class predicted for the new instance by the tree rooted at node
      */
-    protected void traverseAndDecrementCounts( Instance instance, CNode node, int id )
+    protected double traverse( Instance instance, int[] values, int[] expired, int expiredId, CNode node, boolean mainTree )
     {
+        // enter or leave test mode first: if leaving test mode promotes an alternative
+        // tree, the promoted tree then receives the counts for this instance below
+        int altCount = node.getAlternativeCount( );
+        boolean promoted = node.incrementTestCount( testInterval, testDuration );
+        boolean testMode = node.isTestMode( );
+        int actual = values[classAttribute.index( )];
+
+        if ( promoted )
+        {
+            // the node was replaced by one of its alternative trees (the compiled
+            // tree only holds the main tree, so it is rebuilt on demand)
+            if ( mainTree )
+            {
+                invalidateFlatTree( );
+            }
+            metrics.recordPromotion( );
+            recordPromotion( node, instance, mainTree );
+            fireSubtreeChanged( node );
+        }
+        else if ( node.getAlternativeCount( ) < altCount )
+        {
+            // dropped alternative trees are released from the budget after the traversal
+            alternativeTreeBudget.release( );
+        }
+
+        node.incrementCounts( values );
+        boolean leaf = mainTree && node.getAttribute( ) == null;
+        if ( leaf && ( isFading( ) ? ( ( FadedCNode ) node ).getSeenCount( ) : node.getCount( ) ) == 1 )
+        {
+            metrics.recordLeafActivated( );
+        }
+
         // nodes with greater id than the instance id were created after the
         // instance arrived and do not have the instance data included in their counts
-        if ( node.getId( ) <= id )
+        if ( expired != null && node.getId( ) <= expiredId )
+        {
+            node.decrementCounts( expired );
+            if ( leaf && node.getCount( ) == 0 )
+            {
+                metrics.recordLeafDeactivated( );
+            }
+        }
+
+        // keep the compiled tree's prediction for the node up to date
+        if ( mainTree && flatTree != null )
         {
-            node.decrementCounts( instance );
+            flatTree.update( node );
         }
 
         // traverse into all the alternative nodes
-        for ( CNode alt : node.getAlternativeTrees( ) )
+        for ( int i = 0; i < node.getAlternativeCount( ); i++ )
         {
-            traverseAndDecrementCounts( instance, alt, id );
+            int altAttributeIndex = node.getAlternativeAttributeIndex( i );
+            CNode alt = node.getAlternativeTree( altAttributeIndex );
+            CNode enclosingTree = alternativeTree;
+            alternativeTree = alt;
+            double altPredicted = traverse( instance, values, expired, expiredId, alt, false );
+            alternativeTree = enclosingTree;
+
+            if ( testMode )
+            {
+                node.recordAlternativeTest( altAttributeIndex, altPredicted == actual );
+            }
         }
 
-        // if the main tree node is not a leaf node,
+        double predicted;
+        Attribute attribute = node.getAttribute( );
+
+        // if tree node is not a leaf node,
         // descend into the appropriate child node
-        if ( node.getAttribute( ) != null )
+        if ( attribute != null )
         {
-            int attributeValue = ( int ) instance.value( node.getAttribute( ) );
-            CNode childNode = node.getSuccessor( attributeValue );
-            traverseAndDecrementCounts( instance, childNode, id );
+            int attributeIndex = attribute.index( );
+
+            // if the expired instance goes a different way, finish removing it separately
+            if ( expired != null && expired[attributeIndex] != values[attributeIndex] )
+            {
+                traverseAndDecrementCounts( expired, node.getSuccessor( expired[attributeIndex] ), expiredId, mainTree );
+                expired = null;
+            }
+
+            CNode childNode = node.getSuccessor( values[attributeIndex] );
+            predicted = traverse( instance, values, expired, expiredId, childNode, mainTree );
+        }
+        else
+        {
+            predicted = node.getClassValue( );
+
+            // if we are not in test mode and the node is a leaf node and
+            // the count is a multiple of nMin,
+            // check to see whether we should split the node
+            if ( !testMode && isSplitCheckDue( node ) )
+            {
+                checkNodeSplit( instance, node );
+
+                if ( mainTree && flatTree != null && node.getAttribute( ) != null )
+                {
+                    flatTree.split( node );
+                }
+            }
+        }
+
+        // If we're in test mode, evaluate the predicted class of this instance and
+        // compare it to the correct classification then store whether or not it matches.
+        if ( testMode )
+        {
+            node.recordTest( predicted == actual );
         }
+
+        return predicted;
     }
 
     /**
-     * <p>Traverses the main tree and alternative trees. If in test mode, classifies
-     * the instance and increments the testCorrectCount if the classification
-     * is correct.</p>
-     * 
-     * <p>If not in test mode, does nothing unless this is a leaf node and nMin
-     * instances have been reached. At that point it checks for potential new
-     * splits of the node.</p>
+     * Called when an instance rolls off the window. Removes the instance
+     * from the counts of each node
      * 
-     * @param instance
+     * @param values the encoded attribute values of the expired instance
+     * @param mainTree true if node is part of the main tree
      */
-    protected void traverseAndSplitOrTest( Instance instance, CNode node )
+    protected void traverseAndDecrementCounts( int[] values, CNode node, int id, boolean mainTree )
     {
-        node.incrementTestCount( testInterval, testDuration );
-
-        // If we're in test mode, instead of considering splits, evaluate
-        // the predicted class of this instance and compare it to the correct
-        // classification then store whether or not it matches. Perform this
-        // calculation for this node and each alternative node.
-        if ( node.isTestMode( ) )
+        // nodes with greater id than the instance id were created after the
+        // instance arrived and do not have the instance data included in their counts
+        if ( node.getId( ) <= id )
         {
-            node.testInstance( instance );
+            node.decrementCounts( values );
+            if ( mainTree && node.getAttribute( ) == null && node.getCount( ) == 0 )
+            {
+                metrics.recordLeafDeactivated( );
+            }
+            if ( mainTree && flatTree != null )
+            {
+                flatTree.update( node );
+            }
         }
 
         // traverse into all the alternative nodes
-        for ( CNode alt : node.getAlternativeTrees( ) )
+        for ( int i = 0; i < node.getAlternativeCount( ); i++ )
         {
-            traverseAndSplitOrTest( instance, alt );
+            CNode alt = node.getAlternativeTree( node.getAlternativeAttributeIndex( i ) );
+            traverseAndDecrementCounts( values, alt, id, false );
         }
 
-        // if tree node is not a leaf node,
+        // if the main tree node is not a leaf node,
         // descend into the appropriate child node
         if ( node.getAttribute( ) != null )
         {
-            int attributeValue = ( int ) instance.value( node.getAttribute( ) );
+            int attributeValue = values[node.getAttribute( ).index( )];
             CNode childNode = node.getSuccessor( attributeValue );
-            traverseAndSplitOrTest( instance, childNode );
-        }
-        // if we are not in test mode and the node is a leaf node and
-        // the count is a multiple of nMin,
-        // check to see whether we should split the node
-        else if ( !node.isTestMode( ) && node.getCount( ) % nMin == 0 )
-        {
-            checkNodeSplit( instance, node );
+            traverseAndDecrementCounts( values, childNode, id, mainTree );
         }
     }
 
-    protected void updateWindow( Instance instance )
+    /**
+     * Adds the new instance to the window and removes the oldest instance from the
+     * window (into expiredValues) if the window is full.
+     * 
+     * @param values the encoded attribute values of the new instance
+     * @return the id of the expired instance, or -1 if no instance expired
+     */
+    protected int updateWindow( int[] values )
     {
         //XXX CVFDT Table 2 uses the largest ID *among the nodes that instance
         //XXX passes through* I think using the overall largest ID has the
@@ -429,24 +1018,37 @@ public class CVFDT extends VFDT
 
         // add the new instance to the window
         // tag it with the id of the largest currently existing node
-        window.addLast( new InstanceId( instance, largestNodeId ) );
+        window.add( values, largestNodeId );
 
         // drop the oldest instance from the window
         if ( window.size( ) > windowSize )
         {
-            InstanceId oldInstanceId = window.removeFirst( );
-            int oldId = oldInstanceId.getId( );
-
-            // iterate through the tree (and all alternative trees) and decrement
-            // counts if the node's id is less than or equal to oldId
-            traverseAndDecrementCounts( instance, getRoot( ), oldId );
+            return window.removeFirst( expiredValues );
+        }
+        else
+        {
+            return -1;
         }
     }
 
+    /**
+     * Leaves of alternative trees only split if the alternative tree budget allows
+     * the alternative tree to grow (otherwise the split is checked again later).
+     */
     @Override
     protected void splitNode( Node node, Attribute attribute, Instance instance )
     {
+        if ( alternativeTree != null && !alternativeTreeBudget.grow( alternativeTree, attribute.numValues( ) ) )
+        {
+            return;
+        }
+
         ( ( CNode ) node ).split( attribute, instance, ++largestNodeId );
+        scheduleRecheck( ( CNode ) node );
+        recordSplit( node, attribute, instance );
+        fireSubtreeChanged( node );
+
+        scheduleCodeGeneration( );
     }
 
     /**
@@ -501,7 +1103,15 @@ public class CVFDT extends VFDT
         if ( !alreadyExists && ( tie || confident ) )
         {
             Attribute attribute = instance.attribute( firstIndex );
-            node.addAlternativeNode( instance, attribute, ++largestNodeId );
+
+            // the new alternative tree has a root node and one leaf per attribute value
+            // (evictions may discard the alternative tree containing node)
+            if ( alternativeTreeBudget.admit( 1 + attribute.numValues( ) ) && !node.isDetached( ) )
+            {
+                node.addAlternativeNode( instance, attribute, ++largestNodeId );
+                alternativeTreeBudget.register( node, firstIndex );
+                scheduleRecheck( node.getAlternativeTree( firstIndex ) );
+            }
         }
     }
 }
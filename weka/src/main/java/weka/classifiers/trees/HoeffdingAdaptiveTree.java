@@ -0,0 +1,363 @@
+package weka.classifiers.trees;
+
+import static com.metsci.glimpse.util.logging.LoggerUtils.logWarning;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+import java.util.logging.Logger;
+
+import weka.core.Attribute;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.Utils;
+import edu.gmu.vfml.tree.AdaptiveCNode;
+import edu.gmu.vfml.tree.Adwin;
+import edu.gmu.vfml.tree.CNode;
+import edu.gmu.vfml.tree.LearnerMetrics;
+import edu.gmu.vfml.tree.Node;
+
+/**
+ * <!-- globalinfo-start -->
+ * will be automatically replaced
+ * <!-- globalinfo-end -->
+ *
+ *  <!-- technical-bibtex-start -->
+ * will be automatically replaced
+ * <!-- technical-bibtex-end -->
+ *
+ *  <!-- options-start -->
+ * will be automatically replaced
+ * <!-- options-end -->
+ *
+ * <p>A window-free alternative to {@link CVFDT}. Instead of maintaining counts over
+ * a fixed size window of instances and periodically entering test phases to compare
+ * alternative trees, each node monitors its own error with an {@link Adwin} change
+ * detector (see {@link AdaptiveCNode}). Alternate subtrees are started as soon as the
+ * error of a node increases and replace the node as soon as they are significantly
+ * better, so the tree reacts to drift without storing any instances.</p>
+ *
+ * @see weka.classifiers.trees.CVFDT
+ * @author ulman
+ */
+public class HoeffdingAdaptiveTree extends VFDT
+{
+    private static final Logger logger = Logger.getLogger( HoeffdingAdaptiveTree.class.getName( ) );
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The confidence of the change detectors monitoring the error of each node.
+     */
+    protected double changeConfidence = 0.002;
+
+    transient protected int largestNodeId;
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String changeConfidenceTipText( )
+    {
+        return "The confidence of the change detectors which monitor the error of each node " + "(smaller values detect fewer, more certain changes).";
+    }
+
+    /**
+     * @see Adwin#Adwin(double)
+     */
+    public double getChangeConfidence( )
+    {
+        return changeConfidence;
+    }
+
+    /**
+     * @see #getChangeConfidence()
+     */
+    public void setChangeConfidence( double changeConfidence )
+    {
+        this.changeConfidence = changeConfidence;
+    }
+
+    /**
+     * Lists the command line options available to this classifier.
+     */
+    @Override
+    @SuppressWarnings( { "rawtypes", "unchecked" } )
+    public Vector listOptionsVector( )
+    {
+        Vector list = super.listOptionsVector( );
+        list.addElement( new Option( "\tChange Detector Confidence.\n", "C", 1, "-C <change detector confidence>" ) );
+        return list;
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     * @param options the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions( String[] options ) throws Exception
+    {
+        super.setOptions( options );
+
+        String changeConfidenceString = Utils.getOption( 'C', options );
+        if ( !changeConfidenceString.isEmpty( ) )
+        {
+            changeConfidence = Double.parseDouble( changeConfidenceString );
+        }
+    }
+
+    /**
+     * Gets the current settings of the Classifier.
+     *
+     * @return an array of strings suitable for passing to setOptions
+     */
+    @Override
+    public List<String> getOptionsList( )
+    {
+        List<String> options = super.getOptionsList( );
+
+        options.add( "-C" );
+        options.add( String.valueOf( changeConfidence ) );
+
+        return options;
+    }
+
+    /**
+     * Returns an instance of a TechnicalInformation object, containing
+     * detailed information about the technical background of this class,
+     * e.g., paper reference or book this class is based on.
+     *
+     * @return the technical information about this class
+     */
+    @Override
+    public TechnicalInformation getTechnicalInformation( )
+    {
+        TechnicalInformation info = new TechnicalInformation( Type.INPROCEEDINGS );
+
+        info.setValue( Field.AUTHOR, "Albert Bifet and Ricard Gavalda" );
+        info.setValue( Field.YEAR, "2009" );
+        info.setValue( Field.TITLE, "Adaptive Learning from Evolving Data Streams" );
+        info.setValue( Field.BOOKTITLE, "Advances in Intelligent Data Analysis VIII" );
+        info.setValue( Field.SERIES, "IDA '09" );
+        info.setValue( Field.PAGES, "249-260" );
+        info.setValue( Field.PUBLISHER, "Springer" );
+
+        return info;
+    }
+
+    @Override
+    public AdaptiveCNode getRoot( )
+    {
+        return ( AdaptiveCNode ) root;
+    }
+
+    /**
+     * Perform classifier initialization steps.
+     */
+    @Override
+    public void initialize( Instances data ) throws Exception
+    {
+        this.largestNodeId = 0;
+
+        super.initialize( data );
+    }
+
+    @Override
+    protected Node newNode( Instances instances )
+    {
+        return new AdaptiveCNode( instances, classAttribute, ++largestNodeId, changeConfidence );
+    }
+
+    /**
+     * Adds the largest node id to checkpoints (the error change detectors and the
+     * alternates are part of the tree).
+     */
+    @Override
+    protected void writeCheckpointState( DataOutput out ) throws IOException
+    {
+        super.writeCheckpointState( out );
+        out.writeInt( largestNodeId );
+    }
+
+    @Override
+    protected void readCheckpointState( DataInput in ) throws IOException
+    {
+        super.readCheckpointState( in );
+        largestNodeId = in.readInt( );
+    }
+
+    @Override
+    public void addInstance( Instance instance )
+    {
+        try
+        {
+            metrics.recordInstance( );
+            traverse( instance, getRoot( ), true );
+        }
+        catch ( Exception e )
+        {
+            logWarning( logger, "Trouble processing instance.", e );
+        }
+    }
+
+    /**
+     * <p>Updates the tree rooted at node (and the alternates of its nodes) with
+     * a new instance in a single pass:</p>
+     *
+     * <ul>
+     * <li>Leaves record the instance in their counts and are checked for
+     * potential new splits every nMin instances (as in VFDT).</li>
+     * <li>Every node on the path records whether its subtree misclassified the
+     * instance (the prediction is made before the leaf is updated).</li>
+     * <li>Internal nodes of the main tree whose error increases start an alternate
+     * subtree, and nodes with alternates are replaced by their alternate
+     * once it is significantly more accurate.</li>
+     * </ul>
+     *
+     * @param mainTree true if node is part of the main tree (and so of the flat tree),
+     *        false if it belongs to an alternate subtree
+     * @return the class predicted for the instance by the tree rooted at node
+     */
+    protected double traverse( Instance instance, AdaptiveCNode node, boolean mainTree )
+    {
+        double predicted;
+        Attribute attribute = node.getAttribute( );
+
+        if ( attribute != null )
+        {
+            // the alternate learns from the same instances as the subtree it may replace
+            AdaptiveCNode alternate = node.getAlternate( );
+            if ( alternate != null )
+            {
+                traverse( instance, alternate, false );
+            }
+
+            AdaptiveCNode childNode = node.getSuccessor( ( int ) instance.value( attribute ) );
+            predicted = traverse( instance, childNode, mainTree );
+        }
+        else
+        {
+            predicted = node.getClassValue( );
+
+            node.incrementCounts( instance );
+            if ( mainTree && node.getCount( ) == 1 )
+            {
+                metrics.recordLeafActivated( );
+            }
+
+            if ( mainTree && flatTree != null )
+            {
+                flatTree.update( node );
+            }
+
+            // check whether or not to split the node on an attribute
+            if ( node.getCount( ) % nMin == 0 )
+            {
+                checkNodeSplit( instance, node );
+
+                if ( mainTree && flatTree != null && node.getAttribute( ) != null )
+                {
+                    flatTree.split( node );
+                }
+            }
+        }
+
+        boolean errorIncreased = node.recordError( predicted != instance.classValue( ) );
+
+        // only internal nodes have alternates (a leaf already adapts by splitting)
+        if ( attribute != null )
+        {
+            AdaptiveCNode alternate = node.getAlternate( );
+            if ( errorIncreased && mainTree && alternate == null )
+            {
+                node.startAlternate( instance, ++largestNodeId );
+                metrics.recordAlternativeTreesAdded( 1, 1 );
+            }
+            else if ( node.compareAlternate( ) && mainTree )
+            {
+                // the structure of the main tree changed below node
+                invalidateFlatTree( );
+                metrics.recordPromotion( );
+                recordPromotion( node, instance );
+                fireSubtreeChanged( node );
+            }
+            else if ( alternate != null && node.getAlternate( ) == null )
+            {
+                metrics.recordAlternativeTreesRemoved( 1, alternate.getTreeSize( ) );
+            }
+        }
+
+        return predicted;
+    }
+
+    /**
+     * Applies the change in the shape of the tree caused by the promotion of the
+     * alternate of node to the metrics, by walking the replaced subtree and the
+     * promoted subtree (rather than the whole tree).
+     */
+    protected void recordPromotion( AdaptiveCNode node, Instance instance )
+    {
+        CNode replaced = node.takeReplacedTree( );
+        LearnerMetrics.Shape promoted = new LearnerMetrics.Shape( node );
+        metrics.recordReplacement( getDepth( node, instance ), new LearnerMetrics.Shape( replaced ), promoted );
+
+        // the promoted alternate now belongs to the main tree, and the alternates
+        // in the replaced subtree are discarded
+        long[] alternates = new long[2];
+        for ( int valueIndex = 0; valueIndex < replaced.getAttribute( ).numValues( ); valueIndex++ )
+        {
+            countAlternates( ( AdaptiveCNode ) replaced.getSuccessor( valueIndex ), alternates );
+        }
+        metrics.recordAlternativeTreesRemoved( 1 + ( int ) alternates[0], promoted.getNodes( ) + alternates[1] );
+    }
+
+    /**
+     * Also recounts the alternates.
+     */
+    @Override
+    protected void recountMetrics( )
+    {
+        super.recountMetrics( );
+
+        // alternates, alternate nodes
+        long[] alternates = new long[2];
+        countAlternates( getRoot( ), alternates );
+        metrics.setAlternativeTrees( ( int ) alternates[0], alternates[1] );
+    }
+
+    private void countAlternates( AdaptiveCNode node, long[] alternates )
+    {
+        if ( node.getAttribute( ) == null ) return;
+
+        if ( node.getAlternate( ) != null )
+        {
+            alternates[0]++;
+            alternates[1] += node.getAlternate( ).getTreeSize( );
+        }
+
+        for ( int valueIndex = 0; valueIndex < node.getAttribute( ).numValues( ); valueIndex++ )
+        {
+            countAlternates( node.getSuccessor( valueIndex ), alternates );
+        }
+    }
+
+    @Override
+    protected void splitNode( Node node, Attribute attribute, Instance instance )
+    {
+        // the flat tree is updated in traverse (nodes of alternates are not part of it)
+        ( ( AdaptiveCNode ) node ).split( attribute, instance, ++largestNodeId );
+        recordSplit( node, attribute, instance );
+        fireSubtreeChanged( node );
+
+        scheduleCodeGeneration( );
+    }
+}
@@ -0,0 +1,222 @@
+package weka.classifiers.trees;
+
+import java.util.List;
+import java.util.Vector;
+
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.Utils;
+import edu.gmu.vfml.tree.Adwin;
+
+/**
+ * <!-- globalinfo-start -->
+ * will be automatically replaced
+ * <!-- globalinfo-end -->
+ *
+ *  <!-- technical-bibtex-start -->
+ * will be automatically replaced
+ * <!-- technical-bibtex-end -->
+ *
+ *  <!-- options-start -->
+ * will be automatically replaced
+ * <!-- options-end -->
+ *
+ * <p>An adaptive random forest of {@link SubspaceVFDT} trees. Members are trained in
+ * parallel with leveraging bagging weights (see {@link OnlineBagging}), each leaf only
+ * considers a random subset of the attributes, and each member's error is monitored
+ * with an {@link Adwin} change detector: a member whose error increases significantly
+ * is replaced by a new, empty tree.</p>
+ *
+ * @see weka.classifiers.trees.OnlineBagging
+ * @author ulman
+ */
+public class HoeffdingForest extends OnlineBagging
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The confidence of the change detectors monitoring the error of each
+     * member (0 disables member replacement).
+     */
+    protected double changeConfidence = 1e-5;
+
+    transient protected Adwin[] errorEstimators;
+    transient protected int[] replacements;
+
+    public HoeffdingForest( )
+    {
+        this.lambda = 6.0;
+        this.memberSpec = SubspaceVFDT.class.getName( );
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String changeConfidenceTipText( )
+    {
+        return "The confidence of the change detectors which monitor the error of each member " + "(0 disables the replacement of members).";
+    }
+
+    public double getChangeConfidence( )
+    {
+        return changeConfidence;
+    }
+
+    public void setChangeConfidence( double changeConfidence )
+    {
+        this.changeConfidence = changeConfidence;
+    }
+
+    /**
+     * @return the number of times the member with the provided index has been replaced
+     */
+    public int getReplacementCount( int index )
+    {
+        return replacements[index];
+    }
+
+    /**
+     * Lists the command line options available to this classifier.
+     */
+    @Override
+    @SuppressWarnings( { "rawtypes", "unchecked" } )
+    public Vector listOptionsVector( )
+    {
+        Vector list = super.listOptionsVector( );
+        list.addElement( new Option( "\tChange Detector Confidence.\n", "C", 1, "-C <change detector confidence>" ) );
+        return list;
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     * @param options the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions( String[] options ) throws Exception
+    {
+        super.setOptions( options );
+
+        String changeConfidenceString = Utils.getOption( 'C', options );
+        if ( !changeConfidenceString.isEmpty( ) )
+        {
+            changeConfidence = Double.parseDouble( changeConfidenceString );
+        }
+    }
+
+    /**
+     * Gets the current settings of the Classifier.
+     *
+     * @return an array of strings suitable for passing to setOptions
+     */
+    @Override
+    public List<String> getOptionsList( )
+    {
+        List<String> options = super.getOptionsList( );
+
+        options.add( "-C" );
+        options.add( String.valueOf( changeConfidence ) );
+
+        return options;
+    }
+
+    /**
+     * Returns a string describing the classifier.
+     * @return a description suitable for the GUI.
+     */
+    @Override
+    public String globalInfo( )
+    {
+        //@formatter:off
+        return "Class for an adaptive random forest of VFDT trees. " +
+               "For more information see: \n\n" +
+               getTechnicalInformation( ).toString( );
+        //@formatter:on
+    }
+
+    /**
+     * Returns an instance of a TechnicalInformation object, containing
+     * detailed information about the technical background of this class,
+     * e.g., paper reference or book this class is based on.
+     *
+     * @return the technical information about this class
+     */
+    @Override
+    public TechnicalInformation getTechnicalInformation( )
+    {
+        TechnicalInformation info = new TechnicalInformation( Type.ARTICLE );
+
+        info.setValue( Field.AUTHOR, "Heitor M. Gomes, Albert Bifet, Jesse Read, et al." );
+        info.setValue( Field.YEAR, "2017" );
+        info.setValue( Field.TITLE, "Adaptive random forests for evolving data stream classification" );
+        info.setValue( Field.JOURNAL, "Machine Learning" );
+        info.setValue( Field.VOLUME, "106" );
+        info.setValue( Field.PAGES, "1469-1495" );
+        info.setValue( Field.PUBLISHER, "Springer" );
+
+        return info;
+    }
+
+    @Override
+    public void initialize( Instances data ) throws Exception
+    {
+        super.initialize( data );
+
+        errorEstimators = new Adwin[ensembleSize];
+        replacements = new int[ensembleSize];
+        for ( int i = 0; i < ensembleSize; i++ )
+        {
+            errorEstimators[i] = changeConfidence > 0 ? new Adwin( changeConfidence ) : null;
+        }
+    }
+
+    /**
+     * Gives each member its own attribute subset seed.
+     */
+    @Override
+    protected VFDT newMember( int index ) throws Exception
+    {
+        VFDT member = super.newMember( index );
+
+        if ( member instanceof SubspaceVFDT )
+        {
+            SubspaceVFDT subspaceMember = ( SubspaceVFDT ) member;
+            int generation = replacements == null ? 0 : replacements[index];
+            subspaceMember.setSeed( seed + index + generation * ensembleSize );
+        }
+
+        return member;
+    }
+
+    /**
+     * Tests the member on the instance before training it, replacing the member
+     * if its error has increased significantly.
+     */
+    @Override
+    protected void addInstance( int index, Instance instance ) throws Exception
+    {
+        Adwin errorEstimator = errorEstimators[index];
+        if ( errorEstimator != null )
+        {
+            boolean error = members[index].classifyInstance( instance ) != instance.classValue( );
+
+            double oldError = errorEstimator.getEstimation( );
+            if ( errorEstimator.add( error ? 1.0 : 0.0 ) && errorEstimator.getEstimation( ) > oldError )
+            {
+                replacements[index]++;
+                members[index] = newMember( index );
+                members[index].initialize( header );
+                errorEstimators[index] = new Adwin( changeConfidence );
+            }
+        }
+
+        super.addInstance( index, instance );
+    }
+}
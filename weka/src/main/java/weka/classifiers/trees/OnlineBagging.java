@@ -0,0 +1,689 @@
+package weka.classifiers.trees;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.TechnicalInformationHandler;
+import weka.core.Utils;
+import edu.gmu.vfml.tree.FlatTree;
+
+/**
+ * <!-- globalinfo-start -->
+ * will be automatically replaced
+ * <!-- globalinfo-end -->
+ *
+ *  <!-- technical-bibtex-start -->
+ * will be automatically replaced
+ * <!-- technical-bibtex-end -->
+ *
+ *  <!-- options-start -->
+ * will be automatically replaced
+ * <!-- options-end -->
+ *
+ * <p>An ensemble of {@link VFDT} (or {@link CVFDT}) members trained with online
+ * bagging: each member learns from each instance k times, where k is drawn from a
+ * Poisson(lambda) distribution. With lambda = 1 this simulates bootstrap sampling
+ * of the stream, larger values (e.g. 6) give the extra diversity of leveraging bagging.</p>
+ *
+ * <p>Batches of instances passed to {@link #addInstances(Instance[], int)}, or of
+ * encoded instances passed to {@link #addInstances(int[], int)}, are shared read-only
+ * by all members and each member learns from the batch on its own thread. Batches of
+ * encoded instances passed to {@link #classifyInstances(int[], int, int[])} are
+ * classified by all members in parallel before the votes are combined.</p>
+ *
+ * @see weka.classifiers.trees.VFDT
+ * @author ulman
+ */
+public class OnlineBagging extends Classifier implements TechnicalInformationHandler, OptionHandler, UpdateableClassifier
+{
+    private static final long serialVersionUID = 1L;
+
+    /** The number of members in the ensemble. */
+    protected int ensembleSize = 10;
+
+    /** The mean of the Poisson distribution of instance weights. */
+    protected double lambda = 1.0;
+
+    /** Seed for the member instance weights. */
+    protected int seed = 1;
+
+    /** The number of training threads (0 for one per available processor). */
+    protected int numThreads = 0;
+
+    /** The number of instances per batch when training with buildClassifier. */
+    protected int batchSize = 1000;
+
+    /** The class name and options of the ensemble members. */
+    protected String memberSpec = VFDT.class.getName( );
+
+    protected VFDT[] members;
+    protected Instances header;
+    protected int numClasses;
+    protected int numAttributes;
+
+    transient protected Random[] random;
+    transient protected ExecutorService executor;
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String ensembleSizeTipText( )
+    {
+        return "The number of trees in the ensemble.";
+    }
+
+    public int getEnsembleSize( )
+    {
+        return ensembleSize;
+    }
+
+    public void setEnsembleSize( int ensembleSize )
+    {
+        this.ensembleSize = ensembleSize;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String lambdaTipText( )
+    {
+        return "The mean number of times each member learns from each instance " + "(1 for online bagging, larger values for leveraging bagging).";
+    }
+
+    public double getLambda( )
+    {
+        return lambda;
+    }
+
+    public void setLambda( double lambda )
+    {
+        this.lambda = lambda;
+    }
+
+    public int getSeed( )
+    {
+        return seed;
+    }
+
+    public void setSeed( int seed )
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String numThreadsTipText( )
+    {
+        return "The number of threads used to train and query members (0 for one per processor).";
+    }
+
+    public int getNumThreads( )
+    {
+        return numThreads;
+    }
+
+    public void setNumThreads( int numThreads )
+    {
+        this.numThreads = numThreads;
+    }
+
+    public int getBatchSize( )
+    {
+        return batchSize;
+    }
+
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String memberSpecTipText( )
+    {
+        return "The class name and options of the ensemble members (VFDT or a subclass).";
+    }
+
+    /**
+     * @return the class name of the ensemble members followed by their options
+     */
+    public String getMemberSpec( )
+    {
+        return memberSpec;
+    }
+
+    /**
+     * @see #getMemberSpec()
+     */
+    public void setMemberSpec( String memberSpec )
+    {
+        this.memberSpec = memberSpec;
+    }
+
+    /**
+     * @return the ensemble members (null before the ensemble is initialized)
+     */
+    public VFDT[] getMembers( )
+    {
+        return members;
+    }
+
+    /**
+     * Lists the command line options available to this classifier.
+     */
+    @Override
+    @SuppressWarnings( { "rawtypes" } )
+    public Enumeration listOptions( )
+    {
+        return listOptionsVector( ).elements( );
+    }
+
+    /**
+     * @see #listOptions()
+     */
+    @SuppressWarnings( { "rawtypes", "unchecked" } )
+    public Vector listOptionsVector( )
+    {
+        Vector newVector = new Vector( );
+        newVector.addElement( new Option( "\tEnsemble Size.\n", "K", 1, "-K <ensemble size>" ) );
+        newVector.addElement( new Option( "\tPoisson Lambda.\n", "L", 1, "-L <lambda>" ) );
+        newVector.addElement( new Option( "\tRandom Seed.\n", "S", 1, "-S <seed>" ) );
+        newVector.addElement( new Option( "\tNumber of Threads.\n", "P", 1, "-P <threads>" ) );
+        newVector.addElement( new Option( "\tBatch Size.\n", "Z", 1, "-Z <batch size>" ) );
+        newVector.addElement( new Option( "\tMember Classifier.\n", "W", 1, "-W <classname and options>" ) );
+        return newVector;
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     * @param options the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions( String[] options ) throws Exception
+    {
+        String ensembleSizeString = Utils.getOption( 'K', options );
+        if ( !ensembleSizeString.isEmpty( ) )
+        {
+            ensembleSize = Integer.parseInt( ensembleSizeString );
+        }
+
+        String lambdaString = Utils.getOption( 'L', options );
+        if ( !lambdaString.isEmpty( ) )
+        {
+            lambda = Double.parseDouble( lambdaString );
+        }
+
+        String seedString = Utils.getOption( 'S', options );
+        if ( !seedString.isEmpty( ) )
+        {
+            seed = Integer.parseInt( seedString );
+        }
+
+        String numThreadsString = Utils.getOption( 'P', options );
+        if ( !numThreadsString.isEmpty( ) )
+        {
+            numThreads = Integer.parseInt( numThreadsString );
+        }
+
+        String batchSizeString = Utils.getOption( 'Z', options );
+        if ( !batchSizeString.isEmpty( ) )
+        {
+            batchSize = Integer.parseInt( batchSizeString );
+        }
+
+        String memberString = Utils.getOption( 'W', options );
+        if ( !memberString.isEmpty( ) )
+        {
+            memberSpec = memberString;
+        }
+    }
+
+    /**
+     * Gets the current settings of the Classifier.
+     *
+     * @see #getOptions()
+     * @return an array of strings suitable for passing to setOptions
+     */
+    public List<String> getOptionsList( )
+    {
+        List<String> options = new LinkedList<String>( );
+
+        options.add( "-K" );
+        options.add( String.valueOf( ensembleSize ) );
+
+        options.add( "-L" );
+        options.add( String.valueOf( lambda ) );
+
+        options.add( "-S" );
+        options.add( String.valueOf( seed ) );
+
+        options.add( "-P" );
+        options.add( String.valueOf( numThreads ) );
+
+        options.add( "-Z" );
+        options.add( String.valueOf( batchSize ) );
+
+        options.add( "-W" );
+        options.add( memberSpec );
+
+        return options;
+    }
+
+    /**
+     * Gets the current settings of the Classifier.
+     *
+     * @return an array of strings suitable for passing to setOptions
+     */
+    @Override
+    public String[] getOptions( )
+    {
+        return getOptionsList( ).toArray( new String[0] );
+    }
+
+    /**
+     * Returns a string describing the classifier.
+     * @return a description suitable for the GUI.
+     */
+    public String globalInfo( )
+    {
+        //@formatter:off
+        return "Class for an ensemble of VFDT trees trained with online bagging. " +
+               "For more information see: \n\n" +
+               getTechnicalInformation( ).toString( );
+        //@formatter:on
+    }
+
+    /**
+     * Returns an instance of a TechnicalInformation object, containing
+     * detailed information about the technical background of this class,
+     * e.g., paper reference or book this class is based on.
+     *
+     * @return the technical information about this class
+     */
+    @Override
+    public TechnicalInformation getTechnicalInformation( )
+    {
+        TechnicalInformation info = new TechnicalInformation( Type.INPROCEEDINGS );
+
+        info.setValue( Field.AUTHOR, "Nikunj C. Oza and Stuart Russell" );
+        info.setValue( Field.YEAR, "2001" );
+        info.setValue( Field.TITLE, "Online Bagging and Boosting" );
+        info.setValue( Field.BOOKTITLE, "Eighth International Workshop on Artificial Intelligence and Statistics" );
+        info.setValue( Field.PAGES, "105-112" );
+        info.setValue( Field.PUBLISHER, "Morgan Kaufmann" );
+
+        TechnicalInformation additional = info.add( Type.INPROCEEDINGS );
+        additional.setValue( Field.AUTHOR, "Albert Bifet, Geoff Holmes and Bernhard Pfahringer" );
+        additional.setValue( Field.YEAR, "2010" );
+        additional.setValue( Field.TITLE, "Leveraging Bagging for Evolving Data Streams" );
+        additional.setValue( Field.BOOKTITLE, "Machine Learning and Knowledge Discovery in Databases" );
+        additional.setValue( Field.SERIES, "ECML PKDD '10" );
+        additional.setValue( Field.PAGES, "135-150" );
+        additional.setValue( Field.PUBLISHER, "Springer" );
+
+        return info;
+    }
+
+    /**
+     * Returns default capabilities of the classifier.
+     *
+     * @return the capabilities of this classifier
+     */
+    @Override
+    public Capabilities getCapabilities( )
+    {
+        Capabilities result = super.getCapabilities( );
+        result.disableAll( );
+
+        // attributes
+        result.enable( Capability.NOMINAL_ATTRIBUTES );
+
+        // class
+        result.enable( Capability.NOMINAL_CLASS );
+        result.enable( Capability.MISSING_CLASS_VALUES );
+
+        // instances
+        result.setMinimumNumberInstances( 0 );
+
+        return result;
+    }
+
+    /**
+     * Builds the ensemble from the provided data, in batches of batchSize instances.
+     *
+     * @param data the training data
+     * @exception Exception if classifier can't be built successfully
+     */
+    @Override
+    public void buildClassifier( Instances data ) throws Exception
+    {
+        initialize( data );
+
+        Instance[] batch = new Instance[batchSize];
+        int size = 0;
+        for ( int i = 0; i < data.numInstances( ); i++ )
+        {
+            batch[size++] = data.instance( i );
+            if ( size == batchSize )
+            {
+                addInstances( batch, size );
+                size = 0;
+            }
+        }
+
+        addInstances( batch, size );
+    }
+
+    /**
+     * Creates and initializes the ensemble members.
+     */
+    public void initialize( Instances data ) throws Exception
+    {
+        // can classifier handle the data?
+        getCapabilities( ).testWithFail( data );
+
+        header = new Instances( data, 0 );
+        numClasses = data.classAttribute( ).numValues( );
+        numAttributes = data.numAttributes( );
+
+        members = new VFDT[ensembleSize];
+        random = new Random[ensembleSize];
+        for ( int i = 0; i < ensembleSize; i++ )
+        {
+            members[i] = newMember( i );
+            members[i].initialize( data );
+            random[i] = new Random( seed + i );
+        }
+    }
+
+    /**
+     * Creates the ensemble member with the provided index (before it is initialized).
+     */
+    protected VFDT newMember( int index ) throws Exception
+    {
+        String[] options = Utils.splitOptions( memberSpec );
+        if ( options.length == 0 )
+        {
+            throw new IllegalArgumentException( "OnlineBagging: no member classifier specified." );
+        }
+
+        String className = options[0];
+        options[0] = "";
+
+        Classifier classifier = Classifier.forName( className, options );
+        if ( !( classifier instanceof VFDT ) )
+        {
+            throw new IllegalArgumentException( "OnlineBagging: member classifier must be a VFDT." );
+        }
+
+        return ( VFDT ) classifier;
+    }
+
+    /**
+     * Trains all members on a single instance (on the calling thread).
+     */
+    public void addInstance( Instance instance ) throws Exception
+    {
+        for ( int i = 0; i < members.length; i++ )
+        {
+            addInstance( i, instance );
+        }
+    }
+
+    /**
+     * Trains all members on a single instance (see {@link #addInstance(Instance)}).
+     */
+    @Override
+    public void updateClassifier( Instance instance ) throws Exception
+    {
+        addInstance( instance );
+    }
+
+    /**
+     * Trains all members on the first numInstances instances of the batch, each
+     * member on its own thread. Returns once all members have finished. The batch
+     * must not be modified until this method returns.
+     */
+    public void addInstances( final Instance[] batch, final int numInstances ) throws Exception
+    {
+        if ( numInstances == 0 ) return;
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>( members.length );
+        for ( int i = 0; i < members.length; i++ )
+        {
+            final int index = i;
+            tasks.add( new Callable<Void>( )
+            {
+                @Override
+                public Void call( ) throws Exception
+                {
+                    for ( int j = 0; j < numInstances; j++ )
+                    {
+                        addInstance( index, batch[j] );
+                    }
+                    return null;
+                }
+            } );
+        }
+
+        invokeAll( tasks );
+    }
+
+    /**
+     * Trains all members on a batch of encoded instances, each member on its own
+     * thread (see {@link #addInstances(Instance[], int)}). Each instance is decoded
+     * once on the calling thread and the decoded instances are shared read-only by
+     * the members. Returns once all members have finished.
+     *
+     * @param values encoded attribute values (including the class) for numInstances
+     *        instances, numAttributes consecutive nominal value indices per instance
+     * @param numInstances the number of instances to learn from
+     */
+    public void addInstances( int[] values, int numInstances ) throws Exception
+    {
+        Instance[] batch = new Instance[numInstances];
+        for ( int j = 0; j < numInstances; j++ )
+        {
+            batch[j] = decode( values, j );
+        }
+
+        addInstances( batch, numInstances );
+    }
+
+    /**
+     * @return a new instance of the data set with the encoded values of the instance
+     *         with the provided index in the batch
+     */
+    protected Instance decode( int[] values, int index )
+    {
+        double[] attributeValues = new double[numAttributes];
+        int offset = index * numAttributes;
+        for ( int i = 0; i < numAttributes; i++ )
+        {
+            attributeValues[i] = values[offset + i];
+        }
+
+        Instance instance = new Instance( 1.0, attributeValues );
+        instance.setDataset( header );
+        return instance;
+    }
+
+    /**
+     * Trains the member with the provided index on an instance with a Poisson(lambda) weight.
+     */
+    protected void addInstance( int index, Instance instance ) throws Exception
+    {
+        int weight = poisson( lambda, random[index] );
+        for ( int k = 0; k < weight; k++ )
+        {
+            members[index].addInstance( instance );
+        }
+    }
+
+    /**
+     * Draws from a Poisson distribution (Knuth's multiplication method, suitable for small lambda).
+     */
+    protected static int poisson( double lambda, Random random )
+    {
+        double limit = Math.exp( -lambda );
+        double product = random.nextDouble( );
+        int k = 0;
+        while ( product > limit )
+        {
+            k++;
+            product *= random.nextDouble( );
+        }
+        return k;
+    }
+
+    /**
+     * Classifies a batch of encoded instances. Each member classifies the whole batch
+     * on its own thread, then the members' votes are combined. The members' trees are
+     * compiled on the calling thread first, so that the member threads only read them.
+     *
+     * @param values encoded attribute values for numInstances instances
+     * @param numInstances the number of instances to classify
+     * @param result receives the predicted class index of each instance
+     * @see VFDT#classifyInstances(int[], int, int[])
+     */
+    public void classifyInstances( final int[] values, final int numInstances, int[] result ) throws Exception
+    {
+        final int[][] memberResults = new int[members.length][numInstances];
+
+        // trees are compiled lazily (and recompiled after CVFDT members learn), which
+        // must not happen on the member threads
+        final FlatTree[] trees = new FlatTree[members.length];
+        for ( int i = 0; i < members.length; i++ )
+        {
+            trees[i] = members[i].getFlatTree( );
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>( members.length );
+        for ( int i = 0; i < members.length; i++ )
+        {
+            final int index = i;
+            tasks.add( new Callable<Void>( )
+            {
+                @Override
+                public Void call( ) throws Exception
+                {
+                    trees[index].classify( values, numInstances, numAttributes, memberResults[index] );
+                    return null;
+                }
+            } );
+        }
+
+        invokeAll( tasks );
+
+        int[] votes = new int[numClasses];
+        for ( int j = 0; j < numInstances; j++ )
+        {
+            for ( int i = 0; i < members.length; i++ )
+            {
+                votes[memberResults[i][j]]++;
+            }
+
+            result[j] = Utils.maxIndex( votes );
+            Arrays.fill( votes, 0 );
+        }
+    }
+
+    /**
+     * Returns the fraction of members voting for each class.
+     */
+    @Override
+    public double[] distributionForInstance( Instance instance ) throws Exception
+    {
+        double[] distribution = new double[numClasses];
+        for ( VFDT member : members )
+        {
+            distribution[( int ) member.classifyInstance( instance )]++;
+        }
+
+        Utils.normalize( distribution );
+        return distribution;
+    }
+
+    /**
+     * Runs the tasks on the member thread pool and rethrows the first failure.
+     */
+    protected void invokeAll( List<Callable<Void>> tasks ) throws Exception
+    {
+        for ( Future<Void> future : getExecutor( ).invokeAll( tasks ) )
+        {
+            future.get( );
+        }
+    }
+
+    protected ExecutorService getExecutor( )
+    {
+        if ( executor == null )
+        {
+            int threads = numThreads > 0 ? numThreads : Runtime.getRuntime( ).availableProcessors( );
+            executor = Executors.newFixedThreadPool( threads, new ThreadFactory( )
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "Online bagging member" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+
+        return executor;
+    }
+
+    /**
+     * Prints the ensemble size and the size of each member tree.
+     */
+    @Override
+    public String toString( )
+    {
+        if ( members == null )
+        {
+            return "OnlineBagging: No model built yet.";
+        }
+
+        StringBuilder b = new StringBuilder( "OnlineBagging: " ).append( members.length ).append( " members\n" );
+        for ( int i = 0; i < members.length; i++ )
+        {
+            b.append( "member " ).append( i ).append( ": " ).append( members[i].getRoot( ).getTreeSize( ) ).append( " nodes\n" );
+        }
+        return b.toString( );
+    }
+}
@@ -0,0 +1,186 @@
+package weka.classifiers.trees;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.Vector;
+
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.Utils;
+import edu.gmu.vfml.data.RestorableRandom;
+import edu.gmu.vfml.tree.Node;
+import edu.gmu.vfml.tree.SubspaceNode;
+
+/**
+ * <!-- globalinfo-start -->
+ * will be automatically replaced
+ * <!-- globalinfo-end -->
+ *
+ *  <!-- options-start -->
+ * will be automatically replaced
+ * <!-- options-end -->
+ *
+ * <p>A VFDT whose leaves only keep counts for, and may only be split on, a random
+ * subset of the attributes (see {@link SubspaceNode}). Used as the member tree of
+ * {@link HoeffdingForest}.</p>
+ *
+ * @see weka.classifiers.trees.VFDT
+ * @author ulman
+ */
+public class SubspaceVFDT extends VFDT
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of attributes considered at each leaf (0 for the square root
+     * of the number of non class attributes).
+     */
+    protected int subspaceSize = 0;
+
+    /** Seed for the attribute subsets. */
+    protected int seed = 1;
+
+    /**
+     * Source of the attribute subsets of all nodes (its state is checkpointed).
+     */
+    protected RestorableRandom random;
+    transient protected int currentSubspaceSize;
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String subspaceSizeTipText( )
+    {
+        return "The number of randomly chosen attributes each leaf keeps counts for " + "(0 for the square root of the number of attributes).";
+    }
+
+    public int getSubspaceSize( )
+    {
+        return subspaceSize;
+    }
+
+    public void setSubspaceSize( int subspaceSize )
+    {
+        this.subspaceSize = subspaceSize;
+    }
+
+    public int getSeed( )
+    {
+        return seed;
+    }
+
+    public void setSeed( int seed )
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Lists the command line options available to this classifier.
+     */
+    @Override
+    @SuppressWarnings( { "rawtypes", "unchecked" } )
+    public Vector listOptionsVector( )
+    {
+        Vector list = super.listOptionsVector( );
+        list.addElement( new Option( "\tSubspace Size.\n", "M", 1, "-M <attributes per leaf>" ) );
+        list.addElement( new Option( "\tRandom Seed.\n", "S", 1, "-S <seed>" ) );
+        return list;
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     * @param options the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions( String[] options ) throws Exception
+    {
+        super.setOptions( options );
+
+        String subspaceSizeString = Utils.getOption( 'M', options );
+        if ( !subspaceSizeString.isEmpty( ) )
+        {
+            subspaceSize = Integer.parseInt( subspaceSizeString );
+        }
+
+        String seedString = Utils.getOption( 'S', options );
+        if ( !seedString.isEmpty( ) )
+        {
+            seed = Integer.parseInt( seedString );
+        }
+    }
+
+    /**
+     * Gets the current settings of the Classifier.
+     *
+     * @return an array of strings suitable for passing to setOptions
+     */
+    @Override
+    public List<String> getOptionsList( )
+    {
+        List<String> options = super.getOptionsList( );
+
+        options.add( "-M" );
+        options.add( String.valueOf( subspaceSize ) );
+
+        options.add( "-S" );
+        options.add( String.valueOf( seed ) );
+
+        return options;
+    }
+
+    /**
+     * Returns a string describing the classifier.
+     * @return a description suitable for the GUI.
+     */
+    @Override
+    public String globalInfo( )
+    {
+        //@formatter:off
+        return "Class for constructing a VFDT tree whose leaves only consider a random " +
+               "subset of the attributes. For more information on VFDT see: \n\n" +
+               getTechnicalInformation( ).toString( );
+        //@formatter:on
+    }
+
+    @Override
+    public void initialize( Instances data ) throws Exception
+    {
+        // the root node is created by super.initialize( )
+        this.random = new RestorableRandom( seed );
+        this.currentSubspaceSize = subspaceSize > 0 ? subspaceSize : ( int ) Math.max( 1, Math.round( Math.sqrt( data.numAttributes( ) - 1 ) ) );
+
+        super.initialize( data );
+    }
+
+    @Override
+    protected Node newNode( Instances instances )
+    {
+        return new SubspaceNode( instances, classAttribute, currentSubspaceSize, random );
+    }
+
+    /**
+     * Adds the state of the attribute subset generator to checkpoints, so that a
+     * restored learner draws the same subsets for new leaves.
+     */
+    @Override
+    protected void writeCheckpointState( DataOutput out ) throws IOException
+    {
+        super.writeCheckpointState( out );
+        out.writeLong( random.getState( ) );
+    }
+
+    @Override
+    protected void readCheckpointState( DataInput in ) throws IOException
+    {
+        super.readCheckpointState( in );
+
+        // the restored nodes share the generator created by initialize( )
+        random.setState( in.readLong( ) );
+    }
+}
@@ -2,13 +2,41 @@ package weka.classifiers.trees;
 
 import static com.metsci.glimpse.util.logging.LoggerUtils.logWarning;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+
 import weka.classifiers.Classifier;
+import weka.classifiers.UpdateableClassifier;
 import weka.core.Attribute;
 import weka.core.Capabilities;
 import weka.core.Capabilities.Capability;
@@ -22,7 +50,17 @@ import weka.core.TechnicalInformation.Field;
 import weka.core.TechnicalInformation.Type;
 import weka.core.TechnicalInformationHandler;
 import weka.core.Utils;
+import edu.gmu.vfml.data.EncodedSource;
+import edu.gmu.vfml.tree.CompiledTreeClassifier;
+import edu.gmu.vfml.tree.FlatTree;
+import edu.gmu.vfml.tree.LearnerMetrics;
+import edu.gmu.vfml.tree.MappedTreeModel;
+import edu.gmu.vfml.tree.MemoryReport;
 import edu.gmu.vfml.tree.Node;
+import edu.gmu.vfml.tree.ReducedErrorPruner;
+import edu.gmu.vfml.tree.TreeCompiler;
+import edu.gmu.vfml.tree.TreeListener;
+import edu.gmu.vfml.tree.TreeSnapshot;
 
 /**
  * <!-- globalinfo-start -->
@@ -40,17 +78,25 @@ import edu.gmu.vfml.tree.Node;
  * @see weka.classifiers.trees.Id3
  * @author ulman
  */
-public class VFDT extends Classifier implements TechnicalInformationHandler, OptionHandler
+public class VFDT extends Classifier implements TechnicalInformationHandler, OptionHandler, UpdateableClassifier
 {
     private static final Logger logger = Logger.getLogger( VFDT.class.getName( ) );
 
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
+
+    private static final int CHECKPOINT_MAGIC = 0x56464350; // "VFCP"
+    private static final int CHECKPOINT_VERSION = 3;
 
     /** Root node of classification tree. */
     protected Node root;
 
+    /** Compiled inference form of the tree (created on first request). */
+    transient protected FlatTree flatTree;
+
+    protected Instances header;
     protected Attribute classAttribute;
     protected int numClasses;
+    protected int numAttributes;
 
     // if the hoeffding bound drops below tie confidence, assume the best two attributes
     // are very similar (and thus might require an extremely large number of instances
@@ -61,9 +107,27 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
     // nodes are only rechecked for potential splits every nmin data instances
     protected int nMin = 30;
 
+    // the tree is regenerated as a CompiledTreeClassifier in the background
+    // every codeGenerationInterval splits (0 disables code generation)
+    protected int codeGenerationInterval = 0;
+
     transient protected double R_squared; // log2( numClasses )^2 
     transient protected double ln_inv_delta; // ln( 1 / delta )
 
+    transient protected int splitsSinceCodeGeneration;
+    transient protected volatile CompiledTreeClassifier compiledClassifier;
+    transient protected ExecutorService codeGenerationExecutor;
+    transient protected Future<?> codeGenerationFuture;
+
+    /** Live telemetry, maintained incrementally as the tree learns. */
+    protected LearnerMetrics metrics = new LearnerMetrics( );
+
+    transient protected TreeSnapshot.IdSource checkpointIds;
+    transient protected ExecutorService checkpointExecutor;
+
+    /** Receive the structural changes of the tree (created on first registration). */
+    transient protected List<TreeListener> treeListeners;
+
     /**
      * Returns the tip text for this property.
      * @return tip text for this property suitable for
@@ -155,6 +219,33 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
         this.tieConfidence = tieConfidence;
     }
 
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String codeGenerationIntervalTipText( )
+    {
+        return "The tree is compiled into a specialized classifier in the background " + "every time this many nodes have been split (0 disables code generation).";
+    }
+
+    /**
+     * The number of node splits between background regenerations of the
+     * compiled classifier returned by {@link #getCompiledClassifier()}.
+     */
+    public int getCodeGenerationInterval( )
+    {
+        return codeGenerationInterval;
+    }
+
+    /**
+     * @see #getCodeGenerationInterval()
+     */
+    public void setCodeGenerationInterval( int codeGenerationInterval )
+    {
+        this.codeGenerationInterval = codeGenerationInterval;
+    }
+
     /**
      * Lists the command line options available to this classifier.
      */
@@ -175,6 +266,7 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
         newVector.addElement( new Option( "\tTie Confidence.", "T", 1, "-T <tie confidence>" ) );
         newVector.addElement( new Option( "\tHoeffding Confidence.\n", "H", 1, "-H <hoeffding confidence>" ) );
         newVector.addElement( new Option( "\tN Minimum.\n", "N", 1, "-N <nmin>" ) );
+        newVector.addElement( new Option( "\tCode Generation Interval.\n", "G", 1, "-G <code generation interval>" ) );
         return newVector;
     }
 
@@ -204,6 +296,12 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
         {
             nMin = Integer.parseInt( nMinString );
         }
+
+        String codeGenerationString = Utils.getOption( 'G', options );
+        if ( !codeGenerationString.isEmpty( ) )
+        {
+            codeGenerationInterval = Integer.parseInt( codeGenerationString );
+        }
     }
 
     /**
@@ -225,6 +323,9 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
         options.add( "-N" );
         options.add( String.valueOf( nMin ) );
 
+        options.add( "-G" );
+        options.add( String.valueOf( codeGenerationInterval ) );
+
         return options;
     }
 
@@ -307,6 +408,494 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
         return root;
     }
 
+    /**
+     * Registers a listener for the structural changes of the tree. The listener
+     * is called on the thread which trains the tree.
+     */
+    public void addTreeListener( TreeListener listener )
+    {
+        if ( treeListeners == null )
+        {
+            treeListeners = new CopyOnWriteArrayList<TreeListener>( );
+        }
+        treeListeners.add( listener );
+    }
+
+    public void removeTreeListener( TreeListener listener )
+    {
+        if ( treeListeners != null )
+        {
+            treeListeners.remove( listener );
+        }
+    }
+
+    protected void fireTreeReset( )
+    {
+        if ( treeListeners == null ) return;
+
+        for ( TreeListener listener : treeListeners )
+        {
+            listener.treeReset( root );
+        }
+    }
+
+    /**
+     * Notifies the tree listeners that the subtree rooted at node changed.
+     */
+    protected void fireSubtreeChanged( Node node )
+    {
+        if ( treeListeners == null ) return;
+
+        for ( TreeListener listener : treeListeners )
+        {
+            listener.subtreeChanged( node );
+        }
+    }
+
+    /**
+     * @return the live metrics of this learner (maintained incrementally, always available)
+     */
+    public LearnerMetrics getMetrics( )
+    {
+        return metrics;
+    }
+
+    /**
+     * Registers the metrics of this learner with the platform MBean server (see
+     * {@link LearnerMetrics#register(String, String)}).
+     */
+    public ObjectName registerMetrics( String name ) throws JMException
+    {
+        return metrics.register( getClass( ).getSimpleName( ), name );
+    }
+
+    /**
+     * Measures the memory used by this learner by walking the tree (see
+     * {@link MemoryReport}). Must be called on the thread which trains the learner.
+     */
+    public MemoryReport getMemoryReport( )
+    {
+        MemoryReport report = new MemoryReport( header );
+        report.addTree( root );
+        if ( flatTree != null ) report.setFlatTreeBytes( flatTree.estimateBytes( ) );
+        return report;
+    }
+
+    /**
+     * Returns the compiled, array based form of the current tree. The tree is
+     * compiled on the first call and is then kept up to date as the tree grows.
+     * The returned FlatTree is owned by the classifier: callers classifying from
+     * other threads while training continues should use {@link FlatTree#copy()}.
+     * 
+     * @return the compiled inference form of the tree
+     */
+    public FlatTree getFlatTree( )
+    {
+        if ( flatTree == null && root != null )
+        {
+            flatTree = FlatTree.compile( root, true );
+        }
+
+        return flatTree;
+    }
+
+    /**
+     * Returns the most recently generated compiled classifier, or null if code
+     * generation is disabled or no classifier has been generated yet. Generated
+     * classifiers are immutable and may lag behind the tree by up to
+     * codeGenerationInterval splits.
+     * 
+     * @see #setCodeGenerationInterval(int)
+     * @see TreeCompiler
+     */
+    public CompiledTreeClassifier getCompiledClassifier( )
+    {
+        return compiledClassifier;
+    }
+
+    /**
+     * Writes the current tree as a read-only model file which scoring processes
+     * can memory map with {@link MappedTreeModel#open(File)} instead of deserializing
+     * the learner.
+     *
+     * @throws IllegalStateException if the learner has not been initialized
+     */
+    public void exportModel( File file ) throws IOException
+    {
+        checkInitialized( );
+        MappedTreeModel.write( getFlatTree( ), header, file );
+    }
+
+    /**
+     * Prunes a copy of the current tree against held out instances with reduced
+     * error pruning (see {@link ReducedErrorPruner}). The tree itself is unchanged
+     * and continues to learn.
+     * 
+     * @param holdout instances which were not used for training, with the
+     *        attributes of the training data
+     * @return the compiled inference form of the pruned copy
+     * @throws IllegalStateException if the learner has not been initialized
+     */
+    public FlatTree getPrunedTree( EncodedSource holdout ) throws IOException
+    {
+        checkInitialized( );
+        if ( holdout.getStride( ) != numAttributes )
+        {
+            throw new IllegalArgumentException( "VFDT: the held out instances have " + holdout.getStride( ) + " attributes, expected " + numAttributes + "." );
+        }
+
+        ReducedErrorPruner pruner = new ReducedErrorPruner( root );
+        pruner.addAll( holdout );
+        return FlatTree.compile( pruner.prune( ) );
+    }
+
+    /**
+     * Writes a copy of the current tree pruned against held out instances as a
+     * read-only model file (see {@link #getPrunedTree(EncodedSource)} and
+     * {@link #exportModel(File)}).
+     */
+    public void exportModel( File file, EncodedSource holdout ) throws IOException
+    {
+        MappedTreeModel.write( getPrunedTree( holdout ), header, file );
+    }
+
+    private void checkInitialized( )
+    {
+        if ( root == null )
+        {
+            throw new IllegalStateException( "VFDT: No model built yet." );
+        }
+    }
+
+    /**
+     * Compiles the current tree into a specialized classifier on the calling thread.
+     * 
+     * @return the compiled classifier (also returned by subsequent calls to
+     *         {@link #getCompiledClassifier()})
+     * @throws Exception if the tree could not be compiled
+     * @throws IllegalStateException if the learner has not been initialized
+     */
+    public CompiledTreeClassifier generateCompiledClassifier( ) throws Exception
+    {
+        checkInitialized( );
+        compiledClassifier = new TreeCompiler( ).compile( getFlatTree( ).copy( ), header );
+        return compiledClassifier;
+    }
+
+    /**
+     * Called after each node split. Every codeGenerationInterval splits, hands a
+     * snapshot of the tree to a background thread which regenerates the compiled
+     * classifier. Training continues while the snapshot is compiled.
+     */
+    protected void scheduleCodeGeneration( )
+    {
+        if ( codeGenerationInterval <= 0 || ++splitsSinceCodeGeneration < codeGenerationInterval )
+        {
+            return;
+        }
+
+        // don't queue up work if the previous generation is still running,
+        // try again after the next split instead
+        if ( codeGenerationFuture != null && !codeGenerationFuture.isDone( ) )
+        {
+            return;
+        }
+
+        splitsSinceCodeGeneration = 0;
+
+        if ( codeGenerationExecutor == null )
+        {
+            codeGenerationExecutor = newBackgroundExecutor( "VFDT code generation" );
+        }
+
+        final FlatTree snapshot = getFlatTree( ).copy( );
+        codeGenerationFuture = codeGenerationExecutor.submit( new Runnable( )
+        {
+            @Override
+            public void run( )
+            {
+                try
+                {
+                    compiledClassifier = new TreeCompiler( ).compile( snapshot, header );
+                }
+                catch ( Exception e )
+                {
+                    logWarning( logger, "Trouble generating compiled classifier.", e );
+                }
+            }
+        } );
+    }
+
+    /**
+     * @return a single daemon thread executor whose thread exits once it has been
+     *         idle for a few seconds, so that a learner which is discarded (or
+     *         simply stops scheduling work) does not keep a thread alive
+     */
+    protected static ExecutorService newBackgroundExecutor( final String name )
+    {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor( 1, 1, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>( ), new ThreadFactory( )
+        {
+            @Override
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, name );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+        executor.allowCoreThreadTimeOut( true );
+        return executor;
+    }
+
+    /**
+     * <p>Writes the state of the learner to a file in the background. The tree is
+     * captured on the calling thread (which must be the thread training the
+     * learner) in time proportional to the number of nodes: count arrays are not
+     * copied but shared copy-on-write with the tree, so training may continue
+     * immediately while the returned future completes.</p>
+     *
+     * <p>An incremental checkpoint only contains the counts of nodes which changed since
+     * the previous checkpoint of this learner, and must be restored together with
+     * the checkpoints preceding it (back to the last full checkpoint). The first
+     * checkpoint of a learner is always a full checkpoint.</p>
+     *
+     * @param file the checkpoint file (written to a temporary file first, then renamed)
+     * @param incremental whether to write an incremental checkpoint
+     * @return a future which completes when the checkpoint has been written (and
+     *         fails with the exception which prevented it from being written)
+     * @throws IOException if the learner state could not be captured
+     * @throws IllegalArgumentException if the tree contains nodes which cannot be checkpointed
+     * @see #restore(File...)
+     */
+    public Future<?> checkpoint( final File file, boolean incremental ) throws IOException
+    {
+        incremental = incremental && checkpointIds != null;
+        if ( checkpointIds == null )
+        {
+            checkpointIds = new TreeSnapshot.IdSource( );
+        }
+
+        // capture everything which may change on the calling thread
+        ByteArrayOutputStream stateBytes = new ByteArrayOutputStream( );
+        DataOutputStream stateOut = new DataOutputStream( stateBytes );
+        writeCheckpointState( stateOut );
+        stateOut.flush( );
+
+        final byte[] state = stateBytes.toByteArray( );
+        final CheckpointData data = captureCheckpointData( );
+        final TreeSnapshot snapshot = TreeSnapshot.capture( root, checkpointIds, incremental );
+        final int nextId = checkpointIds.getNextId( );
+        final String[] options = getOptions( );
+
+        if ( checkpointExecutor == null )
+        {
+            checkpointExecutor = newBackgroundExecutor( "VFDT checkpoint" );
+        }
+
+        return checkpointExecutor.submit( new Callable<Void>( )
+        {
+            @Override
+            public Void call( ) throws Exception
+            {
+                writeCheckpoint( file, options, state, data, snapshot, nextId );
+                return null;
+            }
+        } );
+    }
+
+    protected void writeCheckpoint( File file, String[] options, byte[] state, CheckpointData data, TreeSnapshot snapshot, int nextId ) throws IOException
+    {
+        ByteArrayOutputStream dataBytes = new ByteArrayOutputStream( );
+        if ( data != null )
+        {
+            DataOutputStream dataOut = new DataOutputStream( dataBytes );
+            data.write( dataOut );
+            dataOut.flush( );
+        }
+
+        File temp = new File( file.getPath( ) + ".tmp" );
+        DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ), 1 << 16 ) );
+        try
+        {
+            out.writeInt( CHECKPOINT_MAGIC );
+            out.writeInt( CHECKPOINT_VERSION );
+            out.writeUTF( getClass( ).getName( ) );
+            out.writeInt( options.length );
+            for ( String option : options )
+            {
+                out.writeUTF( option );
+            }
+
+            ByteArrayOutputStream headerBytes = new ByteArrayOutputStream( );
+            ObjectOutputStream headerOut = new ObjectOutputStream( headerBytes );
+            headerOut.writeObject( header );
+            headerOut.close( );
+            out.writeInt( headerBytes.size( ) );
+            out.write( headerBytes.toByteArray( ) );
+
+            out.writeInt( nextId );
+            out.writeInt( state.length );
+            out.write( state );
+            out.writeInt( dataBytes.size( ) );
+            dataBytes.writeTo( out );
+            snapshot.write( out );
+        }
+        finally
+        {
+            out.close( );
+        }
+
+        if ( !temp.renameTo( file ) )
+        {
+            // renameTo does not replace existing files on all platforms
+            if ( !file.delete( ) || !temp.renameTo( file ) )
+            {
+                throw new IOException( "Could not rename " + temp + " to " + file + "." );
+            }
+        }
+    }
+
+    /**
+     * Restores a learner from a full checkpoint followed by any number of
+     * incremental checkpoints (in the order they were written).
+     *
+     * @see #checkpoint(File, boolean)
+     */
+    public static VFDT restore( File... files ) throws Exception
+    {
+        VFDT learner = null;
+        Map<Integer, Node> nodes = new HashMap<Integer, Node>( );
+        Node root = null;
+        byte[] state = null;
+        byte[] data = null;
+        int nextId = 0;
+
+        for ( File file : files )
+        {
+            DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ), 1 << 16 ) );
+            try
+            {
+                if ( in.readInt( ) != CHECKPOINT_MAGIC )
+                {
+                    throw new IOException( "VFDT: " + file + " is not a checkpoint." );
+                }
+
+                int version = in.readInt( );
+                if ( version != CHECKPOINT_VERSION )
+                {
+                    throw new IOException( "VFDT: unsupported checkpoint version " + version + "." );
+                }
+
+                String className = in.readUTF( );
+                String[] options = new String[in.readInt( )];
+                for ( int i = 0; i < options.length; i++ )
+                {
+                    options[i] = in.readUTF( );
+                }
+
+                byte[] headerBytes = new byte[in.readInt( )];
+                in.readFully( headerBytes );
+
+                if ( learner == null )
+                {
+                    ObjectInputStream headerIn = new ObjectInputStream( new ByteArrayInputStream( headerBytes ) );
+                    Instances header = ( Instances ) headerIn.readObject( );
+                    headerIn.close( );
+
+                    learner = ( VFDT ) Classifier.forName( className, options );
+                    learner.initialize( header );
+                }
+                else if ( !className.equals( learner.getClass( ).getName( ) ) )
+                {
+                    throw new IOException( "VFDT: checkpoint " + file + " belongs to a different learner." );
+                }
+
+                nextId = in.readInt( );
+                state = new byte[in.readInt( )];
+                in.readFully( state );
+                data = new byte[in.readInt( )];
+                in.readFully( data );
+                root = TreeSnapshot.read( in, learner.header, learner.root, nodes );
+            }
+            finally
+            {
+                in.close( );
+            }
+        }
+
+        if ( learner == null )
+        {
+            throw new IllegalArgumentException( "VFDT: no checkpoint files provided." );
+        }
+
+        learner.root = root;
+        learner.checkpointIds = new TreeSnapshot.IdSource( );
+        learner.checkpointIds.setNextId( nextId );
+        learner.invalidateFlatTree( );
+        learner.readCheckpointState( new DataInputStream( new ByteArrayInputStream( state ) ) );
+        learner.readCheckpointData( new DataInputStream( new ByteArrayInputStream( data ) ) );
+        learner.recountMetrics( );
+
+        return learner;
+    }
+
+    /**
+     * Writes learner state (other than the tree and the options) to a checkpoint.
+     * Called on the training thread, subclasses with additional state should
+     * override this and {@link #readCheckpointState(DataInput)}.
+     */
+    protected void writeCheckpointState( DataOutput out ) throws IOException
+    {
+        out.writeInt( splitsSinceCodeGeneration );
+    }
+
+    /**
+     * Restores the state written by {@link #writeCheckpointState(DataOutput)}. Called
+     * after the learner has been initialized and the tree has been restored.
+     */
+    protected void readCheckpointState( DataInput in ) throws IOException
+    {
+        splitsSinceCodeGeneration = in.readInt( );
+    }
+
+    /**
+     * Learner state which is too large to copy on the training thread: it is
+     * captured there by {@link VFDT#captureCheckpointData()} and copied and written
+     * on the checkpoint thread.
+     */
+    protected interface CheckpointData
+    {
+        void write( DataOutput out ) throws IOException;
+    }
+
+    /**
+     * Captures the learner state written on the checkpoint thread (in addition to
+     * the tree). Called on the training thread, after {@link #writeCheckpointState(DataOutput)}.
+     *
+     * @return the captured state, or null if there is none
+     */
+    protected CheckpointData captureCheckpointData( ) throws IOException
+    {
+        return null;
+    }
+
+    /**
+     * Restores the state written by {@link #captureCheckpointData()}. Called after
+     * {@link #readCheckpointState(DataInput)}.
+     */
+    protected void readCheckpointData( DataInput in ) throws IOException
+    {
+    }
+
+    /**
+     * Discards the compiled inference form of the tree. Called by subclasses when
+     * the tree changes in ways which cannot be applied incrementally.
+     */
+    protected void invalidateFlatTree( )
+    {
+        flatTree = null;
+    }
+
     /**
      * Classifies a given test instance using the decision tree.
      *
@@ -323,10 +912,30 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
             throw new NoSupportForMissingValuesException( "VFDT: missing values not supported." );
         }
 
+        // use the compiled tree if one is being maintained
+        if ( flatTree != null )
+        {
+            return flatTree.classify( instance );
+        }
+
         // get the class value for the leaf node corresponding to the provided instance
         return root.getLeafNode( instance ).getClassValue( );
     }
 
+    /**
+     * Classifies a batch of encoded instances using the compiled form of the tree.
+     * Each instance is stored as numAttributes consecutive nominal value indices.
+     * 
+     * @param values encoded attribute values for numInstances instances
+     * @param numInstances the number of instances to classify
+     * @param result receives the predicted class index of each instance
+     * @see FlatTree#classify(int[], int, int, int[])
+     */
+    public void classifyInstances( int[] values, int numInstances, int[] result )
+    {
+        getFlatTree( ).classify( values, numInstances, numAttributes, result );
+    }
+
     /**
      * Builds VDFT decision tree classifier.
      *
@@ -360,24 +969,55 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
         // store the class attribute for the data set
         classAttribute = data.classAttribute( );
 
+        // store the data set header (attribute names and values) for code generation
+        header = new Instances( data, 0 );
+
         // record number of class values, attributes, and values for each attribute
         numClasses = data.classAttribute( ).numValues( );
+        numAttributes = data.numAttributes( );
         R_squared = Math.pow( Utils.log2( numClasses ), 2 );
         ln_inv_delta = Math.log( 1 / delta );
 
         // create root node
         root = newNode( data );
+        flatTree = null;
+        compiledClassifier = null;
+        splitsSinceCodeGeneration = 0;
+        checkpointIds = null;
+        metrics.reset( root.estimateStatisticsBytes( ) );
+        fireTreeReset( );
     }
     
+    /**
+     * Trains the tree on a single instance (see {@link #addInstance(Instance)}).
+     */
+    @Override
+    public void updateClassifier( Instance instance )
+    {
+        addInstance( instance );
+    }
+
     public void addInstance( Instance instance )
     {
         try
         {
+            metrics.recordInstance( );
+
             // traverse the classification tree to find the leaf node for this instance
             Node node = root.getLeafNode( instance );
 
             // update the counts associated with this instance
             node.incrementCounts( instance );
+            if ( node.getCount( ) == 1 )
+            {
+                metrics.recordLeafActivated( );
+            }
+
+            // keep the compiled tree's leaf prediction up to date
+            if ( flatTree != null )
+            {
+                flatTree.update( node );
+            }
 
             // check whether or not to split the node on an attribute
             if ( node.getCount( ) % nMin == 0 )
@@ -421,6 +1061,8 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
 
     protected void checkNodeSplit( Instance instance, Node node )
     {
+        long startTime = System.nanoTime( );
+
         // compute the node entropy with no split
         double nullValue = computeEntropy( node );
 
@@ -429,10 +1071,16 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
         double firstValue = Double.MAX_VALUE;
         double secondValue = Double.MAX_VALUE;
 
+        // nodes may only keep counts for a subset of the attributes
+        int[] candidates = node.getSplitCandidates( );
+        int numCandidates = candidates == null ? instance.numAttributes( ) : candidates.length;
+
         // loop through all the attributes, calculating information gains
         // and keeping the attributes with the two highest information gains
-        for ( int attrIndex = 0; attrIndex < instance.numAttributes( ); attrIndex++ )
+        for ( int i = 0; i < numCandidates; i++ )
         {
+            int attrIndex = candidates == null ? i : candidates[i];
+
             // don't consider the class attribute
             if ( attrIndex == classAttribute.index( ) ) continue;
 
@@ -471,11 +1119,68 @@ public class VFDT extends Classifier implements TechnicalInformationHandler, Opt
             Attribute attribute = instance.attribute( firstIndex );
             splitNode( node, attribute, instance );
         }
+
+        metrics.recordSplitCheck( System.nanoTime( ) - startTime );
     }
 
     protected void splitNode( Node node, Attribute attribute, Instance instance )
     {
         node.split( attribute, instance );
+        recordSplit( node, attribute, instance );
+
+        if ( flatTree != null )
+        {
+            flatTree.split( node );
+        }
+        fireSubtreeChanged( node );
+
+        scheduleCodeGeneration( );
+    }
+
+    /**
+     * Records the split of the provided node in the metrics.
+     */
+    protected void recordSplit( Node node, Attribute attribute, Instance instance )
+    {
+        int depth = getDepth( node, instance );
+        if ( depth >= 0 )
+        {
+            metrics.recordSplit( depth, attribute.numValues( ) );
+        }
+        else
+        {
+            metrics.recordAlternativeSplit( attribute.numValues( ) );
+        }
+    }
+
+    /**
+     * Follows the path of the provided instance from the root. Only called when the
+     * tree changes, so depths need not be stored in the nodes.
+     *
+     * @return the depth of node in the main tree, or -1 if node is not on the path of
+     *         the instance (because it belongs to an alternative subtree)
+     */
+    protected int getDepth( Node node, Instance instance )
+    {
+        Node current = root;
+        for ( int depth = 0; current != null; depth++ )
+        {
+            if ( current == node ) return depth;
+
+            Attribute attribute = current.getAttribute( );
+            if ( attribute == null ) return -1;
+            current = current.getSuccessor( ( int ) instance.value( attribute ) );
+        }
+        return -1;
+    }
+
+    /**
+     * Recounts the metrics which describe the shape of the tree by walking it. Only
+     * called when the whole tree is replaced (when it is restored from a checkpoint).
+     */
+    protected void recountMetrics( )
+    {
+        metrics.setTree( new LearnerMetrics.Shape( root ) );
     }
 
     /**
@@ -0,0 +1,361 @@
+package weka.clusterers;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Vector;
+
+import weka.core.Instance;
+import weka.core.Option;
+import weka.core.Utils;
+import edu.gmu.vfml.cluster.EMIterationStats;
+import edu.gmu.vfml.cluster.IterationStats;
+import edu.gmu.vfml.data.ArffRowSource;
+import edu.gmu.vfml.data.MappedRowSource;
+import edu.gmu.vfml.data.RowSource;
+
+/**
+ * <!-- globalinfo-start -->
+ * will be automatically replaced
+ * <!-- globalinfo-end -->
+ *
+ *  <!-- technical-bibtex-start -->
+ * will be automatically replaced
+ * <!-- technical-bibtex-end -->
+ *
+ *  <!-- options-start -->
+ * will be automatically replaced
+ * <!-- options-end -->
+ *
+ * <p>Very Fast EM (a port of the VFML vfem learner): EM for a mixture of spherical
+ * Gaussians with a common, fixed variance and equal priors, in which each
+ * iteration uses only as many examples as are needed to bound, with confidence
+ * 1 - delta, the distance between its means and the means EM would find on
+ * infinite data. Rounds and sample sizes are chosen by {@link VeryFastClusterer};
+ * this class runs the expectation step on the examples and bounds the next means
+ * (see {@link EMIterationStats}).</p>
+ *
+ * <p>{@link #main(String[])} streams an ARFF file through a {@link MappedRowSource},
+ * so the file is parsed once and the prefixes later iterations rescan are read
+ * from a memory mapped cache. The variance is that of the normalized attributes
+ * unless normalization is turned off.</p>
+ *
+ * @author ulman
+ */
+public class VFEM extends VeryFastClusterer<EMIterationStats> implements DensityBasedClusterer
+{
+    private static final long serialVersionUID = 1L;
+
+    protected double variance = 0.05;
+
+    public VFEM( )
+    {
+        epsilon = 0.01;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String varianceTipText( )
+    {
+        return "The variance of the Gaussians (of the normalized attributes).";
+    }
+
+    public double getVariance( )
+    {
+        return variance;
+    }
+
+    public void setVariance( double variance )
+    {
+        if ( variance <= 0 )
+        {
+            throw new IllegalArgumentException( "VFEM: the variance must be positive." );
+        }
+        this.variance = variance;
+    }
+
+    /**
+     * Lists the command line options available to this clusterer.
+     */
+    @Override
+    @SuppressWarnings( "rawtypes" )
+    public Enumeration listOptions( )
+    {
+        Vector<Option> newVector = listCommonOptions( );
+        newVector.addElement( new Option( "\tVariance.\n", "V", 1, "-V <variance>" ) );
+        return newVector.elements( );
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     * @param options the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions( String[] options ) throws Exception
+    {
+        super.setOptions( options );
+
+        String varianceString = Utils.getOption( 'V', options );
+        if ( !varianceString.isEmpty( ) )
+        {
+            setVariance( Double.parseDouble( varianceString ) );
+        }
+    }
+
+    @Override
+    protected void addOptions( List<String> options )
+    {
+        super.addOptions( options );
+
+        options.add( "-V" );
+        options.add( String.valueOf( variance ) );
+    }
+
+    /**
+     * Returns a string describing the clusterer.
+     * @return a description suitable for the GUI.
+     */
+    public String globalInfo( )
+    {
+        //@formatter:off
+        return "Class for Very Fast EM clustering: EM for a mixture of Gaussians with the number " +
+               "of examples used in each iteration chosen to bound the error of the means. " +
+               "For more information see: \n\n" +
+               getTechnicalInformation( ).toString( );
+        //@formatter:on
+    }
+
+    @Override
+    protected EMIterationStats newIterationStats( double[] centroids )
+    {
+        return new EMIterationStats( centroids, numClusters, dimensions );
+    }
+
+    @Override
+    protected double errorTarget( )
+    {
+        return allowBadConverge ? epsilon : Math.min( epsilon, convergeDelta / 3.0 );
+    }
+
+    @Override
+    protected double minInitialDistance( )
+    {
+        return maxRange / ( numClusters * 4.0 );
+    }
+
+    /**
+     * Runs the expectation step on the rows with the means of is.
+     */
+    @Override
+    protected void process( EMIterationStats is, double[] block, int first, int count, EMIterationStats into )
+    {
+        is.expect( block, first, count, variance, into );
+    }
+
+    @Override
+    protected EMIterationStats next( EMIterationStats is )
+    {
+        return is.next( neededDelta );
+    }
+
+    /**
+     * Chooses the number of examples for each iteration of the next round which
+     * minimizes the total number of examples while bounding the error of the final
+     * means by the error target, given how the errors of the iterations of the
+     * last round propagated (see vfem.c).
+     *
+     * @return the number of examples for each of the iterations of the last round
+     */
+    @Override
+    protected double[] calculateExamplesPerIteration( )
+    {
+        final int k = numClusters;
+        final int num = stats.size( ) - 1;
+        double[] result = new double[num];
+
+        double[][] a = new double[k][num];
+        double[][] r = new double[k][num];
+
+        for ( int i = 0 ; i < num ; i++ )
+        {
+            EMIterationStats lastIs = stats.get( i );
+            EMIterationStats currentIs = stats.get( i + 1 );
+            for ( int cluster = 0 ; cluster < k ; cluster++ )
+            {
+                if ( i > 0 )
+                {
+                    a[cluster][i] = currentIs.getLastAssignmentBound( cluster ) / lastIs.getLastBound( )[cluster];
+                }
+
+                // the fraction of the examples the cluster effectively receives
+                double b = Math.pow( lastIs.getLowerWeight( cluster ), 2 ) / ( lastIs.getCount( ) * lastIs.getUpperWeightSquare( cluster ) );
+                r[cluster][i] = Math.sqrt( ( dimensions * Math.log( 2 ) ) / ( 2.0 * b ) );
+            }
+        }
+
+        for ( int cluster = 0 ; cluster < k ; cluster++ )
+        {
+            for ( int i = 0 ; i < num ; i++ )
+            {
+                for ( int j = i + 1 ; j < num ; j++ )
+                {
+                    r[cluster][i] *= a[cluster][j];
+                }
+            }
+        }
+
+        for ( int i = 0 ; i < num ; i++ )
+        {
+            for ( int cluster = 0 ; cluster < k ; cluster++ )
+            {
+                double sum = 0;
+                for ( int j = 0 ; j < num ; j++ )
+                {
+                    sum += Math.pow( r[cluster][i] * r[cluster][j] * r[cluster][j], 1.0 / 3.0 );
+                }
+
+                double size = k / thisErrorTarget * sum * sum;
+                if ( size > result[i] ) result[i] = size;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the prior probability of each cluster (the mixture weights are equal)
+     */
+    @Override
+    public double[] clusterPriors( ) throws Exception
+    {
+        double[] priors = new double[numClusters];
+        Arrays.fill( priors, 1.0 / numClusters );
+        return priors;
+    }
+
+    /**
+     * @return the log density of the instance's numeric attributes under each
+     *         Gaussian (ignoring missing values)
+     */
+    @Override
+    public double[] logDensityPerClusterForInstance( Instance instance ) throws Exception
+    {
+        if ( centroids == null )
+        {
+            throw new IllegalStateException( "VFEM: No model built yet." );
+        }
+
+        double[] row = toRow( instance );
+
+        // normalizing scales the density of each (non constant) attribute
+        int observed = 0;
+        double logScale = 0;
+        for ( int j = 0 ; j < dimensions ; j++ )
+        {
+            if ( Double.isNaN( row[j] ) ) continue;
+            observed++;
+            if ( normalize && scale[j] > 0 ) logScale += Math.log( scale[j] );
+        }
+
+        double logNormalizer = -0.5 * observed * Math.log( 2 * Math.PI * variance ) + logScale;
+        double[] result = new double[numClusters];
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            double distance = IterationStats.distance( row, 0, centroids, i * dimensions, dimensions );
+            result[i] = logNormalizer - distance * distance / ( 2 * variance );
+        }
+        return result;
+    }
+
+    /**
+     * @return the log of the mixture density of the instance
+     */
+    @Override
+    public double logDensityForInstance( Instance instance ) throws Exception
+    {
+        double[] a = logJointDensitiesForInstance( instance );
+        double max = a[Utils.maxIndex( a )];
+        double sum = 0.0;
+        for ( int i = 0 ; i < a.length ; i++ )
+        {
+            sum += Math.exp( a[i] - max );
+        }
+        return max + Math.log( sum );
+    }
+
+    /**
+     * @return the log of the joint density of the instance and each cluster
+     */
+    @Override
+    public double[] logJointDensitiesForInstance( Instance instance ) throws Exception
+    {
+        double[] weights = logDensityPerClusterForInstance( instance );
+        double[] priors = clusterPriors( );
+        for ( int i = 0 ; i < weights.length ; i++ )
+        {
+            weights[i] += Math.log( priors[i] );
+        }
+        return weights;
+    }
+
+    /**
+     * @return the posterior probability of each cluster given the instance
+     */
+    @Override
+    public double[] distributionForInstance( Instance instance ) throws Exception
+    {
+        return Utils.logs2probs( logJointDensitiesForInstance( instance ) );
+    }
+
+    @Override
+    protected void appendParameters( StringBuilder b )
+    {
+        b.append( String.format( "Variance (normalized): %s%n", variance ) );
+    }
+
+    @Override
+    protected String centroidsLabel( )
+    {
+        return "means";
+    }
+
+    @Override
+    protected String usage( )
+    {
+        return "Usage: VFEM -t <arff file> [-c <class index>] [-cache <dir>] [-N <num clusters>] [clusterer options]";
+    }
+
+    /**
+     * Parses the ARFF file once into a memory mapped cache of its rows, in the
+     * directory given by the -cache option (default the temporary directory).
+     */
+    @Override
+    protected RowSource openArff( File file, int classIndex, String[] args ) throws Exception
+    {
+        String cache = Utils.getOption( "cache", args );
+        File cacheDirectory = cache.isEmpty( ) ? null : new File( cache );
+
+        return new MappedRowSource( new ArffRowSource( file, classIndex ), cacheDirectory );
+    }
+
+    /**
+     * Clusters an ARFF file, parsing it once and rescanning it from a memory mapped
+     * cache of its rows. Options:
+     * <pre>
+     * -t &lt;file&gt;       the ARFF file (required)
+     * -c &lt;index&gt;      the 1 based index of a class attribute to ignore, or "first" or "last" (default none)
+     * -cache &lt;dir&gt;    the directory of the row cache (default the temporary directory)
+     * </pre>
+     * followed by the clusterer's options (see {@link #setOptions(String[])}).
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        new VFEM( ).run( args );
+    }
+}
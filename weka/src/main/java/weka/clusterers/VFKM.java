@@ -0,0 +1,304 @@
+package weka.clusterers;
+
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Vector;
+
+import weka.core.Instance;
+import weka.core.Option;
+import weka.core.Utils;
+import edu.gmu.vfml.cluster.IterationStats;
+import edu.gmu.vfml.cluster.KMeansIterationStats;
+import edu.gmu.vfml.data.RowSource;
+
+/**
+ * <!-- globalinfo-start -->
+ * will be automatically replaced
+ * <!-- globalinfo-end -->
+ *
+ *  <!-- technical-bibtex-start -->
+ * will be automatically replaced
+ * <!-- technical-bibtex-end -->
+ *
+ *  <!-- options-start -->
+ * will be automatically replaced
+ * <!-- options-end -->
+ *
+ * <p>Very Fast k-means (a port of the VFML vfkm learner). Each iteration of k-means
+ * uses only as many examples as are needed to bound, with confidence 1 - delta, the
+ * distance between its centroids and the centroids k-means would find on infinite
+ * data. Rounds and sample sizes are chosen by {@link VeryFastClusterer}; this class
+ * assigns the examples to their nearest centroids and bounds the next centroids
+ * (see {@link KMeansIterationStats}).</p>
+ *
+ * <p>Each iteration reads a prefix of the data set from a {@link RowSource}, so a
+ * file is streamed from disk rather than loaded (see {@link #buildClusterer(RowSource)}
+ * and {@link #main(String[])}). Blocks of rows are assigned to their centroids on
+ * several threads while the next block is read.</p>
+ *
+ * @author ulman
+ */
+public class VFKM extends VeryFastClusterer<KMeansIterationStats>
+{
+    private static final long serialVersionUID = 1L;
+
+    protected double assignErrorScale = 1.0;
+    protected boolean normalApprox = false;
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String assignErrorScaleTipText( )
+    {
+        return "Scales the part of the error bound due to examples another centroid might have won (less than 1 loosens the bound).";
+    }
+
+    public double getAssignErrorScale( )
+    {
+        return assignErrorScale;
+    }
+
+    public void setAssignErrorScale( double assignErrorScale )
+    {
+        this.assignErrorScale = assignErrorScale;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String normalApproxTipText( )
+    {
+        return "Use a normal approximation instead of the Hoeffding bound where it is tighter.";
+    }
+
+    public boolean getNormalApprox( )
+    {
+        return normalApprox;
+    }
+
+    public void setNormalApprox( boolean normalApprox )
+    {
+        this.normalApprox = normalApprox;
+    }
+
+    /**
+     * Lists the command line options available to this clusterer.
+     */
+    @Override
+    @SuppressWarnings( "rawtypes" )
+    public Enumeration listOptions( )
+    {
+        Vector<Option> newVector = listCommonOptions( );
+        newVector.addElement( new Option( "\tAssignment Error Scale.\n", "A", 1, "-A <scale>" ) );
+        newVector.addElement( new Option( "\tNormal Approximation.\n", "O", 0, "-O" ) );
+        return newVector.elements( );
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     * @param options the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions( String[] options ) throws Exception
+    {
+        super.setOptions( options );
+
+        String scaleString = Utils.getOption( 'A', options );
+        if ( !scaleString.isEmpty( ) )
+        {
+            assignErrorScale = Double.parseDouble( scaleString );
+        }
+
+        normalApprox = Utils.getFlag( 'O', options );
+    }
+
+    @Override
+    protected void addOptions( List<String> options )
+    {
+        super.addOptions( options );
+
+        options.add( "-A" );
+        options.add( String.valueOf( assignErrorScale ) );
+
+        if ( normalApprox ) options.add( "-O" );
+    }
+
+    /**
+     * Returns a string describing the clusterer.
+     * @return a description suitable for the GUI.
+     */
+    public String globalInfo( )
+    {
+        //@formatter:off
+        return "Class for Very Fast k-means clustering: k-means with the number of examples " +
+               "used in each iteration chosen to bound the error of the centroids. " +
+               "For more information see: \n\n" +
+               getTechnicalInformation( ).toString( );
+        //@formatter:on
+    }
+
+    @Override
+    protected KMeansIterationStats newIterationStats( double[] centroids )
+    {
+        return new KMeansIterationStats( centroids, numClusters, dimensions );
+    }
+
+    /**
+     * Uses a tighter bound than convergeDelta, so we get a better convergence behavior.
+     */
+    @Override
+    protected double errorTarget( )
+    {
+        return Math.min( epsilon, allowBadConverge ? convergeDelta : convergeDelta / 3.0 );
+    }
+
+    @Override
+    protected double minInitialDistance( )
+    {
+        return maxRange / ( numClusters * 2.0 );
+    }
+
+    /**
+     * Assigns the rows to the centroids of is.
+     */
+    @Override
+    protected void process( KMeansIterationStats is, double[] block, int first, int count, KMeansIterationStats into )
+    {
+        is.assign( block, first, count, into );
+    }
+
+    @Override
+    protected KMeansIterationStats next( KMeansIterationStats is )
+    {
+        return is.next( neededDelta, 1.0, assignErrorScale, normalApprox );
+    }
+
+    /**
+     * Chooses the number of examples for each iteration of the next round which
+     * minimizes the total number of examples while bounding the error of the final
+     * centroids by the error target, given how the errors of the iterations of
+     * the last round propagated (see section 3 of the paper, and vfkm.c).
+     *
+     * @return the number of examples for each of the iterations of the last round
+     */
+    @Override
+    protected double[] calculateExamplesPerIteration( )
+    {
+        final int k = numClusters;
+        final int num = stats.size( ) - 1;
+        double[] result = new double[num];
+
+        double thisDelta = 1.0 - Math.pow( 1.0 - delta, 1.0 / ( ( double ) k * num ) );
+
+        double[][] a = new double[k][num];
+        double[][] b = new double[k][num];
+        double[][] c = new double[k][num];
+        double[][] alpha = new double[k][num];
+        double[] o = new double[k];
+        double[] nTotal = new double[num];
+
+        for ( int cluster = 0 ; cluster < k ; cluster++ )
+        {
+            for ( int i = 0 ; i < num ; i++ )
+            {
+                KMeansIterationStats lastIs = stats.get( i );
+                nTotal[i] += lastIs.getWon( cluster );
+
+                double eLast = lastIs.getLastBound( )[cluster];
+                if ( i > 0 )
+                {
+                    double sum = 0;
+                    for ( int j = 0 ; j < dimensions ; j++ )
+                    {
+                        sum += Math.pow( lastIs.getMaxDeviation( cluster, j ), 2 );
+                    }
+                    a[cluster][i] = Math.sqrt( sum ) / ( lastIs.getWon( cluster ) * eLast );
+                    b[cluster][i] = ( double ) lastIs.getContestedWon( cluster ) / ( lastIs.getWon( cluster ) * eLast );
+                }
+
+                alpha[cluster][i] = a[cluster][i] / Math.pow( 1 - b[cluster][i] * eLast, 2 );
+            }
+        }
+
+        for ( int cluster = 0 ; cluster < k ; cluster++ )
+        {
+            for ( int i = 0 ; i < num ; i++ )
+            {
+                double eLast = stats.get( i ).getLastBound( )[cluster];
+
+                c[cluster][i] = Math.sqrt( ( maxRange * maxRange * Math.log( 2.0 / thisDelta ) ) / ( 2.0 * ( 1.0 - b[cluster][i] * eLast ) ) );
+                double offset = ( a[cluster][i] * b[cluster][i] * eLast * eLast ) / Math.pow( 1 - b[cluster][i] * eLast, 2 );
+                for ( int j = i + 1 ; j < num ; j++ )
+                {
+                    c[cluster][i] *= alpha[cluster][j];
+                    offset *= alpha[cluster][j];
+                }
+
+                // as in vfkm.c, only the last iteration's term is kept
+                o[cluster] = offset;
+            }
+            o[cluster] *= -1;
+        }
+
+        for ( int i = 0 ; i < num ; i++ )
+        {
+            for ( int cluster = 0 ; cluster < k ; cluster++ )
+            {
+                double sum = 0;
+                for ( int j = 0 ; j < num ; j++ )
+                {
+                    sum += Math.pow( c[cluster][i] * c[cluster][j] * c[cluster][j], 1.0 / 3.0 );
+                }
+                double ni = sum * sum / Math.pow( Math.sqrt( thisErrorTarget / k ) - o[cluster], 2 );
+
+                // scale up by the fraction of the examples the cluster receives
+                double f = stats.get( i ).getWon( cluster ) / nTotal[i];
+                double size = ni / f;
+                if ( size > result[i] ) result[i] = size;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * @return the index of the centroid nearest to the instance
+     */
+    @Override
+    public int clusterInstance( Instance instance ) throws Exception
+    {
+        if ( centroids == null )
+        {
+            throw new IllegalStateException( "VFKM: No model built yet." );
+        }
+
+        double[] row = toRow( instance );
+
+        int best = 0;
+        double bestDistance = Double.POSITIVE_INFINITY;
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            double distance = IterationStats.distance( row, 0, centroids, i * dimensions, dimensions );
+            if ( distance < bestDistance )
+            {
+                bestDistance = distance;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Clusters an ARFF file, streaming it from disk (see {@link VeryFastClusterer#run(String[])}).
+     */
+    public static void main( String[] args ) throws Exception
+    {
+        new VFKM( ).run( args );
+    }
+}
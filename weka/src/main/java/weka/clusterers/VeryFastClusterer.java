@@ -0,0 +1,1301 @@
+package weka.clusterers;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import weka.core.Capabilities;
+import weka.core.Capabilities.Capability;
+import weka.core.Instance;
+import weka.core.Instances;
+import weka.core.Option;
+import weka.core.OptionHandler;
+import weka.core.Randomizable;
+import weka.core.TechnicalInformation;
+import weka.core.TechnicalInformation.Field;
+import weka.core.TechnicalInformation.Type;
+import weka.core.TechnicalInformationHandler;
+import weka.core.Utils;
+import edu.gmu.vfml.cluster.IterationStats;
+import edu.gmu.vfml.data.ArffRowSource;
+import edu.gmu.vfml.data.InstancesRowSource;
+import edu.gmu.vfml.data.RowSource;
+
+/**
+ * <p>The driver shared by the VFML clusterers ({@link VFKM} and {@link VFEM}), which
+ * scale up an iterative clustering algorithm with the method of Domingos and
+ * Hulten: each iteration uses only as many examples as are needed to bound, with
+ * confidence 1 - delta, the distance between its centroids and the centroids the
+ * algorithm would find on infinite data. Runs proceed in rounds: a round iterates
+ * on samples of increasing size (chosen from the bounds of the previous round)
+ * until the centroids converge, and rounds continue until the bound on the total
+ * squared error of the centroids is below epsilon, or the data runs out.</p>
+ *
+ * <p>Subclasses provide the iteration itself: the statistics gathered from a
+ * sample and the next centroids and bounds computed from them (see
+ * {@link IterationStats}), and the number of examples each iteration of the next
+ * round needs.</p>
+ *
+ * <p>Each iteration reads a prefix of the data set from a {@link RowSource}, so a
+ * file is streamed from disk rather than loaded (see {@link #buildClusterer(RowSource)}
+ * and {@link #run(String[])}). Blocks of rows are split between several threads,
+ * each processing its rows into its own partial statistics (merged in order at the
+ * end of the iteration), while the next block is read.</p>
+ *
+ * <p>Only numeric attributes are clustered. Unless normalization is turned off, they
+ * are scaled to [0, 1] from their ranges in a first pass over the data, as the
+ * bounds assume values in that range.</p>
+ *
+ * @author ulman
+ */
+public abstract class VeryFastClusterer<S extends IterationStats<S>> extends AbstractClusterer implements NumberOfClustersRequestable, Randomizable, OptionHandler,
+        TechnicalInformationHandler
+{
+    private static final long serialVersionUID = 1L;
+
+    protected int numClusters = 2;
+    protected double delta = 0.05;
+    protected double epsilon = 0.05;
+    protected double convergeDelta = 0.001;
+    protected int estimatedIterations = 5;
+    protected long maxPerIteration = 1000000000L;
+    protected double range = 0.0;
+    protected int seed = 1;
+    protected boolean batch = false;
+    protected boolean allowBadConverge = false;
+    protected boolean normalize = true;
+    protected int numThreads = 0;
+    protected int blockSize = 10000;
+
+    // the model
+    protected Instances header;
+    protected int[] attributes;
+    protected int dimensions;
+    protected double[] centroids;
+    protected double[] minimum;
+    protected double[] scale;
+    protected double errorBound;
+    protected boolean foundBound;
+    protected int rounds;
+    protected int iterations;
+    protected long examplesRead;
+
+    // the state of a run of buildClusterer
+    transient protected RowSource source;
+    transient protected List<S> stats;
+    transient protected Random random;
+    transient protected long dbSize;
+    transient protected int iterationEstimate;
+    transient protected double thisErrorTarget;
+    transient protected double neededDelta;
+    transient protected double targetEkd;
+    transient protected double maxRange;
+    transient protected long sampleSize;
+    transient protected double[] iterationSizes;
+    transient protected boolean passExhausted;
+    transient protected double[][] blocks;
+    transient protected ExecutorService executor;
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String numClustersTipText( )
+    {
+        return "The number of clusters.";
+    }
+
+    public int getNumClusters( )
+    {
+        return numClusters;
+    }
+
+    @Override
+    public void setNumClusters( int numClusters ) throws Exception
+    {
+        if ( numClusters < 1 )
+        {
+            throw new IllegalArgumentException( getClass( ).getSimpleName( ) + ": the number of clusters must be at least 1." );
+        }
+        this.numClusters = numClusters;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String deltaTipText( )
+    {
+        return "The probability that the final error bound does not hold.";
+    }
+
+    public double getDelta( )
+    {
+        return delta;
+    }
+
+    public void setDelta( double delta )
+    {
+        this.delta = delta;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String epsilonTipText( )
+    {
+        return "The target bound on the total squared distance between the learned centroids and the infinite data centroids.";
+    }
+
+    public double getEpsilon( )
+    {
+        return epsilon;
+    }
+
+    public void setEpsilon( double epsilon )
+    {
+        this.epsilon = epsilon;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String convergeDeltaTipText( )
+    {
+        return "The iterations converge when the centroids move less than this total squared distance in an iteration.";
+    }
+
+    public double getConvergeDelta( )
+    {
+        return convergeDelta;
+    }
+
+    public void setConvergeDelta( double convergeDelta )
+    {
+        this.convergeDelta = convergeDelta;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String estimatedIterationsTipText( )
+    {
+        return "The initial estimate of the number of iterations needed to converge (revised after each round).";
+    }
+
+    public int getEstimatedIterations( )
+    {
+        return estimatedIterations;
+    }
+
+    public void setEstimatedIterations( int estimatedIterations )
+    {
+        this.estimatedIterations = estimatedIterations;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String maxPerIterationTipText( )
+    {
+        return "The largest number of examples used in an iteration.";
+    }
+
+    public long getMaxPerIteration( )
+    {
+        return maxPerIteration;
+    }
+
+    public void setMaxPerIteration( long maxPerIteration )
+    {
+        this.maxPerIteration = maxPerIteration;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String rangeTipText( )
+    {
+        return "The largest distance between two examples (0 for the square root of the number of attributes, " + "the largest distance when each attribute ranges over [0, 1]).";
+    }
+
+    public double getRange( )
+    {
+        return range;
+    }
+
+    public void setRange( double range )
+    {
+        this.range = range;
+    }
+
+    @Override
+    public int getSeed( )
+    {
+        return seed;
+    }
+
+    @Override
+    public void setSeed( int seed )
+    {
+        this.seed = seed;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String batchTipText( )
+    {
+        return "Run the traditional algorithm on the whole data set (up to maxPerIteration examples) instead.";
+    }
+
+    public boolean getBatch( )
+    {
+        return batch;
+    }
+
+    public void setBatch( boolean batch )
+    {
+        this.batch = batch;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String allowBadConvergeTipText( )
+    {
+        return "Allow a round to stop when the iterations would converge on its samples, even if they might not on infinite data.";
+    }
+
+    public boolean getAllowBadConverge( )
+    {
+        return allowBadConverge;
+    }
+
+    public void setAllowBadConverge( boolean allowBadConverge )
+    {
+        this.allowBadConverge = allowBadConverge;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String normalizeTipText( )
+    {
+        return "Scale each attribute to [0, 1] (requires an extra pass over the data). " + "Turn off only if the attributes already range over [0, 1].";
+    }
+
+    public boolean getNormalize( )
+    {
+        return normalize;
+    }
+
+    public void setNormalize( boolean normalize )
+    {
+        this.normalize = normalize;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String numThreadsTipText( )
+    {
+        return "The number of threads processing the examples of an iteration (0 for one per processor).";
+    }
+
+    public int getNumThreads( )
+    {
+        return numThreads;
+    }
+
+    public void setNumThreads( int numThreads )
+    {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Returns the tip text for this property.
+     * @return tip text for this property suitable for
+     * displaying in the explorer/experimenter gui
+     */
+    public String blockSizeTipText( )
+    {
+        return "The number of examples read from the data set at once.";
+    }
+
+    public int getBlockSize( )
+    {
+        return blockSize;
+    }
+
+    public void setBlockSize( int blockSize )
+    {
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @return the command line options shared by the clusterers (subclasses add theirs)
+     */
+    protected Vector<Option> listCommonOptions( )
+    {
+        Vector<Option> newVector = new Vector<Option>( );
+        newVector.addElement( new Option( "\tNumber of Clusters.\n", "N", 1, "-N <num clusters>" ) );
+        newVector.addElement( new Option( "\tDelta.\n", "D", 1, "-D <delta>" ) );
+        newVector.addElement( new Option( "\tEpsilon.\n", "E", 1, "-E <epsilon>" ) );
+        newVector.addElement( new Option( "\tConvergence Distance.\n", "C", 1, "-C <distance>" ) );
+        newVector.addElement( new Option( "\tEstimated Number of Iterations.\n", "L", 1, "-L <iterations>" ) );
+        newVector.addElement( new Option( "\tMaximum Examples per Iteration.\n", "M", 1, "-M <examples>" ) );
+        newVector.addElement( new Option( "\tRange.\n", "R", 1, "-R <range>" ) );
+        newVector.addElement( new Option( "\tRandom Seed.\n", "S", 1, "-S <seed>" ) );
+        newVector.addElement( new Option( "\tBatch (use the whole data set in each iteration).\n", "B", 0, "-B" ) );
+        newVector.addElement( new Option( "\tAllow Bad Convergence.\n", "G", 0, "-G" ) );
+        newVector.addElement( new Option( "\tDo Not Normalize.\n", "X", 0, "-X" ) );
+        newVector.addElement( new Option( "\tNumber of Threads.\n", "P", 1, "-P <threads>" ) );
+        newVector.addElement( new Option( "\tBlock Size.\n", "Z", 1, "-Z <block size>" ) );
+        return newVector;
+    }
+
+    /**
+     * Parses a given list of options.
+     *
+     * @param options the list of options as an array of strings
+     * @throws Exception if an option is not supported
+     */
+    @Override
+    public void setOptions( String[] options ) throws Exception
+    {
+        String numClustersString = Utils.getOption( 'N', options );
+        if ( !numClustersString.isEmpty( ) )
+        {
+            setNumClusters( Integer.parseInt( numClustersString ) );
+        }
+
+        String deltaString = Utils.getOption( 'D', options );
+        if ( !deltaString.isEmpty( ) )
+        {
+            delta = Double.parseDouble( deltaString );
+        }
+
+        String epsilonString = Utils.getOption( 'E', options );
+        if ( !epsilonString.isEmpty( ) )
+        {
+            epsilon = Double.parseDouble( epsilonString );
+        }
+
+        String convergeString = Utils.getOption( 'C', options );
+        if ( !convergeString.isEmpty( ) )
+        {
+            convergeDelta = Double.parseDouble( convergeString );
+        }
+
+        String iterationsString = Utils.getOption( 'L', options );
+        if ( !iterationsString.isEmpty( ) )
+        {
+            estimatedIterations = Integer.parseInt( iterationsString );
+        }
+
+        String maxString = Utils.getOption( 'M', options );
+        if ( !maxString.isEmpty( ) )
+        {
+            maxPerIteration = Long.parseLong( maxString );
+        }
+
+        String rangeString = Utils.getOption( 'R', options );
+        if ( !rangeString.isEmpty( ) )
+        {
+            range = Double.parseDouble( rangeString );
+        }
+
+        String seedString = Utils.getOption( 'S', options );
+        if ( !seedString.isEmpty( ) )
+        {
+            seed = Integer.parseInt( seedString );
+        }
+
+        batch = Utils.getFlag( 'B', options );
+        allowBadConverge = Utils.getFlag( 'G', options );
+        normalize = !Utils.getFlag( 'X', options );
+
+        String numThreadsString = Utils.getOption( 'P', options );
+        if ( !numThreadsString.isEmpty( ) )
+        {
+            numThreads = Integer.parseInt( numThreadsString );
+        }
+
+        String blockSizeString = Utils.getOption( 'Z', options );
+        if ( !blockSizeString.isEmpty( ) )
+        {
+            blockSize = Integer.parseInt( blockSizeString );
+        }
+    }
+
+    /**
+     * Gets the current settings of the Clusterer.
+     *
+     * @return an array of strings suitable for passing to setOptions
+     */
+    @Override
+    public String[] getOptions( )
+    {
+        List<String> options = new ArrayList<String>( );
+        addOptions( options );
+        return options.toArray( new String[0] );
+    }
+
+    /**
+     * Adds the current settings to options (subclasses add theirs).
+     */
+    protected void addOptions( List<String> options )
+    {
+        options.add( "-N" );
+        options.add( String.valueOf( numClusters ) );
+
+        options.add( "-D" );
+        options.add( String.valueOf( delta ) );
+
+        options.add( "-E" );
+        options.add( String.valueOf( epsilon ) );
+
+        options.add( "-C" );
+        options.add( String.valueOf( convergeDelta ) );
+
+        options.add( "-L" );
+        options.add( String.valueOf( estimatedIterations ) );
+
+        options.add( "-M" );
+        options.add( String.valueOf( maxPerIteration ) );
+
+        options.add( "-R" );
+        options.add( String.valueOf( range ) );
+
+        options.add( "-S" );
+        options.add( String.valueOf( seed ) );
+
+        if ( batch ) options.add( "-B" );
+        if ( allowBadConverge ) options.add( "-G" );
+        if ( !normalize ) options.add( "-X" );
+
+        options.add( "-P" );
+        options.add( String.valueOf( numThreads ) );
+
+        options.add( "-Z" );
+        options.add( String.valueOf( blockSize ) );
+    }
+
+    /**
+     * Returns an instance of a TechnicalInformation object, containing
+     * detailed information about the technical background of this class,
+     * e.g., paper reference or book this class is based on.
+     *
+     * @return the technical information about this class
+     */
+    @Override
+    public TechnicalInformation getTechnicalInformation( )
+    {
+        TechnicalInformation info = new TechnicalInformation( Type.INPROCEEDINGS );
+
+        info.setValue( Field.AUTHOR, "Pedro Domingos and Geoff Hulten" );
+        info.setValue( Field.YEAR, "2001" );
+        info.setValue( Field.TITLE, "A General Method for Scaling Up Machine Learning Algorithms and its Application to Clustering" );
+        info.setValue( Field.BOOKTITLE, "Proceedings of the Eighteenth International Conference on Machine Learning" );
+        info.setValue( Field.PAGES, "106-113" );
+        info.setValue( Field.PUBLISHER, "Morgan Kaufmann" );
+
+        return info;
+    }
+
+    /**
+     * Returns default capabilities of the clusterer.
+     *
+     * @return the capabilities of this clusterer
+     */
+    @Override
+    public Capabilities getCapabilities( )
+    {
+        Capabilities result = super.getCapabilities( );
+        result.disableAll( );
+        result.enable( Capability.NO_CLASS );
+
+        // attributes (nominal attributes are ignored)
+        result.enable( Capability.NUMERIC_ATTRIBUTES );
+        result.enable( Capability.NOMINAL_ATTRIBUTES );
+        result.enable( Capability.MISSING_VALUES );
+
+        return result;
+    }
+
+    /**
+     * Clusters the numeric attributes of the data set.
+     *
+     * @param data the training data
+     * @exception Exception if the clusterer can't be built successfully
+     */
+    @Override
+    public void buildClusterer( Instances data ) throws Exception
+    {
+        // can clusterer handle the data?
+        getCapabilities( ).testWithFail( data );
+
+        buildClusterer( new InstancesRowSource( data ) );
+    }
+
+    /**
+     * Clusters the rows of the source, reading only the prefixes of the data set
+     * each iteration needs. The source is closed when the clusterer is built.
+     */
+    public void buildClusterer( RowSource source ) throws Exception
+    {
+        this.source = source;
+        try
+        {
+            initialize( );
+
+            double bound;
+            S thisIs;
+            boolean fileDone;
+            do
+            {
+                rounds++;
+
+                // each round starts again from the initial centroids
+                if ( rounds > 1 )
+                {
+                    S initial = stats.get( 0 );
+                    stats.clear( );
+                    stats.add( newIterationStats( initial.getCentroids( ) ) );
+                }
+
+                iterations = 1;
+                while ( !iterate( ) )
+                {
+                    thisIs = stats.get( stats.size( ) - 1 );
+
+                    // stop the round if it is a long way from a bound, unless it already uses all the data
+                    if ( !batch && ( calculateEarlyBound( ) > 40000 * thisErrorTarget || !thisIs.isFoundBound( ) ) )
+                    {
+                        S lastIs = stats.size( ) > 1 ? stats.get( stats.size( ) - 2 ) : null;
+                        if ( lastIs != null && !isWholeDataSet( lastIs.getCount( ) ) )
+                        {
+                            thisIs.setFoundBound( false );
+                            break;
+                        }
+                    }
+
+                    iterations++;
+                }
+
+                // if the last pass read all the data we can't increase the sample and are finished
+                fileDone = passExhausted || source.read( blocks[0], 1 ) == 0;
+
+                thisIs = stats.get( stats.size( ) - 1 );
+                nextSampleSize( thisIs );
+
+                bound = calculateErrorBound( );
+            }
+            while ( !( thisIs.isFoundBound( ) && thisIs.isGuaranteeIDConverge( ) && bound <= thisErrorTarget ) && !( allowBadConverge && thisIs.isWouldConverge( ) && thisIs.isFoundBound( ) && bound <= thisErrorTarget ) && !fileDone && !batch );
+
+            thisIs = stats.get( stats.size( ) - 1 );
+            centroids = thisIs.getCentroids( ).clone( );
+            errorBound = bound;
+            foundBound = thisIs.isFoundBound( ) && ( thisIs.isGuaranteeIDConverge( ) || ( allowBadConverge && thisIs.isWouldConverge( ) ) );
+        }
+        finally
+        {
+            source.close( );
+            cleanup( );
+        }
+    }
+
+    /**
+     * @return statistics for an iteration using the provided centroids
+     */
+    protected abstract S newIterationStats( double[] centroids );
+
+    /**
+     * @return the bound on the total squared error of the centroids a round aims for
+     */
+    protected abstract double errorTarget( );
+
+    /**
+     * @return the smallest distance between two initial centroids
+     */
+    protected abstract double minInitialDistance( );
+
+    /**
+     * Processes count rows of block, starting at row first, into into (the
+     * statistics of the iteration or a partial of them). Called on several
+     * threads at once, with separate partials.
+     */
+    protected abstract void process( S is, double[] block, int first, int count, S into );
+
+    /**
+     * @return the statistics of the next iteration, with the centroids computed
+     *         from the statistics of is and their bounds
+     */
+    protected abstract S next( S is );
+
+    /**
+     * Chooses the number of examples for each iteration of the next round which
+     * minimizes the total number of examples while bounding the error of the final
+     * centroids by the error target, given how the errors of the iterations of
+     * the last round propagated.
+     *
+     * @return the number of examples for each of the iterations of the last round
+     */
+    protected abstract double[] calculateExamplesPerIteration( );
+
+    /**
+     * Reads the header and ranges of the data, sets the initial sample size and
+     * picks the initial centroids.
+     */
+    protected void initialize( ) throws Exception
+    {
+        header = source.getHeader( );
+        dimensions = source.getDimensions( );
+        if ( dimensions == 0 )
+        {
+            throw new IllegalArgumentException( getClass( ).getSimpleName( ) + ": the data has no numeric attributes." );
+        }
+
+        attributes = new int[dimensions];
+        for ( int j = 0 ; j < dimensions ; j++ )
+        {
+            attributes[j] = source.getAttribute( j ).index( );
+        }
+
+        stats = new ArrayList<S>( );
+        random = new Random( seed );
+        blocks = new double[][] { new double[blockSize * dimensions], new double[blockSize * dimensions] };
+        rounds = 0;
+        iterations = 0;
+        examplesRead = 0;
+        iterationSizes = null;
+        dbSize = source.size( );
+
+        minimum = new double[dimensions];
+        scale = new double[dimensions];
+        if ( normalize )
+        {
+            scanRanges( );
+        }
+
+        maxRange = range > 0 ? range : Math.sqrt( dimensions );
+
+        thisErrorTarget = errorTarget( );
+        iterationEstimate = estimatedIterations;
+        neededDelta = neededDelta( iterationEstimate );
+        targetEkd = Math.sqrt( thisErrorTarget / ( ( double ) numClusters * dimensions ) );
+        sampleSize = ( long ) ( ( numClusters / 2.0 ) * Math.pow( 1.0 / targetEkd, 2 ) * Math.log( 2.0 / neededDelta ) * 1.1 );
+
+        stats.add( newIterationStats( pickInitialCentroids( ) ) );
+    }
+
+    /**
+     * @return the confidence needed for each coordinate bound so that all the bounds
+     *         of the estimated number of iterations hold with confidence 1 - delta
+     */
+    protected double neededDelta( int iterationEstimate )
+    {
+        return 1.0 - Math.pow( 1.0 - delta, 1.0 / ( ( double ) dimensions * numClusters * iterationEstimate ) );
+    }
+
+    /**
+     * Reads the whole data set once to find the range of each attribute (and the
+     * size of the data set).
+     */
+    protected void scanRanges( ) throws Exception
+    {
+        double[] maximum = new double[dimensions];
+        Arrays.fill( minimum, Double.POSITIVE_INFINITY );
+        Arrays.fill( maximum, Double.NEGATIVE_INFINITY );
+
+        double[] block = blocks[0];
+        long size = 0;
+        int count;
+
+        source.rewind( );
+        while ( ( count = source.read( block, blockSize ) ) > 0 )
+        {
+            for ( int i = 0 ; i < count * dimensions ; i++ )
+            {
+                double x = block[i];
+                int j = i % dimensions;
+                if ( x < minimum[j] ) minimum[j] = x;
+                if ( x > maximum[j] ) maximum[j] = x;
+            }
+            size += count;
+        }
+        dbSize = size;
+
+        for ( int j = 0 ; j < dimensions ; j++ )
+        {
+            if ( maximum[j] > minimum[j] )
+            {
+                scale[j] = 1.0 / ( maximum[j] - minimum[j] );
+            }
+            else
+            {
+                // constant (or always missing) attributes are mapped to 0
+                if ( minimum[j] == Double.POSITIVE_INFINITY ) minimum[j] = 0;
+                scale[j] = 0;
+            }
+        }
+    }
+
+    /**
+     * Scales count rows of block, starting at row first, to [0, 1].
+     */
+    protected void normalize( double[] block, int first, int count )
+    {
+        if ( !normalize ) return;
+
+        for ( int i = first * dimensions ; i < ( first + count ) * dimensions ; i++ )
+        {
+            int j = i % dimensions;
+            block[i] = ( block[i] - minimum[j] ) * scale[j];
+        }
+    }
+
+    /**
+     * @return the normalized row of the instance's numeric attributes (NaN where missing)
+     */
+    protected double[] toRow( Instance instance )
+    {
+        double[] row = new double[dimensions];
+        for ( int j = 0 ; j < dimensions ; j++ )
+        {
+            row[j] = instance.isMissing( attributes[j] ) ? Double.NaN : instance.value( attributes[j] );
+        }
+        normalize( row, 0, 1 );
+        return row;
+    }
+
+    /**
+     * Picks the first examples (after skipping a random number of them) which are
+     * not too close to each other as the initial centroids. Examples with missing
+     * values are not used.
+     */
+    protected double[] pickInitialCentroids( ) throws Exception
+    {
+        double minDistance = minInitialDistance( );
+        double[] centroids = new double[numClusters * dimensions];
+        double[] row = new double[dimensions];
+
+        source.rewind( );
+
+        // burn some examples to make the selection be more random
+        for ( int skip = random.nextInt( 10 * numClusters + 1 ) ; skip > 0 ; skip-- )
+        {
+            source.read( row, 1 );
+        }
+
+        int picked = 0;
+        while ( picked < numClusters )
+        {
+            if ( source.read( row, 1 ) == 0 )
+            {
+                throw new IllegalArgumentException( getClass( ).getSimpleName( ) + ": unable to get enough unique initial centroids." );
+            }
+            normalize( row, 0, 1 );
+
+            boolean used = false;
+            for ( int j = 0 ; j < dimensions && !used ; j++ )
+            {
+                used = Double.isNaN( row[j] );
+            }
+            for ( int i = 0 ; i < picked && !used ; i++ )
+            {
+                used = IterationStats.distance( row, 0, centroids, i * dimensions, dimensions ) <= minDistance;
+            }
+
+            if ( !used )
+            {
+                System.arraycopy( row, 0, centroids, picked * dimensions, dimensions );
+                picked++;
+            }
+        }
+
+        return centroids;
+    }
+
+    /**
+     * Runs one iteration: processes a new sample with the centroids of the last
+     * iteration and computes the next centroids and their bounds.
+     *
+     * @return true if the round has converged
+     */
+    protected boolean iterate( ) throws Exception
+    {
+        S is = stats.get( stats.size( ) - 1 );
+
+        long target;
+        if ( !batch && iterationSizes != null && iterations <= iterationSizes.length )
+        {
+            double size = Math.ceil( iterationSizes[iterations - 1] );
+            target = Double.isNaN( size ) ? Long.MAX_VALUE : ( long ) size;
+        }
+        else
+        {
+            target = batch ? maxPerIteration : sampleSize;
+        }
+        target = Math.max( 1, Math.min( target, maxPerIteration ) );
+
+        processSample( is, target );
+
+        S newIs = next( is );
+        stats.add( newIs );
+        newIs.checkConvergence( is, convergeDelta );
+
+        if ( batch || allowBadConverge )
+        {
+            return newIs.isWouldConverge( );
+        }
+        return newIs.isGuaranteeIDConverge( ) || ( newIs.isConvergeVF( ) && is.isConvergeVF( ) );
+    }
+
+    /**
+     * Processes the first target examples of the data set (or all of them if there
+     * are fewer) into is. Blocks of examples are split between the threads, each
+     * processing its rows into its own partial statistics, while the next block is
+     * read.
+     */
+    protected void processSample( S is, long target ) throws Exception
+    {
+        int numTasks = numThreads > 0 ? numThreads : Runtime.getRuntime( ).availableProcessors( );
+        List<S> partials = new ArrayList<S>( numTasks );
+        for ( int t = 0 ; t < numTasks ; t++ )
+        {
+            partials.add( is.newPartial( ) );
+        }
+
+        source.rewind( );
+        long remaining = target;
+        int want = ( int ) Math.min( blockSize, remaining );
+        int count = source.read( blocks[0], want );
+        remaining -= count;
+        passExhausted = count < want;
+
+        int current = 0;
+        while ( count > 0 )
+        {
+            List<Future<Void>> futures = submitProcess( is, blocks[current], count, partials );
+
+            // read the next block while this one is processed
+            int nextCount = 0;
+            if ( !passExhausted && remaining > 0 )
+            {
+                want = ( int ) Math.min( blockSize, remaining );
+                nextCount = source.read( blocks[1 - current], want );
+                remaining -= nextCount;
+                passExhausted = nextCount < want;
+            }
+
+            for ( Future<Void> future : futures )
+            {
+                future.get( );
+            }
+
+            examplesRead += count;
+            current = 1 - current;
+            count = nextCount;
+        }
+
+        for ( S partial : partials )
+        {
+            is.merge( partial );
+        }
+
+        // a pass which ran out of examples has measured the data set
+        if ( passExhausted && dbSize < 0 )
+        {
+            dbSize = is.getCount( );
+        }
+    }
+
+    private List<Future<Void>> submitProcess( final S is, final double[] block, int count, List<S> partials )
+    {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>( partials.size( ) );
+        int chunk = ( count + partials.size( ) - 1 ) / partials.size( );
+        for ( int t = 0 ; t < partials.size( ) ; t++ )
+        {
+            final int first = t * chunk;
+            final int size = Math.min( chunk, count - first );
+            if ( size <= 0 ) break;
+
+            final S partial = partials.get( t );
+            futures.add( getExecutor( ).submit( new Callable<Void>( )
+            {
+                @Override
+                public Void call( )
+                {
+                    normalize( block, first, size );
+                    process( is, block, first, size, partial );
+                    return null;
+                }
+            } ) );
+        }
+        return futures;
+    }
+
+    /**
+     * @return true if count examples is the whole data set (false while its size is unknown)
+     */
+    protected boolean isWholeDataSet( long count )
+    {
+        return dbSize >= 0 && count >= dbSize;
+    }
+
+    /**
+     * Chooses the sample sizes of the next round: re-estimates the number of
+     * iterations and the sample size if the round converged with a bound, and
+     * distributes the examples between the iterations of the next round in
+     * proportion to their contributions to the error bound.
+     */
+    protected void nextSampleSize( S thisIs )
+    {
+        if ( thisIs.isFoundBound( ) && thisIs.isGuaranteeIDConverge( ) )
+        {
+            // re-estimate l, update effective delta
+            iterationEstimate = ( int ) ( iterations * 1.5 );
+
+            double lastDelta = neededDelta;
+            neededDelta = neededDelta( iterationEstimate );
+
+            long increment = ( long ) ( Math.pow( thisIs.getMaxEkd( ) / targetEkd, 2 ) * ( Math.log( 2.0 / neededDelta ) / Math.log( 2.0 / lastDelta ) ) * sampleSize * 1.1 );
+            sampleSize = increment > sampleSize ? sampleSize + increment : sampleSize * 2;
+            sampleSize = Math.min( sampleSize, maxPerIteration );
+        }
+        else
+        {
+            sampleSize *= 2;
+        }
+
+        iterationSizes = null;
+        if ( !batch && thisIs.isFoundBound( ) )
+        {
+            double[] sizes = calculateExamplesPerIteration( );
+
+            double sum = 0;
+            for ( double size : sizes )
+            {
+                sum += size;
+            }
+
+            if ( dbSize >= 0 && sum > ( double ) dbSize * sizes.length )
+            {
+                // too many examples are needed, go on to a final round with the whole data set
+                sampleSize = dbSize + 1;
+            }
+            else
+            {
+                // use the sizes only if they total more examples than the sample size,
+                // otherwise use them as the fractions of sampleSize * l to use in each iteration
+                if ( sum < ( double ) sampleSize * sizes.length )
+                {
+                    for ( int i = 0 ; i < sizes.length ; i++ )
+                    {
+                        sizes[i] = sizes[i] / sum * sampleSize * sizes.length;
+                    }
+                }
+                iterationSizes = sizes;
+            }
+        }
+    }
+
+    /**
+     * @return a bound on the total squared distance between the infinite data
+     *         centroids the iterations would converge to and those of the last iteration
+     */
+    protected double calculateErrorBound( )
+    {
+        S isL = stats.get( stats.size( ) - 1 );
+
+        // find the error from the final iteration
+        double maxError = 0;
+        for ( double bound : isL.getLastBound( ) )
+        {
+            maxError += bound * bound;
+        }
+
+        if ( !allowBadConverge )
+        {
+            maxError = Math.max( maxError, calculateEarlyBound( ) );
+        }
+
+        return maxError;
+    }
+
+    /**
+     * @return the largest squared distance between the last centroids and the
+     *         (bounded) centroids of an earlier iteration at which the iterations
+     *         on infinite data might already have converged
+     */
+    protected double calculateEarlyBound( )
+    {
+        S isL = stats.get( stats.size( ) - 1 );
+        double[] last = isL.getCentroids( );
+
+        double maxError = 0;
+        for ( S isI : stats )
+        {
+            if ( !isI.isPossibleIDConverge( ) ) continue;
+
+            double[] centroids = isI.getCentroids( );
+            double error = 0;
+            for ( int i = 0 ; i < numClusters ; i++ )
+            {
+                for ( int j = 0 ; j < dimensions ; j++ )
+                {
+                    int index = i * dimensions + j;
+                    double bound = last[index] - centroids[index] + isI.getErrorBound( i, j );
+                    error += bound * bound;
+                }
+            }
+
+            maxError = Math.max( maxError, error );
+        }
+
+        return maxError;
+    }
+
+    protected ExecutorService getExecutor( )
+    {
+        if ( executor == null )
+        {
+            int threads = numThreads > 0 ? numThreads : Runtime.getRuntime( ).availableProcessors( );
+            final String name = getClass( ).getSimpleName( ) + " iteration";
+            executor = Executors.newFixedThreadPool( threads, new ThreadFactory( )
+            {
+                @Override
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, name );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+
+        return executor;
+    }
+
+    /**
+     * Releases the state of a run of buildClusterer (keeping the model).
+     */
+    protected void cleanup( )
+    {
+        if ( executor != null )
+        {
+            executor.shutdown( );
+            executor = null;
+        }
+
+        source = null;
+        stats = null;
+        blocks = null;
+        iterationSizes = null;
+    }
+
+    @Override
+    public int numberOfClusters( ) throws Exception
+    {
+        return numClusters;
+    }
+
+    /**
+     * @return the centroids, in the units of the attributes (indexed by cluster, then dimension)
+     */
+    public double[][] getCentroids( )
+    {
+        double[][] result = new double[numClusters][dimensions];
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            for ( int j = 0 ; j < dimensions ; j++ )
+            {
+                double x = centroids[i * dimensions + j];
+                result[i][j] = !normalize ? x : scale[j] == 0 ? minimum[j] : x / scale[j] + minimum[j];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the bound on the total squared error of the (normalized) centroids
+     */
+    public double getErrorBound( )
+    {
+        return errorBound;
+    }
+
+    /**
+     * @return true if the final centroids satisfy the error bound with confidence 1 - delta
+     */
+    public boolean isFoundBound( )
+    {
+        return foundBound;
+    }
+
+    public int getRounds( )
+    {
+        return rounds;
+    }
+
+    /**
+     * @return the number of iterations of the last round
+     */
+    public int getIterations( )
+    {
+        return iterations;
+    }
+
+    /**
+     * @return the number of examples processed, over all iterations
+     */
+    public long getExamplesRead( )
+    {
+        return examplesRead;
+    }
+
+    /**
+     * Prints the centroids.
+     */
+    @Override
+    public String toString( )
+    {
+        String name = getClass( ).getSimpleName( );
+        if ( centroids == null )
+        {
+            return name + ": No model built yet.";
+        }
+
+        StringBuilder b = new StringBuilder( name + "\n" + name.replaceAll( ".", "=" ) + "\n\n" );
+        b.append( String.format( "Rounds: %d, iterations in the last round: %d, examples processed: %d%n", rounds, iterations, examplesRead ) );
+        if ( foundBound )
+        {
+            b.append( String.format( "Error bound: %.6f (delta %s)%n", errorBound, delta ) );
+        }
+        else
+        {
+            b.append( "No error bound found (the data ran out)\n" );
+        }
+        appendParameters( b );
+
+        b.append( "\nCluster " + centroidsLabel( ) + ":\n" );
+        b.append( String.format( "%-20s", "Attribute" ) );
+        for ( int i = 0 ; i < numClusters ; i++ )
+        {
+            b.append( String.format( "%14s", "Cluster " + i ) );
+        }
+        b.append( '\n' );
+
+        double[][] values = getCentroids( );
+        for ( int j = 0 ; j < dimensions ; j++ )
+        {
+            b.append( String.format( "%-20s", header.attribute( attributes[j] ).name( ) ) );
+            for ( int i = 0 ; i < numClusters ; i++ )
+            {
+                b.append( String.format( "%14.4f", values[i][j] ) );
+            }
+            b.append( '\n' );
+        }
+
+        return b.toString( );
+    }
+
+    /**
+     * Adds the parameters of the model other than the centroids to the
+     * description printed by {@link #toString()}.
+     */
+    protected void appendParameters( StringBuilder b )
+    {
+    }
+
+    /**
+     * @return what {@link #toString()} calls the centroids
+     */
+    protected String centroidsLabel( )
+    {
+        return "centroids";
+    }
+
+    /**
+     * @return the usage message of {@link #run(String[])}
+     */
+    protected String usage( )
+    {
+        return "Usage: " + getClass( ).getSimpleName( ) + " -t <arff file> [-c <class index>] [-N <num clusters>] [clusterer options]";
+    }
+
+    /**
+     * @param classIndex the index of an attribute to ignore, or -1
+     * @param args the command line, from which subclasses may take their own options
+     * @return the source the command line reads an ARFF file through (see {@link #run(String[])})
+     */
+    protected RowSource openArff( File file, int classIndex, String[] args ) throws Exception
+    {
+        return new ArffRowSource( file, classIndex );
+    }
+
+    /**
+     * Clusters an ARFF file, streaming it from disk, and prints the model. Options:
+     * <pre>
+     * -t &lt;file&gt;       the ARFF file (required)
+     * -c &lt;index&gt;      the 1 based index of a class attribute to ignore, or "first" or "last" (default none)
+     * </pre>
+     * followed by the clusterer's options (see {@link #setOptions(String[])}).
+     */
+    protected void run( String[] args ) throws Exception
+    {
+        String dataFile = Utils.getOption( 't', args );
+        if ( dataFile.isEmpty( ) )
+        {
+            System.err.println( usage( ) );
+            return;
+        }
+
+        File file = new File( dataFile );
+        String classIndex = Utils.getOption( 'c', args );
+        int index = -1;
+        if ( classIndex.equals( "first" ) ) index = 0;
+        else if ( classIndex.equals( "last" ) ) index = new ArffRowSource( file, -1 ).getHeader( ).numAttributes( ) - 1;
+        else if ( !classIndex.isEmpty( ) ) index = Integer.parseInt( classIndex ) - 1;
+
+        RowSource source = openArff( file, index, args );
+        setOptions( args );
+
+        long start = System.nanoTime( );
+        buildClusterer( source );
+        long end = System.nanoTime( );
+
+        System.out.println( this );
+        System.out.println( String.format( "Time taken to build model: %.2f seconds", ( end - start ) / 1e9 ) );
+    }
+}